@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.github.enr.markdownj.extras.FileUtils;
+
+/**
+ * Generates the markdown documents used by benchmarks.
+ * Documents are built repeating a fixed set of sections, so they are the same on every run.
+ * 
+ */
+final class Documents {
+
+    private static final String[] SECTIONS = {
+        "Section title\n=============\n\nA paragraph with *emphasis*, **strong text**, `inline code` and a [link](http://example.tld/page \"Title\").\nIt goes on for a second line, with an & and a < to escape.\n\n",
+        "## A list\n\n* first item\n* second item with a [reference link][ref]\n    * nested item\n* third item\n\n1. one\n2. two\n\n",
+        "> A quote,\n> on two lines.\n>\n> > And a nested one.\n\n",
+        "\tlang:java\n\tpublic class Example {\n\t    private final String value = \"<value>\";\n\t}\n\n",
+        "<div class=\"note\">\n<p>An html block, passed as is.</p>\n</div>\n\n",
+        "Some text with an autolink <http://example.tld> and an image ![alt](/img.png).\n\n---\n\n",
+    };
+
+    private static final String LINK_DEFINITIONS = "[ref]: http://example.tld/ref \"Reference\"\n";
+
+    /**
+     * Only static methods.
+     */
+    private Documents() {}
+
+    /**
+     * Returns a markdown document of about the given size.
+     * 
+     * @param size the size in chars.
+     */
+    static String markdown(int size) {
+        StringBuilder sb = new StringBuilder(size + 512);
+        for (int i = 0; sb.length() < size; i++) {
+            sb.append(SECTIONS[i % SECTIONS.length]);
+        }
+        return sb.append(LINK_DEFINITIONS).toString();
+    }
+
+    /**
+     * Returns the size in chars for a symbolic document size.
+     * MarkdownJ render time grows faster than the document size: "huge" is already several seconds per document.
+     */
+    static int size(String name) {
+        if ("small".equals(name)) {
+            return 1024;
+        }
+        if ("medium".equals(name)) {
+            return 16 * 1024;
+        }
+        if ("huge".equals(name)) {
+            return 128 * 1024;
+        }
+        throw new IllegalArgumentException("Unknown document size " + name);
+    }
+
+    /**
+     * Creates a tree of markdown files: 10 files per directory, 10 directories per level.
+     * 
+     * @param root the root directory.
+     * @param files the number of files to create.
+     * @param size the size of every file, in chars.
+     */
+    static void createTree(File root, int files, int size) throws IOException {
+        String content = markdown(size);
+        for (int i = 0; i < files; i++) {
+            StringBuilder path = new StringBuilder(root.getPath());
+            for (int n = i / 10; n > 0; n /= 10) {
+                path.append("/d").append(n % 10);
+            }
+            path.append("/page").append(i).append(".md");
+            FileUtils.writeFile(path.toString(), content, "UTF-8");
+        }
+    }
+
+    /**
+     * Deletes a directory tree.
+     */
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Creates a new empty directory in the system temp directory.
+     */
+    static File tempDirectory(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Error creating temp directory " + dir);
+        }
+        return dir;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.enr.markdownj.extras.FileUtils;
+import com.google.common.io.Files;
+
+/**
+ * Reading and writing files with FileUtils, across encodings and file sizes.
+ * 
+ * The guava* benchmarks measure the stream based Guava calls FileUtils used before switching to FileChannels.
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileUtilsBenchmark {
+
+    @Param({ "UTF-8", "ISO-8859-1", "UTF-16" })
+    public String encoding;
+
+    @Param({ "1", "4096" })
+    public int kilobytes;
+
+    private File directory;
+
+    private String readPath;
+
+    private String writePath;
+
+    private String content;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Documents.tempDirectory("markdownj-fileutils");
+        content = Documents.markdown(kilobytes * 1024);
+        readPath = new File(directory, "read.md").getPath();
+        writePath = new File(directory, "write.md").getPath();
+        FileUtils.writeFile(readPath, content, encoding);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Documents.delete(directory);
+    }
+
+    @Benchmark
+    public String readFileFromPath() {
+        return FileUtils.readFileFromPath(readPath, encoding);
+    }
+
+    @Benchmark
+    public void writeFile() throws IOException {
+        FileUtils.writeFile(writePath, content, encoding);
+    }
+
+    @Benchmark
+    public String guavaReadFile() throws IOException {
+        return Files.toString(new File(readPath), Charset.forName(encoding));
+    }
+
+    @Benchmark
+    public void guavaWriteFile() throws IOException {
+        Files.write(content, new File(writePath), Charset.forName(encoding));
+    }
+}
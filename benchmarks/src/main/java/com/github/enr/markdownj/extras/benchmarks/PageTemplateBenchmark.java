@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.enr.markdownj.extras.MarkdownServiceImpl;
+import com.github.enr.markdownj.extras.PageTemplate;
+
+/**
+ * Wrapping already rendered html in a page with title, path and root, written to a stream.
+ * 
+ * The regex benchmark measures the previous way: header and footer concatenated around the html,
+ * then placeholders replaced by a regular expression pass on the whole page.
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss64m")
+public class PageTemplateBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String HEADER = "<html>\n<head>\n<title>${title}</title>\n<link rel=\"stylesheet\" href=\"${root}/style.css\">\n</head>\n<body>\n";
+
+    private static final String FOOTER = "<p class=\"source\">${path}</p>\n</body>\n</html>\n";
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{(title|path|root)\\}");
+
+    private static final Pattern TITLE = Pattern.compile("<h1[^>]*>(.*?)</h1>");
+
+    @Param({ "small", "medium" })
+    public String size;
+
+    private String html;
+
+    private PageTemplate template;
+
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() {
+        html = new MarkdownServiceImpl().render("# A title\n\n" + Documents.markdown(Documents.size(size)));
+        template = PageTemplate.compile(HEADER + "${content}" + FOOTER, UTF_8);
+        out = new ByteArrayOutputStream(html.length() * 2);
+    }
+
+    @Benchmark
+    public int template() throws IOException {
+        out.reset();
+        template.write(out, html, "sub/dir/page.md");
+        return out.size();
+    }
+
+    @Benchmark
+    public int regex() throws IOException {
+        out.reset();
+        String page = HEADER + html + FOOTER;
+        Matcher title = TITLE.matcher(html);
+        String titleText = title.find() ? title.group(1) : "page";
+        Matcher matcher = PLACEHOLDER.matcher(page);
+        StringBuffer sb = new StringBuffer(page.length());
+        while (matcher.find()) {
+            String name = matcher.group(1);
+            String value = "title".equals(name) ? titleText : ("path".equals(name) ? "sub/dir/page.md" : "../..");
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(value));
+        }
+        matcher.appendTail(sb);
+        out.write(sb.toString().getBytes(UTF_8));
+        return out.size();
+    }
+}
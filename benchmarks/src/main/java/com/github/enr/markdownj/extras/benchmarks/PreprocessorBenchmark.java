@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.enr.markdownj.extras.FileUtils;
+import com.github.enr.markdownj.extras.Preprocessor;
+import com.github.enr.markdownj.extras.Preprocessors;
+
+/**
+ * Preprocessor scanners against the regular expressions they replace, on a medium document and on a source path.
+ * 
+ * The regex benchmarks measure the previous code: two replaceAll for line endings, a multiline
+ * replaceAll for blank lines, replaceFirst with the source directory as pattern for the destination path
+ * and replaceAll for path separators.
+ * The lf documents have nothing to change, the crlf ones have every line ending to change.
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PreprocessorBenchmark {
+
+    private static final Pattern BLANK_LINE = Pattern.compile("^[ \\t]+$", Pattern.MULTILINE);
+
+    private static final String SOURCE = "/home/user/projects/site/src/site/markdown";
+
+    private static final String DESTINATION = "/home/user/projects/site/target/site";
+
+    private static final String PATH = SOURCE + "/guide/configuration/advanced-options.md";
+
+    @Param({ "lf", "crlf" })
+    public String eol;
+
+    private String markdown;
+
+    private final Preprocessor mapping = Preprocessors.replacePrefix(SOURCE + "/", DESTINATION + "/");
+
+    @Setup
+    public void setUp() {
+        markdown = Documents.markdown(Documents.size("medium"));
+        if ("crlf".equals(eol)) {
+            markdown = markdown.replace("\n", "\r\n");
+        }
+    }
+
+    @Benchmark
+    public String eolRegex() {
+        return markdown.replaceAll("\\r\\n", "\n").replaceAll("\\r", "\n");
+    }
+
+    @Benchmark
+    public String eolScanner() {
+        return Preprocessors.apply(Preprocessors.NORMALIZE_EOL, markdown);
+    }
+
+    @Benchmark
+    public String blankLinesRegex() {
+        return BLANK_LINE.matcher(markdown).replaceAll("");
+    }
+
+    @Benchmark
+    public String blankLinesScanner() {
+        return Preprocessors.apply(Preprocessors.CLEAR_BLANK_LINES, markdown);
+    }
+
+    @Benchmark
+    public String pathRegex() {
+        return PATH.replaceAll("\\\\", "/").replaceFirst(SOURCE, DESTINATION);
+    }
+
+    @Benchmark
+    public String pathScanner() {
+        return Preprocessors.apply(mapping, FileUtils.normalizedPath(PATH));
+    }
+}
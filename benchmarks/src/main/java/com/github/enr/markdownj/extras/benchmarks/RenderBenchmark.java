@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.enr.markdownj.extras.MarkdownEngines;
+import com.github.enr.markdownj.extras.MarkdownService;
+import com.github.enr.markdownj.extras.MarkdownServiceImpl;
+
+/**
+ * Rendering of a single document with MarkdownServiceImpl.process(), header and footer included,
+ * by the MarkdownJ and the linear engines.
+ * 
+ * MarkdownJ regular expressions recurse once per line on some blocks: with the default thread
+ * stack the medium and huge documents end in StackOverflowError, so the fork uses a bigger one.
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss64m")
+public class RenderBenchmark {
+
+    @Param({ "small", "medium", "huge" })
+    public String size;
+
+    @Param({ "markdownj", "linear" })
+    public String engine;
+
+    private MarkdownService service;
+
+    @Setup
+    public void setUp() {
+        service = new MarkdownServiceImpl();
+        service.setEngine(MarkdownEngines.forName(engine));
+        service.setHeader("<html>\r\n<body>\r\n");
+        service.setFooter("</body>\r\n</html>\r\n");
+        service.setContent(Documents.markdown(Documents.size(size)));
+    }
+
+    @Benchmark
+    public String process() {
+        return service.process();
+    }
+}
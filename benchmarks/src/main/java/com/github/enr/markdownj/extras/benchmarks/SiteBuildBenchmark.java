@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.enr.markdownj.extras.FileUtils;
+import com.github.enr.markdownj.extras.MarkdownApp;
+
+/**
+ * Full build of a generated site with MarkdownApp.process().
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SiteBuildBenchmark {
+
+    @Param({ "1000" })
+    public int files;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    private File directory;
+
+    private MarkdownApp app;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Documents.tempDirectory("markdownj-site");
+        File source = new File(directory, "source");
+        Documents.createTree(source, files, 4 * 1024);
+        app = new MarkdownApp();
+        app.setSource(FileUtils.normalizedPath(source.getAbsolutePath()));
+        app.setDestination(FileUtils.normalizedPath(new File(directory, "destination").getAbsolutePath()));
+        app.setCharEncoding("UTF-8");
+        app.setThreads(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Documents.delete(directory);
+    }
+
+    @Benchmark
+    public MarkdownApp process() {
+        app.process();
+        return app;
+    }
+}
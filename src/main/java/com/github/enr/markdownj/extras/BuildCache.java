@@ -0,0 +1,354 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.petebevin.markdown.MarkdownProcessor;
+
+/**
+ * A directory of rendered pages addressed by content, shared by the builds of any checkout on the machine.
+ *
+ * The key of a page is the SHA-256 of the engine version, the build configuration (header, footer,
+ * templates, encoding, highlighting), the source path relative to the source directory and the markdown.
+ * A build finding its key in the cache hard-links the cached page to the destination, or copies it
+ * when links are not supported, instead of rendering it.
+ *
+ * Pages enter the cache through a temporary file atomically renamed to the key, so concurrent
+ * processes see complete pages only, and a page removed by another process is a cache miss.
+ * Cached pages are never written: the build removes a destination before writing it, so it doesn't
+ * change a page linked to the cache. Tools changing the generated html in place should not be used with the cache.
+ *
+ * {@link #evict()} removes the least recently used pages when the cache is bigger than its maximum size,
+ * in one process at a time.
+ *
+ */
+public class BuildCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(BuildCache.class);
+
+    /**
+     * Default maximum size of the cached pages, in bytes.
+     */
+    public static final long DEFAULT_MAXIMUM_BYTES = 512L * 1024 * 1024;
+
+    /**
+     * Version of the cache layout and of everything the html depends on besides configuration and markdown.
+     */
+    static final String ENGINE_VERSION = "markdownj-cache 1, markdownj-core " + markdownjVersion() + ", markdownj-extras "
+            + extrasVersion();
+
+    private static final String ENTRIES = "pages";
+
+    private static final String TEMPORARY = "tmp";
+
+    private static final String LOCK = ".lock";
+
+    /**
+     * Temporary files older than this are left by failed processes and are removed by eviction.
+     */
+    private static final long STALE_TEMPORARY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final File directory;
+
+    private final long maximumBytes;
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param directory the cache directory, created if missing.
+     * @param maximumBytes the size of the cached pages above which eviction removes pages.
+     */
+    public BuildCache(File directory, long maximumBytes) {
+        if (maximumBytes < 0) {
+            throw new IllegalArgumentException("maximumBytes must not be negative: " + maximumBytes);
+        }
+        this.directory = directory;
+        this.maximumBytes = maximumBytes;
+    }
+
+    /**
+     * @param markdown the source.
+     * @param path the source path, relative to the source directory.
+     * @param configuration the hash of the build configuration.
+     * @return the key of the page.
+     */
+    public String key(CharSequence markdown, String path, String configuration) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (CharSequence value : new CharSequence[] { ENGINE_VERSION, configuration, path, markdown }) {
+            hasher.putInt(value.length()).putString(value, Charsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Links or copies the cached page to the destination, replacing it.
+     *
+     * @return true if the page was in the cache.
+     */
+    public boolean restore(String key, File destination) {
+        Path entry = entry(key);
+        try {
+            Path target = destination.toPath();
+            Files.createDirectories(target.getParent());
+            Files.deleteIfExists(target);
+            try {
+                Files.createLink(target, entry);
+            } catch (NoSuchFileException e) {
+                throw e;
+            } catch (IOException e) {
+                logger.debug("can't link {}, copying: {}", entry, e.getMessage());
+                copy(entry, target);
+            } catch (UnsupportedOperationException e) {
+                copy(entry, target);
+            }
+            // the modification time orders eviction
+            entry.toFile().setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            return true;
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return false;
+        } catch (IOException e) {
+            logger.debug("cached page {} not restored: {}", key, e.getMessage());
+            misses.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Adds a rendered page to the cache. Errors are logged, a page missing from the cache is only rendered again.
+     *
+     * @param key the key of the page.
+     * @param page the rendered page, copied in the cache.
+     */
+    public void store(String key, File page) {
+        Path entry = entry(key);
+        if (Files.exists(entry)) {
+            return;
+        }
+        Path temporary = null;
+        try {
+            Files.createDirectories(entry.getParent());
+            File temporaryDirectory = new File(directory, TEMPORARY);
+            Files.createDirectories(temporaryDirectory.toPath());
+            temporary = File.createTempFile(key.substring(0, 8), ".html", temporaryDirectory).toPath();
+            Files.copy(page.toPath(), temporary, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temporary = null;
+        } catch (IOException e) {
+            logger.debug("page {} not cached: {}", key, e.getMessage());
+        } finally {
+            if (temporary != null) {
+                temporary.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used pages until the cache is not bigger than its maximum size.
+     * Returns at once if another process is evicting.
+     *
+     * @return the number of removed pages.
+     */
+    public int evict() {
+        if (!directory.isDirectory()) {
+            return 0;
+        }
+        RandomAccessFile lockFile = null;
+        try {
+            lockFile = new RandomAccessFile(new File(directory, LOCK), "rw");
+            FileLock lock = lockFile.getChannel().tryLock();
+            if (lock == null) {
+                return 0;
+            }
+            try {
+                removeStaleTemporaryFiles();
+                return removeLeastRecentlyUsed();
+            } finally {
+                lock.release();
+            }
+        } catch (OverlappingFileLockException e) {
+            // evicting in another thread of this process
+            return 0;
+        } catch (IOException e) {
+            logger.warn("build cache {} not evicted: {}", directory, e.getMessage());
+            return 0;
+        } finally {
+            closeQuietly(lockFile);
+        }
+    }
+
+    private int removeLeastRecentlyUsed() {
+        List<Page> pages = new ArrayList<Page>();
+        long size = 0;
+        File[] buckets = new File(directory, ENTRIES).listFiles();
+        if (buckets != null) {
+            for (File bucket : buckets) {
+                File[] files = bucket.listFiles();
+                for (File file : (files == null) ? new File[0] : files) {
+                    Page page = new Page(file);
+                    pages.add(page);
+                    size += page.length;
+                }
+            }
+        }
+        if (size <= maximumBytes) {
+            return 0;
+        }
+        Collections.sort(pages, new Comparator<Page>() {
+            public int compare(Page p1, Page p2) {
+                return (p1.lastModified < p2.lastModified) ? -1 : ((p1.lastModified == p2.lastModified) ? 0 : 1);
+            }
+        });
+        int removed = 0;
+        for (Page page : pages) {
+            if (size <= maximumBytes) {
+                break;
+            }
+            if (page.file.delete()) {
+                size -= page.length;
+                removed++;
+            }
+        }
+        logger.debug("{} page(s) evicted from build cache {}", removed, directory);
+        return removed;
+    }
+
+    /**
+     * A cached page, with the attributes read once for sorting.
+     */
+    private static final class Page {
+
+        final File file;
+
+        final long length;
+
+        final long lastModified;
+
+        Page(File file) {
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+    }
+
+    private void removeStaleTemporaryFiles() {
+        File[] files = new File(directory, TEMPORARY).listFiles();
+        if (files != null) {
+            long stale = System.currentTimeMillis() - STALE_TEMPORARY_MILLIS;
+            for (File file : files) {
+                if (file.lastModified() < stale) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private Path entry(String key) {
+        return new File(new File(new File(directory, ENTRIES), key.substring(0, 2)), key).toPath();
+    }
+
+    private static void copy(Path entry, Path target) throws IOException {
+        Files.copy(entry, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                logger.debug("error closing lock file", e);
+            }
+        }
+    }
+
+    /**
+     * @return the pages restored from the cache since this instance was created.
+     */
+    public int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the pages looked for and not found since this instance was created.
+     */
+    public int getMisses() {
+        return misses.get();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaximumBytes() {
+        return maximumBytes;
+    }
+
+    private static String markdownjVersion() {
+        InputStream in = MarkdownProcessor.class.getResourceAsStream("/META-INF/maven/com.madgag/markdownj-core/pom.properties");
+        if (in != null) {
+            try {
+                try {
+                    Properties properties = new Properties();
+                    properties.load(in);
+                    if (properties.getProperty("version") != null) {
+                        return properties.getProperty("version");
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                logger.debug("markdownj version not readable: {}", e.getMessage());
+            }
+        }
+        String location = String.valueOf(MarkdownProcessor.class.getProtectionDomain().getCodeSource().getLocation());
+        return location.substring(location.lastIndexOf('/', location.length() - 2) + 1);
+    }
+
+    private static String extrasVersion() {
+        String version = BuildCache.class.getPackage().getImplementationVersion();
+        return (version == null) ? "dev" : version;
+    }
+}
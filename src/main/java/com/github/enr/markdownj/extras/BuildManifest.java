@@ -0,0 +1,256 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+/**
+ * The state of an incremental build, persisted in the destination directory.
+ *
+ * For every processed source it records size, last modification time and content hash,
+ * together with the path of the generated file.
+ * The configuration hash covers everything else the output depends on (header, footer,
+ * code block template, encoding): when it changes, every file has to be processed again.
+ *
+ * The file format is plain text, one tab separated entry per line, sorted by source path.
+ *
+ */
+public class BuildManifest {
+
+    /**
+     * Name of the manifest file, in the destination directory.
+     */
+    public static final String FILE_NAME = ".markdownj-manifest";
+
+    private static final String VERSION = "markdownj-manifest 1";
+
+    private static final String SEPARATOR = "\t";
+
+    private final String configuration;
+
+    /**
+     * Time the build started, in millis.
+     * Sources modified after this time can't be trusted by size and time only.
+     */
+    private final long started;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    public BuildManifest(String configuration, long started) {
+        this.configuration = configuration;
+        this.started = started;
+    }
+
+    /**
+     * A processed source file.
+     */
+    public static class Entry {
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final String hash;
+
+        private final String output;
+
+        public Entry(long size, long lastModified, String hash, String output) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.output = output;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * @return the generated file path, relative to the destination directory.
+         */
+        public String getOutput() {
+            return output;
+        }
+    }
+
+    /**
+     * Loads a manifest from file.
+     *
+     * @param file the manifest file.
+     * @return the loaded manifest, or null if the file doesn't exist or is not a valid manifest.
+     */
+    public static BuildManifest load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = Files.newReader(file, Charsets.UTF_8);
+            String[] head = split(reader.readLine(), 3);
+            if ((head == null) || !VERSION.equals(head[0])) {
+                return null;
+            }
+            BuildManifest manifest = new BuildManifest(head[1], Long.parseLong(head[2]));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = split(line, 5);
+                if (fields == null) {
+                    return null;
+                }
+                manifest.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3], fields[4]));
+            }
+            return manifest;
+        } catch (IOException e) {
+            return null;
+        } catch (NumberFormatException e) {
+            return null;
+        } finally {
+            Closeables.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Writes this manifest to file, replacing the existing one only when completely written.
+     *
+     * @param file the manifest file.
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        BufferedWriter writer = Files.newWriter(temp, Charsets.UTF_8);
+        try {
+            writer.write(VERSION + SEPARATOR + configuration + SEPARATOR + started);
+            writer.newLine();
+            for (Map.Entry<String, Entry> e : new TreeMap<String, Entry>(entries).entrySet()) {
+                Entry entry = e.getValue();
+                writer.write(e.getKey() + SEPARATOR + entry.getSize() + SEPARATOR + entry.getLastModified() + SEPARATOR + entry.getHash()
+                        + SEPARATOR + entry.getOutput());
+                writer.newLine();
+            }
+        } finally {
+            writer.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Error replacing " + file);
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Error writing " + file);
+        }
+    }
+
+    /**
+     * Returns true if the source file can be considered unchanged without reading it.
+     *
+     * @param entry the entry recorded for the source.
+     * @param source the source file.
+     */
+    public boolean isUnchanged(Entry entry, File source) {
+        return isUnchanged(entry, source.length(), source.lastModified());
+    }
+
+    /**
+     * Returns true if a source with the given attributes can be considered unchanged without reading it.
+     *
+     * @param entry the entry recorded for the source.
+     * @param size the size of the source.
+     * @param lastModified the modification time of the source, in milliseconds.
+     */
+    public boolean isUnchanged(Entry entry, long size, long lastModified) {
+        // a file modified while the previous build was running could have changed without changing time
+        return (entry.getSize() == size) && (entry.getLastModified() == lastModified) && (lastModified < started);
+    }
+
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    public Entry get(String source) {
+        return entries.get(source);
+    }
+
+    public void put(String source, Entry entry) {
+        entries.put(source, entry);
+    }
+
+    public Entry remove(String source) {
+        return entries.remove(source);
+    }
+
+    public Set<String> getSources() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * Hashes the content of a source file.
+     *
+     * @param content the decoded file content.
+     * @return the hash, as hex string.
+     */
+    public static String contentHash(CharSequence content) {
+        return Hashing.sha1().hashString(content, Charsets.UTF_8).toString();
+    }
+
+    /**
+     * Hashes the build configuration.
+     *
+     * @param values every value the output depends on, null allowed.
+     * @return the hash, as hex string.
+     */
+    public static String configurationHash(String... values) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (String value : values) {
+            if (value == null) {
+                hasher.putBoolean(false);
+            } else {
+                hasher.putBoolean(true).putInt(value.length()).putString(value, Charsets.UTF_8);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    private static String[] split(String line, int expected) {
+        if (line == null) {
+            return null;
+        }
+        String[] fields = line.split(SEPARATOR, -1);
+        return (fields.length == expected) ? fields : null;
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and sizes of the files processed in a build, written as a JSON report.
+ *
+ * Recording a file costs a few calls to System.nanoTime and a lock-free queue insertion,
+ * so metrics can be collected in every build. Render latencies are also counted in a
+ * log-linear histogram, whose percentiles are within 1/16 of the recorded values.
+ *
+ * Times in the report are in microseconds, sizes in bytes.
+ *
+ */
+public class BuildMetrics {
+
+    /**
+     * Number of documents listed as slowest in the report.
+     */
+    public static final int SLOWEST = 10;
+
+    private final long start = System.nanoTime();
+
+    private volatile long end;
+
+    private final Queue<Document> documents = new ConcurrentLinkedQueue<Document>();
+
+    private final AtomicInteger unchanged = new AtomicInteger();
+
+    private final AtomicInteger cached = new AtomicInteger();
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private final Histogram renderLatency = new Histogram();
+
+    /**
+     * Timings and sizes of a rendered file.
+     */
+    public static class Document {
+
+        private final String path;
+
+        private final long inputBytes;
+
+        private final long outputBytes;
+
+        private final long readNanos;
+
+        private final long renderNanos;
+
+        private final long writeNanos;
+
+        public Document(String path, long inputBytes, long outputBytes, long readNanos, long renderNanos, long writeNanos) {
+            this.path = path;
+            this.inputBytes = inputBytes;
+            this.outputBytes = outputBytes;
+            this.readNanos = readNanos;
+            this.renderNanos = renderNanos;
+            this.writeNanos = writeNanos;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getInputBytes() {
+            return inputBytes;
+        }
+
+        public long getOutputBytes() {
+            return outputBytes;
+        }
+
+        public long getReadNanos() {
+            return readNanos;
+        }
+
+        public long getRenderNanos() {
+            return renderNanos;
+        }
+
+        public long getWriteNanos() {
+            return writeNanos;
+        }
+
+        public long getTotalNanos() {
+            return readNanos + renderNanos + writeNanos;
+        }
+    }
+
+    public void add(Document document) {
+        documents.add(document);
+        renderLatency.record(document.getRenderNanos());
+    }
+
+    /**
+     * Counts a file read but not rendered, because the html of the previous build is still valid.
+     */
+    public void addUnchanged() {
+        unchanged.incrementAndGet();
+    }
+
+    /**
+     * Counts a file read but not rendered, because its html was in the build cache.
+     */
+    public void addCached() {
+        cached.incrementAndGet();
+    }
+
+    public void addFailure() {
+        failures.incrementAndGet();
+    }
+
+    /**
+     * Marks the end of the build: the elapsed time and the throughput are computed until now.
+     */
+    public void stop() {
+        end = System.nanoTime();
+    }
+
+    /**
+     * @return the rendered documents, sorted by path.
+     */
+    public List<Document> getDocuments() {
+        List<Document> sorted = new ArrayList<Document>(documents);
+        Collections.sort(sorted, new Comparator<Document>() {
+            public int compare(Document d1, Document d2) {
+                return d1.getPath().compareTo(d2.getPath());
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * @return at most {@link #SLOWEST} documents, sorted by decreasing total time.
+     */
+    public List<Document> getSlowest() {
+        List<Document> sorted = new ArrayList<Document>(documents);
+        Collections.sort(sorted, new Comparator<Document>() {
+            public int compare(Document d1, Document d2) {
+                long t1 = d1.getTotalNanos();
+                long t2 = d2.getTotalNanos();
+                return (t1 > t2) ? -1 : ((t1 == t2) ? d1.getPath().compareTo(d2.getPath()) : 1);
+            }
+        });
+        return sorted.subList(0, Math.min(SLOWEST, sorted.size()));
+    }
+
+    public long getElapsedNanos() {
+        return ((end == 0) ? System.nanoTime() : end) - start;
+    }
+
+    /**
+     * @param percentile a value between 0 and 100.
+     * @return the render time not exceeded by the given percentage of documents, in nanoseconds.
+     */
+    public long getRenderPercentile(double percentile) {
+        return renderLatency.percentile(percentile);
+    }
+
+    /**
+     * Returns the report as a JSON object.
+     */
+    public String toJson() {
+        List<Document> all = getDocuments();
+        long inputBytes = 0;
+        long outputBytes = 0;
+        long readNanos = 0;
+        long renderNanos = 0;
+        long writeNanos = 0;
+        for (Document document : all) {
+            inputBytes += document.getInputBytes();
+            outputBytes += document.getOutputBytes();
+            readNanos += document.getReadNanos();
+            renderNanos += document.getRenderNanos();
+            writeNanos += document.getWriteNanos();
+        }
+        double seconds = Math.max(getElapsedNanos(), 1) / 1e9;
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"files\": ").append(all.size()).append(",\n");
+        json.append("  \"unchanged\": ").append(unchanged.get()).append(",\n");
+        json.append("  \"cached\": ").append(cached.get()).append(",\n");
+        json.append("  \"failures\": ").append(failures.get()).append(",\n");
+        json.append("  \"elapsedMicros\": ").append(micros(getElapsedNanos())).append(",\n");
+        json.append("  \"inputBytes\": ").append(inputBytes).append(",\n");
+        json.append("  \"outputBytes\": ").append(outputBytes).append(",\n");
+        json.append("  \"readMicros\": ").append(micros(readNanos)).append(",\n");
+        json.append("  \"renderMicros\": ").append(micros(renderNanos)).append(",\n");
+        json.append("  \"writeMicros\": ").append(micros(writeNanos)).append(",\n");
+        json.append("  \"throughput\": { \"filesPerSecond\": ").append(decimal(all.size() / seconds));
+        json.append(", \"megabytesPerSecond\": ").append(decimal(inputBytes / seconds / (1024 * 1024))).append(" },\n");
+        json.append("  \"renderLatencyMicros\": { \"p50\": ").append(micros(getRenderPercentile(50)));
+        json.append(", \"p95\": ").append(micros(getRenderPercentile(95)));
+        json.append(", \"p99\": ").append(micros(getRenderPercentile(99)));
+        json.append(", \"max\": ").append(micros(getRenderPercentile(100))).append(" },\n");
+        json.append("  \"slowest\": ");
+        appendDocuments(json, getSlowest());
+        json.append(",\n  \"documents\": ");
+        appendDocuments(json, all);
+        json.append("\n}\n");
+        return json.toString();
+    }
+
+    private void appendDocuments(StringBuilder json, List<Document> list) {
+        json.append('[');
+        for (int i = 0; i < list.size(); i++) {
+            Document document = list.get(i);
+            json.append((i == 0) ? "\n" : ",\n");
+            json.append("    { \"path\": ");
+            appendString(json, document.getPath());
+            json.append(", \"inputBytes\": ").append(document.getInputBytes());
+            json.append(", \"outputBytes\": ").append(document.getOutputBytes());
+            json.append(", \"readMicros\": ").append(micros(document.getReadNanos()));
+            json.append(", \"renderMicros\": ").append(micros(document.getRenderNanos()));
+            json.append(", \"writeMicros\": ").append(micros(document.getWriteNanos()));
+            json.append(", \"totalMicros\": ").append(micros(document.getTotalNanos())).append(" }");
+        }
+        json.append(list.isEmpty() ? "]" : "\n  ]");
+    }
+
+    static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static String decimal(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    /**
+     * A lock-free histogram of positive values: 16 linear buckets for each power of two.
+     */
+    static final class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 4;
+
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            long v = Math.max(value, 0);
+            counts.incrementAndGet(index(v));
+            long current = max.get();
+            while ((v > current) && !max.compareAndSet(current, v)) {
+                current = max.get();
+            }
+        }
+
+        /**
+         * @return the highest value in the bucket reaching the given percentile, at most the max recorded value.
+         */
+        long percentile(double percentile) {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+            long cumulative = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                cumulative += counts.get(i);
+                if (cumulative >= rank) {
+                    return Math.min(highestValue(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return (shift * SUB_BUCKETS) + (int) (value >>> shift);
+        }
+
+        static long highestValue(int index) {
+            if (index < 2 * SUB_BUCKETS) {
+                return index;
+            }
+            int shift = (index / SUB_BUCKETS) - 1;
+            long lowest = (long) (index - (shift * SUB_BUCKETS)) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+    }
+
+    /**
+     * Counts the bytes written to a stream and the time spent writing them.
+     */
+    static final class TimedOutputStream extends FilterOutputStream {
+
+        private long bytes;
+
+        private long nanos;
+
+        TimedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long started = System.nanoTime();
+            out.write(b);
+            nanos += System.nanoTime() - started;
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long started = System.nanoTime();
+            out.write(b, off, len);
+            nanos += System.nanoTime() - started;
+            bytes += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long started = System.nanoTime();
+            out.flush();
+            nanos += System.nanoTime() - started;
+        }
+
+        @Override
+        public void close() throws IOException {
+            long started = System.nanoTime();
+            out.close();
+            nanos += System.nanoTime() - started;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        long getNanos() {
+            return nanos;
+        }
+    }
+}
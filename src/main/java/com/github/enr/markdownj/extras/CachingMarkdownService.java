@@ -0,0 +1,323 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * A MarkdownService caching the html rendered by another one.
+ *
+ * Rendered pages are kept in memory keyed by the SHA-256 of the markdown and by the code block template.
+ * The cache is bounded by the total size of the cached html, evicting least recently used pages,
+ * and is split in segments, so concurrent reads don't contend on a single lock.
+ * Setting header, footer, page template or code highlighter empties the cache.
+ * Documents are not cached while a search index or a link checker is set, as every rendering adds to them,
+ * nor when escaped by the watchdog, as a later rendering could be within budget.
+ *
+ * As for MarkdownServiceImpl, the service should be configured before being shared by concurrent threads.
+ *
+ */
+public class CachingMarkdownService implements MarkdownService {
+
+    /**
+     * Estimated size of a cache entry, excluding the html.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final MarkdownService delegate;
+
+    private final Cache<Key, String> cache;
+
+    /**
+     * The markdown to transform, for the process methods.
+     */
+    private String content;
+
+    private String codeBlockTemplate;
+
+    private String encoding;
+
+    private Charset charset = Charset.defaultCharset();
+
+    private SearchIndex searchIndex;
+
+    private LinkChecker linkChecker;
+
+    private RenderWatchdog watchdog = RenderWatchdog.UNLIMITED;
+
+    /**
+     * Carries a page escaped by the watchdog out of the cache loader, so it is not cached.
+     */
+    private static final class EscapedPage extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String html;
+
+        EscapedPage(String html) {
+            super(null, null, false, false);
+            this.html = html;
+        }
+    }
+
+    /**
+     * @param delegate the service actually rendering html.
+     * @param maximumBytes the maximum size of the cached html, in bytes.
+     */
+    public CachingMarkdownService(MarkdownService delegate, long maximumBytes) {
+        this.delegate = delegate;
+        this.cache = CacheBuilder.newBuilder().maximumWeight(maximumBytes).weigher(new Weigher<Key, String>() {
+            public int weigh(Key key, String html) {
+                return ENTRY_OVERHEAD + (2 * html.length());
+            }
+        }).recordStats().build();
+    }
+
+    /**
+     * Cache key: hash and length of the markdown, the code block template and the source path.
+     */
+    private static final class Key {
+
+        private final HashCode hash;
+
+        private final int length;
+
+        private final String codeBlockTemplate;
+
+        private final String path;
+
+        Key(CharSequence markdown, String codeBlockTemplate, String path) {
+            this.hash = Hashing.sha256().hashString(markdown, Charsets.UTF_8);
+            this.length = markdown.length();
+            this.codeBlockTemplate = codeBlockTemplate;
+            this.path = path;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash.asInt();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return (length == other.length) && hash.equals(other.hash) && Objects.equal(codeBlockTemplate, other.codeBlockTemplate)
+                    && Objects.equal(path, other.path);
+        }
+    }
+
+    public String process() {
+        return render(content);
+    }
+
+    public void process(Writer writer) throws IOException {
+        render(content, writer);
+    }
+
+    public void process(OutputStream out) throws IOException {
+        render(content, out);
+    }
+
+    public String render(CharSequence markdown) {
+        return render(markdown, (String) null);
+    }
+
+    public String render(CharSequence markdown, final String path) {
+        final CharSequence text = (markdown == null) ? "" : markdown;
+        if ((searchIndex != null) || (linkChecker != null)) {
+            return delegate.render(text, path);
+        }
+        try {
+            return cache.get(new Key(text, codeBlockTemplate, path), new Callable<String>() {
+                public String call() throws EscapedPage {
+                    String html = delegate.render(text, path);
+                    if (watchdog.isLastEscaped()) {
+                        throw new EscapedPage(html);
+                    }
+                    return html;
+                }
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof EscapedPage) {
+                return ((EscapedPage) e.getCause()).html;
+            }
+            throw Throwables.propagate(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    public void render(CharSequence markdown, Writer writer) throws IOException {
+        writer.write(render(markdown));
+    }
+
+    public void render(CharSequence markdown, OutputStream out) throws IOException {
+        render(markdown, null, out);
+    }
+
+    public void render(CharSequence markdown, String path, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, charset);
+        writer.write(render(markdown, path));
+        writer.flush();
+    }
+
+    /**
+     * @return hits, misses and evictions since the service creation.
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return the number of cached pages.
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Removes every cached page.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+    }
+
+    public void setContentPath(String path) {
+        content = FileUtils.readFileFromPath(path, encoding);
+    }
+
+    public void setContentUrl(URL url) {
+        content = FileUtils.readFileFromUrl(url, encoding);
+    }
+
+    public void setHeaderPath(String path) {
+        delegate.setHeaderPath(path);
+        cache.invalidateAll();
+    }
+
+    public void setFooterPath(String path) {
+        delegate.setFooterPath(path);
+        cache.invalidateAll();
+    }
+
+    public void setHeaderUrl(URL url) {
+        delegate.setHeaderUrl(url);
+        cache.invalidateAll();
+    }
+
+    public void setFooterUrl(URL url) {
+        delegate.setFooterUrl(url);
+        cache.invalidateAll();
+    }
+
+    public void setHeader(String header) {
+        delegate.setHeader(header);
+        cache.invalidateAll();
+    }
+
+    public void setFooter(String footer) {
+        delegate.setFooter(footer);
+        cache.invalidateAll();
+    }
+
+    public void setTemplate(String template) {
+        delegate.setTemplate(template);
+        cache.invalidateAll();
+    }
+
+    public void setTemplatePath(String path) {
+        delegate.setTemplatePath(path);
+        cache.invalidateAll();
+    }
+
+    public void setCodeBlockTemplate(String codeBlockTemplate) {
+        delegate.setCodeBlockTemplate(codeBlockTemplate);
+        this.codeBlockTemplate = codeBlockTemplate;
+    }
+
+    public void setCodeHighlighter(CodeHighlighter highlighter) {
+        delegate.setCodeHighlighter(highlighter);
+        cache.invalidateAll();
+    }
+
+    public void setPreprocessor(Preprocessor preprocessor) {
+        delegate.setPreprocessor(preprocessor);
+        cache.invalidateAll();
+    }
+
+    public void setEncoding(String encoding) {
+        delegate.setEncoding(encoding);
+        this.encoding = encoding;
+        this.charset = FileUtils.charsetForNameOrDefault(encoding);
+    }
+
+    public void setChunkSize(int chunkSize) {
+        delegate.setChunkSize(chunkSize);
+    }
+
+    public void setEngine(MarkdownEngine engine) {
+        delegate.setEngine(engine);
+        cache.invalidateAll();
+    }
+
+    public void setWatchdog(RenderWatchdog watchdog) {
+        delegate.setWatchdog(watchdog);
+        this.watchdog = (watchdog == null) ? RenderWatchdog.UNLIMITED : watchdog;
+        cache.invalidateAll();
+    }
+
+    public void setSearchIndex(SearchIndex searchIndex) {
+        delegate.setSearchIndex(searchIndex);
+        this.searchIndex = searchIndex;
+        // pages cached with an index have ids in their headings
+        cache.invalidateAll();
+    }
+
+    public void setLinkChecker(LinkChecker linkChecker) {
+        delegate.setLinkChecker(linkChecker);
+        this.linkChecker = linkChecker;
+        cache.invalidateAll();
+    }
+
+    public void setHeadingIds(boolean headingIds) {
+        delegate.setHeadingIds(headingIds);
+        cache.invalidateAll();
+    }
+}
@@ -0,0 +1,511 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders a big markdown document splitting it in chunks, transformed in parallel and joined in order.
+ *
+ * The document is split only before lines that MarkdownJ can't join to the previous block:
+ * a line starting a paragraph or a header after a blank line, outside html blocks and comments,
+ * not next to a link definition nor to a header marker alone on its line, and not after a list with quoted lines.
+ * Some MarkdownJ quirks join blocks far apart, so the document is not split before a stray closing tag,
+ * nor between a plain code block and a following <code>lang:</code> code block.
+ *
+ * Reference link definitions are collected from the whole document first and given to every chunk.
+ * Documents where that is ambiguous (the same id defined twice, definitions in html blocks) or
+ * rendered with a custom code block template are transformed by a single processor.
+ * The default template marked for highlighting makes the same blocks, so it doesn't prevent splitting.
+ *
+ */
+final class ChunkedRenderer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedRenderer.class);
+
+    /**
+     * Tags of the html blocks MarkdownJ leaves untouched, closed by a line starting with the closing tag.
+     */
+    private static final Set<String> BLOCK_TAGS = new HashSet<String>(Arrays.asList("p", "div", "h1", "h2", "h3", "h4", "h5", "h6",
+            "blockquote", "pre", "table", "dl", "ol", "ul", "script", "noscript", "form", "fieldset", "iframe", "math"));
+
+    /**
+     * Tags of the html blocks MarkdownJ leaves untouched, closed by any line ending with the closing tag.
+     */
+    private static final Set<String> INLINE_BLOCK_TAGS = new HashSet<String>(Arrays.asList("ins", "del"));
+
+    /**
+     * The pattern used by MarkdownJ to find link definitions.
+     */
+    private static final Pattern LINK_DEFINITION = Pattern.compile(
+            "^[ ]{0,3}\\[(.+)\\]:[ \\t]*\\n?[ \\t]*<?(\\S+?)>?[ \\t]*\\n?[ \\t]*(?:[\"(](.+?)[\")][ \\t]*)?(?:\\n+|\\Z)", Pattern.MULTILINE);
+
+    private static final Pattern LIST_ITEM = Pattern.compile("[ \\t]*(?:[-+*]|\\d+[.])[ \\t]+");
+
+    private static final Preprocessor NORMALIZE = Preprocessors.chain(Preprocessors.NORMALIZE_EOL, Preprocessors.CLEAR_BLANK_LINES);
+
+    private static final int TAB_WIDTH = 4;
+
+    private static final String LANG_IDENTIFIER = "lang:";
+
+    /**
+     * Only static methods.
+     */
+    private ChunkedRenderer() {}
+
+    /**
+     * Pool shared by every chunked rendering, created on first use.
+     */
+    private static final class Pool {
+        static final ForkJoinPool INSTANCE = new ForkJoinPool();
+    }
+
+    /**
+     * Transforms markdown text in html.
+     *
+     * @param text the markdown to transform, not null.
+     * @param chunkSize the minimum length of a chunk.
+     * @param codeBlockTemplate the template for code blocks, null means MarkdownJ default.
+     * @return the html, as returned by MarkdownProcessor.markdown
+     */
+    static String markdown(String text, int chunkSize, String codeBlockTemplate) {
+        if ((codeBlockTemplate != null) && !codeBlockTemplate.equals(MarkdownProcessors.DEFAULT_CODE_BLOCK_TEMPLATE)
+                && !codeBlockTemplate.equals(CodeHighlighter.MARKING_DEFAULT_TEMPLATE)) {
+            return MarkdownProcessors.markdown(text, codeBlockTemplate);
+        }
+        String normalized = normalize(text);
+        Chunks chunks = split(normalized, chunkSize);
+        if (chunks.size() < 2) {
+            return MarkdownProcessors.markdown(text, codeBlockTemplate);
+        }
+        Map<String, Object> linkDefinitions = linkDefinitions(normalized, chunks);
+        if (linkDefinitions == null) {
+            return MarkdownProcessors.markdown(text, codeBlockTemplate);
+        }
+        logger.debug("rendering {} chars in {} chunks", normalized.length(), chunks.size());
+        String[] results = new String[chunks.size()];
+        Pool.INSTANCE.invoke(new RenderTask(chunks.texts(normalized), results, 0, results.length, codeBlockTemplate, linkDefinitions));
+        return join(results);
+    }
+
+    /**
+     * Normalizes line endings and blank lines, as MarkdownJ does before anything else.
+     */
+    static String normalize(String text) {
+        return Preprocessors.apply(NORMALIZE, text);
+    }
+
+    /**
+     * Chunk offsets in a document, and the html blocks found splitting it.
+     */
+    static final class Chunks {
+
+        private final List<Integer> starts = new ArrayList<Integer>();
+
+        /**
+         * Start and end offsets of html blocks and comments, merged when overlapping.
+         */
+        private final List<int[]> htmlBlocks = new ArrayList<int[]>();
+
+        /**
+         * Start and end offsets of link definitions.
+         */
+        private final List<int[]> definitions = new ArrayList<int[]>();
+
+        int size() {
+            return starts.size();
+        }
+
+        List<String> texts(String text) {
+            List<String> texts = new ArrayList<String>(starts.size());
+            for (int i = 0; i < starts.size(); i++) {
+                int end = (i + 1 < starts.size()) ? starts.get(i + 1) : text.length();
+                texts.add(text.substring(starts.get(i), end));
+            }
+            return texts;
+        }
+
+        private void addHtmlBlock(int start, int end) {
+            int[] last = htmlBlocks.isEmpty() ? null : htmlBlocks.get(htmlBlocks.size() - 1);
+            if ((last != null) && (start <= last[1])) {
+                last[1] = Math.max(last[1], end);
+            } else {
+                htmlBlocks.add(new int[] { start, end });
+            }
+        }
+    }
+
+    /**
+     * Splits a normalized document in chunks at least chunkSize long, the last one excepted.
+     */
+    static Chunks split(String text, int chunkSize) {
+        Chunks chunks = new Chunks();
+        List<Integer> candidates = new ArrayList<Integer>();
+        Map<String, Integer> closings = new HashMap<String, Integer>();
+        Set<Integer> blockEnds = new HashSet<Integer>();
+        int length = text.length();
+        // no split before this offset: it is the end of an html block
+        int htmlEnd = 0;
+        int firstPlainCode = -1;
+        boolean previousBlank = true;
+        boolean previousIndented = false;
+        boolean lastHeaderMarker = false;
+        boolean listBlock = false;
+        // the block at the next candidate could be joined to the one before
+        boolean joinNext = false;
+        int blockStart = 0;
+        int firstQuotedList = -1;
+        Matcher definition = LINK_DEFINITION.matcher(text);
+        while (definition.find()) {
+            chunks.definitions.add(new int[] { definition.start(), definition.end() });
+        }
+        // a definition is removed with the following blank lines, joining the blocks around it
+        int nextDefinition = 0;
+        int definitionEnd = -1;
+        int start = 0;
+        while (start < length) {
+            int newline = text.indexOf('\n', start);
+            int end = (newline == -1) ? length : newline + 1;
+            String line = text.substring(start, (newline == -1) ? length : newline);
+            while ((nextDefinition < chunks.definitions.size()) && (chunks.definitions.get(nextDefinition)[1] <= start)) {
+                definitionEnd = chunks.definitions.get(nextDefinition)[1];
+                nextDefinition++;
+            }
+            if ((nextDefinition < chunks.definitions.size()) && (chunks.definitions.get(nextDefinition)[0] <= start)) {
+                // definitions are removed before anything else
+                start = end;
+                continue;
+            }
+            if (line.isEmpty()) {
+                previousBlank = true;
+                start = end;
+                continue;
+            }
+            char first = line.charAt(0);
+            int indentation = indentation(line);
+            // a header marker alone on its line takes the next line as title, or closes the header before
+            boolean headerMarker = isHeaderMarker(line);
+            if (previousBlank && (start > 0) && (start >= htmlEnd) && !lastHeaderMarker && !headerMarker && (start != definitionEnd)
+                    && (" \t>-+*=0123456789".indexOf(first) == -1)) {
+                if (joinNext) {
+                    joinNext = false;
+                } else {
+                    candidates.add(start);
+                }
+            }
+            if (previousBlank) {
+                blockStart = start;
+                listBlock = false;
+            }
+            if (LIST_ITEM.matcher(line).lookingAt()) {
+                if (!listBlock) {
+                    // the closing tag of a list with quoted lines ends up indented: it is closed by the next list
+                    popCandidatesAfter(candidates, firstQuotedList);
+                }
+                listBlock = true;
+            } else if (listBlock && (line.trim().charAt(0) == '>')) {
+                // a list eats the blank lines after it, and quoted lines in a tight item go on in the next block
+                joinNext = true;
+                if (firstQuotedList == -1) {
+                    firstQuotedList = blockStart;
+                }
+            }
+            // html blocks are surrounded by blank lines, so a code block can start right after one
+            if ((indentation >= TAB_WIDTH) && (previousBlank || !previousIndented)) {
+                if (lastHeaderMarker && (firstPlainCode == -1)) {
+                    // the first line is the title of the header: what follows is a plain code block
+                    firstPlainCode = start;
+                }
+                if (isLanguageIdentifier(line.substring(offsetOfColumn(line, TAB_WIDTH)))) {
+                    // a line starting with a closing pre tag joins it to the first plain code block before
+                    popCandidatesAfter(candidates, firstPlainCode);
+                } else if (firstPlainCode == -1) {
+                    firstPlainCode = start;
+                }
+            }
+            if ((indentation < TAB_WIDTH) && (htmlEnd < length)) {
+                int blockEnd = htmlBlockEnd(text, start, line, closings);
+                if (blockEnd > start) {
+                    chunks.addHtmlBlock(start, blockEnd);
+                    htmlEnd = Math.max(htmlEnd, blockEnd);
+                    if (blockEnd < length) {
+                        blockEnds.add(blockEnd);
+                    }
+                }
+            }
+            if (line.startsWith("</") && !blockEnds.contains(start + line.length())) {
+                // a stray closing tag could close html generated anywhere before, leaving alone the closing tag of a list
+                candidates.clear();
+                joinNext = true;
+            }
+            previousBlank = false;
+            previousIndented = (indentation >= TAB_WIDTH);
+            lastHeaderMarker = headerMarker;
+            start = end;
+        }
+        chunks.starts.add(0);
+        int chunkStart = 0;
+        for (Integer candidate : candidates) {
+            if (candidate - chunkStart >= chunkSize) {
+                chunks.starts.add(candidate);
+                chunkStart = candidate;
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns the end offset of the html block or comment starting at the given line, or the line start if none starts there.
+     */
+    private static int htmlBlockEnd(String text, int start, String line, Map<String, Integer> closings) {
+        int spaces = 0;
+        while ((spaces < line.length()) && (line.charAt(spaces) == ' ')) {
+            spaces++;
+        }
+        String tag = (line.charAt(0) == '<') ? tagName(line, 1) : "";
+        if (BLOCK_TAGS.contains(tag) || INLINE_BLOCK_TAGS.contains(tag)) {
+            // MarkdownJ looks for a line starting with the closing tag, then for a line ending with it
+            int close = BLOCK_TAGS.contains(tag) ? closing(text, start, "\n</" + tag + ">", closings) : -1;
+            if (close == -1) {
+                close = closing(text, start, "</" + tag + ">", closings);
+            }
+            // an unclosed tag could be closed by html generated in any following chunk
+            return (close == -1) ? text.length() : close;
+        }
+        if ((spaces < TAB_WIDTH) && line.startsWith("<!", spaces)) {
+            return commentEnd(text, start + spaces);
+        }
+        if ((spaces < TAB_WIDTH) && line.startsWith("<hr", spaces) && "hr".equals(tagName(line, spaces + 1))) {
+            int close = firstIndexOf(text, start + spaces + 3, '<', '>');
+            return (close == -1) ? text.length() : lineEnd(text, close);
+        }
+        return start;
+    }
+
+    /**
+     * Returns the end of the first line, from start on, where the closing tag is followed only by spaces, or -1 if none.
+     */
+    private static int closing(String text, int start, String closing, Map<String, Integer> closings) {
+        Integer cached = closings.get(closing);
+        if ((cached != null) && ((cached == -1) || (cached >= start))) {
+            return cached;
+        }
+        int result = -1;
+        int from = start;
+        int found;
+        while ((found = text.indexOf(closing, from)) != -1) {
+            int tagEnd = found + closing.length();
+            int lineEnd = lineEnd(text, tagEnd);
+            if (onlySpaces(text, tagEnd, lineEnd)) {
+                result = lineEnd;
+                break;
+            }
+            from = found + 1;
+        }
+        closings.put(closing, result);
+        return result;
+    }
+
+    /**
+     * Returns the end of the line of the first comment end followed by a blank line.
+     */
+    private static int commentEnd(String text, int from) {
+        int close = from;
+        while ((close = text.indexOf('>', close + 1)) != -1) {
+            int dashes = close - 1;
+            while ((dashes >= from) && Character.isWhitespace(text.charAt(dashes))) {
+                dashes--;
+            }
+            int lineEnd = lineEnd(text, close);
+            if ((dashes - 1 > from) && (text.charAt(dashes) == '-') && (text.charAt(dashes - 1) == '-')
+                    && onlySpaces(text, close + 1, lineEnd) && ((lineEnd + 1 >= text.length()) || (text.charAt(lineEnd + 1) == '\n'))) {
+                return lineEnd;
+            }
+        }
+        return text.length();
+    }
+
+    private static Map<String, Object> linkDefinitions(String text, Chunks chunks) {
+        StringBuilder definitions = new StringBuilder();
+        int block = 0;
+        for (int[] definition : chunks.definitions) {
+            while ((block < chunks.htmlBlocks.size()) && (chunks.htmlBlocks.get(block)[1] <= definition[0])) {
+                block++;
+            }
+            if ((block < chunks.htmlBlocks.size()) && (chunks.htmlBlocks.get(block)[0] <= definition[0])) {
+                logger.debug("link definition in an html block, rendering without chunks");
+                return null;
+            }
+            definitions.append(text, definition[0], definition[1]).append('\n');
+        }
+        Map<String, Object> linkDefinitions = MarkdownProcessors.linkDefinitions(definitions.toString());
+        if ((linkDefinitions == null) || (linkDefinitions.size() != chunks.definitions.size())) {
+            logger.debug("link definitions not collected or defined twice, rendering without chunks");
+            return null;
+        }
+        return linkDefinitions;
+    }
+
+    /**
+     * Joins chunks html as MarkdownJ joins paragraphs.
+     */
+    private static String join(String[] results) {
+        int length = 1;
+        for (String result : results) {
+            length += result.length() + 1;
+        }
+        StringBuilder html = new StringBuilder(length);
+        for (String result : results) {
+            // every result ends with a new line appended to the paragraphs
+            if (result.length() > 1) {
+                if (html.length() > 0) {
+                    html.append("\n\n");
+                }
+                html.append(result, 0, result.length() - 1);
+            }
+        }
+        return html.append('\n').toString();
+    }
+
+    private static final class RenderTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> chunks;
+
+        private final String[] results;
+
+        private final int from;
+
+        private final int to;
+
+        private final String codeBlockTemplate;
+
+        private final Map<String, Object> linkDefinitions;
+
+        RenderTask(List<String> chunks, String[] results, int from, int to, String codeBlockTemplate, Map<String, Object> linkDefinitions) {
+            this.chunks = chunks;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.codeBlockTemplate = codeBlockTemplate;
+            this.linkDefinitions = linkDefinitions;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                results[from] = MarkdownProcessors.markdown(chunks.get(from), codeBlockTemplate, linkDefinitions);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RenderTask(chunks, results, from, middle, codeBlockTemplate, linkDefinitions), new RenderTask(chunks, results,
+                    middle, to, codeBlockTemplate, linkDefinitions));
+        }
+    }
+
+    /**
+     * Removes candidates after the given offset, if not -1.
+     */
+    private static void popCandidatesAfter(List<Integer> candidates, int offset) {
+        while ((offset != -1) && !candidates.isEmpty() && (candidates.get(candidates.size() - 1) > offset)) {
+            candidates.remove(candidates.size() - 1);
+        }
+    }
+
+    private static String tagName(String line, int from) {
+        int end = from;
+        while ((end < line.length()) && (Character.isLetterOrDigit(line.charAt(end)) || (line.charAt(end) == '_'))) {
+            end++;
+        }
+        return line.substring(from, end);
+    }
+
+    private static boolean isHeaderMarker(String line) {
+        return line.charAt(0) == '#' && line.replace('#', ' ').trim().isEmpty();
+    }
+
+    private static boolean isLanguageIdentifier(String line) {
+        return line.startsWith(LANG_IDENTIFIER) && !line.substring(LANG_IDENTIFIER.length()).trim().isEmpty();
+    }
+
+    /**
+     * Returns the width of the leading white space, with tabs expanded.
+     */
+    private static int indentation(String line) {
+        int column = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == ' ') {
+                column++;
+            } else if (c == '\t') {
+                column += TAB_WIDTH - (column % TAB_WIDTH);
+            } else {
+                break;
+            }
+        }
+        return column;
+    }
+
+    /**
+     * Returns the offset of the first char after the given column of leading white space.
+     */
+    private static int offsetOfColumn(String line, int target) {
+        int column = 0;
+        int i = 0;
+        while ((i < line.length()) && (column < target)) {
+            column += (line.charAt(i) == '\t') ? TAB_WIDTH - (column % TAB_WIDTH) : 1;
+            i++;
+        }
+        return i;
+    }
+
+    private static int lineEnd(String text, int from) {
+        int newline = text.indexOf('\n', from);
+        return (newline == -1) ? text.length() : newline;
+    }
+
+    private static boolean onlySpaces(String text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) != ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int firstIndexOf(String text, int from, char a, char b) {
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if ((c == a) || (c == b)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/**
+ * Highlights the code blocks starting with a <code>lang:</code> line, choosing the lexer by the language.
+ *
+ * Tokens are wrapped in spans with the short class names used by Pygments stylesheets:
+ * <code>k</code> keyword, <code>kt</code> type, <code>kc</code> constant, <code>nb</code> builtin,
+ * <code>s</code> string, <code>m</code> number, <code>c</code> comment, <code>cp</code> preprocessor,
+ * <code>nd</code> annotation, <code>nt</code> tag or JSON key, <code>na</code> attribute,
+ * <code>nv</code> variable, <code>ni</code> entity.
+ *
+ * The standard lexers know Java, XML (and html), shell and JSON. Blocks in other languages are left as they are.
+ *
+ * Highlighted code is kept in memory keyed by language and by the SHA-256 of the code,
+ * because the same snippets repeat in many pages. The cache is bounded by the size of the html.
+ *
+ * Highlighters are immutable and can be shared by concurrent threads.
+ *
+ */
+public class CodeHighlighter {
+
+    /**
+     * Default maximum size of the cached html, in bytes.
+     */
+    public static final long DEFAULT_CACHE_BYTES = 16L * 1024 * 1024;
+
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /**
+     * Delimiters of the code blocks in the html of MarkdownJ: start, language, code, end.
+     */
+    private static final char BLOCK_START = '\u0002';
+
+    private static final char BLOCK_SEPARATOR = '\u001f';
+
+    private static final char BLOCK_END = '\u0003';
+
+    private static final String LANG_TOKEN = "\u0005";
+
+    private static final String CODE_TOKEN = "\u0006";
+
+    /**
+     * The marking template of MarkdownJ default code block template.
+     */
+    static final String MARKING_DEFAULT_TEMPLATE = markingTemplate(MarkdownProcessors.DEFAULT_CODE_BLOCK_TEMPLATE);
+
+    private final Map<String, Lexer> lexers;
+
+    private final Cache<Key, String> cache;
+
+    /**
+     * Turns code in html.
+     */
+    public interface Lexer {
+
+        /**
+         * Appends the html of the given code: text escaped, tokens wrapped in spans.
+         *
+         * @param code the code, not escaped.
+         * @param html where the html is appended.
+         */
+        void highlight(String code, StringBuilder html);
+    }
+
+    /**
+     * The highlighter with the standard lexers, shared by every service.
+     */
+    private static final class Standard {
+        static final CodeHighlighter INSTANCE = new CodeHighlighter(standardLexers(), DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * @param lexers the lexers by language, matched ignoring case.
+     * @param maximumBytes the maximum size of the cached html, in bytes.
+     */
+    public CodeHighlighter(Map<String, ? extends Lexer> lexers, long maximumBytes) {
+        this.lexers = new HashMap<String, Lexer>();
+        for (Map.Entry<String, ? extends Lexer> lexer : lexers.entrySet()) {
+            this.lexers.put(lexer.getKey().toLowerCase(Locale.ROOT), lexer.getValue());
+        }
+        this.cache = CacheBuilder.newBuilder().maximumWeight(maximumBytes).weigher(new Weigher<Key, String>() {
+            public int weigh(Key key, String html) {
+                return ENTRY_OVERHEAD + (2 * html.length());
+            }
+        }).recordStats().build();
+    }
+
+    /**
+     * @return the highlighter with the standard lexers.
+     */
+    public static CodeHighlighter standard() {
+        return Standard.INSTANCE;
+    }
+
+    /**
+     * Returns a new map of the standard lexers, to be extended and given to a new highlighter.
+     */
+    public static Map<String, Lexer> standardLexers() {
+        Map<String, Lexer> lexers = new HashMap<String, Lexer>();
+        for (String lang : new String[] { "java" }) {
+            lexers.put(lang, RegexLexer.JAVA);
+        }
+        for (String lang : new String[] { "xml", "html", "xhtml", "svg", "xsd", "xsl" }) {
+            lexers.put(lang, RegexLexer.XML);
+        }
+        for (String lang : new String[] { "shell", "sh", "bash", "zsh", "ksh" }) {
+            lexers.put(lang, RegexLexer.SHELL);
+        }
+        for (String lang : new String[] { "json" }) {
+            lexers.put(lang, RegexLexer.JSON);
+        }
+        return lexers;
+    }
+
+    /**
+     * Cache key: language, hash and length of the code.
+     */
+    private static final class Key {
+
+        private final String lang;
+
+        private final HashCode hash;
+
+        private final int length;
+
+        Key(String lang, String code) {
+            this.lang = lang;
+            this.hash = Hashing.sha256().hashString(code, Charsets.UTF_8);
+            this.length = code.length();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash.asInt() ^ lang.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return (length == other.length) && hash.equals(other.hash) && lang.equals(other.lang);
+        }
+    }
+
+    /**
+     * @param lang the language, as in the <code>lang:</code> line.
+     * @return true if there is a lexer for the language.
+     */
+    public boolean supports(String lang) {
+        return (lang != null) && lexers.containsKey(lang.trim().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Highlights code.
+     *
+     * @param lang the language, as in the <code>lang:</code> line.
+     * @param code the code, not escaped.
+     * @return the html, or null if there is no lexer for the language.
+     */
+    public String highlight(String lang, final String code) {
+        if (!supports(lang)) {
+            return null;
+        }
+        final String key = lang.trim().toLowerCase(Locale.ROOT);
+        try {
+            return cache.get(new Key(key, code), new Callable<String>() {
+                public String call() {
+                    StringBuilder html = new StringBuilder(code.length() + (code.length() >> 1));
+                    lexers.get(key).highlight(code, html);
+                    return html.toString();
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * @return hits, misses and evictions of the highlighted code cache.
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * Returns a code block template marking language and code, for {@link #highlightBlocks(String)}.
+     * The html around the code is the same as with the given template.
+     *
+     * @param codeBlockTemplate the template for code blocks.
+     * @return the marking template, or the given template if it can't be used to find code.
+     */
+    static String markingTemplate(String codeBlockTemplate) {
+        String formatted;
+        try {
+            formatted = String.format(codeBlockTemplate, LANG_TOKEN, CODE_TOKEN);
+        } catch (IllegalFormatException e) {
+            return codeBlockTemplate;
+        }
+        if (!formatted.contains(CODE_TOKEN)) {
+            return codeBlockTemplate;
+        }
+        return formatted.replace("%", "%%").replace(LANG_TOKEN, "%1$s")
+                .replace(CODE_TOKEN, BLOCK_START + "%1$s" + BLOCK_SEPARATOR + "%2$s" + BLOCK_END);
+    }
+
+    /**
+     * Replaces the code blocks marked by a {@link #markingTemplate(String)} with their highlighted html.
+     * Blocks in languages without lexer keep the code as rendered by MarkdownJ.
+     *
+     * @param html the html rendered with the marking template.
+     * @return the html without marks.
+     */
+    String highlightBlocks(String html) {
+        int start = html.indexOf(BLOCK_START);
+        if (start < 0) {
+            return html;
+        }
+        StringBuilder result = new StringBuilder(html.length() + (html.length() >> 2));
+        int copied = 0;
+        while (start >= 0) {
+            int separator = html.indexOf(BLOCK_SEPARATOR, start);
+            int end = (separator < 0) ? -1 : html.indexOf(BLOCK_END, separator);
+            if (end < 0) {
+                break;
+            }
+            String lang = html.substring(start + 1, separator);
+            String code = html.substring(separator + 1, end);
+            String highlighted = supports(lang) ? highlight(lang, unescape(code)) : null;
+            result.append(html, copied, start).append((highlighted == null) ? code : highlighted);
+            copied = end + 1;
+            start = html.indexOf(BLOCK_START, copied);
+        }
+        return result.append(html, copied, html.length()).toString();
+    }
+
+    /**
+     * Reverts the escaping of code made by MarkdownJ.
+     */
+    static String unescape(String code) {
+        if (code.indexOf('&') < 0) {
+            return code;
+        }
+        return code.replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+    }
+
+    static void escape(CharSequence text, int start, int end, StringBuilder html) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '&') {
+                html.append("&amp;");
+            } else if (c == '<') {
+                html.append("&lt;");
+            } else if (c == '>') {
+                html.append("&gt;");
+            } else {
+                html.append(c);
+            }
+        }
+    }
+
+    /**
+     * A lexer made of rules tried together at each position: the first one matching wins.
+     * A rule can highlight its match with another lexer, as attributes inside an xml tag.
+     */
+    static final class RegexLexer implements Lexer {
+
+        static final RegexLexer JAVA = new RegexLexer()
+                .rule("//[^\\n]*|/\\*[\\s\\S]*?(?:\\*/|\\z)", "c")
+                .rule("\"(?:[^\"\\\\\\n]|\\\\.)*\"?|'(?:[^'\\\\\\n]|\\\\.)*'?", "s")
+                .rule("@(?!interface\\b)[A-Za-z_$][\\w$.]*", "nd")
+                .rule(words("abstract", "assert", "break", "case", "catch", "class", "const", "continue", "default", "do", "else",
+                        "enum", "extends", "final", "finally", "for", "goto", "if", "implements", "import", "instanceof",
+                        "interface", "native", "new", "package", "private", "protected", "public", "return", "static", "strictfp",
+                        "super", "switch", "synchronized", "this", "throw", "throws", "transient", "try", "volatile", "while"), "k")
+                .rule(words("boolean", "byte", "char", "double", "float", "int", "long", "short", "void"), "kt")
+                .rule(words("true", "false", "null"), "kc")
+                .plain("[A-Za-z_$][\\w$]*")
+                .rule("(?:0[xX][0-9a-fA-F_]+|0[bB][01_]+|\\d[\\d_]*(?:\\.[\\d_]*)?(?:[eE][+-]?\\d+)?|\\.\\d[\\d_]*(?:[eE][+-]?\\d+)?)[lLfFdD]?",
+                        "m");
+
+        private static final RegexLexer XML_TAG = new RegexLexer()
+                .rule("\\A</?[^\\s/>]+|/?>\\z", "nt")
+                .rule("[^\\s=\"'/>]+(?=\\s*=)", "na")
+                .rule("\"[^\"]*\"|'[^']*'", "s");
+
+        static final RegexLexer XML = new RegexLexer()
+                .rule("<!--[\\s\\S]*?(?:-->|\\z)", "c")
+                .rule("<!\\[CDATA\\[[\\s\\S]*?(?:\\]\\]>|\\z)", "s")
+                .rule("<\\?[\\s\\S]*?(?:\\?>|\\z)|<![A-Za-z][^>]*>?", "cp")
+                .rule("</?[A-Za-z_:][^\\s/>]*(?:[^<>\"']|\"[^\"]*\"|'[^']*')*>", XML_TAG)
+                .rule("&(?:#[0-9]+|#x[0-9a-fA-F]+|[A-Za-z][\\w.-]*);", "ni");
+
+        static final RegexLexer SHELL = new RegexLexer()
+                .rule("(?:^|(?<=[\\s;|&(]))#[^\\n]*", "c")
+                .rule("\"(?:[^\"\\\\]|\\\\[\\s\\S])*\"?|'[^']*'?", "s")
+                .rule("\\$(?:\\{[^}\\n]*\\}?|[A-Za-z_]\\w*|[@*#?$!0-9-])", "nv")
+                .rule(commands("if", "then", "else", "elif", "fi", "for", "while", "until", "do", "done", "case", "esac", "in",
+                        "function", "select", "return", "break", "continue", "local", "export", "readonly", "declare", "time"), "k")
+                .rule(commands("echo", "cd", "exit", "set", "unset", "source", "eval", "exec", "test", "printf", "read", "shift",
+                        "trap", "alias", "pwd", "umask", "wait", "kill"), "nb")
+                .plain("[\\w./-]+");
+
+        static final RegexLexer JSON = new RegexLexer()
+                .rule("\"(?:[^\"\\\\\\n]|\\\\.)*\"(?=\\s*:)", "nt")
+                .rule("\"(?:[^\"\\\\\\n]|\\\\.)*\"?", "s")
+                .rule("-?(?:0|[1-9]\\d*)(?:\\.\\d+)?(?:[eE][+-]?\\d+)?", "m")
+                .rule(words("true", "false", "null"), "kc");
+
+        private final List<String> classes = new ArrayList<String>();
+
+        private final List<RegexLexer> inner = new ArrayList<RegexLexer>();
+
+        private final StringBuilder regex = new StringBuilder();
+
+        private Pattern pattern;
+
+        /**
+         * Adds a rule: matches are wrapped in a span of the given class.
+         */
+        RegexLexer rule(String ruleRegex, String cssClass) {
+            return add(ruleRegex, cssClass, null);
+        }
+
+        /**
+         * Adds a rule whose matches are left plain, as identifiers containing keywords.
+         */
+        RegexLexer plain(String ruleRegex) {
+            return add(ruleRegex, null, null);
+        }
+
+        /**
+         * Adds a rule whose matches are highlighted by another lexer.
+         */
+        RegexLexer rule(String ruleRegex, RegexLexer lexer) {
+            return add(ruleRegex, null, lexer);
+        }
+
+        private RegexLexer add(String ruleRegex, String cssClass, RegexLexer lexer) {
+            if (Pattern.compile(ruleRegex).matcher("").groupCount() > 0) {
+                throw new IllegalArgumentException("rules can't have capturing groups: " + ruleRegex);
+            }
+            regex.append((regex.length() == 0) ? "(" : "|(").append(ruleRegex).append(')');
+            classes.add(cssClass);
+            inner.add(lexer);
+            pattern = Pattern.compile(regex.toString(), Pattern.MULTILINE);
+            return this;
+        }
+
+        public void highlight(String code, StringBuilder html) {
+            Matcher matcher = pattern.matcher(code);
+            int copied = 0;
+            while (matcher.find()) {
+                if (matcher.end() == matcher.start()) {
+                    continue;
+                }
+                int rule = 0;
+                while (matcher.start(rule + 1) < 0) {
+                    rule++;
+                }
+                escape(code, copied, matcher.start(), html);
+                if (inner.get(rule) != null) {
+                    inner.get(rule).highlight(matcher.group(), html);
+                } else if (classes.get(rule) == null) {
+                    escape(code, matcher.start(), matcher.end(), html);
+                } else {
+                    html.append("<span class=\"").append(classes.get(rule)).append("\">");
+                    escape(code, matcher.start(), matcher.end(), html);
+                    html.append("</span>");
+                }
+                copied = matcher.end();
+            }
+            escape(code, copied, code.length(), html);
+        }
+
+        private static String words(String... words) {
+            return "\\b(?:" + join(words) + ")\\b";
+        }
+
+        /**
+         * Shell words are delimited by blanks and operators, not by dashes and dots.
+         */
+        private static String commands(String... words) {
+            return "(?<![\\w.$/-])(?:" + join(words) + ")(?![\\w./-])";
+        }
+
+        private static String join(String... words) {
+            StringBuilder alternatives = new StringBuilder();
+            for (String word : words) {
+                alternatives.append((alternatives.length() == 0) ? "" : "|").append(word);
+            }
+            return alternatives.toString();
+        }
+    }
+}
@@ -14,25 +14,63 @@
 
 package com.github.enr.markdownj.extras;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.Charset;
-
-import com.google.common.io.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Provides utility methods for working with files.
  * 
  */
 public class FileUtils {
+
+    /**
+     * Charsets by name, so looking up the same encoding for every file doesn't go through Charset.forName.
+     */
+    private static final ConcurrentMap<String, Charset> CHARSETS = new ConcurrentHashMap<String, Charset>();
+
+    private static final Preprocessor SEPARATORS = Preprocessors.replace('\\', '/');
     
     /**
      * Only static methods.
      */
     private FileUtils() {}
 
+    /**
+     * Returns the content of a file.
+     * 
+     * A leading byte order mark (UTF-8, UTF-16BE or UTF-16LE) takes precedence over the given encoding
+     * and is stripped from the returned text.
+     * 
+     * @param file the file to read.
+     * @param encoding the encoding to use, null means the one of the byte order mark of the file, or platform default
+     * @return the given file content
+     * @throws IOException
+     */
+    public static String readFile(File file, String encoding) throws IOException {
+        return NioFiles.read(file, charsetForNameOrNull(encoding));
+    }
+
+    /**
+     * Returns the content of a file, in any file system.
+     * 
+     * @param file the file to read, as an entry of a zip file system.
+     * @param encoding the encoding to use, null means the one of the byte order mark of the file, or platform default
+     * @return the given file content
+     * @throws IOException
+     */
+    public static String readFile(Path file, String encoding) throws IOException {
+        return NioFiles.read(file, charsetForNameOrNull(encoding));
+    }
+
     /**
      * Returns file content as string, reading from a path. 
      * Throws runtime exception in case of FileNotFoundException or IOException.
@@ -46,19 +84,27 @@ public class FileUtils {
 
     /**
      * 
-     * @param filename
-     * @param encoding the encoding to use, null means platform default
+     * @param filename the path to the file, or the jar: URL of an archive entry.
+     * @param encoding the encoding to use, null means the one of the byte order mark of the file, or platform default
      * @return the given file content
      */
     public static String readFileFromPath(String filename, String encoding) {
         try {
-        	Charset charset = charsetForNameOrDefault(encoding);
-        	return Files.toString(new File(filename), charset);
+            if (filename.startsWith("jar:")) {
+                return SourceArchive.read(filename, encoding);
+            }
+            return readFile(new File(filename), encoding);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
     
+    /**
+     * Returns the file of a file: URL.
+     * 
+     * @param url the url, in the default file system.
+     * @return the file.
+     */
     public static File fileFromUrl(URL url) {
         File f = null;
         try {
@@ -73,14 +119,19 @@ public class FileUtils {
      * Returns file content as string, reading from a url. Throws runtime
      * exception in case of FileNotFoundException or IOException.
      * 
+     * The url can be a jar: URL, as the ones of classpath resources in jars: the entry is read
+     * through the zip file system, without extracting the archive.
+     * 
      * @param fileurl the url of the file to read.
      * @return file content as string.
      */
     public static String readFileFromUrl(URL fileurl, String encoding) {
         String fileContent = "";
         try {
-        	Charset charset = charsetForNameOrDefault(encoding);
-            fileContent = Files.toString(fileFromUrl(fileurl), charset);
+            if ("jar".equals(fileurl.getProtocol())) {
+                return SourceArchive.read(fileurl.toString(), encoding);
+            }
+            fileContent = readFile(fileFromUrl(fileurl), encoding);
         } catch (IOException e) {
             throw new RuntimeException("Error reading " + fileurl, e);
         }
@@ -117,14 +168,46 @@ public class FileUtils {
         if (!parent.exists()) {
             parent.mkdirs();
         }
-        Charset charset = charsetForNameOrDefault(encoding);
-        Files.write(text, file, charset);
+        NioFiles.write(file, text, charsetForNameOrDefault(encoding));
     }
 
-    private static Charset charsetForNameOrDefault(String encoding) {
-    	Charset charset = (encoding == null) ? Charset.defaultCharset() : Charset.forName(encoding);
-		return charset;
-	}
+    /**
+     * Opens a buffered stream to write the specified file.
+     * 
+     * If the file path doesn't exist, it's created.
+     * If the file exists, it is overwritten.
+     * 
+     * @param filePath the path to the file.
+     * @return the stream, to be closed by the caller.
+     * @throws IOException
+     */
+    public static OutputStream newOutputStream(String filePath) throws IOException {
+        File file = new File(filePath);
+        File parent = file.getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+        return new BufferedOutputStream(new FileOutputStream(file));
+    }
+
+    /**
+     * Returns the charset of a declared encoding, null if none is declared, so files are read by their byte order mark.
+     */
+    static Charset charsetForNameOrNull(String encoding) {
+        return (encoding == null) ? null : charsetForNameOrDefault(encoding);
+    }
+
+    static Charset charsetForNameOrDefault(String encoding) {
+        if (encoding == null) {
+            return Charset.defaultCharset();
+        }
+        Charset charset = CHARSETS.get(encoding);
+        if (charset == null) {
+            charset = Charset.forName(encoding);
+            CHARSETS.putIfAbsent(encoding, charset);
+        }
+        return charset;
+    }
 
 	/**
      * Replaces all backslashes with slash char. 
@@ -134,7 +217,7 @@ public class FileUtils {
      * @return the normalized path
      */
     public static String normalizedPath(String original) {
-        return original.replaceAll("\\\\", "/");
+        return Preprocessors.apply(SEPARATORS, original);
     }
 
     /**
@@ -0,0 +1,1075 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A markdown engine rendering the html of MarkdownJ in time linear in the size of the document.
+ *
+ * MarkdownJ runs regular expressions over the whole text, some of which backtrack from every line to the
+ * end of the document, and unescapes the text looking up every token created since the JVM started:
+ * some documents take seconds, and rendering slows down as more pages are rendered.
+ * This engine runs the same passes in the same order over a list of lines, each pass looking at a line
+ * and its neighbours only, and hands paragraphs to a {@link SpanScanner}. Html blocks are kept as single
+ * lines, so later passes skip them as MarkdownJ skips the tokens replacing them.
+ *
+ * The html is the one of MarkdownJ, quirks included, with a few differences in documents MarkdownJ mangles:
+ * <ul>
+ * <li>email autolinks are encoded with decimal entities, instead of randomly chosen ones;</li>
+ * <li>the <code>lang:</code> line of a code block is removed unless it has regular expression
+ * characters, where MarkdownJ uses it as a regular expression;</li>
+ * <li>html blocks containing other blocks and lines starting with <code>&gt;</code> in list items
+ * are not broken into pieces;</li>
+ * <li>only \n ends lines.</li>
+ * </ul>
+ *
+ * The engine has no state: every call uses its own link definitions. A rendering on an interrupted
+ * thread stops at the next block, with a CancellationException.
+ *
+ */
+final class LinearMarkdownEngine implements MarkdownEngine {
+
+    static final String NAME = "linear";
+
+    private static final int TAB_WIDTH = 4;
+
+    private static final Preprocessor NORMALIZE = Preprocessors.chain(Preprocessors.NORMALIZE_EOL, Preprocessors.CLEAR_BLANK_LINES,
+            Preprocessors.expandTabs(TAB_WIDTH), Preprocessors.CLEAR_BLANK_LINES);
+
+    /**
+     * Tags of the html blocks closed by a later line starting with the closing tag.
+     */
+    private static final Set<String> BLOCK_TAGS = new HashSet<String>(Arrays.asList("p", "div", "h1", "h2", "h3", "h4", "h5", "h6",
+            "blockquote", "pre", "table", "dl", "ol", "ul", "script", "noscript", "form", "fieldset", "iframe", "math"));
+
+    /**
+     * Tags of the html blocks closed by the first line ending with the closing tag.
+     */
+    private static final Set<String> LINE_BLOCK_TAGS = new HashSet<String>(BLOCK_TAGS);
+
+    static {
+        LINE_BLOCK_TAGS.add("ins");
+        LINE_BLOCK_TAGS.add("del");
+    }
+
+    /**
+     * The template MarkdownJ uses for code blocks without a language.
+     */
+    private static final String PLAIN_CODE_BLOCK_TEMPLATE = "\n\n<pre><code>%s\n</code></pre>\n\n";
+
+    private static final String LANG_IDENTIFIER = "lang:";
+
+    /**
+     * Characters making the lang: line a regular expression not matching itself, once code is encoded.
+     */
+    private static final String REGEX_CHARACTERS = "()+?^$|";
+
+    public String getName() {
+        return NAME;
+    }
+
+    public String markdown(String text, String codeBlockTemplate) {
+        String template = (codeBlockTemplate == null) ? MarkdownProcessors.DEFAULT_CODE_BLOCK_TEMPLATE : codeBlockTemplate;
+        return new Document(template).render((text == null) ? "" : text);
+    }
+
+    /**
+     * A line of text, or an html block left as it is.
+     */
+    private static final class Line {
+
+        static final Line BLANK = new Line("", false);
+
+        final String text;
+
+        final boolean block;
+
+        private Line(String text, boolean block) {
+            this.text = text;
+            this.block = block;
+        }
+
+        static Line raw(String text) {
+            return text.isEmpty() ? BLANK : new Line(text, false);
+        }
+
+        static Line block(String html) {
+            return new Line(html, true);
+        }
+
+        boolean isBlank() {
+            return this == BLANK;
+        }
+    }
+
+    /**
+     * The state of one rendering: the code block template and the link definitions.
+     */
+    private static final class Document {
+
+        private final String codeBlockTemplate;
+
+        private final Map<String, SpanScanner.Link> links = new HashMap<String, SpanScanner.Link>();
+
+        private final SpanScanner spans = new SpanScanner(links);
+
+        Document(String codeBlockTemplate) {
+            this.codeBlockTemplate = codeBlockTemplate;
+        }
+
+        String render(String text) {
+            List<Line> lines = split(Preprocessors.apply(NORMALIZE, withoutMarkers(text)));
+            lines = linkDefinitions(htmlBlocks(lines));
+            return SpanScanner.unprotect(blocks(lines, 0)) + "\n";
+        }
+
+        /**
+         * The block gamut: headers, rules, lists, code blocks, quotes and html blocks, then paragraphs.
+         */
+        private String blocks(List<Line> lines, int listLevel) {
+            if (Thread.currentThread().isInterrupted()) {
+                // a rendering abandoned by a watchdog
+                throw new CancellationException("rendering interrupted");
+            }
+            List<Line> result = setextHeaders(lines, '=', "h1");
+            result = setextHeaders(result, '-', "h2");
+            result = atxHeaders(result);
+            result = horizontalRules(result);
+            result = lists(result, listLevel);
+            result = codeBlocks(result);
+            result = blockQuotes(result, listLevel);
+            result = htmlBlocks(result);
+            return paragraphs(result);
+        }
+
+        private List<Line> linkDefinitions(List<Line> lines) {
+            List<Line> result = new ArrayList<Line>(lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                int consumed = lines.get(i).block ? 0 : linkDefinition(lines, i);
+                if (consumed == 0) {
+                    result.add(lines.get(i));
+                    continue;
+                }
+                // the definition takes the following blank lines
+                i += consumed;
+                while ((i < lines.size()) && lines.get(i).isBlank()) {
+                    i++;
+                }
+                i--;
+            }
+            return result;
+        }
+
+        /**
+         * Reads a definition as [id]: url "title", the url and the title possibly on the next lines.
+         *
+         * @return the number of lines of the definition, 0 if the line doesn't start one.
+         */
+        private int linkDefinition(List<Line> lines, int i) {
+            String line = lines.get(i).text;
+            int indent = leadingSpaces(line);
+            if ((indent > 3) || !line.startsWith("[", indent)) {
+                return 0;
+            }
+            for (int close = line.lastIndexOf("]:"); close > indent + 1; close = line.lastIndexOf("]:", close - 1)) {
+                int consumed = linkDefinition(lines, i, line.substring(indent + 1, close), close + 2);
+                if (consumed > 0) {
+                    return consumed;
+                }
+            }
+            return 0;
+        }
+
+        private int linkDefinition(List<Line> lines, int i, String id, int from) {
+            int urlLine = i;
+            String text = lines.get(i).text;
+            int start = skipSpacesAndTabs(text, from);
+            if (start == text.length()) {
+                if ((i + 1 == lines.size()) || lines.get(i + 1).block) {
+                    return 0;
+                }
+                urlLine = i + 1;
+                text = lines.get(urlLine).text;
+                start = skipSpacesAndTabs(text, 0);
+                if (start == text.length()) {
+                    return 0;
+                }
+            }
+            if ((text.charAt(start) == '<') && (start + 1 < text.length()) && !SpanScanner.isWhitespace(text.charAt(start + 1))) {
+                start++;
+            }
+            int runEnd = start;
+            while ((runEnd < text.length()) && !SpanScanner.isWhitespace(text.charAt(runEnd))) {
+                runEnd++;
+            }
+            // the shortest url followed by an optional title and the end of the line
+            for (int end = start + 1; end <= runEnd; end++) {
+                if ((end < runEnd) && ("\">(".indexOf(text.charAt(end)) < 0)) {
+                    continue;
+                }
+                int next = end;
+                if ((next < text.length()) && (text.charAt(next) == '>')) {
+                    next++;
+                }
+                next = skipSpacesAndTabs(text, next);
+                String title = null;
+                int last = urlLine;
+                if (next < text.length()) {
+                    title = title(text, next);
+                    if (title == null) {
+                        continue;
+                    }
+                } else if ((urlLine + 1 < lines.size()) && !lines.get(urlLine + 1).block) {
+                    String titleLine = lines.get(urlLine + 1).text;
+                    title = title(titleLine, skipSpacesAndTabs(titleLine, 0));
+                    if (title != null) {
+                        last = urlLine + 1;
+                    }
+                }
+                links.put(SpanScanner.lowerCase(id), new SpanScanner.Link(SpanScanner.ampsAndAngles(text.substring(start, end)),
+                        (title == null) ? "" : title.replace("\"", "&quot;")));
+                return last - i + 1;
+            }
+            return 0;
+        }
+
+        /**
+         * @return the title in quotes or parentheses from the given position to the end of the line, or null.
+         */
+        private static String title(String text, int from) {
+            if ((from >= text.length()) || ((text.charAt(from) != '"') && (text.charAt(from) != '('))) {
+                return null;
+            }
+            int end = text.length();
+            while ((end > from) && ((text.charAt(end - 1) == ' ') || (text.charAt(end - 1) == '\t'))) {
+                end--;
+            }
+            char close = text.charAt(end - 1);
+            return ((end - 1 >= from + 2) && ((close == '"') || (close == ')'))) ? text.substring(from + 1, end - 1) : null;
+        }
+
+        /**
+         * Setext headers: a line followed by a line of four or more '=' or '-'.
+         */
+        private static List<Line> setextHeaders(List<Line> lines, char underline, String tag) {
+            List<Line> result = new ArrayList<Line>(lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                Line line = lines.get(i);
+                if (!line.block && (i + 1 < lines.size()) && isUnderline(lines.get(i + 1), underline)) {
+                    result.add(Line.raw("<" + tag + ">" + line.text + "</" + tag + ">"));
+                    i++;
+                } else {
+                    result.add(line);
+                }
+            }
+            return result;
+        }
+
+        private static boolean isUnderline(Line line, char underline) {
+            if (line.block || (line.text.length() < 4)) {
+                return false;
+            }
+            for (int i = 0; i < line.text.length(); i++) {
+                if (line.text.charAt(i) != underline) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Atx headers: one to six '#', the text and optional closing '#'. A marker alone on its line
+         * takes the text of the next line.
+         */
+        private static List<Line> atxHeaders(List<Line> lines) {
+            List<Line> result = new ArrayList<Line>(lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                Line line = lines.get(i);
+                if (line.block || !line.text.startsWith("#")) {
+                    result.add(line);
+                    continue;
+                }
+                int level = 0;
+                while ((level < 6) && (level < line.text.length()) && (line.text.charAt(level) == '#')) {
+                    level++;
+                }
+                String text = line.text.substring(level);
+                if (isWhitespace(text)) {
+                    int next = nextNonBlank(lines, i + 1);
+                    text = "";
+                    if ((next < lines.size()) && !lines.get(next).block) {
+                        text = lines.get(next).text;
+                        i = next;
+                    }
+                }
+                result.add(Line.raw("<h" + level + ">" + headerText(text, level) + "</h" + level + ">"));
+                result.add(Line.BLANK);
+                if (!hasClosingHashes(text, level)) {
+                    // the closing hashes can be alone on the next line, else the header takes the blank lines after it
+                    int next = nextNonBlank(lines, i + 1);
+                    if ((next < lines.size()) && !lines.get(next).block && isClosingHashes(lines.get(next).text, level)) {
+                        i = next;
+                    } else {
+                        i = next - 1;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private static int nextNonBlank(List<Line> lines, int from) {
+            int next = from;
+            while ((next < lines.size()) && lines.get(next).isBlank()) {
+                next++;
+            }
+            return next;
+        }
+
+        private static boolean hasClosingHashes(String text, int level) {
+            int start = 0;
+            while ((start < text.length()) && SpanScanner.isWhitespace(text.charAt(start))) {
+                start++;
+            }
+            return (text.length() - start >= level) && isRepeated(text, text.length() - level, text.length(), '#');
+        }
+
+        private static boolean isClosingHashes(String text, int level) {
+            int start = 0;
+            while ((start < text.length()) && SpanScanner.isWhitespace(text.charAt(start))) {
+                start++;
+            }
+            return (text.length() - start == level) && isRepeated(text, start, text.length(), '#');
+        }
+
+        private static String headerText(String text, int level) {
+            int start = 0;
+            while ((start < text.length()) && SpanScanner.isWhitespace(text.charAt(start))) {
+                start++;
+            }
+            int end = text.length();
+            while ((end > start) && SpanScanner.isWhitespace(text.charAt(end - 1))) {
+                end--;
+            }
+            if (hasClosingHashes(text, level)) {
+                end -= level;
+                while ((end > start) && SpanScanner.isWhitespace(text.charAt(end - 1))) {
+                    end--;
+                }
+            }
+            return text.substring(start, end);
+        }
+
+        private static List<Line> horizontalRules(List<Line> lines) {
+            List<Line> result = new ArrayList<Line>(lines.size());
+            for (Line line : lines) {
+                result.add((!line.block && isRule(line.text)) ? Line.raw("<hr />") : line);
+            }
+            return result;
+        }
+
+        /**
+         * @return true for three or more '*', '-' or '_', up to two spaces apart, after up to three spaces.
+         */
+        private static boolean isRule(String text) {
+            int i = leadingSpaces(text);
+            if ((i > 3) || (i == text.length()) || ("*-_".indexOf(text.charAt(i)) < 0)) {
+                return false;
+            }
+            char mark = text.charAt(i);
+            int marks = 0;
+            int spaces = 0;
+            for (; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == mark) {
+                    if (spaces > 2) {
+                        return false;
+                    }
+                    marks++;
+                    spaces = 0;
+                } else if (c == ' ') {
+                    spaces++;
+                } else {
+                    return false;
+                }
+            }
+            return marks >= 3;
+        }
+
+        /**
+         * Lists, from a line starting with a marker to a blank line followed by a line not indented and not
+         * starting with a marker. At the top level, a list must follow a blank line.
+         */
+        private List<Line> lists(List<Line> lines, int listLevel) {
+            List<Line> result = new ArrayList<Line>(lines.size());
+            int i = 0;
+            while (i < lines.size()) {
+                Line line = lines.get(i);
+                if (line.block || (markerEnd(line.text, 3, false) < 0) || ((listLevel == 0) && (i > 0) && !lines.get(i - 1).isBlank())) {
+                    result.add(line);
+                    i++;
+                    continue;
+                }
+                int end = i + 1;
+                int resume = lines.size();
+                while (end < lines.size()) {
+                    if (!lines.get(end).isBlank()) {
+                        end++;
+                        continue;
+                    }
+                    int next = end;
+                    while ((next < lines.size()) && lines.get(next).isBlank()) {
+                        next++;
+                    }
+                    if ((next < lines.size()) && endsList(lines.get(next))) {
+                        resume = next;
+                        break;
+                    }
+                    end = next;
+                }
+                addLines(result, list(lines, i, end, listLevel));
+                i = resume;
+            }
+            return result;
+        }
+
+        private static boolean endsList(Line line) {
+            return line.block || (!SpanScanner.isWhitespace(line.text.charAt(0)) && (markerEnd(line.text, 0, false) < 0));
+        }
+
+        private String list(List<Line> lines, int from, int to, int listLevel) {
+            // blank lines in a list count as two
+            List<String> text = new ArrayList<String>(to - from);
+            for (int i = from; i < to; i++) {
+                if (!lines.get(i).isBlank()) {
+                    text.add(lines.get(i).text);
+                } else if (!text.get(text.size() - 1).isEmpty()) {
+                    text.add("");
+                    text.add("");
+                }
+            }
+            while (text.get(text.size() - 1).isEmpty()) {
+                text.remove(text.size() - 1);
+            }
+            String first = text.get(0);
+            String type = ("*+-".indexOf(first.charAt(leadingSpaces(first))) >= 0) ? "ul" : "ol";
+            StringBuilder items = new StringBuilder();
+            int item = 0;
+            boolean leadingLine = false;
+            while (item < text.size()) {
+                String line = text.get(item);
+                int indent = leadingSpaces(line);
+                String content = line.substring(markerEnd(line, Integer.MAX_VALUE, false));
+                // the item ends at the line followed by the next marker at the same indentation
+                int last = item;
+                while (true) {
+                    int next = last + 1;
+                    while ((next < text.size()) && text.get(next).isEmpty()) {
+                        next++;
+                    }
+                    if ((next == text.size()) || ((leadingSpaces(text.get(next)) == indent) && (markerEnd(text.get(next), indent, true) >= 0))) {
+                        break;
+                    }
+                    last = next;
+                }
+                StringBuilder itemText = new StringBuilder(content).append('\n');
+                for (int i = item + 1; i <= last; i++) {
+                    itemText.append(text.get(i)).append('\n');
+                }
+                boolean followedByBlank = (last + 1 < text.size()) && text.get(last + 1).isEmpty();
+                if (followedByBlank) {
+                    itemText.append('\n');
+                }
+                String html;
+                List<Line> itemLines = outdent(split(itemText.toString()));
+                if (leadingLine || followedByBlank || (itemText.indexOf("\n\n") >= 0)) {
+                    html = blocks(itemLines, listLevel + 1);
+                } else {
+                    html = spans.render(join(lists(itemLines, listLevel + 1)) + "\n");
+                }
+                items.append("<li>").append(html.trim()).append("</li>\n");
+                item = last + 1;
+                leadingLine = false;
+                while ((item < text.size()) && text.get(item).isEmpty()) {
+                    item++;
+                    leadingLine = true;
+                }
+            }
+            if (listLevel == 0) {
+                return "<" + type + ">\n" + items + "</" + type + ">";
+            }
+            int end = items.length();
+            while ((end > 0) && SpanScanner.isWhitespace(items.charAt(end - 1))) {
+                end--;
+            }
+            return "<" + type + ">" + items.substring(0, end) + "</" + type + ">";
+        }
+
+        /**
+         * Code blocks: lines indented by four spaces or more, after a blank line.
+         */
+        private List<Line> codeBlocks(List<Line> lines) {
+            List<Line> result = new ArrayList<Line>(lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                Line line = lines.get(i);
+                if (line.block || !line.text.startsWith("    ") || ((i > 0) && ((i == 1) || !lines.get(i - 1).isBlank()))) {
+                    result.add(line);
+                    continue;
+                }
+                int last = i;
+                int next = i;
+                while ((next < lines.size()) && !lines.get(next).block
+                        && (lines.get(next).isBlank() || lines.get(next).text.startsWith("    "))) {
+                    if (!lines.get(next).isBlank()) {
+                        last = next;
+                    }
+                    next++;
+                }
+                // the html takes the place of the line end and the blank line before the block, and of the blank lines after it
+                String html = codeBlock(lines, i, last + 1);
+                int lead = 0;
+                while ((lead < html.length()) && (html.charAt(lead) == '\n')) {
+                    lead++;
+                }
+                int trail = 0;
+                while ((trail < html.length() - lead) && (html.charAt(html.length() - 1 - trail) == '\n')) {
+                    trail++;
+                }
+                String body = html.substring(lead, html.length() - trail);
+                if ((i > 0) && (lead < 2)) {
+                    result.remove(result.size() - 1);
+                    Line previous = result.get(result.size() - 1);
+                    if ((lead == 0) && !previous.block) {
+                        result.remove(result.size() - 1);
+                        body = previous.text + body;
+                    }
+                } else {
+                    for (int k = 2; (i > 0) && (k < lead); k++) {
+                        result.add(Line.BLANK);
+                    }
+                }
+                if ((trail == 0) && (next < lines.size()) && !lines.get(next).block) {
+                    body = body + lines.get(next).text;
+                    next++;
+                }
+                addLines(result, body);
+                for (int k = 1; k < trail; k++) {
+                    result.add(Line.BLANK);
+                }
+                i = next - 1;
+            }
+            return result;
+        }
+
+        private String codeBlock(List<Line> lines, int from, int to) {
+            StringBuilder code = new StringBuilder();
+            for (int i = from; i < to; i++) {
+                code.append(outdent(lines.get(i).text)).append('\n');
+            }
+            String encoded = SpanScanner.encodeCode(code);
+            int end = encoded.length();
+            while ((end > 0) && SpanScanner.isWhitespace(encoded.charAt(end - 1))) {
+                end--;
+            }
+            encoded = encoded.substring(0, end);
+            int newline = encoded.indexOf('\n');
+            String first = (newline < 0) ? encoded : encoded.substring(0, newline);
+            String html;
+            if (first.startsWith(LANG_IDENTIFIER) && !first.substring(LANG_IDENTIFIER.length()).trim().isEmpty()) {
+                String body = encoded;
+                if ((newline >= 0) && !containsAny(first, REGEX_CHARACTERS)) {
+                    body = encoded.substring(newline + 1);
+                }
+                html = String.format(codeBlockTemplate, first.substring(LANG_IDENTIFIER.length()).trim(), body);
+            } else {
+                html = String.format(PLAIN_CODE_BLOCK_TEMPLATE, encoded);
+            }
+            return html;
+        }
+
+        /**
+         * Block quotes: groups of lines starting with '&gt;', each followed by the lines up to a blank line.
+         */
+        private List<Line> blockQuotes(List<Line> lines, int listLevel) {
+            List<Line> result = new ArrayList<Line>(lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                Line line = lines.get(i);
+                if (line.block || !isQuoteStart(line.text)) {
+                    result.add(line);
+                    continue;
+                }
+                int next = i;
+                do {
+                    next++;
+                    while ((next < lines.size()) && !lines.get(next).isBlank()) {
+                        next++;
+                    }
+                    while ((next < lines.size()) && lines.get(next).isBlank()) {
+                        next++;
+                    }
+                } while ((next < lines.size()) && !lines.get(next).block && isQuoteStart(lines.get(next).text));
+                addLines(result, blockQuote(lines, i, next, listLevel));
+                result.add(Line.BLANK);
+                i = next - 1;
+            }
+            return result;
+        }
+
+        private static boolean isQuoteStart(String text) {
+            int i = 0;
+            while ((i < text.length()) && ((text.charAt(i) == ' ') || (text.charAt(i) == '\t'))) {
+                i++;
+            }
+            return (i + 1 < text.length()) && (text.charAt(i) == '>');
+        }
+
+        private String blockQuote(List<Line> lines, int from, int to, int listLevel) {
+            StringBuilder text = new StringBuilder();
+            for (int i = from; i < to; i++) {
+                String line = lines.get(i).text;
+                int start = 0;
+                while ((start < line.length()) && ((line.charAt(start) == ' ') || (line.charAt(start) == '\t'))) {
+                    start++;
+                }
+                if ((start < line.length()) && (line.charAt(start) == '>')) {
+                    start++;
+                    if ((start < line.length()) && ((line.charAt(start) == ' ') || (line.charAt(start) == '\t'))) {
+                        start++;
+                    }
+                } else {
+                    start = 0;
+                }
+                if (skipSpacesAndTabs(line, start) < line.length()) {
+                    text.append(line, start, line.length());
+                }
+                text.append('\n');
+            }
+            String quote = blocks(split(text.toString()), listLevel);
+            StringBuilder indented = new StringBuilder(quote.length() + 64);
+            if (!quote.isEmpty()) {
+                indented.append("  ");
+            }
+            for (int i = 0; i < quote.length(); i++) {
+                char c = quote.charAt(i);
+                indented.append(c);
+                if ((c == '\n') && (i + 1 < quote.length())) {
+                    indented.append("  ");
+                }
+            }
+            return "<blockquote>\n" + unindentPre(indented.toString()) + "\n</blockquote>";
+        }
+
+        /**
+         * Removes the quote indentation in plain code blocks, and the white space before them.
+         */
+        private static String unindentPre(String quote) {
+            StringBuilder result = new StringBuilder(quote.length());
+            int copied = 0;
+            for (int pre = quote.indexOf("<pre>"); pre >= 0; pre = quote.indexOf("<pre>", copied)) {
+                int close = quote.indexOf("</pre>", pre + 5);
+                if (close < 0) {
+                    break;
+                }
+                int start = pre;
+                while ((start > copied) && SpanScanner.isWhitespace(quote.charAt(start - 1))) {
+                    start--;
+                }
+                result.append(quote, copied, start);
+                int end = close + 6;
+                for (int i = start; i < end; i++) {
+                    if (((i == start) || (quote.charAt(i - 1) == '\n')) && quote.startsWith("  ", i)) {
+                        i++;
+                    } else {
+                        result.append(quote.charAt(i));
+                    }
+                }
+                copied = end;
+            }
+            return result.append(quote, copied, quote.length()).toString();
+        }
+
+        private String paragraphs(List<Line> lines) {
+            StringBuilder html = new StringBuilder();
+            StringBuilder paragraph = new StringBuilder();
+            for (Line line : lines) {
+                if (!line.block && !line.isBlank()) {
+                    if (paragraph.length() > 0) {
+                        paragraph.append('\n');
+                    }
+                    paragraph.append(line.text);
+                    continue;
+                }
+                appendParagraph(html, paragraph);
+                if (line.block) {
+                    appendBlock(html, line.text);
+                }
+            }
+            appendParagraph(html, paragraph);
+            return html.toString();
+        }
+
+        private void appendParagraph(StringBuilder html, StringBuilder paragraph) {
+            if (paragraph.length() > 0) {
+                appendBlock(html, "<p>" + spans.render(paragraph.toString()) + "</p>");
+                paragraph.setLength(0);
+            }
+        }
+
+        private static void appendBlock(StringBuilder html, String block) {
+            if (html.length() > 0) {
+                html.append("\n\n");
+            }
+            html.append(block);
+        }
+    }
+
+    /**
+     * Html blocks: block tags and their content, standalone rules and comments.
+     */
+    private static List<Line> htmlBlocks(List<Line> lines) {
+        List<Line> result = tagBlocks(lines, BLOCK_TAGS, true);
+        result = tagBlocks(result, LINE_BLOCK_TAGS, false);
+        result = ruleBlocks(result);
+        return commentBlocks(result);
+    }
+
+    /**
+     * Finds blocks starting with an opening tag at the start of a line, closed by the first line starting
+     * or ending with the closing tag. The next closing line of every tag is found once, and reused by
+     * the following opening lines.
+     */
+    private static List<Line> tagBlocks(List<Line> lines, Set<String> tags, boolean closedAtLineStart) {
+        List<Line> result = new ArrayList<Line>(lines.size());
+        Map<String, int[]> closings = new HashMap<String, int[]>();
+        for (int i = 0; i < lines.size(); i++) {
+            Line line = lines.get(i);
+            String tag = line.block ? null : openingTag(line.text, tags);
+            int close = -1;
+            if (tag != null) {
+                String closingTag = "</" + tag + ">";
+                if (!closedAtLineStart && endsWithTag(line.text, closingTag, tag.length() + 1)) {
+                    close = i;
+                } else {
+                    int[] closing = closings.get(tag);
+                    if ((closing == null) || (closing[0] > i + 1) || ((closing[1] >= 0) && (closing[1] <= i))) {
+                        closing = new int[] { i + 1, closingLine(lines, i + 1, closingTag, closedAtLineStart) };
+                        closings.put(tag, closing);
+                    }
+                    close = closing[1];
+                }
+            }
+            if (close < 0) {
+                result.add(line);
+                continue;
+            }
+            addBlock(result, join(lines.subList(i, close + 1)));
+            i = close;
+        }
+        return result;
+    }
+
+    private static int closingLine(List<Line> lines, int from, String closingTag, boolean closedAtLineStart) {
+        for (int i = from; i < lines.size(); i++) {
+            Line line = lines.get(i);
+            if (line.block) {
+                continue;
+            }
+            if (closedAtLineStart ? (line.text.startsWith(closingTag) && (skipSpaces(line.text, closingTag.length()) == line.text.length()))
+                    : endsWithTag(line.text, closingTag, 0)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String openingTag(String text, Set<String> tags) {
+        if (!text.startsWith("<")) {
+            return null;
+        }
+        int end = 1;
+        while ((end < text.length()) && SpanScanner.isWordChar(text.charAt(end))) {
+            end++;
+        }
+        String tag = text.substring(1, end);
+        return tags.contains(tag) ? tag : null;
+    }
+
+    private static boolean endsWithTag(String text, String tag, int from) {
+        int end = text.length();
+        while ((end > 0) && (text.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        return (end - tag.length() >= from) && text.startsWith(tag, end - tag.length());
+    }
+
+    /**
+     * Rules written as html, alone between blank lines.
+     */
+    private static List<Line> ruleBlocks(List<Line> lines) {
+        List<Line> result = new ArrayList<Line>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            Line line = lines.get(i);
+            if (!line.block && isRuleTag(line.text) && ((i == 0) || lines.get(i - 1).isBlank())
+                    && ((i + 1 == lines.size()) || lines.get(i + 1).isBlank())) {
+                addStandaloneBlock(result, i, line.text);
+            } else {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isRuleTag(String text) {
+        int start = leadingSpaces(text);
+        if ((start > 3) || !text.startsWith("<hr", start)) {
+            return false;
+        }
+        int from = start + 3;
+        int end = text.length();
+        while ((end > from) && (text.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        if ((end == from) || (text.charAt(end - 1) != '>') || ((from < end - 1) && SpanScanner.isWordChar(text.charAt(from)))) {
+            return false;
+        }
+        return !containsAny(text.substring(from, end - 1), "<>");
+    }
+
+    /**
+     * Comments after a blank line, ending before a blank line.
+     */
+    private static List<Line> commentBlocks(List<Line> lines) {
+        List<Line> result = new ArrayList<Line>(lines.size());
+        // the last comment end found, valid for any comment starting before it
+        long searchedFrom = -1;
+        long foundEnd = -1;
+        for (int i = 0; i < lines.size(); i++) {
+            Line line = lines.get(i);
+            int start = leadingSpaces(line.text);
+            if (line.block || (start > 3) || !line.text.startsWith("<!--", start) || ((i > 0) && !lines.get(i - 1).isBlank())) {
+                result.add(line);
+                continue;
+            }
+            long from = position(i, start + 4);
+            if ((searchedFrom < 0) || (from < searchedFrom) || ((foundEnd >= 0) && (foundEnd < from))) {
+                searchedFrom = from;
+                foundEnd = commentEnd(lines, i, start + 4);
+            }
+            if (foundEnd < 0) {
+                result.add(line);
+                continue;
+            }
+            int last = (int) (foundEnd >>> 32);
+            addStandaloneBlock(result, i, join(lines.subList(i, last + 1)));
+            i = last;
+        }
+        return result;
+    }
+
+    /**
+     * @return the position of the first "--" followed by '&gt;' at the end of a line before a blank line, or -1.
+     */
+    private static long commentEnd(List<Line> lines, int line, int from) {
+        for (int i = line; (i < lines.size()) && !lines.get(i).block; i++) {
+            String text = lines.get(i).text;
+            for (int dashes = text.indexOf("--", (i == line) ? from : 0); dashes >= 0; dashes = text.indexOf("--", dashes + 1)) {
+                int close = dashes + 2;
+                while ((close < text.length()) && SpanScanner.isWhitespace(text.charAt(close))) {
+                    close++;
+                }
+                if ((close < text.length()) && (text.charAt(close) == '>') && (skipSpaces(text, close + 1) == text.length())
+                        && ((i + 1 == lines.size()) || lines.get(i + 1).isBlank())) {
+                    return position(i, dashes);
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static long position(int line, int column) {
+        return ((long) line << 32) | column;
+    }
+
+    /**
+     * Adds a block found after a blank line. As MarkdownJ, a block after a blank first line keeps the line.
+     */
+    private static void addStandaloneBlock(List<Line> lines, int index, String html) {
+        if (index == 1) {
+            lines.remove(0);
+            addBlock(lines, "\n" + html);
+        } else {
+            addBlock(lines, html);
+        }
+    }
+
+    private static void addBlock(List<Line> lines, String html) {
+        lines.add(Line.BLANK);
+        lines.add(Line.block(html));
+        lines.add(Line.BLANK);
+    }
+
+    private static void addLines(List<Line> lines, String text) {
+        int start = 0;
+        while (start <= text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            lines.add(Line.raw(text.substring(start, end)));
+            start = end + 1;
+        }
+    }
+
+    private static List<Line> split(String text) {
+        List<Line> lines = new ArrayList<Line>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            lines.add(Line.raw(text.substring(start, end)));
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    private static String join(List<Line> lines) {
+        StringBuilder text = new StringBuilder();
+        for (Line line : lines) {
+            if (text.length() > 0) {
+                text.append('\n');
+            }
+            text.append(line.text);
+        }
+        return text.toString();
+    }
+
+    private static List<Line> outdent(List<Line> lines) {
+        List<Line> result = new ArrayList<Line>(lines.size());
+        for (Line line : lines) {
+            result.add(Line.raw(outdent(line.text)));
+        }
+        return result;
+    }
+
+    /**
+     * Removes a tab or up to four spaces.
+     */
+    private static String outdent(String text) {
+        if (text.startsWith("\t")) {
+            return text.substring(1);
+        }
+        int spaces = Math.min(leadingSpaces(text), TAB_WIDTH);
+        return text.substring(spaces);
+    }
+
+    /**
+     * @param maxIndent the maximum number of spaces before the marker.
+     * @param tabs true if tabs may follow the marker.
+     * @return the position after a list marker and the following spaces, or -1.
+     */
+    private static int markerEnd(String text, int maxIndent, boolean tabs) {
+        int start = leadingSpaces(text);
+        if (start > maxIndent) {
+            return -1;
+        }
+        int i = start;
+        if ((i < text.length()) && ("*+-".indexOf(text.charAt(i)) >= 0)) {
+            i++;
+        } else {
+            while ((i < text.length()) && (text.charAt(i) >= '0') && (text.charAt(i) <= '9')) {
+                i++;
+            }
+            if ((i == start) || (i == text.length()) || (text.charAt(i) != '.')) {
+                return -1;
+            }
+            i++;
+        }
+        int marker = i;
+        while ((i < text.length()) && ((text.charAt(i) == ' ') || (tabs && (text.charAt(i) == '\t')))) {
+            i++;
+        }
+        return (i > marker) ? i : -1;
+    }
+
+    private static String withoutMarkers(String text) {
+        StringBuilder result = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if ((c >= SpanScanner.FIRST_MARKER) && (c <= SpanScanner.LAST_MARKER)) {
+                if (result == null) {
+                    result = new StringBuilder(text);
+                }
+                result.setCharAt(i, '\uFFFD');
+            }
+        }
+        return (result == null) ? text : result.toString();
+    }
+
+    private static boolean isRepeated(String text, int from, int to, char c) {
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!SpanScanner.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsAny(String text, String chars) {
+        for (int i = 0; i < text.length(); i++) {
+            if (chars.indexOf(text.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int leadingSpaces(String text) {
+        return skipSpaces(text, 0);
+    }
+
+    private static int skipSpaces(String text, int from) {
+        int i = from;
+        while ((i < text.length()) && (text.charAt(i) == ' ')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipSpacesAndTabs(String text, int from) {
+        int i = from;
+        while ((i < text.length()) && ((text.charAt(i) == ' ') || (text.charAt(i) == '\t'))) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Checks the links between the pages of a site, against an in-memory index of the pages and their anchors.
+ *
+ * Pages are added by the threads rendering them, with the links found in their html: the line of each link
+ * is looked up in the markdown while it is at hand, so the pages are not read again. Once every page is added,
+ * links are checked in parallel.
+ *
+ * The line of a link is the one of its target after <code>](</code>, <code>href=</code> or, for links by
+ * reference, <code>]:</code> in its definition; a target only found elsewhere, as in a code span, gives the line
+ * of its first occurrence after the previous link.
+ *
+ * Checked links are relative ones to a page (an html file, or a source file with the extension of an added
+ * source) and fragments, which must be an anchor of their page. Absolute links, links with a scheme and links
+ * to other files are not checked.
+ *
+ */
+public final class LinkChecker {
+
+    /**
+     * Links checked by a task, splitting larger lists.
+     */
+    private static final int LINKS_PER_TASK = 1024;
+
+    /**
+     * A link not leading to a page or to an anchor, as a failure of the build.
+     */
+    public static final class BrokenLinkException extends Exception implements Comparable<BrokenLinkException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String source;
+
+        private final int line;
+
+        private final String href;
+
+        private final String reason;
+
+        BrokenLinkException(String source, int line, String href, String reason) {
+            // found by a check, not thrown: no stack trace
+            super("broken link '" + href + "': " + reason, null, false, false);
+            this.source = source;
+            this.line = line;
+            this.href = href;
+            this.reason = reason;
+        }
+
+        /**
+         * @return the path of the source, relative to the source directory.
+         */
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * @return the line of the link in the source, from 1; 0 if not found.
+         */
+        public int getLine() {
+            return line;
+        }
+
+        public String getHref() {
+            return href;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        /**
+         * @return the source path and line, as <code>sub/page.md:12</code>.
+         */
+        public String getLocation() {
+            return (line == 0) ? source : source + ":" + line;
+        }
+
+        public int compareTo(BrokenLinkException other) {
+            int compared = source.compareTo(other.source);
+            if (compared == 0) {
+                compared = (line < other.line) ? -1 : ((line == other.line) ? 0 : 1);
+            }
+            return (compared == 0) ? href.compareTo(other.href) : compared;
+        }
+    }
+
+    /**
+     * A link of a page.
+     */
+    private static final class Link {
+
+        private final String source;
+
+        private final String page;
+
+        private final int line;
+
+        private final String href;
+
+        Link(String source, String page, int line, String href) {
+            this.source = source;
+            this.page = page;
+            this.line = line;
+            this.href = href;
+        }
+    }
+
+    /**
+     * The anchors of every page, keyed by html path.
+     */
+    private final Map<String, Set<String>> pages = new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * The html path of every source, keyed by source path.
+     */
+    private final Map<String, String> sources = new ConcurrentHashMap<String, String>();
+
+    /**
+     * The extensions of the sources, telling links to sources from links to other files.
+     */
+    private final Set<String> extensions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final Queue<Link> links = new ConcurrentLinkedQueue<Link>();
+
+    /**
+     * Adds a page with its links.
+     *
+     * @param path the path of the source, relative to the source directory.
+     * @param markdown the source, to find the line of each link.
+     * @param outline the outline of the html of the page.
+     */
+    public void add(String path, CharSequence markdown, PageOutline outline) {
+        String page = FileUtils.changeExtension(path, ".html");
+        pages.put(page, outline.getAnchors());
+        sources.put(path, page);
+        String extension = extension(path);
+        if (!extension.isEmpty()) {
+            extensions.add(extension);
+        }
+        if (outline.getLinks().isEmpty()) {
+            return;
+        }
+        String text = (markdown == null) ? "" : markdown.toString();
+        LineCounter lines = new LineCounter(text);
+        // links are mostly in the order of the source: each one is looked for after the previous one
+        int from = 0;
+        for (String href : outline.getLinks()) {
+            if (!isChecked(href)) {
+                continue;
+            }
+            int at = target(text, href, from);
+            if ((at < 0) && (from > 0)) {
+                at = target(text, href, 0);
+            }
+            if (at < 0) {
+                at = text.indexOf(href, from);
+            }
+            if ((at < 0) && (from > 0)) {
+                at = text.indexOf(href);
+            }
+            if (at >= 0) {
+                from = at + 1;
+            }
+            links.add(new Link(path, page, (at < 0) ? 0 : lines.line(at), href));
+        }
+    }
+
+    /**
+     * Returns the offset of the given href in the markdown where it is the target of a link: after
+     * <code>](</code>, <code>]:</code> or <code>href=</code>, with optional spaces and brackets or quotes.
+     *
+     * @return the offset of the href, -1 if not found at or after the given offset.
+     */
+    static int target(String text, String href, int from) {
+        for (int at = text.indexOf(href, from); at >= 0; at = text.indexOf(href, at + 1)) {
+            int i = at;
+            char before = (i > 0) ? text.charAt(i - 1) : 0;
+            if ((before == '"') || (before == '\'')) {
+                if ((i >= 6) && text.regionMatches(true, i - 6, "href=", 0, 5)) {
+                    return at;
+                }
+                continue;
+            }
+            if (before == '<') {
+                i--;
+            }
+            while ((i > 0) && ((text.charAt(i - 1) == ' ') || (text.charAt(i - 1) == '\t'))) {
+                i--;
+            }
+            if ((i >= 2) && (text.charAt(i - 2) == ']') && ((text.charAt(i - 1) == '(') || (text.charAt(i - 1) == ':'))) {
+                return at;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of links to check.
+     */
+    public int size() {
+        return links.size();
+    }
+
+    /**
+     * Checks every link. No page must be added while checking.
+     *
+     * @param threads the number of threads checking links.
+     * @return the broken links, sorted by source and line.
+     */
+    public List<BrokenLinkException> check(int threads) {
+        final List<Link> all = new ArrayList<Link>(links);
+        final Queue<BrokenLinkException> broken = new ConcurrentLinkedQueue<BrokenLinkException>();
+        if (threads <= 1) {
+            check(all, broken);
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(new CheckTask(all, broken));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        List<BrokenLinkException> sorted = new ArrayList<BrokenLinkException>(broken);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Checks a list of links, splitting it in halves until small.
+     */
+    private class CheckTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Link> list;
+
+        private final Queue<BrokenLinkException> broken;
+
+        CheckTask(List<Link> list, Queue<BrokenLinkException> broken) {
+            this.list = list;
+            this.broken = broken;
+        }
+
+        @Override
+        protected void compute() {
+            if (list.size() <= LINKS_PER_TASK) {
+                check(list, broken);
+                return;
+            }
+            int half = list.size() / 2;
+            invokeAll(new CheckTask(list.subList(0, half), broken), new CheckTask(list.subList(half, list.size()), broken));
+        }
+    }
+
+    private void check(List<Link> list, Queue<BrokenLinkException> broken) {
+        for (Link link : list) {
+            String reason = check(link);
+            if (reason != null) {
+                broken.add(new BrokenLinkException(link.source, link.line, link.href, reason));
+            }
+        }
+    }
+
+    /**
+     * @return why the link is broken, null if not broken or not checked.
+     */
+    private String check(Link link) {
+        String href = link.href;
+        int hash = href.indexOf('#');
+        String target = (hash < 0) ? href : href.substring(0, hash);
+        String fragment = (hash < 0) ? "" : href.substring(hash + 1);
+        int query = target.indexOf('?');
+        if (query >= 0) {
+            target = target.substring(0, query);
+        }
+        String page = link.page;
+        if (!target.isEmpty()) {
+            String extension = extension(target);
+            boolean toSource = extensions.contains(extension);
+            if (!toSource && !extension.equals("html")) {
+                return null;
+            }
+            String resolved = resolve(link.page, percentDecode(target));
+            if (resolved == null) {
+                return "outside the site";
+            }
+            page = toSource ? sources.get(resolved) : (pages.containsKey(resolved) ? resolved : null);
+            if (page == null) {
+                return (toSource ? "no source " : "no page ") + resolved;
+            }
+        }
+        if (fragment.isEmpty() || pages.get(page).contains(percentDecode(fragment))) {
+            return null;
+        }
+        return "no anchor '" + fragment + "' in " + page;
+    }
+
+    /**
+     * Returns the extension of the file name in a path, empty if none.
+     */
+    private static String extension(String path) {
+        int dot = path.lastIndexOf('.');
+        return ((dot < 0) || (path.indexOf('/', dot) >= 0)) ? "" : path.substring(dot + 1);
+    }
+
+    /**
+     * Tells relative links and fragments from absolute links and links with a scheme, which are not checked.
+     */
+    static boolean isChecked(String href) {
+        if (href.isEmpty() || href.startsWith("/") || href.equals("#")) {
+            return false;
+        }
+        for (int i = 0; i < href.length(); i++) {
+            char c = href.charAt(i);
+            if (c == ':') {
+                return false;
+            }
+            if ((c == '/') || (c == '?') || (c == '#')) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the path of a relative link from a page, with <code>.</code> and <code>..</code> resolved;
+     * null if outside the site.
+     */
+    static String resolve(String page, String target) {
+        StringBuilder path = new StringBuilder(page.length() + target.length());
+        path.append(page, 0, Math.max(page.lastIndexOf('/'), 0));
+        int start = 0;
+        while (start <= target.length()) {
+            int end = target.indexOf('/', start);
+            if (end < 0) {
+                end = target.length();
+            }
+            if ((end - start == 2) && target.startsWith("..", start)) {
+                if (path.length() == 0) {
+                    return null;
+                }
+                path.setLength(Math.max(path.lastIndexOf("/"), 0));
+            } else if ((end > start) && !((end - start == 1) && (target.charAt(start) == '.'))) {
+                if (path.length() > 0) {
+                    path.append('/');
+                }
+                path.append(target, start, end);
+            }
+            start = end + 1;
+        }
+        return path.toString();
+    }
+
+    private static String percentDecode(String text) {
+        if (text.indexOf('%') < 0) {
+            return text;
+        }
+        try {
+            return URLDecoder.decode(text.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalArgumentException e) {
+            return text;
+        }
+    }
+
+    /**
+     * Counts lines up to increasing offsets of a text, scanning it once for links in order.
+     */
+    private static final class LineCounter {
+
+        private final String text;
+
+        private int offset;
+
+        private int line = 1;
+
+        LineCounter(String text) {
+            this.text = text;
+        }
+
+        int line(int at) {
+            if (at < offset) {
+                offset = 0;
+                line = 1;
+            }
+            for (; offset < at; offset++) {
+                if (text.charAt(offset) == '\n') {
+                    line++;
+                }
+            }
+            return line;
+        }
+    }
+}
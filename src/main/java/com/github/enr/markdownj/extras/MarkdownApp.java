@@ -16,10 +16,31 @@ package com.github.enr.markdownj.extras;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -30,8 +51,7 @@ import org.apache.commons.cli.PosixParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.io.Files;
-
+import com.google.common.collect.AbstractIterator;
 
 /**
  * Markdown app. Transforms in html every file found in source dir, maintaining
@@ -45,11 +65,52 @@ import com.google.common.io.Files;
  * --source src/test/resources/site/markdown
  * --destination target/markdownj-extras"
  * 
+ * Sources are walked without recursion, skipping files and directories matching the --exclude patterns or
+ * the patterns of .mdignore files, and with the --include option processing only the files matching its
+ * patterns (see {@link SourceWalker}).
+ * Files are processed in parallel by a pool of threads, sized by the --threads option,
+ * or with the --pipeline option by separate threads reading, rendering and writing (see {@link RenderPipeline}).
+ * In both cases the threads take the files from a walk of the sources through a bounded queue, so the memory
+ * of a build doesn't grow with the number of files.
+ * With the --incremental option, only files changed since the last build are processed
+ * (see {@link BuildManifest}), and files generated from removed sources are deleted.
+ * With the --watch option, after the build the app keeps running and processes again the
+ * sources as soon as they change (see {@link SiteWatcher}).
+ * The source can be a zip or jar archive, or a jar: URL, read in place (see {@link SourceArchive}).
+ * With the --destination-archive option, pages are written in a zip or jar archive instead of a directory,
+ * in a deterministic order (see {@link SiteArchive}).
+ * With the --preprocess option, the markdown of every file goes through the given stages before rendering
+ * (see {@link Preprocessors}).
+ * With the --precompress option, gzip or deflate siblings of every page are written with it (see {@link Precompressor}).
+ * With the --search-index option, headings and terms of every page are collected as it is rendered, and written
+ * as a search index at the end of the build (see {@link SearchIndex}).
+ * With the --check-links option, links between pages are checked at the end of the build, and broken ones are
+ * failures of the build (see {@link LinkChecker}).
+ * With the --metrics option, timings and sizes of the processed files are written to a JSON
+ * report at the end of the build (see {@link BuildMetrics}).
+ * When running from command line, the exit status is 0 if every file has been processed
+ * and 1 if at least one file failed.
+ * 
  */
 public class MarkdownApp {
 
     private static final String CL_EXTENSIONS_SEPARATOR = ",";
 
+    /**
+     * Files walked ahead of the threads processing them, for each thread.
+     */
+    private static final int QUEUED_FILES_PER_THREAD = 4;
+
+    /**
+     * Suffix of the pages being rendered, renamed to the page when complete.
+     */
+    private static final String PART_SUFFIX = ".part";
+
+    /**
+     * Exit status when at least one file could not be processed.
+     */
+    public static final int EXIT_FAILURE = 1;
+
     static private Logger logger;
 
     @SuppressWarnings("static-access")
@@ -60,17 +121,57 @@ public class MarkdownApp {
     }
 
     /**
-     * Path of the directory containing markdown files.
+     * Path of the directory containing markdown files, or of a zip or jar archive, or a jar: URL.
      * If used from command line, the path is translated to absolute path.
      */
     private String source;
 
+    /**
+     * The archive of the sources of the running build, null if the sources are in a directory.
+     */
+    private SourceArchive sourceArchive;
+
     /**
      * Path of the target directory.
      * If used from command line, the path is translated to absolute path.
      */
     private String destination;
 
+    /**
+     * Maps source paths to destination paths, built when first used after a change of source or destination.
+     */
+    private volatile Preprocessor destinationMapping;
+
+    /**
+     * Path of the zip or jar archive of the html files, used instead of the destination directory.
+     */
+    private String destinationArchive;
+
+    /**
+     * Compression level of the archive and of the precompressed pages, from 0 to 9, or -1 for the default level.
+     */
+    private int compressionLevel = SiteArchive.DEFAULT_LEVEL;
+
+    /**
+     * Compressed siblings written for every page, none if empty.
+     */
+    private Set<Precompressor.Format> precompress = EnumSet.noneOf(Precompressor.Format.class);
+
+    /**
+     * Names of the stages run on the markdown before rendering, as in {@link Preprocessors#forName(String)}, none if empty.
+     */
+    private List<String> preprocess = new ArrayList<String>();
+
+    /**
+     * Pages smaller than this are not precompressed.
+     */
+    private int precompressMinimumBytes = Precompressor.DEFAULT_MINIMUM_BYTES;
+
+    /**
+     * The precompressor of the running build, null if pages are not precompressed.
+     */
+    private Precompressor precompressor;
+
     /**
      * Path to the html file used as header for every transformed markdown file.
      * Could be absolute or relative.
@@ -84,6 +185,12 @@ public class MarkdownApp {
      * 
      */
     private String footer;
+
+    /**
+     * Path to the page template used instead of header and footer (see {@link PageTemplate}).
+     * Could be absolute or relative.
+     */
+    private String template;
     
     /**
      * The format string used to render code blocks.
@@ -95,6 +202,21 @@ public class MarkdownApp {
      * Only files with extension in list will be processed.
      */
     private List<String> processableExtensions = new ArrayList<String>();
+
+    /**
+     * Glob patterns of the files to process, every file if empty (see {@link SourceWalker}).
+     */
+    private List<String> includes = new ArrayList<String>();
+
+    /**
+     * Glob patterns of the files and directories to skip, besides the ones of the ignore files.
+     */
+    private List<String> excludes = new ArrayList<String>();
+
+    /**
+     * Walks the sources of the running build, null if not yet built or after a change of sources or patterns.
+     */
+    private volatile SourceWalker sourceWalker;
     
     /**
      * Character encoding to write and read files.
@@ -103,29 +225,211 @@ public class MarkdownApp {
      */
     private String charEncoding;
 
+    /**
+     * Number of threads used to process files.
+     * 1 means sequential processing in the calling thread.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The threads processing files in parallel, kept by the caller between builds.
+     * null means a pool is created for each build.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Files longer than this are split in chunks rendered in parallel.
+     * 0 means files are never split.
+     */
+    private int chunkSize;
+
+    /**
+     * The engine transforming markdown in html.
+     */
+    private MarkdownEngine engine = MarkdownEngines.MARKDOWNJ;
+
+    /**
+     * Files longer than this number of chars are not rendered.
+     * 0 means no limit.
+     */
+    private int maximumSize;
+
+    /**
+     * Files not rendered in this number of milliseconds are abandoned.
+     * 0 means no limit.
+     */
+    private long renderTimeout;
+
+    /**
+     * What to do with files over the size or time budget.
+     */
+    private RenderWatchdog.Action overBudget = RenderWatchdog.Action.FAIL;
+
+    /**
+     * The budgets of the running build.
+     */
+    private RenderWatchdog renderWatchdog = RenderWatchdog.UNLIMITED;
+
+    /**
+     * Path of the JSON report with the metrics of the build.
+     * null means metrics are not collected.
+     */
+    private String metrics;
+
+    /**
+     * Number of threads reading, rendering and writing files when processed by a {@link RenderPipeline}.
+     * 0 readers means files are processed without pipeline.
+     */
+    private int pipelineReaders;
+
+    private int pipelineRenderers;
+
+    private int pipelineWriters;
+
+    /**
+     * Metrics of the running build, null if not collected.
+     */
+    private BuildMetrics buildMetrics;
+
+    /**
+     * Directory of the build cache shared by builds of any checkout.
+     * null means every changed file is rendered.
+     */
+    private String cacheDir;
+
+    /**
+     * The build cache of the running build, null if not used.
+     */
+    private BuildCache buildCache;
+
+    /**
+     * Hash of everything the output depends on besides the sources, null if not needed by manifest nor cache.
+     */
+    private String buildConfiguration;
+
+    /**
+     * Files which could not be processed in the last run, keyed and sorted by source path, broken links keyed by source path and line,
+     * and the invalid argument, keyed by option, of a run not started.
+     */
+    private final SortedMap<String, Exception> failures = new ConcurrentSkipListMap<String, Exception>();
+
+    /**
+     * If true, a manifest is kept in the destination directory and only changed files are processed.
+     */
+    private boolean incremental;
+
+    /**
+     * If true, code blocks starting with a lang: line are highlighted.
+     */
+    private boolean highlight;
+
+    /**
+     * If true, a search index of the pages is written at the end of the build.
+     */
+    private boolean searchIndex;
+
+    /**
+     * The index of the running build, null if not indexing.
+     */
+    private SearchIndex buildIndex;
+
+    /**
+     * If true, links between pages are checked at the end of the build.
+     */
+    private boolean checkLinks;
+
+    /**
+     * The link checker of the running build, null if not checking.
+     */
+    private LinkChecker linkChecker;
+
+    /**
+     * The manifest of the previous build, null if not incremental or if every file has to be processed.
+     */
+    private BuildManifest previousManifest;
+
+    /**
+     * The manifest of the running build, null if not incremental.
+     */
+    private BuildManifest currentManifest;
+
+    /**
+     * Sources seen in the running incremental build, failed ones included.
+     */
+    private final Set<String> visitedSources = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * The running watcher, null if not watching.
+     */
+    private volatile SiteWatcher watcher;
+
     private MarkdownService markdown = new MarkdownServiceImpl();
 
     public static void main(String[] args) {
         MarkdownApp app = new MarkdownApp();
-        app.log().debug("Markdown app starting with args: {}", Arrays.toString(args));
+        if (app.run(args) != 0) {
+            System.exit(EXIT_FAILURE);
+        }
+    }
+
+    /**
+     * Processes the files as configured by the given command line arguments.
+     * 
+     * @param args the arguments, as for {@link #main(String[])}.
+     * @return the exit status: 0 if every file has been processed, {@link #EXIT_FAILURE} otherwise, as for invalid arguments.
+     */
+    public int run(String[] args) {
+        log().debug("Markdown app starting with args: {}", Arrays.toString(args));
         CommandLineParser parser = new PosixParser();
-        Options options = new Options();
-        options.addOption("s", "source", true, "The source directory for markdown files");
-        options.addOption("d", "destination", true, "The destination directory for html files");
-        options.addOption("h", "header", true, "The path to the html header file");
-        options.addOption("f", "footer", true, "The path to the html footer file");
-        options.addOption("t", "code-template", true, "The template for code blocks");
-        options.addOption("e", "extensions", true, "A comma separated list of file extensions to process. If setted, files with extension not in list won't be processed");
-        options.addOption("c", "char-encoding", true, "The encoding to read and write files");
+        Options options = options();
         HelpFormatter formatter = new HelpFormatter();
         String helpHeader = String.format("%s", MarkdownApp.class.getName());
         try {
             CommandLine line = parser.parse(options, args);
-            app.process(line);
+            process(line);
         } catch (ParseException e) {
-            app.log().warn(e.getMessage(), e);
+            log().warn(e.getMessage(), e);
             formatter.printHelp(helpHeader, options);
+            return EXIT_FAILURE;
         }
+        return getFailures().isEmpty() ? 0 : EXIT_FAILURE;
+    }
+
+    /**
+     * @return the command line options.
+     */
+    static Options options() {
+        Options options = new Options();
+        options.addOption("s", "source", true, "The source directory for markdown files, or a zip or jar archive, or a jar: URL");
+        options.addOption("d", "destination", true, "The destination directory for html files");
+        options.addOption("a", "destination-archive", true, "Write html files in the given zip or jar archive instead of the destination directory");
+        options.addOption("z", "compression-level", true, "The compression level of the destination archive and of precompressed pages, from 0 to 9");
+        options.addOption("r", "precompress", true, "Write compressed siblings of every page, as a comma separated list of gzip (.gz) and deflate (.zz)");
+        options.addOption("y", "precompress-min-size", true, "Pages smaller than this number of bytes are not precompressed. Defaults to 1024");
+        options.addOption("P", "preprocess", true, "Run the markdown through a comma separated list of stages before rendering: bom (strip byte order marks), eol, blank-lines, tabs:<width>");
+        options.addOption("h", "header", true, "The path to the html header file");
+        options.addOption("f", "footer", true, "The path to the html footer file");
+        options.addOption("l", "template", true, "The path to the page template, with ${title}, ${path}, ${root}, ${toc} and ${content} placeholders. Replaces header and footer");
+        options.addOption("t", "code-template", true, "The template for code blocks");
+        options.addOption("g", "highlight", false, "Highlight code blocks starting with a lang: line (java, xml, shell, json), with span classes as in Pygments stylesheets");
+        options.addOption("e", "extensions", true, "A comma separated list of file extensions to process. If setted, files with extension not in list won't be processed");
+        options.addOption("I", "include", true, "A comma separated list of glob patterns of the files to process, as *.md or docs/**/*.md. If setted, other files won't be processed");
+        options.addOption("X", "exclude", true, "A comma separated list of glob patterns of files and directories to skip, as node_modules or drafts/. Added to the ones in .mdignore files");
+        options.addOption("c", "char-encoding", true, "The encoding to read and write files");
+        options.addOption("n", "threads", true, "The number of threads used to process files. Defaults to the number of available processors");
+        options.addOption("k", "chunk-size", true, "Split files longer than this number of characters in chunks rendered in parallel. Defaults to 0, never split");
+        options.addOption("j", "engine", true, "The markdown engine: markdownj (default) or linear, rendering the same html in time linear in the size of the files");
+        options.addOption("x", "max-size", true, "Files longer than this number of characters are not rendered. Defaults to 0, no limit");
+        options.addOption("u", "render-timeout", true, "Files not rendered in this number of milliseconds are abandoned. Defaults to 0, no limit");
+        options.addOption("o", "over-budget", true, "What to do with files over the maximum size or render timeout: fail (default) or escape, writing them as plain text");
+        options.addOption("m", "metrics", true, "Write a JSON report with timings and sizes of the processed files to the given path");
+        options.addOption("p", "pipeline", true, "Process files in a pipeline, with the given comma separated numbers of threads reading, rendering and writing files (as in 1,4,1)");
+        options.addOption("b", "cache-dir", true, "A directory of rendered pages shared by the builds of every checkout: pages already rendered are linked from it instead of rendered again");
+        options.addOption("i", "incremental", false, "Process only files changed since the last build, using a manifest in the destination directory");
+        options.addOption("q", "search-index", false, "Write a search index of the terms and headings of the pages in the search-index directory of the destination");
+        options.addOption("v", "check-links", false, "Check that relative links between pages lead to a page and an anchor, reporting broken ones as failures");
+        options.addOption("w", "watch", false, "After the build, keep running and process files again when they change");
+        return options;
     }
 
     public void process(CommandLine commandLine) {
@@ -134,18 +438,19 @@ public class MarkdownApp {
         if (commandLine.hasOption("source")) {
             String sourceArg = commandLine.getOptionValue("source");
             if (sourceArg == null) {
-                log().warn("sourceArg NULL. Exiting");
+                invalidArgument("source", "missing source path");
                 return;
             }
             sourceFile = new File(sourceArg);
-            setSource(FileUtils.normalizedPath(sourceFile.getAbsolutePath()));
+            // a jar: URL is checked when the archive is opened
+            setSource(sourceArg.startsWith("jar:") ? sourceArg : FileUtils.normalizedPath(sourceFile.getAbsolutePath()));
             log().debug("using source path '{}'", source);
-            if (!sourceFile.exists()) {
-                log().warn("source not found '{}'. Exiting", source);
+            if (!sourceArg.startsWith("jar:") && !sourceFile.exists()) {
+                invalidArgument("source", "source not found '" + source + "'");
                 return;
             }
         } else {
-            log().warn("source argument is mandatory. Exiting");
+            invalidArgument("source", "source argument is mandatory");
             return;
         }
         if (commandLine.hasOption("destination")) {
@@ -156,96 +461,1063 @@ public class MarkdownApp {
                 destinationFile.mkdirs();
             }
         }
+        if (commandLine.hasOption("destination-archive")) {
+            setDestinationArchive(FileUtils.normalizedPath(new File(commandLine.getOptionValue("destination-archive")).getAbsolutePath()));
+        }
+        if (commandLine.hasOption("compression-level")) {
+            String levelArg = commandLine.getOptionValue("compression-level");
+            try {
+                setCompressionLevel(Integer.parseInt(levelArg));
+            } catch (IllegalArgumentException e) {
+                invalidArgument("compression-level", "invalid compression level '" + levelArg + "'");
+                return;
+            }
+        }
+        if (commandLine.hasOption("precompress")) {
+            String precompressArg = commandLine.getOptionValue("precompress");
+            Set<Precompressor.Format> formats = EnumSet.noneOf(Precompressor.Format.class);
+            try {
+                for (String format : precompressArg.split(CL_EXTENSIONS_SEPARATOR)) {
+                    formats.add(Precompressor.Format.forName(format));
+                }
+            } catch (IllegalArgumentException e) {
+                invalidArgument("precompress", "invalid precompress formats '" + precompressArg + "'");
+                return;
+            }
+            setPrecompress(formats);
+        }
+        if (commandLine.hasOption("precompress-min-size")) {
+            String minimumArg = commandLine.getOptionValue("precompress-min-size");
+            try {
+                setPrecompressMinimumBytes(Integer.parseInt(minimumArg));
+            } catch (IllegalArgumentException e) {
+                invalidArgument("precompress-min-size", "invalid precompress minimum size '" + minimumArg + "'");
+                return;
+            }
+        }
+        if (commandLine.hasOption("preprocess")) {
+            String preprocessArg = commandLine.getOptionValue("preprocess");
+            List<String> stages = new ArrayList<String>();
+            try {
+                for (String stage : preprocessArg.split(CL_EXTENSIONS_SEPARATOR)) {
+                    Preprocessors.forName(stage);
+                    stages.add(stage.trim());
+                }
+            } catch (IllegalArgumentException e) {
+                invalidArgument("preprocess", "invalid preprocessing stages '" + preprocessArg + "'");
+                return;
+            }
+            setPreprocess(stages);
+        }
         if (commandLine.hasOption("header")) {
             setHeader(commandLine.getOptionValue("header"));
         }
         if (commandLine.hasOption("footer")) {
             setFooter(commandLine.getOptionValue("footer"));
         }
+        if (commandLine.hasOption("template")) {
+            setTemplate(commandLine.getOptionValue("template"));
+        }
         if (commandLine.hasOption("code-template")) {
             setCodeBlockTemplate(commandLine.getOptionValue("code-template"));
         }
+        setHighlight(commandLine.hasOption("highlight"));
         if (commandLine.hasOption("extensions")) {
             List<String> exts = extensionsToList(commandLine.getOptionValue("extensions"));
             setProcessableExtensions(exts);
         }
+        if (commandLine.hasOption("include")) {
+            setIncludes(extensionsToList(commandLine.getOptionValue("include")));
+        }
+        if (commandLine.hasOption("exclude")) {
+            setExcludes(extensionsToList(commandLine.getOptionValue("exclude")));
+        }
         if (commandLine.hasOption("char-encoding")) {
             setCharEncoding(commandLine.getOptionValue("char-encoding"));
         }
+        if (commandLine.hasOption("threads")) {
+            String threadsArg = commandLine.getOptionValue("threads");
+            int n = 0;
+            try {
+                n = Integer.parseInt(threadsArg);
+            } catch (NumberFormatException e) {
+                // handled below, as any other invalid value
+            }
+            if (n < 1) {
+                invalidArgument("threads", "invalid threads number '" + threadsArg + "'");
+                return;
+            }
+            setThreads(n);
+        }
+        if (commandLine.hasOption("chunk-size")) {
+            String chunkSizeArg = commandLine.getOptionValue("chunk-size");
+            int n = -1;
+            try {
+                n = Integer.parseInt(chunkSizeArg);
+            } catch (NumberFormatException e) {
+                // handled below, as any other invalid value
+            }
+            if (n < 0) {
+                invalidArgument("chunk-size", "invalid chunk size '" + chunkSizeArg + "'");
+                return;
+            }
+            setChunkSize(n);
+        }
+        if (commandLine.hasOption("engine")) {
+            String engineArg = commandLine.getOptionValue("engine");
+            try {
+                setEngine(MarkdownEngines.forName(engineArg));
+            } catch (IllegalArgumentException e) {
+                invalidArgument("engine", "invalid markdown engine '" + engineArg + "'");
+                return;
+            }
+        }
+        if (commandLine.hasOption("max-size")) {
+            String maximumArg = commandLine.getOptionValue("max-size");
+            int n = -1;
+            try {
+                n = Integer.parseInt(maximumArg);
+            } catch (NumberFormatException e) {
+                // handled below, as any other invalid value
+            }
+            if (n < 0) {
+                invalidArgument("max-size", "invalid maximum size '" + maximumArg + "'");
+                return;
+            }
+            setMaximumSize(n);
+        }
+        if (commandLine.hasOption("render-timeout")) {
+            String timeoutArg = commandLine.getOptionValue("render-timeout");
+            long n = -1;
+            try {
+                n = Long.parseLong(timeoutArg);
+            } catch (NumberFormatException e) {
+                // handled below, as any other invalid value
+            }
+            if (n < 0) {
+                invalidArgument("render-timeout", "invalid render timeout '" + timeoutArg + "'");
+                return;
+            }
+            setRenderTimeout(n);
+        }
+        if (commandLine.hasOption("over-budget")) {
+            String actionArg = commandLine.getOptionValue("over-budget");
+            try {
+                setOverBudget(RenderWatchdog.Action.forName(actionArg));
+            } catch (IllegalArgumentException e) {
+                invalidArgument("over-budget", "invalid over budget action '" + actionArg + "'");
+                return;
+            }
+        }
+        if (commandLine.hasOption("pipeline")) {
+            String pipelineArg = commandLine.getOptionValue("pipeline");
+            String[] stages = pipelineArg.split(CL_EXTENSIONS_SEPARATOR);
+            int[] n = new int[3];
+            try {
+                for (int i = 0; (stages.length == n.length) && (i < n.length); i++) {
+                    n[i] = Integer.parseInt(stages[i].trim());
+                }
+            } catch (NumberFormatException e) {
+                // handled below, as any other invalid value
+            }
+            if ((n[0] < 1) || (n[1] < 1) || (n[2] < 1)) {
+                invalidArgument("pipeline", "invalid pipeline threads '" + pipelineArg + "'");
+                return;
+            }
+            setPipeline(n[0], n[1], n[2]);
+        }
+        if (commandLine.hasOption("metrics")) {
+            setMetrics(commandLine.getOptionValue("metrics"));
+        }
+        if (commandLine.hasOption("cache-dir")) {
+            setCacheDir(commandLine.getOptionValue("cache-dir"));
+        }
+        setIncremental(commandLine.hasOption("incremental"));
+        setSearchIndex(commandLine.hasOption("search-index"));
+        setCheckLinks(commandLine.hasOption("check-links"));
         process();
+        if (commandLine.hasOption("watch")) {
+            try {
+                watch();
+            } catch (IOException e) {
+                log().warn(e.getMessage(), e);
+                addFailure(getSource(), e);
+            }
+        }
+    }
+
+    /**
+     * Records an invalid argument as the failure of a run processing nothing, so that it exits with an error.
+     */
+    private void invalidArgument(String option, String message) {
+        log().warn("{}. Exiting", message);
+        failures.clear();
+        failures.put("--" + option, new IllegalArgumentException(message));
     }
 
     public void process() {
-        File sourceFile = new File(getSource());
+        if (getCharEncoding() != null) {
+            // before header and footer, which are read with this encoding
+            markdown.setEncoding(getCharEncoding());
+        }
         if (getHeader() != null) {
             markdown.setHeaderPath(getHeader());
         }
         if (getFooter() != null) {
             markdown.setFooterPath(getFooter());
         }
+        if (getTemplate() != null) {
+            markdown.setTemplatePath(getTemplate());
+        }
         if (getCodeBlockTemplate() != null) {
             markdown.setCodeBlockTemplate(getCodeBlockTemplate());
         }
-        if (getCharEncoding() != null) {
-            markdown.setEncoding(getCharEncoding());
+        markdown.setCodeHighlighter(isHighlight() ? CodeHighlighter.standard() : null);
+        markdown.setPreprocessor(preprocessor());
+        markdown.setChunkSize(getChunkSize());
+        markdown.setEngine(getEngine());
+        renderWatchdog = ((getMaximumSize() == 0) && (getRenderTimeout() == 0)) ? RenderWatchdog.UNLIMITED : new RenderWatchdog(getMaximumSize(),
+                getRenderTimeout(), getOverBudget(), isPipelined() ? getPipelineRenderers() : Math.max(getThreads(), 1));
+        markdown.setWatchdog(renderWatchdog);
+        failures.clear();
+        buildMetrics = (getMetrics() == null) ? null : new BuildMetrics();
+        boolean archived = (getDestinationArchive() != null);
+        if (archived && (isIncremental() || (getCacheDir() != null) || !getPrecompress().isEmpty())) {
+            log().warn("incremental build, build cache and precompression are not used with a destination archive");
         }
-        try {
-            traverse(sourceFile);
-        } catch (IOException e) {
-            log().warn(e.getMessage(), e);
+        // every page has to be rendered to be indexed or checked
+        boolean everyPage = isSearchIndex() || isCheckLinks();
+        if (everyPage && (isIncremental() || (getCacheDir() != null))) {
+            log().warn("incremental build and build cache are not used with a search index or link checking");
         }
-    }
-
-    public final void traverse(final File f) throws IOException {
-        if (f.isDirectory()) {
-            final File[] childs = f.listFiles();
-            for (File child : childs) {
-                traverse(child);
+        buildIndex = isSearchIndex() ? new SearchIndex() : null;
+        markdown.setSearchIndex(buildIndex);
+        markdown.setHeadingIds(isSearchIndex());
+        linkChecker = isCheckLinks() ? new LinkChecker() : null;
+        markdown.setLinkChecker(linkChecker);
+        precompressor = (archived || getPrecompress().isEmpty()) ? null : new Precompressor(getPrecompress(), getCompressionLevel(),
+                getPrecompressMinimumBytes());
+        buildConfiguration = (!archived && !everyPage && (isIncremental() || (getCacheDir() != null))) ? configurationHash() : null;
+        buildCache = (archived || everyPage || (getCacheDir() == null)) ? null : new BuildCache(new File(getCacheDir()), BuildCache.DEFAULT_MAXIMUM_BYTES);
+        startManifest();
+        Path sourceRoot = new File(getSource()).toPath();
+        if (SourceArchive.isArchive(getSource())) {
+            try {
+                sourceArchive = SourceArchive.open(getSource());
+                sourceRoot = sourceArchive.getRoot();
+            } catch (IOException e) {
+                addFailure(getSource(), e);
+                logFailures();
+                return;
             }
-            return;
         }
-        processFile(f);
+        sourceWalker = new SourceWalker(sourceRoot, getIncludes(), getExcludes());
+        try {
+            if (archived) {
+                processArchived(sourceRoot);
+            } else if (isPipelined()) {
+                processPipelined(sourceRoot);
+            } else if (getThreads() > 1) {
+                processParallel(sourceRoot);
+            } else {
+                traverse(sourceRoot);
+            }
+        } finally {
+            closeSourceArchive();
+        }
+        completeManifest();
+        writeSearchIndex();
+        checkLinks();
+        if (currentManifest != null) {
+            // later changes, as the ones found by the watcher, are compared with this build
+            previousManifest = currentManifest;
+        }
+        if (buildCache != null) {
+            buildCache.evict();
+        }
+        writeMetrics();
+        logFailures();
     }
 
-    public void processFile(final File f) {
-        String mdFilePath = FileUtils.normalizedPath(f.getAbsolutePath());
-        String df = mdFilePath.replaceFirst(source, destination);
-        String extension = Files.getFileExtension(df);
-        if ((getProcessableExtensions().size() == 0) || (getProcessableExtensions().contains(extension))) {
-            String destinationFile = FileUtils.changeExtension(df, ".html");
-            log().debug("process '{}' -> '{}'", mdFilePath, destinationFile);
+    private void closeSourceArchive() {
+        SourceArchive archive = sourceArchive;
+        sourceArchive = null;
+        if (archive != null) {
+            // the walker matches paths of the archive file system
+            sourceWalker = null;
             try {
-                String markdownContent = FileUtils.readFileFromPath(mdFilePath, getCharEncoding());
-                markdown.setContent(markdownContent);
-                String html = markdown.process();
-                FileUtils.writeFile(destinationFile, html, getCharEncoding());
+                archive.close();
             } catch (IOException e) {
-                log().warn(e.getMessage(), e);
+                log().debug("error closing source archive '{}'", getSource(), e);
             }
-        } else {
-            log().info("Skipping {} (no processable extension '{}')", df, extension);
         }
     }
 
     /**
-     * Converts the comma separated list of extensions from command line to a java.util.List.
+     * Watches source files, header and footer, processing them again as they change.
+     * Blocks until {@link #stopWatching()} is called or the thread is interrupted.
      * 
-     * @param optionValue
-     * @return
+     * @throws IOException if the watch service can't be started, or the sources are in an archive.
      */
-    private List<String> extensionsToList(String extensions) {
-        String[] exts = extensions.split(MarkdownApp.CL_EXTENSIONS_SEPARATOR);
-        if (exts.length > 0)
-            return Arrays.asList(exts);
-        return Collections.emptyList();
+    public void watch() throws IOException {
+        if (SourceArchive.isArchive(getSource())) {
+            throw new IOException("sources in an archive can't be watched: " + getSource());
+        }
+        if (isSearchIndex()) {
+            log().warn("the search index is not updated by the changes found while watching: build again to update it");
+        }
+        SiteWatcher siteWatcher = new SiteWatcher(this);
+        watcher = siteWatcher;
+        try {
+            siteWatcher.run();
+        } finally {
+            watcher = null;
+            siteWatcher.close();
+        }
     }
-    
-    public String getSource() {
-        return source;
+
+    public void stopWatching() {
+        SiteWatcher siteWatcher = watcher;
+        if (siteWatcher != null) {
+            siteWatcher.close();
+        }
     }
 
-    public void setSource(String source) {
+    /**
+     * @return true if the app is watching for changes.
+     */
+    public boolean isWatching() {
+        return watcher != null;
+    }
+
+    /**
+     * Processes the given changed sources: existing files are processed, directories traversed,
+     * and for missing files the generated file is deleted.
+     * 
+     * @param changes the changed files, in the source directory.
+     */
+    void processChanges(Collection<File> changes) {
+        if (getDestinationArchive() != null) {
+            // an archive is written as a whole
+            process();
+            return;
+        }
+        failures.clear();
+        for (File f : changes) {
+            try {
+                if (f.isDirectory()) {
+                    traverse(f);
+                } else if (f.isFile()) {
+                    if (sourceWalker().accepts(f.toPath(), false)) {
+                        processFile(f);
+                    }
+                } else {
+                    deleteOutput(f);
+                }
+            } catch (IOException e) {
+                addFailure(FileUtils.normalizedPath(f.getAbsolutePath()), e);
+            }
+        }
+        if (currentManifest != null) {
+            try {
+                currentManifest.save(manifestFile());
+            } catch (IOException e) {
+                addFailure(FileUtils.normalizedPath(manifestFile().getAbsolutePath()), e);
+            }
+        }
+        logFailures();
+    }
+
+    private void deleteOutput(File removed) {
+        String mdFilePath = FileUtils.normalizedPath(removed.getAbsolutePath());
+        if (!isProcessable(mdFilePath)) {
+            return;
+        }
+        if (currentManifest != null) {
+            currentManifest.remove(relativePath(mdFilePath, source));
+        }
+        File output = new File(destinationPath(mdFilePath));
+        log().debug("source '{}' removed, deleting '{}'", mdFilePath, output);
+        if (output.isFile() && !output.delete()) {
+            addFailure(mdFilePath, new IOException("Error deleting " + output));
+        }
+        Precompressor.deleteSiblings(output);
+    }
+
+    private void startManifest() {
+        previousManifest = null;
+        currentManifest = null;
+        visitedSources.clear();
+        if (!isIncremental() || (getDestinationArchive() != null) || isSearchIndex() || isCheckLinks()) {
+            return;
+        }
+        // precompression changes the files of a build, not the pages shared by the cache
+        String configuration = (precompressor == null) ? buildConfiguration : BuildManifest.configurationHash(buildConfiguration,
+                precompressor.getFormats().toString(), String.valueOf(precompressor.getLevel()),
+                String.valueOf(precompressor.getMinimumBytes()));
+        currentManifest = new BuildManifest(configuration, System.currentTimeMillis());
+        BuildManifest manifest = BuildManifest.load(manifestFile());
+        if ((manifest != null) && manifest.getConfiguration().equals(configuration)) {
+            previousManifest = manifest;
+        } else {
+            log().debug("no usable manifest in '{}', processing every file", destination);
+        }
+    }
+
+    private String configurationHash() {
+        return BuildManifest.configurationHash(fileContentOrNull(getHeader()), fileContentOrNull(getFooter()), getCodeBlockTemplate(),
+                getCharEncoding(), fileContentOrNull(getTemplate()), String.valueOf(isHighlight()), getEngine().getName(),
+                String.valueOf(getMaximumSize()), getOverBudget().toString(), getPreprocess().toString());
+    }
+
+    /**
+     * @return the chain of the preprocessing stages, null if there is none.
+     */
+    private Preprocessor preprocessor() {
+        if (getPreprocess().isEmpty()) {
+            return null;
+        }
+        Preprocessor[] stages = new Preprocessor[getPreprocess().size()];
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = Preprocessors.forName(getPreprocess().get(i));
+        }
+        return Preprocessors.chain(stages);
+    }
+
+    private void completeManifest() {
+        if (currentManifest == null) {
+            return;
+        }
+        if (previousManifest != null) {
+            for (String removed : previousManifest.getSources()) {
+                if (!visitedSources.contains(removed)) {
+                    File output = new File(destination, previousManifest.get(removed).getOutput());
+                    log().debug("source '{}' removed, deleting '{}'", removed, output);
+                    if (output.exists() && !output.delete()) {
+                        addFailure(FileUtils.normalizedPath(output.getAbsolutePath()), new IOException("Error deleting " + output));
+                    }
+                    Precompressor.deleteSiblings(output);
+                }
+            }
+        }
+        try {
+            currentManifest.save(manifestFile());
+        } catch (IOException e) {
+            addFailure(FileUtils.normalizedPath(manifestFile().getAbsolutePath()), e);
+        }
+    }
+
+    private void writeSearchIndex() {
+        SearchIndex index = buildIndex;
+        if (index == null) {
+            return;
+        }
+        // changes processed by the watcher are not indexed, but their headings keep the ids the index links to
+        buildIndex = null;
+        markdown.setSearchIndex(null);
+        if ((getDestinationArchive() != null) || (destination == null)) {
+            return;
+        }
+        File directory = new File(destination, SearchIndex.DIRECTORY);
+        try {
+            index.write(directory);
+        } catch (IOException e) {
+            addFailure(FileUtils.normalizedPath(directory.getAbsolutePath()), e);
+        }
+    }
+
+    private void checkLinks() {
+        LinkChecker checker = linkChecker;
+        if (checker == null) {
+            return;
+        }
+        // changes processed by the watcher are not checked
+        linkChecker = null;
+        markdown.setLinkChecker(null);
+        long started = System.nanoTime();
+        List<LinkChecker.BrokenLinkException> broken = checker.check(getThreads());
+        log().debug("{} links checked in {} ms", checker.size(), (System.nanoTime() - started) / 1000000);
+        for (LinkChecker.BrokenLinkException link : broken) {
+            String location = link.getLocation();
+            addFailure(failures.containsKey(location) ? location + " " + link.getHref() : location, link);
+        }
+    }
+
+    private void writeMetrics() {
+        BuildMetrics report = buildMetrics;
+        if (report == null) {
+            return;
+        }
+        // changes processed by the watcher are not part of the build
+        buildMetrics = null;
+        report.stop();
+        try {
+            FileUtils.writeFile(getMetrics(), report.toJson(), "UTF-8");
+        } catch (IOException e) {
+            addFailure(FileUtils.normalizedPath(new File(getMetrics()).getAbsolutePath()), e);
+        }
+    }
+
+    private File manifestFile() {
+        return new File(destination, BuildManifest.FILE_NAME);
+    }
+
+    private String fileContentOrNull(String path) {
+        return (path == null) ? null : FileUtils.readFileFromPath(path, getCharEncoding());
+    }
+
+    public final void traverse(final File f) throws IOException {
+        traverse(f.toPath());
+    }
+
+    private void traverse(Path f) {
+        sourceWalker().walk(f, new Walk());
+    }
+
+    /**
+     * Processes the sources in a pool of threads, taking them from a walk at most a few files ahead.
+     */
+    private void processParallel(Path sourceRoot) {
+        final SourceWalker.WalkQueue sources = sourceWalker().queue(sourceRoot, new Walk(), QUEUED_FILES_PER_THREAD * getThreads());
+        ExecutorService workers = (executor == null) ? Executors.newFixedThreadPool(getThreads()) : executor;
+        List<Future<?>> running = new ArrayList<Future<?>>(getThreads());
+        try {
+            for (int i = 0; i < getThreads(); i++) {
+                running.add(workers.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            Path file;
+                            while ((file = sources.take()) != null) {
+                                try {
+                                    processFile(file);
+                                } catch (StackOverflowError e) {
+                                    // a render too deep for the stack, as MarkdownJ regexes on some inputs
+                                    addFailure(pathId(file), new ExecutionException(e));
+                                } catch (Error e) {
+                                    addFailure(pathId(file), new ExecutionException(e));
+                                    if (e instanceof VirtualMachineError) {
+                                        // the jvm can't be trusted to go on: the other workers stop at the next file
+                                        sources.close();
+                                        throw e;
+                                    }
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> worker : running) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    // a VirtualMachineError, recorded as the failure of its file
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<?> worker : running) {
+                worker.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+        } finally {
+            if (workers != executor) {
+                workers.shutdown();
+            }
+            sources.close();
+        }
+    }
+
+    /**
+     * Processes the walked sources, adding the ones which can't be read to the failures.
+     */
+    private class Walk implements SourceWalker.Visitor {
+
+        public void visitFile(Path file) {
+            processFile(file);
+        }
+
+        public void visitFailed(Path file, IOException e) {
+            addFailure(pathId(file), new IOException("Error reading " + file, e));
+        }
+    }
+
+    /**
+     * Returns the walker of the sources, built for the source directory if no build is running.
+     */
+    SourceWalker sourceWalker() {
+        SourceWalker walker = sourceWalker;
+        if (walker == null) {
+            walker = new SourceWalker(new File(getSource()).toPath(), getIncludes(), getExcludes());
+            sourceWalker = walker;
+        }
+        return walker;
+    }
+
+    public void processFile(final File f) {
+        processFile(f.toPath());
+    }
+
+    private void processFile(Path f) {
+        FileJob job = newJob(f);
+        if (job == null) {
+            return;
+        }
+        try {
+            CharSequence markdownContent = job.read();
+            if (markdownContent != null) {
+                job.renderTo(markdownContent);
+            }
+        } catch (IOException e) {
+            addFailure(job.getId(), e);
+        } catch (RuntimeException e) {
+            addFailure(job.getId(), e);
+        }
+    }
+
+    /**
+     * Returns the job processing the given source, or null if it has not a processable extension.
+     */
+    private FileJob newJob(Path f) {
+        String mdFilePath = pathId(f);
+        if (!isProcessable(mdFilePath)) {
+            log().info("Skipping {} (no processable extension '{}')", mdFilePath, com.google.common.io.Files.getFileExtension(mdFilePath));
+            return null;
+        }
+        return new FileJob(f, mdFilePath);
+    }
+
+    /**
+     * Processes the source files in a {@link RenderPipeline}, its readers taking them from a walk at most
+     * a few files ahead.
+     */
+    private void processPipelined(Path sourceFile) {
+        final SourceWalker.WalkQueue sources = sourceWalker().queue(sourceFile, new Walk(), QUEUED_FILES_PER_THREAD * getPipelineReaders());
+        Iterable<FileJob> jobs = new Iterable<FileJob>() {
+            public Iterator<FileJob> iterator() {
+                return new AbstractIterator<FileJob>() {
+                    @Override
+                    protected FileJob computeNext() {
+                        try {
+                            Path file;
+                            while ((file = sources.take()) != null) {
+                                FileJob job = newJob(file);
+                                if (job != null) {
+                                    return job;
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return endOfData();
+                    }
+                };
+            }
+        };
+        RenderPipeline pipeline = new RenderPipeline(markdown);
+        pipeline.setReaders(getPipelineReaders());
+        pipeline.setRenderers(getPipelineRenderers());
+        pipeline.setWriters(getPipelineWriters());
+        try {
+            for (Map.Entry<String, Exception> failure : pipeline.process(jobs).entrySet()) {
+                addFailure(failure.getKey(), failure.getValue());
+            }
+        } finally {
+            sources.close();
+        }
+    }
+
+    /**
+     * Processes the source files writing the pages in an archive, in the order of their names.
+     * Pages are rendered by a pool of threads at most a few pages ahead of the writing thread.
+     */
+    private void processArchived(Path sourceFile) {
+        List<FileJob> jobs = new ArrayList<FileJob>();
+        collectJobs(sourceFile, jobs);
+        Collections.sort(jobs, new Comparator<FileJob>() {
+            public int compare(FileJob j1, FileJob j2) {
+                return j1.entryName.compareTo(j2.entryName);
+            }
+        });
+        SiteArchive archive;
+        try {
+            archive = new SiteArchive(new File(getDestinationArchive()), getCompressionLevel());
+        } catch (IOException e) {
+            addFailure(getDestinationArchive(), e);
+            return;
+        }
+        int threads = Math.max(getThreads(), 1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            LinkedList<Future<String>> rendering = new LinkedList<Future<String>>();
+            int next = 0;
+            for (FileJob job : jobs) {
+                while ((next < jobs.size()) && (rendering.size() < 4 * threads)) {
+                    rendering.add(executor.submit(jobs.get(next++).renderer()));
+                }
+                try {
+                    String html = rendering.removeFirst().get();
+                    if (html != null) {
+                        job.writeEntry(archive, html);
+                    }
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    addFailure(job.getId(), (cause instanceof Exception) ? (Exception) cause : e);
+                } catch (IOException e) {
+                    addFailure(job.getId(), e);
+                }
+            }
+            if (buildIndex != null) {
+                buildIndex.write(archive);
+            }
+            archive.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            archive.abort();
+        } catch (IOException e) {
+            addFailure(getDestinationArchive(), e);
+            archive.abort();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void collectJobs(Path f, final List<FileJob> jobs) {
+        sourceWalker().walk(f, new Walk() {
+            public void visitFile(Path file) {
+                FileJob job = newJob(file);
+                if (job != null) {
+                    jobs.add(job);
+                }
+            }
+        });
+    }
+
+    /**
+     * Processes a source file, keeping manifest and metrics of the build up to date.
+     * The sequential and parallel builds render straight to the stream of a partial file, the pipeline
+     * calls read, render and write from its stages.
+     */
+    private class FileJob extends RenderPipeline.Job {
+
+        private final Path file;
+
+        private final String destinationFile;
+
+        /**
+         * The path of the html in a destination archive.
+         */
+        private final String entryName;
+
+        private final String relativeSource;
+
+        private final BuildMetrics metrics = buildMetrics;
+
+        private final BuildCache cache = buildCache;
+
+        private final Precompressor siblings = precompressor;
+
+        private String cacheKey;
+
+        private long size;
+
+        private long lastModified;
+
+        private String hash;
+
+        private long readNanos;
+
+        private long renderNanos;
+
+        /**
+         * Whether the page was over budget and written as plain text.
+         */
+        private boolean escaped;
+
+        FileJob(Path file, String mdFilePath) {
+            super(mdFilePath);
+            this.file = file;
+            this.relativeSource = (sourceArchive == null) ? relativePath(mdFilePath, source) : archivedPath(file);
+            this.entryName = FileUtils.changeExtension(relativeSource, ".html");
+            if (destination == null) {
+                this.destinationFile = null;
+            } else {
+                this.destinationFile = (sourceArchive == null) ? destinationPath(mdFilePath) : destination + "/" + entryName;
+            }
+        }
+
+        /**
+         * Reads the source, if changed since the previous build.
+         */
+        @Override
+        protected CharSequence read() throws IOException {
+            BuildManifest.Entry previousEntry = null;
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            size = attributes.size();
+            lastModified = attributes.lastModifiedTime().toMillis();
+            if (currentManifest != null) {
+                visitedSources.add(relativeSource);
+                previousEntry = (previousManifest == null) ? null : previousManifest.get(relativeSource);
+                if ((previousEntry != null) && previousManifest.isUnchanged(previousEntry, size, lastModified)
+                        && new File(destinationFile).isFile()) {
+                    log().debug("unchanged '{}'", getId());
+                    currentManifest.put(relativeSource, previousEntry);
+                    if (metrics != null) {
+                        metrics.addUnchanged();
+                    }
+                    return null;
+                }
+            }
+            log().debug("process '{}' -> '{}'", getId(), destinationFile);
+            long started = (metrics == null) ? 0 : System.nanoTime();
+            String markdownContent = FileUtils.readFile(file, getCharEncoding());
+            readNanos = (metrics == null) ? 0 : System.nanoTime() - started;
+            hash = (currentManifest == null) ? null : BuildManifest.contentHash(markdownContent);
+            if ((previousEntry != null) && previousEntry.getHash().equals(hash) && new File(destinationFile).isFile()) {
+                putManifestEntry();
+                if (metrics != null) {
+                    metrics.addUnchanged();
+                }
+                return null;
+            }
+            if (cache != null) {
+                cacheKey = cache.key(markdownContent, relativeSource, buildConfiguration);
+                if (cache.restore(cacheKey, new File(destinationFile))) {
+                    log().debug("'{}' linked from the build cache", getId());
+                    if (siblings != null) {
+                        siblings.compress(new File(destinationFile));
+                    }
+                    putManifestEntry();
+                    if (metrics != null) {
+                        metrics.addCached();
+                    }
+                    return null;
+                }
+            }
+            return markdownContent;
+        }
+
+        @Override
+        protected String render(MarkdownService service, CharSequence markdownContent) {
+            long started = (metrics == null) ? 0 : System.nanoTime();
+            String html = service.render(markdownContent, relativeSource);
+            escaped = renderWatchdog.isLastEscaped();
+            renderNanos = (metrics == null) ? 0 : System.nanoTime() - started;
+            return html;
+        }
+
+        @Override
+        protected void write(String html) throws IOException {
+            long started = (metrics == null) ? 0 : System.nanoTime();
+            unlinkDestination();
+            FileUtils.writeFile(destinationFile, html, getCharEncoding());
+            if (siblings != null) {
+                siblings.compress(new File(destinationFile), html, FileUtils.charsetForNameOrDefault(getCharEncoding()));
+            }
+            if (metrics != null) {
+                long written = System.nanoTime() - started;
+                metrics.add(new BuildMetrics.Document(relativeSource, size, new File(destinationFile).length(), readNanos, renderNanos, written));
+            }
+            keep();
+        }
+
+        /**
+         * Renders the source streaming the html to a partial file, replacing the output file once rendered:
+         * a failed render leaves the previous page and its siblings as they were.
+         */
+        void renderTo(CharSequence markdownContent) throws IOException {
+            long started = (metrics == null) ? 0 : System.nanoTime();
+            File page = new File(destinationFile);
+            File part = new File(destinationFile + PART_SUFFIX);
+            OutputStream out = FileUtils.newOutputStream(part.getPath());
+            if (siblings != null) {
+                // compressed as written, timed as writing
+                out = siblings.open(part, out);
+            }
+            BuildMetrics.TimedOutputStream timed = null;
+            if (metrics != null) {
+                timed = new BuildMetrics.TimedOutputStream(out);
+                out = timed;
+            }
+            boolean replaced = false;
+            try {
+                markdown.render(markdownContent, relativeSource, out);
+                escaped = renderWatchdog.isLastEscaped();
+                out.close();
+                Precompressor.moveSiblings(part, page);
+                Files.move(part.toPath(), page.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                replaced = true;
+            } finally {
+                if (!replaced) {
+                    discard(out, part);
+                }
+            }
+            if (metrics != null) {
+                long rendered = System.nanoTime() - started - timed.getNanos();
+                metrics.add(new BuildMetrics.Document(relativeSource, size, timed.getBytes(), readNanos, rendered, timed.getNanos()));
+            }
+            keep();
+        }
+
+        private void discard(OutputStream out, File part) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                log().debug("error closing '{}'", part, e);
+            }
+            part.delete();
+            Precompressor.deleteSiblings(part);
+        }
+
+        /**
+         * Returns a task reading and rendering the source, returning null if there is nothing to write.
+         */
+        Callable<String> renderer() {
+            return new Callable<String>() {
+                public String call() throws IOException {
+                    CharSequence markdownContent = read();
+                    return (markdownContent == null) ? null : render(markdown, markdownContent);
+                }
+            };
+        }
+
+        /**
+         * Writes the html in the archive.
+         */
+        void writeEntry(SiteArchive archive, String html) throws IOException {
+            long started = (metrics == null) ? 0 : System.nanoTime();
+            long bytes = archive.add(entryName, html, FileUtils.charsetForNameOrDefault(getCharEncoding()));
+            if (metrics != null) {
+                long written = System.nanoTime() - started;
+                metrics.add(new BuildMetrics.Document(relativeSource, size, bytes, readNanos, renderNanos, written));
+            }
+        }
+
+        /**
+         * Removes the previous output, which could be a link to a page of a build cache, before writing it.
+         */
+        private void unlinkDestination() {
+            File output = new File(destinationFile);
+            if (output.isFile()) {
+                output.delete();
+            }
+        }
+
+        /**
+         * Keeps the page in the build cache and in the manifest, unless written as plain text.
+         */
+        private void keep() {
+            if (escaped) {
+                log().warn("'{}' over the render budget, written as plain text", getId());
+                return;
+            }
+            storeInCache();
+            putManifestEntry();
+        }
+
+        private void storeInCache() {
+            if (cacheKey != null) {
+                cache.store(cacheKey, new File(destinationFile));
+            }
+        }
+
+        private void putManifestEntry() {
+            if (currentManifest != null) {
+                String output = relativePath(FileUtils.normalizedPath(new File(destinationFile).getAbsolutePath()),
+                        FileUtils.normalizedPath(new File(destination).getAbsolutePath()));
+                currentManifest.put(relativeSource, new BuildManifest.Entry(size, lastModified, hash, output));
+            }
+        }
+    }
+
+    private boolean isProcessable(String mdFilePath) {
+        String extension = com.google.common.io.Files.getFileExtension(mdFilePath);
+        return (getProcessableExtensions().size() == 0) || (getProcessableExtensions().contains(extension));
+    }
+
+    /**
+     * Returns the absolute path of a file, or the jar: URL of an archive entry.
+     */
+    private static String pathId(Path path) {
+        if (path.getFileSystem() == FileSystems.getDefault()) {
+            return FileUtils.normalizedPath(path.toAbsolutePath().toString());
+        }
+        return path.toUri().toString();
+    }
+
+    /**
+     * Returns the path of an archive entry relative to the archived sources.
+     */
+    private String archivedPath(Path entry) {
+        String relative = sourceArchive.getRoot().relativize(entry).toString();
+        return relative.isEmpty() ? entry.getFileName().toString() : relative;
+    }
+
+    /**
+     * Returns the path of the html file generated from the given source.
+     */
+    private String destinationPath(String mdFilePath) {
+        Preprocessor mapping = destinationMapping;
+        if (mapping == null) {
+            mapping = Preprocessors.replacePrefix(source + "/", destination + "/");
+            destinationMapping = mapping;
+        }
+        String df = mdFilePath.equals(source) ? destination : Preprocessors.apply(mapping, mdFilePath);
+        return FileUtils.changeExtension(df, ".html");
+    }
+
+    /**
+     * Returns the path relative to the given base directory, or the path itself if not in the directory.
+     */
+    private String relativePath(String path, String base) {
+        if (path.startsWith(base + "/")) {
+            return path.substring(base.length() + 1);
+        }
+        return path;
+    }
+
+    private void addFailure(String path, Exception e) {
+        log().debug("error processing '{}'", path, e);
+        failures.put(path, e);
+        BuildMetrics metrics = buildMetrics;
+        if (metrics != null) {
+            metrics.addFailure();
+        }
+    }
+
+    private void logFailures() {
+        if (failures.isEmpty()) {
+            return;
+        }
+        StringBuilder summary = new StringBuilder();
+        summary.append(failures.size()).append(" failure(s):");
+        for (Map.Entry<String, Exception> failure : failures.entrySet()) {
+            summary.append(MarkdownService.EOL).append("  ").append(failure.getKey()).append(": ").append(failure.getValue().getMessage());
+        }
+        log().warn(summary.toString());
+    }
+
+    /**
+     * Converts the comma separated list of extensions from command line to a java.util.List.
+     * 
+     * @param optionValue
+     * @return
+     */
+    private List<String> extensionsToList(String extensions) {
+        String[] exts = extensions.split(MarkdownApp.CL_EXTENSIONS_SEPARATOR);
+        if (exts.length > 0)
+            return Arrays.asList(exts);
+        return Collections.emptyList();
+    }
+    
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
         this.source = source;
+        this.destinationMapping = null;
+        this.sourceWalker = null;
     }
 
     public String getDestination() {
@@ -254,6 +1526,7 @@ public class MarkdownApp {
 
     public void setDestination(String destination) {
         this.destination = destination;
+        this.destinationMapping = null;
     }
 
     public String getHeader() {
@@ -272,6 +1545,14 @@ public class MarkdownApp {
         this.footer = footer;
     }
 
+    public String getTemplate() {
+        return template;
+    }
+
+    public void setTemplate(String template) {
+        this.template = template;
+    }
+
     public String getCodeBlockTemplate() {
         return codeBlockTemplate;
     }
@@ -292,6 +1573,24 @@ public class MarkdownApp {
         this.processableExtensions.add(extension);
     }
 
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    public void setIncludes(List<String> includes) {
+        this.includes = includes;
+        this.sourceWalker = null;
+    }
+
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    public void setExcludes(List<String> excludes) {
+        this.excludes = excludes;
+        this.sourceWalker = null;
+    }
+
     public String getCharEncoding() {
         return charEncoding;
     }
@@ -300,4 +1599,212 @@ public class MarkdownApp {
         this.charEncoding = charEncoding;
     }
 
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public boolean isSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * @param searchIndex true to write a search index of the pages, in the {@link SearchIndex#DIRECTORY} directory
+     *        of the destination.
+     */
+    public void setSearchIndex(boolean searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+
+    public boolean isCheckLinks() {
+        return checkLinks;
+    }
+
+    public void setCheckLinks(boolean checkLinks) {
+        this.checkLinks = checkLinks;
+    }
+
+    public String getDestinationArchive() {
+        return destinationArchive;
+    }
+
+    /**
+     * @param destinationArchive the zip or jar archive of the html files, null to write them in the destination directory.
+     */
+    public void setDestinationArchive(String destinationArchive) {
+        this.destinationArchive = destinationArchive;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * @param compressionLevel the compression level of the archive, from 0 to 9, or -1 for the default level.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if ((compressionLevel < -1) || (compressionLevel > 9)) {
+            throw new IllegalArgumentException("compression level must be between 0 and 9: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    public List<String> getPreprocess() {
+        return preprocess;
+    }
+
+    /**
+     * @param preprocess the names of the stages run on the markdown before rendering, as bom or tabs:8.
+     */
+    public void setPreprocess(List<String> preprocess) {
+        this.preprocess = preprocess;
+    }
+
+    public Set<Precompressor.Format> getPrecompress() {
+        return precompress;
+    }
+
+    /**
+     * @param precompress the compressed siblings written for every page, none if empty.
+     */
+    public void setPrecompress(Set<Precompressor.Format> precompress) {
+        this.precompress = precompress;
+    }
+
+    public int getPrecompressMinimumBytes() {
+        return precompressMinimumBytes;
+    }
+
+    public void setPrecompressMinimumBytes(int precompressMinimumBytes) {
+        if (precompressMinimumBytes < 0) {
+            throw new IllegalArgumentException("precompress minimum size must not be negative: " + precompressMinimumBytes);
+        }
+        this.precompressMinimumBytes = precompressMinimumBytes;
+    }
+
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+    public void setCacheDir(String cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public boolean isHighlight() {
+        return highlight;
+    }
+
+    public void setHighlight(boolean highlight) {
+        this.highlight = highlight;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Runs the parallel builds on the given threads, so that they reuse the state cached per thread,
+     * as MarkdownJ processors, of the previous builds. The executor is not shut down by the app.
+     *
+     * @param executor the executor running at least as many tasks at once as the threads of the build;
+     *            null (the default) for a pool created by each build.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public boolean isPipelined() {
+        return pipelineReaders > 0;
+    }
+
+    public int getPipelineReaders() {
+        return pipelineReaders;
+    }
+
+    public int getPipelineRenderers() {
+        return pipelineRenderers;
+    }
+
+    public int getPipelineWriters() {
+        return pipelineWriters;
+    }
+
+    /**
+     * Makes files be processed by a {@link RenderPipeline}, with the given numbers of threads.
+     * 0 readers processes files without pipeline, as by the threads setting.
+     */
+    public void setPipeline(int readers, int renderers, int writers) {
+        this.pipelineReaders = readers;
+        this.pipelineRenderers = renderers;
+        this.pipelineWriters = writers;
+    }
+
+    public String getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(String metrics) {
+        this.metrics = metrics;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public MarkdownEngine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(MarkdownEngine engine) {
+        this.engine = (engine == null) ? MarkdownEngines.MARKDOWNJ : engine;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    public long getRenderTimeout() {
+        return renderTimeout;
+    }
+
+    public void setRenderTimeout(long renderTimeout) {
+        this.renderTimeout = renderTimeout;
+    }
+
+    public RenderWatchdog.Action getOverBudget() {
+        return overBudget;
+    }
+
+    public void setOverBudget(RenderWatchdog.Action overBudget) {
+        this.overBudget = overBudget;
+    }
+
+    /**
+     * Returns the files which could not be processed in the last run, and the broken links if checked.
+     * 
+     * @return the errors, keyed and sorted by source path; broken links by relative source path and line.
+     */
+    public SortedMap<String, Exception> getFailures() {
+        return Collections.unmodifiableSortedMap(failures);
+    }
+
 }
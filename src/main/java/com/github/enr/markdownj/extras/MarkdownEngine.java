@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+/**
+ * Transforms markdown in html.
+ * 
+ * Engines are chosen by name with {@link MarkdownEngines#forName(String)}, among the built-in ones and the ones
+ * listed in <code>META-INF/services/com.github.enr.markdownj.extras.MarkdownEngine</code> files.
+ * 
+ * Engines must be stateless, or thread safe: a service renders files from concurrent threads.
+ * 
+ */
+public interface MarkdownEngine {
+
+    /**
+     * @return the name of the engine, lower case.
+     */
+    String getName();
+
+    /**
+     * @param text the markdown to transform, null is treated as empty text.
+     * @param codeBlockTemplate the template for code blocks starting with a <code>lang:</code> line, null means MarkdownJ default.
+     * @return the html.
+     */
+    String markdown(String text, String codeBlockTemplate);
+}
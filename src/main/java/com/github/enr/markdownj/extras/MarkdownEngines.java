@@ -0,0 +1,60 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.util.Locale;
+import java.util.ServiceLoader;
+
+/**
+ * The markdown engines: MarkdownJ, the default, the linear engine and the ones provided as services.
+ *
+ */
+public final class MarkdownEngines {
+
+    /**
+     * MarkdownJ, through processors cached per thread.
+     */
+    public static final MarkdownEngine MARKDOWNJ = new MarkdownJEngine();
+
+    /**
+     * The html of MarkdownJ, in time linear in the size of the document.
+     */
+    public static final MarkdownEngine LINEAR = new LinearMarkdownEngine();
+
+    /**
+     * Only static members.
+     */
+    private MarkdownEngines() {}
+
+    /**
+     * @param name the name of a built-in engine or of an engine provided as a service, in any case.
+     * @return the engine.
+     * @throws IllegalArgumentException if no engine has the given name.
+     */
+    public static MarkdownEngine forName(String name) {
+        String key = name.trim().toLowerCase(Locale.ENGLISH);
+        for (MarkdownEngine engine : new MarkdownEngine[] { MARKDOWNJ, LINEAR }) {
+            if (engine.getName().equals(key)) {
+                return engine;
+            }
+        }
+        for (MarkdownEngine engine : ServiceLoader.load(MarkdownEngine.class)) {
+            if (engine.getName().equalsIgnoreCase(key)) {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("unknown markdown engine: " + name);
+    }
+}
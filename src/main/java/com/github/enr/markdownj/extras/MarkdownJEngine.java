@@ -0,0 +1,32 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+/**
+ * MarkdownJ, through the processors cached by {@link MarkdownProcessors}.
+ *
+ */
+final class MarkdownJEngine implements MarkdownEngine {
+
+    static final String NAME = "markdownj";
+
+    public String getName() {
+        return NAME;
+    }
+
+    public String markdown(String text, String codeBlockTemplate) {
+        return MarkdownProcessors.markdown(text, codeBlockTemplate);
+    }
+}
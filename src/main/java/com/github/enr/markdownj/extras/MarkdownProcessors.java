@@ -0,0 +1,187 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.petebevin.markdown.MarkdownProcessor;
+
+/**
+ * Per-thread cache of MarkdownProcessor instances.
+ *
+ * MarkdownProcessor is not meant to be reused: it never clears the link definitions
+ * found in a document, and it escapes text using two static HashMaps shared by every instance.
+ * This class resets the per-document state after every use and, once, replaces the shared
+ * maps with concurrent ones, so that a cached processor renders exactly as a new one
+ * and processors on different threads can run at the same time.
+ *
+ * If MarkdownJ internals are not accessible, every call uses a new processor,
+ * serialized on a global lock.
+ *
+ */
+final class MarkdownProcessors {
+
+    private static final Logger logger = LoggerFactory.getLogger(MarkdownProcessors.class);
+
+    static final String DEFAULT_CODE_BLOCK_TEMPLATE = new MarkdownProcessor().getCodeBlockTemplate();
+
+    private static final Field LINK_DEFINITIONS = accessibleField(MarkdownProcessor.class, "linkDefinitions");
+
+    private static final Field LIST_LEVEL = accessibleField(MarkdownProcessor.class, "listLevel");
+
+    private static final boolean REUSABLE = (LINK_DEFINITIONS != null) && (LIST_LEVEL != null) && makeProtectorsConcurrent();
+
+    private static final Object GLOBAL_LOCK = new Object();
+
+    private static final ThreadLocal<MarkdownProcessor> PROCESSORS = new ThreadLocal<MarkdownProcessor>() {
+        @Override
+        protected MarkdownProcessor initialValue() {
+            return new MarkdownProcessor();
+        }
+    };
+
+    /**
+     * Only static methods.
+     */
+    private MarkdownProcessors() {}
+
+    /**
+     * Transforms markdown text in html, using the processor cached for the current thread.
+     *
+     * @param text the markdown to transform, null is treated as empty text.
+     * @param codeBlockTemplate the template for code blocks, null means MarkdownJ default.
+     * @return the html, as returned by MarkdownProcessor.markdown
+     */
+    static String markdown(String text, String codeBlockTemplate) {
+        return markdown(text, codeBlockTemplate, null);
+    }
+
+    /**
+     * Transforms markdown text in html, as if the given link definitions were part of the text.
+     *
+     * @param text the markdown to transform, null is treated as empty text.
+     * @param codeBlockTemplate the template for code blocks, null means MarkdownJ default.
+     * @param linkDefinitions definitions returned by {@link #linkDefinitions(String)}, null for none.
+     * @return the html, as returned by MarkdownProcessor.markdown
+     */
+    static String markdown(String text, String codeBlockTemplate, Map<String, Object> linkDefinitions) {
+        String template = (codeBlockTemplate == null) ? DEFAULT_CODE_BLOCK_TEMPLATE : codeBlockTemplate;
+        if (!REUSABLE) {
+            synchronized (GLOBAL_LOCK) {
+                MarkdownProcessor processor = new MarkdownProcessor();
+                processor.setCodeBlockTemplate(template);
+                return processor.markdown(text);
+            }
+        }
+        MarkdownProcessor processor = PROCESSORS.get();
+        processor.setCodeBlockTemplate(template);
+        try {
+            if (linkDefinitions != null) {
+                definitions(processor).putAll(linkDefinitions);
+            }
+            return processor.markdown(text);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            reset(processor);
+        }
+    }
+
+    /**
+     * Returns the link definitions found by MarkdownJ in the given text.
+     *
+     * @param text the markdown containing link definitions.
+     * @return definitions by id, or null if MarkdownJ internals are not accessible.
+     */
+    static Map<String, Object> linkDefinitions(String text) {
+        if (!REUSABLE) {
+            return null;
+        }
+        MarkdownProcessor processor = PROCESSORS.get();
+        try {
+            processor.markdown(text);
+            return new HashMap<String, Object>(definitions(processor));
+        } catch (IllegalAccessException e) {
+            return null;
+        } finally {
+            reset(processor);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> definitions(MarkdownProcessor processor) throws IllegalAccessException {
+        return (Map<String, Object>) LINK_DEFINITIONS.get(processor);
+    }
+
+    private static void reset(MarkdownProcessor processor) {
+        try {
+            ((Map<?, ?>) LINK_DEFINITIONS.get(processor)).clear();
+            LIST_LEVEL.setInt(processor, 0);
+        } catch (IllegalAccessException e) {
+            // the fields are accessible: a failure here means a broken processor, don't reuse it
+            PROCESSORS.remove();
+        }
+    }
+
+    /**
+     * Replaces the maps used by MarkdownJ static character protectors with concurrent maps.
+     *
+     * @return true if both protectors have been made safe for concurrent use.
+     */
+    private static boolean makeProtectorsConcurrent() {
+        try {
+            Class<?> protectorClass = Class.forName("com.petebevin.markdown.CharacterProtector");
+            Field protectMap = accessibleField(protectorClass, "protectMap");
+            Field unprotectMap = accessibleField(protectorClass, "unprotectMap");
+            if ((protectMap == null) || (unprotectMap == null)) {
+                return false;
+            }
+            for (String name : new String[] { "HTML_PROTECTOR", "CHAR_PROTECTOR" }) {
+                Field field = accessibleField(MarkdownProcessor.class, name);
+                if (field == null) {
+                    return false;
+                }
+                Object protector = field.get(null);
+                protectMap.set(protector, concurrentCopy((Map<?, ?>) protectMap.get(protector)));
+                unprotectMap.set(protector, concurrentCopy((Map<?, ?>) unprotectMap.get(protector)));
+            }
+            return true;
+        } catch (Exception e) {
+            logger.warn("MarkdownJ character protectors not accessible, rendering will be serialized: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static <K, V> Map<K, V> concurrentCopy(Map<K, V> original) {
+        return new ConcurrentHashMap<K, V>(original);
+    }
+
+    private static Field accessibleField(Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (Exception e) {
+            logger.warn("MarkdownJ field {}.{} not accessible: {}", new Object[] { type.getSimpleName(), name, e.getMessage() });
+            return null;
+        }
+    }
+}
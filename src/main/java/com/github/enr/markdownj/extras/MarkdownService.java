@@ -14,8 +14,20 @@
 
 package com.github.enr.markdownj.extras;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.net.URL;
 
+/**
+ * Transforms markdown in html, adding header and footer.
+ * 
+ * The content can be set and then processed, or passed directly to the render methods.
+ * The render methods don't use nor modify the content set in the service, so once
+ * header, footer, code block template and encoding are configured, a single instance
+ * can be shared by concurrent threads.
+ * 
+ */
 public interface MarkdownService {
 
     /**
@@ -43,6 +55,31 @@ public interface MarkdownService {
     
     void setCodeBlockTemplate(String codeBlockTemplate);
 
+    /**
+     * Sets the highlighter of the code blocks starting with a <code>lang:</code> line.
+     * The highlighted code is passed to the code block template in place of the escaped code.
+     * 
+     * @param highlighter the highlighter, or null to leave code as it is.
+     */
+    void setCodeHighlighter(CodeHighlighter highlighter);
+
+    /**
+     * Sets the stages run on the markdown before rendering, as tab expansion or byte order mark stripping
+     * (see {@link Preprocessors}).
+     * 
+     * @param preprocessor the stages, or null to render markdown as it is.
+     */
+    void setPreprocessor(Preprocessor preprocessor);
+
+    /**
+     * Sets the page template, used instead of header and footer (see {@link PageTemplate}).
+     * 
+     * @param template the template, or null to make pages of header, html and footer.
+     */
+    void setTemplate(String template);
+
+    void setTemplatePath(String path);
+
     /**
      * Transforms the markdown content in html, adding header and footer.
      * 
@@ -50,5 +87,124 @@ public interface MarkdownService {
      */
     String process();
 
+    /**
+     * Transforms the markdown content in html, writing header, html and footer to the given writer.
+     * The writer is not flushed nor closed.
+     * 
+     * @param writer the destination of the html.
+     * @throws IOException if the writer fails.
+     */
+    void process(Writer writer) throws IOException;
+
+    /**
+     * Transforms the markdown content in html, writing header, html and footer to the given stream,
+     * using the service encoding.
+     * The stream is not closed.
+     * 
+     * @param out the destination of the html.
+     * @throws IOException if the stream fails.
+     */
+    void process(OutputStream out) throws IOException;
+
+    /**
+     * Transforms the given markdown in html, adding header and footer.
+     * Doesn't use the content set in this service: it can be called from concurrent threads.
+     * 
+     * @param markdown the markdown to transform.
+     * @return the html string.
+     */
+    String render(CharSequence markdown);
+
+    /**
+     * Transforms the given markdown in html, writing header, html and footer to the given writer.
+     * Doesn't use the content set in this service: it can be called from concurrent threads.
+     * The writer is not flushed nor closed.
+     * 
+     * @param markdown the markdown to transform.
+     * @param writer the destination of the html.
+     * @throws IOException if the writer fails.
+     */
+    void render(CharSequence markdown, Writer writer) throws IOException;
+
+    /**
+     * Transforms the given markdown in html, writing header, html and footer to the given stream,
+     * using the service encoding.
+     * Doesn't use the content set in this service: it can be called from concurrent threads.
+     * The stream is not closed.
+     * 
+     * @param markdown the markdown to transform.
+     * @param out the destination of the html.
+     * @throws IOException if the stream fails.
+     */
+    void render(CharSequence markdown, OutputStream out) throws IOException;
+
+    /**
+     * Transforms the given markdown in a page, filling the placeholders of the template with the source path.
+     * Doesn't use the content set in this service: it can be called from concurrent threads.
+     * 
+     * @param markdown the markdown to transform.
+     * @param path the path of the source, relative to the source directory; null if unknown.
+     * @return the html string.
+     */
+    String render(CharSequence markdown, String path);
+
+    /**
+     * Transforms the given markdown in a page, filling the placeholders of the template with the source path,
+     * and writes it to the given stream, using the service encoding. The stream is not closed.
+     * 
+     * @param markdown the markdown to transform.
+     * @param path the path of the source, relative to the source directory; null if unknown.
+     * @param out the destination of the html.
+     * @throws IOException if the stream fails.
+     */
+    void render(CharSequence markdown, String path, OutputStream out) throws IOException;
+
     void setEncoding(String encoding);
+
+    /**
+     * Documents longer than the given size are split in chunks of at least that size, rendered in parallel.
+     * 0 or less renders every document on the calling thread.
+     * 
+     * @param chunkSize the minimum size of a chunk.
+     */
+    void setChunkSize(int chunkSize);
+
+    /**
+     * Sets the engine transforming markdown in html (see {@link MarkdownEngines}).
+     * 
+     * @param engine the engine, null means MarkdownJ.
+     */
+    void setEngine(MarkdownEngine engine);
+
+    /**
+     * Sets the size and time budgets of a document: documents over budget are not rendered,
+     * making a {@link RenderWatchdog.BudgetExceededException} or escaped plain text.
+     * 
+     * @param watchdog the budgets, null means no budget.
+     */
+    void setWatchdog(RenderWatchdog watchdog);
+
+    /**
+     * Sets the index collecting headings and terms of the documents rendered with a path: their headings get
+     * an id, so the index can link them.
+     * 
+     * @param searchIndex the index, null to collect nothing.
+     */
+    void setSearchIndex(SearchIndex searchIndex);
+
+    /**
+     * Sets the checker collecting links and anchors of the documents rendered with a path. The anchors are the
+     * ones of the page as written: headings get an id only with a search index or a table of contents.
+     * 
+     * @param linkChecker the checker, null to collect nothing.
+     */
+    void setLinkChecker(LinkChecker linkChecker);
+
+    /**
+     * Gives an id to the headings without one, as done with a search index, also when no index is set:
+     * pages rendered after an indexed build keep the anchors the index links to.
+     * 
+     * @param headingIds true to always give ids to headings.
+     */
+    void setHeadingIds(boolean headingIds);
 }
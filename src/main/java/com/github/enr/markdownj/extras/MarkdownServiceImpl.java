@@ -14,26 +14,52 @@
 
 package com.github.enr.markdownj.extras;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.net.URL;
-
-import com.petebevin.markdown.MarkdownProcessor;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
 
 /**
  * Basic implementation of MarkdownService.
  * 
+ * Markdown is transformed by MarkdownJ processors cached per thread, so no processor
+ * is created for every call and render methods can run in parallel.
+ * 
+ * Header and footer, or a page template with placeholders, are normalized, parsed and encoded once
+ * when they are set (see {@link PageTemplate}): pages are written to writers and streams without
+ * building the whole page in memory.
+ * 
+ * With a code highlighter set, code blocks starting with a <code>lang:</code> line are highlighted
+ * before being passed to the code block template (see {@link CodeHighlighter}).
+ * 
+ * With a chunk size set, big documents are split at block boundaries and the chunks rendered in parallel,
+ * producing the same html as a single processor.
  * 
  */
 public class MarkdownServiceImpl implements MarkdownService {
 
     /**
-     * The string containing the html used as header.
+     * The string containing the html used as header, with normalized line endings.
+     */
+    private String header = "";
+
+    /**
+     * The string containing the html used as footer, with normalized line endings.
+     */
+    private String footer = "";
+
+    /**
+     * The page template, with normalized line endings.
+     * null means pages are made of header, html and footer.
      */
-    private String header;
+    private String template;
 
     /**
-     * The string containing the html used as footer.
+     * The parsed template, or header and footer, encoded using the current encoding.
      */
-    private String footer;
+    private PageTemplate page = PageTemplate.wrap("", "", Charset.defaultCharset());
 
     /**
      * The string containing the markdown to transform.
@@ -49,6 +75,21 @@ public class MarkdownServiceImpl implements MarkdownService {
      *
      */
     private String codeBlockTemplate;
+
+    /**
+     * The highlighter of code blocks, null if code is not highlighted.
+     */
+    private CodeHighlighter highlighter;
+
+    /**
+     * The stages run on markdown before rendering, null if none.
+     */
+    private Preprocessor preprocessor;
+
+    /**
+     * The code block template given to MarkdownJ: with a highlighter, it marks language and code.
+     */
+    private String renderTemplate;
     
     /**
      * The encoding to use.
@@ -57,26 +98,128 @@ public class MarkdownServiceImpl implements MarkdownService {
      */
     private String encoding;
 
+    private Charset charset = Charset.defaultCharset();
+
+    /**
+     * Documents longer than this are split in chunks of about this size, rendered in parallel.
+     * 0 or less means documents are never split.
+     */
+    private int chunkSize;
+
+    /**
+     * The engine transforming markdown in html.
+     */
+    private MarkdownEngine engine = MarkdownEngines.MARKDOWNJ;
+
+    /**
+     * The size and time budgets of a document.
+     */
+    private RenderWatchdog watchdog = RenderWatchdog.UNLIMITED;
+
+    /**
+     * The index of the rendered documents, null if none.
+     */
+    private SearchIndex searchIndex;
+
+    /**
+     * The checker of the links of the rendered documents, null if none.
+     */
+    private LinkChecker linkChecker;
+
+    /**
+     * Whether headings without an id get one even without search index and table of contents.
+     */
+    private boolean headingIds;
+
     public MarkdownServiceImpl() {
     }
 
     public String process() {
-        MarkdownProcessor processor = new MarkdownProcessor();
-        if (codeBlockTemplate != null) {
-            processor.setCodeBlockTemplate(codeBlockTemplate);
+        return render(content);
+    }
+
+    public void process(Writer writer) throws IOException {
+        render(content, writer);
+    }
+
+    public void process(OutputStream out) throws IOException {
+        render(content, out);
+    }
+
+    public String render(CharSequence markdown) {
+        return render(markdown, (String) null);
+    }
+
+    public String render(CharSequence markdown, String path) {
+        String html = toHtml(markdown);
+        return page.render(html, path, outline(markdown, html, path));
+    }
+
+    public void render(CharSequence markdown, Writer writer) throws IOException {
+        page.write(writer, toHtml(markdown), null);
+    }
+
+    public void render(CharSequence markdown, OutputStream out) throws IOException {
+        render(markdown, null, out);
+    }
+
+    public void render(CharSequence markdown, String path, OutputStream out) throws IOException {
+        String html = toHtml(markdown);
+        page.write(out, html, path, outline(markdown, html, path));
+    }
+
+    /**
+     * Adds the html to the search index and to the link checker, if any.
+     * Headings get an id only for the index, the table of contents or if always asked: the checker sees the anchors
+     * of the page as it is written whether links are checked or not.
+     * 
+     * @return the outline of the html, null if the html is written as it is.
+     */
+    private PageOutline outline(CharSequence markdown, String html, String path) {
+        SearchIndex index = (path == null) ? null : searchIndex;
+        LinkChecker checker = (path == null) ? null : linkChecker;
+        if ((index == null) && (checker == null) && !headingIds) {
+            return null;
+        }
+        boolean addIds = headingIds || (index != null) || page.usesToc();
+        PageOutline outline = PageOutline.scan(html, index != null, addIds);
+        if (index != null) {
+            index.add(path, outline);
+        }
+        if (checker != null) {
+            checker.add(path, markdown, outline);
+        }
+        return addIds ? outline : null;
+    }
+
+    private String toHtml(CharSequence markdown) {
+        CharSequence source = ((preprocessor == null) || (markdown == null)) ? markdown : preprocessor.apply(markdown);
+        final String text = (source == null) ? null : source.toString();
+        if ((text == null) || (watchdog == RenderWatchdog.UNLIMITED)) {
+            return markdown(text);
+        }
+        return watchdog.render(text, new Callable<String>() {
+            public String call() {
+                return markdown(text);
+            }
+        });
+    }
+
+    private String markdown(String text) {
+        String html;
+        if ((engine == MarkdownEngines.MARKDOWNJ) && (chunkSize > 0) && (text != null) && (text.length() > chunkSize)) {
+            html = ChunkedRenderer.markdown(text, chunkSize, renderTemplate);
+        } else {
+            html = engine.markdown(text, renderTemplate);
         }
-        String hs = (header == null) ? "" : normalizeEol(header);
-        String fs = (footer == null) ? "" : normalizeEol(footer);
-        return String.format("%s%s%s", hs, processor.markdown(content), fs);
+        return (highlighter == null) ? html : highlighter.highlightBlocks(html);
     }
 
     private String normalizeEol(String text) {
         if (text == null) {
             return "";
         }
-        String r = text.replaceAll("\\r\\n", "\n");
-        r = r.replaceAll("\\r", "\n");
-        return r;
+        return Preprocessors.apply(Preprocessors.NORMALIZE_EOL, text);
     }
 
     public void setContent(String content) {
@@ -92,27 +235,51 @@ public class MarkdownServiceImpl implements MarkdownService {
     }
 
     public void setFooterPath(String path) {
-        footer = FileUtils.readFileFromPath(path, encoding);
+        setFooter(FileUtils.readFileFromPath(path, encoding));
     }
 
     public void setFooterUrl(URL url) {
-        footer = FileUtils.readFileFromUrl(url, encoding);
+        setFooter(FileUtils.readFileFromUrl(url, encoding));
     }
 
     public void setHeaderPath(String path) {
-        header = FileUtils.readFileFromPath(path, encoding);
+        setHeader(FileUtils.readFileFromPath(path, encoding));
     }
 
     public void setHeaderUrl(URL url) {
-        header = FileUtils.readFileFromUrl(url, encoding);
+        setHeader(FileUtils.readFileFromUrl(url, encoding));
     }
 
     public void setFooter(String footer) {
-        this.footer = footer;
+        this.footer = normalizeEol(footer);
+        compilePage();
     }
 
     public void setHeader(String header) {
-        this.header = header;
+        this.header = normalizeEol(header);
+        compilePage();
+    }
+
+    /**
+     * Sets the page template, used instead of header and footer.
+     * 
+     * @param template the template, or null to make pages of header, html and footer.
+     */
+    public void setTemplate(String template) {
+        this.template = (template == null) ? null : normalizeEol(template);
+        compilePage();
+    }
+
+    public void setTemplatePath(String path) {
+        setTemplate(FileUtils.readFileFromPath(path, encoding));
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    private void compilePage() {
+        page = (template == null) ? PageTemplate.wrap(header, footer, charset) : PageTemplate.compile(template, charset);
     }
 
     public String getCodeBlockTemplate() {
@@ -121,14 +288,111 @@ public class MarkdownServiceImpl implements MarkdownService {
 
     public void setCodeBlockTemplate(String codeBlockTemplate) {
         this.codeBlockTemplate = codeBlockTemplate;
+        updateRenderTemplate();
+    }
+
+    public CodeHighlighter getCodeHighlighter() {
+        return highlighter;
+    }
+
+    public void setCodeHighlighter(CodeHighlighter highlighter) {
+        this.highlighter = highlighter;
+        updateRenderTemplate();
+    }
+
+    public Preprocessor getPreprocessor() {
+        return preprocessor;
+    }
+
+    public void setPreprocessor(Preprocessor preprocessor) {
+        this.preprocessor = preprocessor;
+    }
+
+    private void updateRenderTemplate() {
+        if (highlighter == null) {
+            renderTemplate = codeBlockTemplate;
+        } else if (codeBlockTemplate == null) {
+            renderTemplate = CodeHighlighter.MARKING_DEFAULT_TEMPLATE;
+        } else {
+            renderTemplate = CodeHighlighter.markingTemplate(codeBlockTemplate);
+        }
     }
 
     public String getEncoding() {
         return encoding;
     }
 
+    /**
+     * Sets the encoding used to read files and to write to streams.
+     * Header, footer and template already set are encoded again, but not read again.
+     */
     public void setEncoding(String encoding) {
         this.encoding = encoding;
+        this.charset = FileUtils.charsetForNameOrDefault(encoding);
+        this.page = page.withCharset(charset);
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Enables parallel rendering of documents longer than the given number of chars.
+     * 
+     * @param chunkSize the minimum size of a chunk, 0 or less to render every document on the calling thread.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public MarkdownEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Sets the engine transforming markdown in html. Documents are split in chunks only by the MarkdownJ engine.
+     * 
+     * @param engine the engine, null means MarkdownJ.
+     */
+    public void setEngine(MarkdownEngine engine) {
+        this.engine = (engine == null) ? MarkdownEngines.MARKDOWNJ : engine;
+    }
+
+    public RenderWatchdog getWatchdog() {
+        return watchdog;
+    }
+
+    /**
+     * Sets the size and time budgets of a document.
+     * 
+     * @param watchdog the budgets, null means no budget.
+     */
+    public void setWatchdog(RenderWatchdog watchdog) {
+        this.watchdog = (watchdog == null) ? RenderWatchdog.UNLIMITED : watchdog;
+    }
+
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    public void setSearchIndex(SearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+
+    public LinkChecker getLinkChecker() {
+        return linkChecker;
+    }
+
+    public void setLinkChecker(LinkChecker linkChecker) {
+        this.linkChecker = linkChecker;
+    }
+
+    public boolean isHeadingIds() {
+        return headingIds;
+    }
+
+    public void setHeadingIds(boolean headingIds) {
+        this.headingIds = headingIds;
     }
 
 }
@@ -0,0 +1,251 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reads and writes text files through FileChannels.
+ *
+ * Files up to {@link #LARGE_FILE_THRESHOLD} are read in a direct buffer kept by the current thread,
+ * bigger ones in a heap buffer of their size, decoded in place. Files of other file systems, as zip entries,
+ * are read through their channel. Decoders, encoders and buffers are reused by each thread, so reading a file
+ * allocates little more than the resulting String.
+ * UTF-8, ISO-8859-1 and US-ASCII bytes are decoded by the String constructor and encoded by String,
+ * which have fast paths for them; other charsets are encoded in chunks, without the whole encoded text.
+ *
+ * When no charset is given, a leading UTF-8, UTF-16BE or UTF-16LE byte order mark selects the charset of the file,
+ * the platform default otherwise. A given charset is always used, and only its own byte order mark is skipped.
+ * Byte order marks are not part of the read text.
+ * Malformed input and unmappable characters are replaced, as String and Writer do.
+ *
+ */
+final class NioFiles {
+
+    /**
+     * Files bigger than this are read in a buffer of their own instead of the one of the thread.
+     */
+    static final int LARGE_FILE_THRESHOLD = 256 * 1024;
+
+    /**
+     * Initial size of the per-thread buffer, and size of the chunks written to files.
+     */
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+
+    private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * Charsets decoded by the String constructor, faster than a CharsetDecoder for them and without a char[] copy.
+     */
+    private static final Set<Charset> STRING_CHARSETS = new HashSet<Charset>(Arrays.asList(UTF_8, Charset.forName("ISO-8859-1"),
+            Charset.forName("US-ASCII")));
+
+    private static final ThreadLocal<byte[]> ARRAYS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private static final ThreadLocal<CharsetDecoder> DECODERS = new ThreadLocal<CharsetDecoder>();
+
+    private static final ThreadLocal<CharsetEncoder> ENCODERS = new ThreadLocal<CharsetEncoder>();
+
+    /**
+     * Only static methods.
+     */
+    private NioFiles() {}
+
+    /**
+     * @param charset the charset of the file, null to select it by its byte order mark.
+     */
+    static String read(File file, Charset charset) throws IOException {
+        return read(file.toPath(), charset);
+    }
+
+    /**
+     * @param charset the charset of the file, null to select it by its byte order mark.
+     */
+    static String read(Path file, Charset charset) throws IOException {
+        boolean local = (file.getFileSystem() == FileSystems.getDefault());
+        SeekableByteChannel channel = local ? FileChannel.open(file, StandardOpenOption.READ) : Files.newByteChannel(file);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too big: " + file);
+            }
+            // a heap buffer is decoded from its array, without the copy a mapped or direct buffer would need
+            ByteBuffer buffer = (size > LARGE_FILE_THRESHOLD) ? ByteBuffer.allocate((int) size) : buffer((int) size);
+            while (buffer.hasRemaining() && (channel.read(buffer) >= 0)) {
+                // the size could change while reading: read until the end or the buffer capacity
+            }
+            buffer.flip();
+            return decode(buffer, charset);
+        } finally {
+            channel.close();
+        }
+    }
+
+    static void write(File file, CharSequence text, Charset charset) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            if (STRING_CHARSETS.contains(charset)) {
+                // encoded by String, with fast paths for these charsets as when reading
+                ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(charset));
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                return;
+            }
+            CharsetEncoder encoder = encoder(charset);
+            CharBuffer in = CharBuffer.wrap(text);
+            ByteBuffer out = buffer(BUFFER_SIZE);
+            CoderResult result;
+            do {
+                result = encoder.encode(in, out, true);
+                drain(out, channel);
+            } while (result.isOverflow());
+            while (encoder.flush(out).isOverflow()) {
+                drain(out, channel);
+            }
+            drain(out, channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static String decode(ByteBuffer bytes, Charset charset) {
+        Charset marked = byteOrderMark(bytes);
+        Charset actual = (charset == null) ? Charset.defaultCharset() : charset;
+        if ((marked != null) && ((charset == null) || charset.equals(marked))) {
+            actual = marked;
+            bytes.position(bytes.position() + (marked.equals(UTF_8) ? 3 : 2));
+        }
+        if (STRING_CHARSETS.contains(actual)) {
+            int length = bytes.remaining();
+            if (bytes.hasArray()) {
+                return new String(bytes.array(), bytes.arrayOffset() + bytes.position(), length, actual);
+            }
+            byte[] array = array(length);
+            bytes.get(array, 0, length);
+            return new String(array, 0, length, actual);
+        }
+        CharsetDecoder decoder = decoder(actual);
+        CharBuffer chars = CharBuffer.allocate((int) (bytes.remaining() * (double) decoder.maxCharsPerByte()) + 1);
+        decoder.decode(bytes, chars, true);
+        decoder.flush(chars);
+        return new String(chars.array(), 0, chars.position());
+    }
+
+    /**
+     * Returns the charset of the byte order mark the bytes start with, null if there is none.
+     */
+    private static Charset byteOrderMark(ByteBuffer bytes) {
+        int position = bytes.position();
+        int remaining = bytes.remaining();
+        if ((remaining >= 3) && (bytes.get(position) == (byte) 0xEF) && (bytes.get(position + 1) == (byte) 0xBB)
+                && (bytes.get(position + 2) == (byte) 0xBF)) {
+            return UTF_8;
+        }
+        if ((remaining >= 2) && (bytes.get(position) == (byte) 0xFE) && (bytes.get(position + 1) == (byte) 0xFF)) {
+            return UTF_16BE;
+        }
+        if ((remaining >= 2) && (bytes.get(position) == (byte) 0xFF) && (bytes.get(position + 1) == (byte) 0xFE)) {
+            return UTF_16LE;
+        }
+        return null;
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns the cleared buffer of the current thread, enlarged if smaller than the given size.
+     */
+    private static ByteBuffer buffer(int size) {
+        ByteBuffer buffer = BUFFERS.get();
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size);
+            BUFFERS.set(buffer);
+        }
+        buffer.clear();
+        buffer.limit(Math.max(size, 0));
+        return buffer;
+    }
+
+    /**
+     * Returns the byte array of the current thread, enlarged if smaller than the given size.
+     */
+    private static byte[] array(int size) {
+        byte[] array = ARRAYS.get();
+        if (array.length < size) {
+            array = new byte[size];
+            ARRAYS.set(array);
+        }
+        return array;
+    }
+
+    private static CharsetDecoder decoder(Charset charset) {
+        CharsetDecoder decoder = DECODERS.get();
+        if ((decoder == null) || !decoder.charset().equals(charset)) {
+            decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+            DECODERS.set(decoder);
+        }
+        return decoder.reset();
+    }
+
+    private static CharsetEncoder encoder(Charset charset) {
+        CharsetEncoder encoder = ENCODERS.get();
+        if ((encoder == null) || !encoder.charset().equals(charset)) {
+            encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+            ENCODERS.set(encoder);
+        }
+        return encoder.reset();
+    }
+}
@@ -0,0 +1,612 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Headings and text terms of the html of a document, collected by a single scan of the html.
+ *
+ * Headings without an id get one made of their text (<code>Getting started</code> makes
+ * <code>getting-started</code>, <code>getting-started-1</code> when repeated), so the table of
+ * contents and the search index can link them; unless scanned only for the anchors the html already has.
+ * The scan also collects the targets of links and every anchor of the page, ids and link names, for the
+ * {@link LinkChecker}.
+ * Terms are the runs of letters and digits of the text outside tags, lower case, numbered by their
+ * position in the text. Comments, scripts and styles are skipped.
+ *
+ */
+public final class PageOutline {
+
+    /**
+     * Terms shorter than this are counted in positions, but not collected.
+     */
+    static final int MINIMUM_TERM_LENGTH = 2;
+
+    /**
+     * Longer terms are cut, as they are mostly encoded data.
+     */
+    static final int MAXIMUM_TERM_LENGTH = 32;
+
+    /**
+     * A heading of the document.
+     */
+    public static final class Heading {
+
+        private final int level;
+
+        private final String id;
+
+        private final String html;
+
+        private final String text;
+
+        private final int position;
+
+        Heading(int level, String id, String html, String text, int position) {
+            this.level = level;
+            this.id = id;
+            this.html = html;
+            this.text = text;
+            this.position = position;
+        }
+
+        /**
+         * @return from 1 to 6.
+         */
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         * @return the id of the heading, null if it has none and ids were not added.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the content of the heading without tags, entities left as they are.
+         */
+        public String getHtml() {
+            return html;
+        }
+
+        /**
+         * @return the content of the heading as plain text.
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return the position of the first term after the heading start.
+         */
+        public int getPosition() {
+            return position;
+        }
+    }
+
+    private final String html;
+
+    private final List<Heading> headings;
+
+    private final Map<String, int[]> terms;
+
+    private final int positions;
+
+    private final List<String> links;
+
+    private final Set<String> anchors;
+
+    private PageOutline(String html, List<Heading> headings, Map<String, int[]> terms, int positions, List<String> links,
+            Set<String> anchors) {
+        this.html = html;
+        this.headings = headings;
+        this.terms = terms;
+        this.positions = positions;
+        this.links = links;
+        this.anchors = anchors;
+    }
+
+    /**
+     * Scans the html of a document.
+     *
+     * @param html the html, not null.
+     * @param collectTerms true to collect the terms of the text.
+     * @return the outline.
+     */
+    public static PageOutline scan(String html, boolean collectTerms) {
+        return scan(html, collectTerms, true);
+    }
+
+    /**
+     * Scans the html of a document.
+     *
+     * @param html the html, not null.
+     * @param collectTerms true to collect the terms of the text.
+     * @param addIds true to give an id to the headings without one, false to leave the html as it is.
+     * @return the outline.
+     */
+    public static PageOutline scan(String html, boolean collectTerms, boolean addIds) {
+        return new Scanner(html, collectTerms, addIds).scan();
+    }
+
+    /**
+     * @return the html, with an id in every heading if ids were added.
+     */
+    public String getHtml() {
+        return html;
+    }
+
+    public List<Heading> getHeadings() {
+        return headings;
+    }
+
+    /**
+     * @return the positions of every collected term, in order of first occurrence; empty if terms were not collected.
+     */
+    public Map<String, int[]> getTerms() {
+        return terms;
+    }
+
+    /**
+     * @return the number of terms in the text, collected or not.
+     */
+    public int getPositions() {
+        return positions;
+    }
+
+    /**
+     * @return the href of every link, in order, with entities decoded.
+     */
+    public List<String> getLinks() {
+        return links;
+    }
+
+    /**
+     * @return the ids of the elements of the page and the names of its links.
+     */
+    public Set<String> getAnchors() {
+        return anchors;
+    }
+
+    /**
+     * @return the text of the first h1, null if none.
+     */
+    public String getTitle() {
+        for (Heading heading : headings) {
+            if (heading.getLevel() == 1) {
+                return heading.getText().trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the table of contents: nested lists of links to the headings, empty if there are no headings.
+     */
+    public String toc() {
+        if (headings.isEmpty()) {
+            return "";
+        }
+        StringBuilder toc = new StringBuilder(headings.size() * 64);
+        // levels of the open lists
+        int[] open = new int[7];
+        int depth = 0;
+        for (Heading heading : headings) {
+            if (depth == 0) {
+                toc.append("<ul class=\"toc\">\n");
+                open[depth++] = heading.getLevel();
+            } else if (heading.getLevel() > open[depth - 1]) {
+                toc.append("\n<ul>\n");
+                open[depth++] = heading.getLevel();
+            } else {
+                toc.append("</li>\n");
+                while ((depth > 1) && (heading.getLevel() < open[depth - 1]) && (heading.getLevel() <= open[depth - 2])) {
+                    toc.append("</ul>\n</li>\n");
+                    depth--;
+                }
+                // a heading higher than the first of its list joins it
+                open[depth - 1] = Math.min(open[depth - 1], heading.getLevel());
+            }
+            toc.append("<li><a href=\"#").append(heading.getId()).append("\">").append(heading.getHtml().trim()).append("</a>");
+        }
+        toc.append("</li>\n");
+        while (--depth > 0) {
+            toc.append("</ul>\n</li>\n");
+        }
+        return toc.append("</ul>\n").toString();
+    }
+
+    /**
+     * Returns the id made of the text of a heading: letters and digits in lower case, separated by '-'.
+     */
+    static String slug(String text) {
+        StringBuilder slug = new StringBuilder(text.length());
+        boolean separator = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (separator && (slug.length() > 0)) {
+                    slug.append('-');
+                }
+                separator = false;
+                slug.append(Character.toLowerCase(c));
+            } else if (Character.isWhitespace(c) || (c == '-') || (c == '_')) {
+                separator = true;
+            }
+        }
+        return (slug.length() == 0) ? "section" : slug.toString();
+    }
+
+    /**
+     * The state of a scan.
+     */
+    private static final class Scanner {
+
+        private final String html;
+
+        private final boolean collectTerms;
+
+        private final boolean addIds;
+
+        private final StringBuilder out;
+
+        private final List<Heading> headings = new ArrayList<Heading>();
+
+        private final Set<String> ids = new HashSet<String>();
+
+        private final List<String> links = new ArrayList<String>();
+
+        /**
+         * Positions of each term, the number of positions used in the first slot.
+         */
+        private final Map<String, int[]> terms = new LinkedHashMap<String, int[]>();
+
+        private final StringBuilder term = new StringBuilder(MAXIMUM_TERM_LENGTH);
+
+        private int positions;
+
+        /**
+         * Start of the html not copied yet.
+         */
+        private int copied;
+
+        /**
+         * Level of the open heading, 0 if none.
+         */
+        private int headingLevel;
+
+        private int headingContentStart;
+
+        private int headingInsert;
+
+        private String headingId;
+
+        private int headingPosition;
+
+        Scanner(String html, boolean collectTerms, boolean addIds) {
+            this.html = html;
+            this.collectTerms = collectTerms;
+            this.addIds = addIds;
+            this.out = new StringBuilder(html.length() + 256);
+        }
+
+        PageOutline scan() {
+            int i = 0;
+            int length = html.length();
+            while (i < length) {
+                char c = html.charAt(i);
+                if (c == '<') {
+                    endTerm();
+                    i = tag(i);
+                } else if (!collectTerms) {
+                    // only tags matter
+                    int tag = html.indexOf('<', i);
+                    i = (tag < 0) ? length : tag;
+                } else if (c == '&') {
+                    int end = entityEnd(i);
+                    char decoded = (end < 0) ? 0 : decodeAt(i, end);
+                    if (decoded == 0) {
+                        endTerm();
+                        i = (end < 0) ? i + 1 : end;
+                    } else {
+                        text(decoded);
+                        i = end;
+                    }
+                } else {
+                    text(c);
+                    i++;
+                }
+            }
+            endTerm();
+            out.append(html, copied, length);
+            Map<String, int[]> collected = terms;
+            for (Map.Entry<String, int[]> entry : collected.entrySet()) {
+                int[] slots = entry.getValue();
+                int[] trimmed = new int[slots[0]];
+                System.arraycopy(slots, 1, trimmed, 0, trimmed.length);
+                entry.setValue(trimmed);
+            }
+            return new PageOutline(out.toString(), Collections.unmodifiableList(headings), Collections.unmodifiableMap(collected), positions,
+                    Collections.unmodifiableList(links), Collections.unmodifiableSet(ids));
+        }
+
+        /**
+         * Reads the tag starting at the given index.
+         *
+         * @return the index after the tag, or after the skipped element.
+         */
+        private int tag(int start) {
+            int length = html.length();
+            if (html.startsWith("<!--", start)) {
+                int end = html.indexOf("-->", start + 4);
+                return (end < 0) ? length : end + 3;
+            }
+            int end = html.indexOf('>', start);
+            if (end < 0) {
+                return length;
+            }
+            boolean closing = (start + 1 < length) && (html.charAt(start + 1) == '/');
+            int nameStart = closing ? start + 2 : start + 1;
+            int nameEnd = nameStart;
+            while ((nameEnd < end) && Character.isLetterOrDigit(html.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            int nameLength = nameEnd - nameStart;
+            if (!closing && (isName(nameStart, nameLength, "script") || isName(nameStart, nameLength, "style"))) {
+                int close = end;
+                while (((close = html.indexOf("</", close)) >= 0) && !html.regionMatches(true, close + 2, html, nameStart, nameLength)) {
+                    close += 2;
+                }
+                return (close < 0) ? length : tag(close);
+            }
+            String id = null;
+            if (!closing && hasAttributes(nameEnd, end)) {
+                String attributes = html.substring(nameEnd, end);
+                id = attribute(attributes, "id");
+                if (id != null) {
+                    ids.add(id);
+                }
+                if (isName(nameStart, nameLength, "a")) {
+                    String href = attribute(attributes, "href");
+                    if (href != null) {
+                        links.add(decode(href));
+                    }
+                    String anchor = attribute(attributes, "name");
+                    if (anchor != null) {
+                        ids.add(anchor);
+                    }
+                }
+            }
+            int level = headingLevel(nameStart, nameLength);
+            if (level > 0) {
+                if (!closing && (headingLevel == 0)) {
+                    openHeading(level, nameEnd, end, id);
+                } else if (closing && (level == headingLevel)) {
+                    closeHeading(start);
+                }
+            }
+            return end + 1;
+        }
+
+        private boolean isName(int nameStart, int nameLength, String name) {
+            return (nameLength == name.length()) && html.regionMatches(true, nameStart, name, 0, nameLength);
+        }
+
+        private boolean hasAttributes(int nameEnd, int end) {
+            for (int i = nameEnd; i < end; i++) {
+                if (html.charAt(i) == '=') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int headingLevel(int nameStart, int nameLength) {
+            if (nameLength == 2) {
+                char h = html.charAt(nameStart);
+                char level = html.charAt(nameStart + 1);
+                if (((h == 'h') || (h == 'H')) && (level >= '1') && (level <= '6')) {
+                    return level - '0';
+                }
+            }
+            return 0;
+        }
+
+        private void openHeading(int level, int nameEnd, int end, String id) {
+            headingLevel = level;
+            headingContentStart = end + 1;
+            headingPosition = positions;
+            headingId = id;
+            headingInsert = (headingId == null) ? nameEnd : -1;
+        }
+
+        private void closeHeading(int end) {
+            String content = html.substring(headingContentStart, end);
+            String stripped = PageTemplate.stripTags(content);
+            String text = decode(stripped);
+            if ((headingId == null) && addIds) {
+                String slug = slug(text);
+                headingId = slug;
+                for (int n = 1; ids.contains(headingId); n++) {
+                    headingId = slug + "-" + n;
+                }
+                out.append(html, copied, headingInsert).append(" id=\"").append(headingId).append('"');
+                copied = headingInsert;
+            }
+            if (headingId != null) {
+                ids.add(headingId);
+            }
+            headings.add(new Heading(headingLevel, headingId, stripped, text, headingPosition));
+            headingLevel = 0;
+        }
+
+        private void text(char c) {
+            if (Character.isLetterOrDigit(c)) {
+                if (term.length() < MAXIMUM_TERM_LENGTH) {
+                    term.append(Character.toLowerCase(c));
+                }
+            } else {
+                endTerm();
+            }
+        }
+
+        private void endTerm() {
+            if (term.length() == 0) {
+                return;
+            }
+            int position = positions++;
+            if (collectTerms && (term.length() >= MINIMUM_TERM_LENGTH)) {
+                String key = term.toString();
+                int[] slots = terms.get(key);
+                if (slots == null) {
+                    slots = new int[4];
+                    terms.put(key, slots);
+                } else if (slots[0] + 1 == slots.length) {
+                    int[] grown = new int[slots.length * 2];
+                    System.arraycopy(slots, 0, grown, 0, slots.length);
+                    slots = grown;
+                    terms.put(key, slots);
+                }
+                slots[++slots[0]] = position;
+            }
+            term.setLength(0);
+        }
+
+        private int entityEnd(int start) {
+            int limit = Math.min(html.length(), start + 10);
+            for (int i = start + 1; i < limit; i++) {
+                char c = html.charAt(i);
+                if (c == ';') {
+                    return (i > start + 1) ? i + 1 : -1;
+                }
+                if (!Character.isLetterOrDigit(c) && (c != '#')) {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return the char of a numeric or markup entity, 0 for other entities.
+         */
+        private char decodeAt(int start, int end) {
+            return decodeEntity(html.substring(start + 1, end - 1));
+        }
+    }
+
+    static char decodeEntity(String name) {
+        if (name.startsWith("#")) {
+            try {
+                int code = ((name.length() > 1) && ((name.charAt(1) == 'x') || (name.charAt(1) == 'X'))) ? Integer.parseInt(name.substring(2), 16)
+                        : Integer.parseInt(name.substring(1));
+                return ((code > 0) && (code < Character.MIN_SUPPLEMENTARY_CODE_POINT)) ? (char) code : 0;
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        if (name.equals("amp")) {
+            return '&';
+        }
+        if (name.equals("lt")) {
+            return '<';
+        }
+        if (name.equals("gt")) {
+            return '>';
+        }
+        if (name.equals("quot")) {
+            return '"';
+        }
+        if (name.equals("apos")) {
+            return '\'';
+        }
+        if (name.equals("nbsp")) {
+            return ' ';
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the text of html without tags, with numeric and markup entities decoded.
+     */
+    static String decode(String html) {
+        if (html.indexOf('&') < 0) {
+            return html;
+        }
+        StringBuilder text = new StringBuilder(html.length());
+        int i = 0;
+        while (i < html.length()) {
+            char c = html.charAt(i);
+            int end = (c == '&') ? html.indexOf(';', i) : -1;
+            char decoded = ((end > i + 1) && (end - i < 10)) ? decodeEntity(html.substring(i + 1, end)) : 0;
+            if (decoded == 0) {
+                text.append(c);
+                i++;
+            } else {
+                text.append(decoded);
+                i = end + 1;
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns the value of an attribute in the attributes of a tag, null if absent.
+     */
+    private static String attribute(String attributes, String name) {
+        String lower = SpanScanner.lowerCase(attributes);
+        int from = 0;
+        int at;
+        while ((at = lower.indexOf(name, from)) >= 0) {
+            from = at + name.length();
+            if ((at > 0) && !Character.isWhitespace(lower.charAt(at - 1))) {
+                continue;
+            }
+            int i = from;
+            while ((i < lower.length()) && Character.isWhitespace(lower.charAt(i))) {
+                i++;
+            }
+            if ((i == lower.length()) || (lower.charAt(i) != '=')) {
+                continue;
+            }
+            i++;
+            while ((i < lower.length()) && Character.isWhitespace(lower.charAt(i))) {
+                i++;
+            }
+            if (i == lower.length()) {
+                return null;
+            }
+            char quote = attributes.charAt(i);
+            if ((quote == '"') || (quote == '\'')) {
+                int end = attributes.indexOf(quote, i + 1);
+                return (end < 0) ? null : attributes.substring(i + 1, end);
+            }
+            int end = i;
+            while ((end < attributes.length()) && !Character.isWhitespace(attributes.charAt(end))) {
+                end++;
+            }
+            return attributes.substring(i, end);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A page around the html of a document, parsed once in literal text and placeholders.
+ *
+ * Placeholders are:
+ * <ul>
+ * <li><code>${content}</code>: the html of the document;</li>
+ * <li><code>${title}</code>: the text of the first h1 in the html, or the html escaped file name of the source without extension;</li>
+ * <li><code>${path}</code>: the path of the source, relative to the source directory, html escaped;</li>
+ * <li><code>${root}</code>: the relative path from the page to the site root, as <code>.</code> or <code>../..</code>;</li>
+ * <li><code>${toc}</code>: the table of contents, nested lists of links to the headings of the document, which get an id if missing.</li>
+ * </ul>
+ * Other <code>${...}</code> sequences are literal text.
+ *
+ * Literals are encoded once, so writing a page to a stream only encodes title, path, root and content.
+ * Title, root and table of contents are computed only if the template uses them.
+ *
+ * Templates are immutable and can be shared by concurrent threads.
+ *
+ */
+public final class PageTemplate {
+
+    static final int CONTENT = 0;
+
+    static final int TITLE = 1;
+
+    static final int PATH = 2;
+
+    static final int ROOT = 3;
+
+    static final int TOC = 4;
+
+    private static final List<String> PLACEHOLDERS = Arrays.asList("${content}", "${title}", "${path}", "${root}", "${toc}");
+
+    private static final Charset UTF_16 = Charset.forName("UTF-16");
+
+    private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+
+    private static final byte[] UTF_16_BYTE_ORDER_MARK = { (byte) 0xFE, (byte) 0xFF };
+
+    /**
+     * The literal text before each placeholder, and after the last one.
+     */
+    private final String[] literals;
+
+    private final int[] placeholders;
+
+    private final Charset charset;
+
+    /**
+     * The charset encoding each part of the page: UTF-16 would add a byte order mark to every part.
+     */
+    private final Charset partCharset;
+
+    private final byte[][] encodedLiterals;
+
+    private final boolean usesTitle;
+
+    private final boolean usesRoot;
+
+    private final boolean usesToc;
+
+    private PageTemplate(String[] literals, int[] placeholders, Charset charset) {
+        this.literals = literals;
+        this.placeholders = placeholders;
+        this.charset = charset;
+        this.partCharset = charset.equals(UTF_16) ? UTF_16BE : charset;
+        this.encodedLiterals = new byte[literals.length][];
+        for (int i = 0; i < literals.length; i++) {
+            encodedLiterals[i] = literals[i].getBytes(partCharset);
+        }
+        boolean title = false;
+        boolean root = false;
+        boolean toc = false;
+        for (int placeholder : placeholders) {
+            title |= (placeholder == TITLE);
+            root |= (placeholder == ROOT);
+            toc |= (placeholder == TOC);
+        }
+        this.usesTitle = title;
+        this.usesRoot = root;
+        this.usesToc = toc;
+    }
+
+    /**
+     * Parses a template.
+     *
+     * @param template the template text, with normalized line endings.
+     * @param charset the charset of the pages written to streams.
+     * @return the parsed template.
+     */
+    public static PageTemplate compile(String template, Charset charset) {
+        List<String> literals = new ArrayList<String>();
+        List<Integer> placeholders = new ArrayList<Integer>();
+        int literalStart = 0;
+        int from = 0;
+        int start;
+        while ((start = template.indexOf("${", from)) >= 0) {
+            int end = template.indexOf('}', start);
+            int placeholder = (end < 0) ? -1 : PLACEHOLDERS.indexOf(template.substring(start, end + 1));
+            if (placeholder < 0) {
+                from = start + 2;
+                continue;
+            }
+            literals.add(template.substring(literalStart, start));
+            placeholders.add(placeholder);
+            literalStart = end + 1;
+            from = literalStart;
+        }
+        literals.add(template.substring(literalStart));
+        int[] indexes = new int[placeholders.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = placeholders.get(i);
+        }
+        return new PageTemplate(literals.toArray(new String[literals.size()]), indexes, charset);
+    }
+
+    /**
+     * Returns a template writing the content between a fixed header and footer, taken as literal text.
+     */
+    public static PageTemplate wrap(String header, String footer, Charset charset) {
+        return new PageTemplate(new String[] { header, footer }, new int[] { CONTENT }, charset);
+    }
+
+    /**
+     * @return this template, writing to streams with the given charset.
+     */
+    public PageTemplate withCharset(Charset newCharset) {
+        return charset.equals(newCharset) ? this : new PageTemplate(literals, placeholders, newCharset);
+    }
+
+    /**
+     * @return true if the template has a table of contents, so the headings of the content need ids.
+     */
+    public boolean usesToc() {
+        return usesToc;
+    }
+
+    /**
+     * @param content the html of the document.
+     * @param path the path of the source, relative to the source directory; null if unknown.
+     * @return the page.
+     */
+    public String render(String content, String path) {
+        return render(content, path, null);
+    }
+
+    /**
+     * @param content the html of the document.
+     * @param path the path of the source, relative to the source directory; null if unknown.
+     * @param outline the outline of the content, whose html with heading ids replaces the content; null to scan the
+     *        content if the template uses the table of contents.
+     * @return the page.
+     */
+    public String render(String content, String path, PageOutline outline) {
+        String[] values = values(content, path, outline);
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        for (int placeholder : placeholders) {
+            length += values[placeholder].length();
+        }
+        StringBuilder page = new StringBuilder(length);
+        for (int i = 0; i < placeholders.length; i++) {
+            page.append(literals[i]).append(values[placeholders[i]]);
+        }
+        return page.append(literals[placeholders.length]).toString();
+    }
+
+    public void write(Writer writer, String content, String path) throws IOException {
+        write(writer, content, path, null);
+    }
+
+    public void write(Writer writer, String content, String path, PageOutline outline) throws IOException {
+        String[] values = values(content, path, outline);
+        for (int i = 0; i < placeholders.length; i++) {
+            writer.write(literals[i]);
+            writer.write(values[placeholders[i]]);
+        }
+        writer.write(literals[placeholders.length]);
+    }
+
+    public void write(OutputStream out, String content, String path) throws IOException {
+        write(out, content, path, null);
+    }
+
+    /**
+     * Writes the page encoded with the charset of the template. The stream is not closed.
+     */
+    public void write(OutputStream out, String content, String path, PageOutline outline) throws IOException {
+        String[] values = values(content, path, outline);
+        // the writer only buffers a chunk of the encoded values, flushed before each literal
+        Writer writer = null;
+        if (partCharset != charset) {
+            out.write(UTF_16_BYTE_ORDER_MARK);
+        }
+        for (int i = 0; i < placeholders.length; i++) {
+            out.write(encodedLiterals[i]);
+            if (writer == null) {
+                writer = new OutputStreamWriter(out, partCharset);
+            }
+            writer.write(values[placeholders[i]]);
+            writer.flush();
+        }
+        out.write(encodedLiterals[placeholders.length]);
+    }
+
+    private String[] values(String content, String path, PageOutline outline) {
+        String[] values = new String[5];
+        values[CONTENT] = content;
+        PageOutline scanned = ((outline == null) && usesToc) ? PageOutline.scan(content, false) : outline;
+        if (scanned != null) {
+            values[CONTENT] = scanned.getHtml();
+            values[TOC] = usesToc ? scanned.toc() : null;
+        }
+        values[PATH] = (path == null) ? "" : escape(path);
+        if (usesTitle) {
+            values[TITLE] = title(values[CONTENT], path);
+        }
+        if (usesRoot) {
+            values[ROOT] = root(path);
+        }
+        return values;
+    }
+
+    /**
+     * Returns the text of the first h1 in the html, already escaped, or the escaped file name in the path without extension.
+     */
+    static String title(String html, String path) {
+        int start = html.indexOf("<h1");
+        if (start >= 0) {
+            int textStart = html.indexOf('>', start) + 1;
+            int end = html.indexOf("</h1>", textStart);
+            if ((textStart > 0) && (end >= 0)) {
+                return stripTags(html.substring(textStart, end)).trim();
+            }
+        }
+        if (path == null) {
+            return "";
+        }
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        return escape((dot > 0) ? name.substring(0, dot) : name);
+    }
+
+    /**
+     * Returns the relative path from the page of the given source to the site root.
+     */
+    static String root(String path) {
+        if (path == null) {
+            return ".";
+        }
+        StringBuilder root = new StringBuilder();
+        for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+            root.append((root.length() == 0) ? ".." : "/..");
+        }
+        return (root.length() == 0) ? "." : root.toString();
+    }
+
+    /**
+     * Escapes text for html content and quoted attribute values, as file names with <code>&lt;</code> or <code>"</code>.
+     */
+    static String escape(String text) {
+        StringBuilder html = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String entity = null;
+            if (c == '&') {
+                entity = "&amp;";
+            } else if (c == '<') {
+                entity = "&lt;";
+            } else if (c == '>') {
+                entity = "&gt;";
+            } else if (c == '"') {
+                entity = "&quot;";
+            } else if (c == '\'') {
+                entity = "&#39;";
+            }
+            if ((entity != null) && (html == null)) {
+                html = new StringBuilder(text.length() + 16).append(text, 0, i);
+            }
+            if (html != null) {
+                if (entity == null) {
+                    html.append(c);
+                } else {
+                    html.append(entity);
+                }
+            }
+        }
+        return (html == null) ? text : html.toString();
+    }
+
+    static String stripTags(String html) {
+        if (html.indexOf('<') < 0) {
+            return html;
+        }
+        StringBuilder text = new StringBuilder(html.length());
+        boolean inTag = false;
+        for (int i = 0; i < html.length(); i++) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                inTag = true;
+            } else if (c == '>') {
+                inTag = false;
+            } else if (!inTag) {
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+}
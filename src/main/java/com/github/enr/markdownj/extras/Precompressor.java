@@ -0,0 +1,393 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes compressed siblings of the rendered pages (page.html.gz, page.html.zz), served by static
+ * servers to clients accepting a gzip or deflate content encoding.
+ *
+ * Pages are compressed by the thread writing them, from the bytes being written, so a page is never read back.
+ * Deflaters and buffers are kept by each thread, and reset for every page.
+ * Pages smaller than the minimum size are not compressed, and their stale siblings are deleted.
+ * The gzip header has no file name nor time, so the same page makes the same bytes.
+ *
+ */
+public class Precompressor {
+
+    /**
+     * Default minimum size of a compressed page, in bytes: smaller pages gain little and cost a request header anyway.
+     */
+    public static final int DEFAULT_MINIMUM_BYTES = 1024;
+
+    /**
+     * A compressed sibling of a page.
+     */
+    public enum Format {
+
+        /**
+         * Gzip (RFC 1952), for the gzip content encoding.
+         */
+        GZIP(".gz"),
+
+        /**
+         * Zlib (RFC 1950), for the deflate content encoding.
+         */
+        DEFLATE(".zz");
+
+        private final String extension;
+
+        private Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * @param name gzip or deflate, in any case.
+         */
+        public static Format forName(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private static final int BUFFER_SIZE = NioFiles.BUFFER_SIZE;
+
+    private final Set<Format> formats;
+
+    private final int level;
+
+    private final int minimumBytes;
+
+    /**
+     * Deflaters of the current thread, by format ordinal.
+     */
+    private final ThreadLocal<Deflater[]> deflaters = new ThreadLocal<Deflater[]>() {
+        @Override
+        protected Deflater[] initialValue() {
+            return new Deflater[Format.values().length];
+        }
+    };
+
+    /**
+     * Bytes of the current thread held until the minimum size, and compressed bytes.
+     */
+    private final ThreadLocal<byte[][]> buffers = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            return new byte[][] { new byte[BUFFER_SIZE], new byte[BUFFER_SIZE] };
+        }
+    };
+
+    /**
+     * @param formats the siblings to write.
+     * @param level the compression level, from 0 to 9, or -1 for the default level.
+     * @param minimumBytes the size below which pages are not compressed.
+     */
+    public Precompressor(Set<Format> formats, int level, int minimumBytes) {
+        if ((level < Deflater.DEFAULT_COMPRESSION) || (level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("compression level must be between 0 and 9: " + level);
+        }
+        if (minimumBytes < 0) {
+            throw new IllegalArgumentException("minimumBytes must not be negative: " + minimumBytes);
+        }
+        this.formats = Collections.unmodifiableSet(formats.isEmpty() ? EnumSet.noneOf(Format.class) : EnumSet.copyOf(formats));
+        this.level = level;
+        this.minimumBytes = minimumBytes;
+    }
+
+    /**
+     * Returns a stream writing the page to the given stream and compressing it in its siblings, when closed.
+     *
+     * @param page the page file.
+     * @param out the stream writing the page, closed with the returned one.
+     */
+    public OutputStream open(File page, OutputStream out) {
+        return new CompressingStream(page, out);
+    }
+
+    /**
+     * Compresses a page written from the given text.
+     */
+    public void compress(File page, String html, Charset charset) throws IOException {
+        byte[] bytes = html.getBytes(charset);
+        compress(page, bytes, bytes.length);
+    }
+
+    /**
+     * Compresses a page already written, as one linked from the build cache.
+     */
+    public void compress(File page) throws IOException {
+        byte[] bytes = Files.readAllBytes(page.toPath());
+        compress(page, bytes, bytes.length);
+    }
+
+    private void compress(File page, byte[] bytes, int length) throws IOException {
+        CompressingStream siblings = new CompressingStream(page, null);
+        try {
+            siblings.write(bytes, 0, length);
+        } finally {
+            siblings.close();
+        }
+    }
+
+    /**
+     * Deletes the compressed siblings of a page, in any format.
+     */
+    public static void deleteSiblings(File page) {
+        for (Format format : Format.values()) {
+            File sibling = sibling(page, format);
+            if (sibling.isFile()) {
+                sibling.delete();
+            }
+        }
+    }
+
+    /**
+     * Moves the compressed siblings of a page to the ones of another page, deleting the siblings of the
+     * other page not written for the first one.
+     */
+    public static void moveSiblings(File from, File to) throws IOException {
+        for (Format format : Format.values()) {
+            File sibling = sibling(from, format);
+            if (sibling.isFile()) {
+                Files.move(sibling.toPath(), sibling(to, format).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                File stale = sibling(to, format);
+                if (stale.isFile()) {
+                    stale.delete();
+                }
+            }
+        }
+    }
+
+    static File sibling(File page, Format format) {
+        return new File(page.getPath() + format.getExtension());
+    }
+
+    public Set<Format> getFormats() {
+        return formats;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getMinimumBytes() {
+        return minimumBytes;
+    }
+
+    private Deflater deflater(Format format) {
+        Deflater[] threadDeflaters = deflaters.get();
+        Deflater deflater = threadDeflaters[format.ordinal()];
+        if (deflater == null) {
+            deflater = new Deflater(level, format == Format.GZIP);
+            threadDeflaters[format.ordinal()] = deflater;
+        }
+        deflater.reset();
+        return deflater;
+    }
+
+    /**
+     * Passes bytes to the page, holding them until the minimum size, then compressing them in each sibling.
+     */
+    private final class CompressingStream extends FilterOutputStream {
+
+        private final File page;
+
+        private byte[] pending = buffers.get()[0];
+
+        private int pendingLength;
+
+        private Sibling[] siblings;
+
+        private boolean closed;
+
+        CompressingStream(File page, OutputStream out) {
+            super(out);
+            this.page = page;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out != null) {
+                out.write(b, off, len);
+            }
+            if ((siblings == null) && (pendingLength == 0) && (len >= minimumBytes) && (len > 0)) {
+                // a page written at once is not copied
+                openSiblings();
+            }
+            if (siblings != null) {
+                compress(b, off, len);
+                return;
+            }
+            if (pendingLength + len > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + len));
+            }
+            System.arraycopy(b, off, pending, pendingLength, len);
+            pendingLength += len;
+            if ((pendingLength >= minimumBytes) && (pendingLength > 0)) {
+                openSiblings();
+                compress(pending, 0, pendingLength);
+                pendingLength = 0;
+            }
+        }
+
+        private void openSiblings() throws IOException {
+            siblings = new Sibling[formats.size()];
+            int i = 0;
+            try {
+                for (Format format : formats) {
+                    siblings[i++] = new Sibling(format, page);
+                }
+            } catch (IOException e) {
+                closeSiblings();
+                throw e;
+            }
+        }
+
+        private void compress(byte[] b, int off, int len) throws IOException {
+            for (Sibling sibling : siblings) {
+                sibling.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (out != null) {
+                    out.close();
+                }
+                if (siblings == null) {
+                    deleteSiblings(page);
+                } else {
+                    for (Sibling sibling : siblings) {
+                        sibling.finish();
+                    }
+                }
+            } finally {
+                closeSiblings();
+            }
+        }
+
+        private void closeSiblings() throws IOException {
+            if (siblings != null) {
+                for (Sibling sibling : siblings) {
+                    if (sibling != null) {
+                        sibling.file.close();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A compressed file, written through a deflater of the current thread.
+     */
+    private final class Sibling {
+
+        final OutputStream file;
+
+        private final Format format;
+
+        private final Deflater deflater;
+
+        private final byte[] buffer = buffers.get()[1];
+
+        private final CRC32 crc;
+
+        Sibling(Format format, File page) throws IOException {
+            this.format = format;
+            this.file = new FileOutputStream(sibling(page, format));
+            this.deflater = deflater(format);
+            this.crc = (format == Format.GZIP) ? new CRC32() : null;
+            if (crc != null) {
+                file.write(GZIP_HEADER);
+            }
+        }
+
+        void write(byte[] b, int off, int len) throws IOException {
+            if (crc != null) {
+                crc.update(b, off, len);
+            }
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                drain();
+            }
+        }
+
+        void finish() throws IOException {
+            deflater.finish();
+            while (!deflater.finished()) {
+                drain();
+            }
+            if (format == Format.GZIP) {
+                byte[] trailer = new byte[8];
+                putInt(trailer, 0, (int) crc.getValue());
+                putInt(trailer, 4, (int) deflater.getBytesRead());
+                file.write(trailer);
+            }
+        }
+
+        private void drain() throws IOException {
+            int length = deflater.deflate(buffer);
+            if (length > 0) {
+                file.write(buffer, 0, length);
+            }
+        }
+
+        private void putInt(byte[] bytes, int offset, int value) {
+            for (int i = 0; i < 4; i++) {
+                bytes[offset + i] = (byte) (value >> (8 * i));
+            }
+        }
+    }
+}
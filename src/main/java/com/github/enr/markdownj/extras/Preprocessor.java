@@ -0,0 +1,34 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+/**
+ * A stage transforming text before it is processed, as markdown before rendering or paths before being mapped.
+ * 
+ * Stages scan the text once and return the given instance when there is nothing to change, so running
+ * them on text already in shape allocates nothing. See {@link Preprocessors} for the standard stages
+ * and for chaining them.
+ * 
+ * Stages must be stateless, or thread safe: a service runs its stages from concurrent threads.
+ * 
+ */
+public interface Preprocessor {
+
+    /**
+     * @param text the text to transform, not null.
+     * @return the transformed text, or the given instance if unchanged.
+     */
+    CharSequence apply(CharSequence text);
+}
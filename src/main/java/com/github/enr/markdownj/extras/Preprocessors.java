@@ -0,0 +1,253 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Standard {@link Preprocessor} stages, as single pass char scanners replacing regular expressions.
+ * 
+ * Every stage scans up to the first char to change and returns the given text if there is none;
+ * otherwise it copies the text once, in a builder sized for the result.
+ * 
+ */
+public final class Preprocessors {
+
+    /**
+     * Replaces \r\n and \r line endings with \n.
+     */
+    public static final Preprocessor NORMALIZE_EOL = new Preprocessor() {
+        public CharSequence apply(CharSequence text) {
+            int length = text.length();
+            int first = indexOf(text, '\r', 0);
+            if (first == -1) {
+                return text;
+            }
+            StringBuilder result = new StringBuilder(length).append(text, 0, first);
+            for (int i = first; i < length; i++) {
+                char c = text.charAt(i);
+                if (c == '\r') {
+                    result.append('\n');
+                    if ((i + 1 < length) && (text.charAt(i + 1) == '\n')) {
+                        i++;
+                    }
+                } else {
+                    result.append(c);
+                }
+            }
+            return result;
+        }
+    };
+
+    /**
+     * Removes a leading byte order mark, left by a decoder not knowing it.
+     */
+    public static final Preprocessor STRIP_BOM = new Preprocessor() {
+        public CharSequence apply(CharSequence text) {
+            return ((text.length() > 0) && (text.charAt(0) == '\uFEFF')) ? text.subSequence(1, text.length()) : text;
+        }
+    };
+
+    /**
+     * Empties lines made only of spaces and tabs, as the MarkdownJ regular expression <code>^[ \t]+$</code> does.
+     */
+    public static final Preprocessor CLEAR_BLANK_LINES = new Preprocessor() {
+        public CharSequence apply(CharSequence text) {
+            int length = text.length();
+            StringBuilder result = null;
+            int copied = 0;
+            int lineStart = 0;
+            while (lineStart < length) {
+                int i = lineStart;
+                while ((i < length) && ((text.charAt(i) == ' ') || (text.charAt(i) == '\t'))) {
+                    i++;
+                }
+                if ((i > lineStart) && ((i == length) || isLineTerminator(text.charAt(i)))) {
+                    if (result == null) {
+                        result = new StringBuilder(length);
+                    }
+                    result.append(text, copied, lineStart);
+                    copied = i;
+                }
+                while ((i < length) && !isLineTerminator(text.charAt(i))) {
+                    i++;
+                }
+                lineStart = i + 1;
+            }
+            return (result == null) ? text : result.append(text, copied, length);
+        }
+    };
+
+    /**
+     * Only static members.
+     */
+    private Preprocessors() {
+    }
+
+    /**
+     * Returns a stage replacing tabs with spaces up to the next tab stop, as MarkdownJ does.
+     * 
+     * @param width the distance between tab stops.
+     */
+    public static Preprocessor expandTabs(final int width) {
+        if (width < 1) {
+            throw new IllegalArgumentException("tab width must be positive: " + width);
+        }
+        return new Preprocessor() {
+            public CharSequence apply(CharSequence text) {
+                int length = text.length();
+                int first = indexOf(text, '\t', 0);
+                if (first == -1) {
+                    return text;
+                }
+                StringBuilder result = new StringBuilder(length + width * 4);
+                int lineStart = 0;
+                for (int i = 0; i < length; i++) {
+                    char c = text.charAt(i);
+                    if (c == '\t') {
+                        int spaces = width - ((result.length() - lineStart) % width);
+                        for (int s = 0; s < spaces; s++) {
+                            result.append(' ');
+                        }
+                    } else {
+                        result.append(c);
+                        if (isLineTerminator(c)) {
+                            lineStart = result.length();
+                        }
+                    }
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Returns a stage replacing every occurrence of a char, as <code>\</code> separators with <code>/</code>.
+     */
+    public static Preprocessor replace(final char from, final char to) {
+        return new Preprocessor() {
+            public CharSequence apply(CharSequence text) {
+                int first = indexOf(text, from, 0);
+                if (first == -1) {
+                    return text;
+                }
+                StringBuilder result = new StringBuilder(text);
+                for (int i = first; i < result.length(); i++) {
+                    if (result.charAt(i) == from) {
+                        result.setCharAt(i, to);
+                    }
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Returns a stage replacing a literal prefix, as a source directory with the destination one.
+     * Text not starting with the prefix is left as it is.
+     */
+    public static Preprocessor replacePrefix(final String prefix, final String replacement) {
+        return new Preprocessor() {
+            public CharSequence apply(CharSequence text) {
+                if (!startsWith(text, prefix)) {
+                    return text;
+                }
+                return new StringBuilder(replacement.length() + text.length() - prefix.length()).append(replacement).append(text,
+                        prefix.length(), text.length());
+            }
+        };
+    }
+
+    /**
+     * Returns a stage running the given stages in order.
+     */
+    public static Preprocessor chain(Preprocessor... stages) {
+        final Preprocessor[] chained = Arrays.copyOf(stages, stages.length);
+        return new Preprocessor() {
+            public CharSequence apply(CharSequence text) {
+                CharSequence result = text;
+                for (Preprocessor stage : chained) {
+                    result = stage.apply(result);
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Returns a standard stage by name: <code>bom</code>, <code>eol</code>, <code>blank-lines</code>,
+     * or <code>tabs:</code> followed by the tab width, as <code>tabs:8</code>.
+     * 
+     * @param name the name of the stage, in any case.
+     * @throws IllegalArgumentException if no stage has the given name.
+     */
+    public static Preprocessor forName(String name) {
+        String key = name.trim().toLowerCase(Locale.ENGLISH);
+        if (key.equals("bom")) {
+            return STRIP_BOM;
+        }
+        if (key.equals("eol")) {
+            return NORMALIZE_EOL;
+        }
+        if (key.equals("blank-lines")) {
+            return CLEAR_BLANK_LINES;
+        }
+        if (key.startsWith("tabs:")) {
+            return expandTabs(Integer.parseInt(key.substring("tabs:".length())));
+        }
+        throw new IllegalArgumentException("unknown preprocessing stage: " + name);
+    }
+
+    /**
+     * Runs a stage on a string.
+     * 
+     * @return the transformed string, the given one if unchanged.
+     */
+    public static String apply(Preprocessor stage, String text) {
+        return stage.apply(text).toString();
+    }
+
+    private static int indexOf(CharSequence text, char c, int from) {
+        if (text instanceof String) {
+            return ((String) text).indexOf(c, from);
+        }
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(CharSequence text, String prefix) {
+        if (text.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Line terminators of regular expressions, as ^, $ and . see them.
+     */
+    private static boolean isLineTerminator(char c) {
+        return (c == '\n') || (c == '\r') || (c == '\u0085') || (c == '\u2028') || (c == '\u2029');
+    }
+}
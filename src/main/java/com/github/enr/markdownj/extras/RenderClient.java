@@ -0,0 +1,164 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Takes the same arguments as {@link MarkdownApp}, forwarding them to a running {@link RenderServer}
+ * so the build runs in its warm jvm. Paths are made absolute against the client working directory.
+ * Requests carry the token the server wrote in {@link RenderServer#tokenFile(int)}.
+ *
+ * mvn exec:java -Dexec.mainClass="com.github.enr.markdownj.extras.RenderClient" -Dexec.args="--source ..."
+ *
+ * When no server answers on the port (see {@link RenderServer#port()}), or with the --watch option,
+ * the files are processed by a MarkdownApp in this jvm. The exit status is the same as MarkdownApp.
+ *
+ */
+public class RenderClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderClient.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Options whose value is a path, resolved by the server against its own working directory.
+     */
+    private static final Set<String> PATH_OPTIONS = new HashSet<String>(Arrays.asList("source", "destination", "header", "footer",
+            "metrics", "template", "cache-dir", "destination-archive"));
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    public static void main(String[] args) {
+        int status = run(args, RenderServer.port());
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Processes the files as configured by the given arguments, in the server listening on the given port if any.
+     *
+     * @return the exit status.
+     */
+    static int run(String[] args, int port) {
+        String[] forwarded = null;
+        try {
+            CommandLine line = new PosixParser().parse(MarkdownApp.options(), args);
+            if (!line.hasOption("watch")) {
+                forwarded = absolutePaths(line);
+            }
+        } catch (ParseException e) {
+            // the local app prints the usage
+        }
+        if (forwarded != null) {
+            try {
+                return build(port, forwarded);
+            } catch (IOException e) {
+                logger.debug("no render server on port {}, processing files locally", port, e);
+            }
+        }
+        return new MarkdownApp().run(args);
+    }
+
+    private static String[] absolutePaths(CommandLine line) {
+        List<String> args = new ArrayList<String>();
+        for (Option option : line.getOptions()) {
+            args.add("--" + option.getLongOpt());
+            if (option.hasArg()) {
+                String value = option.getValue();
+                boolean path = PATH_OPTIONS.contains(option.getLongOpt()) && !value.startsWith("jar:");
+                args.add(path ? new File(value).getAbsolutePath() : value);
+            }
+        }
+        for (Object arg : line.getArgList()) {
+            args.add(arg.toString());
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    private static int build(int port, String[] args) throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (String arg : args) {
+            if (body.length() > 0) {
+                body.append('\n');
+            }
+            body.append(URLEncoder.encode(arg, "UTF-8"));
+        }
+        File tokenFile = RenderServer.tokenFile(port);
+        if (!tokenFile.isFile()) {
+            throw new IOException("no token file " + tokenFile);
+        }
+        String token = new String(Files.readAllBytes(tokenFile.toPath()), UTF_8).trim();
+        HttpURLConnection connection = (HttpURLConnection) new URL("http", "127.0.0.1", port, "/build").openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+            connection.setRequestProperty(RenderServer.TOKEN_HEADER, token);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body.toString().getBytes(UTF_8));
+            } finally {
+                out.close();
+            }
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("render server answered " + connection.getResponseCode());
+            }
+            InputStream in = connection.getInputStream();
+            String response;
+            try {
+                response = new String(ByteStreams.toByteArray(in), UTF_8);
+            } finally {
+                in.close();
+            }
+            int eol = response.indexOf('\n');
+            int status = Integer.parseInt(response.substring(0, eol));
+            if (eol < response.length() - 1) {
+                logger.warn("file(s) not processed by the render server:{}{}", MarkdownService.EOL, response.substring(eol + 1));
+            }
+            return status;
+        } catch (NumberFormatException e) {
+            throw new IOException("unexpected answer from render server", e);
+        } catch (StringIndexOutOfBoundsException e) {
+            throw new IOException("unexpected answer from render server", e);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders a batch of documents in three stages, each run by its own threads:
+ * readers load the markdown, renderers transform it in html, writers store the html.
+ *
+ * Stages are connected by bounded queues: when renderers or writers fall behind, the previous
+ * stage waits, so at most about twice the queue size plus the number of threads documents are in memory.
+ * Disk reads, rendering and disk writes so overlap, keeping both the CPUs and the disk busy.
+ *
+ * A job failing in any stage, with an exception or an error, is reported by id, and doesn't stop the others.
+ * The service must be configured before processing: its render methods are called from many threads.
+ *
+ */
+public class RenderPipeline {
+
+    /**
+     * Default capacity of the queues between stages.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 16;
+
+    private final MarkdownService markdown;
+
+    private int readers = 1;
+
+    private int renderers = Runtime.getRuntime().availableProcessors();
+
+    private int writers = 1;
+
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+
+    /**
+     * A document going through the pipeline.
+     */
+    public abstract static class Job {
+
+        private final String id;
+
+        protected Job(String id) {
+            this.id = id;
+        }
+
+        /**
+         * @return the key of the job in the failures.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Reads the markdown, called from a reader thread.
+         *
+         * @return the markdown, or null if there is nothing to render.
+         * @throws IOException if the markdown can't be read.
+         */
+        protected abstract CharSequence read() throws IOException;
+
+        /**
+         * Renders the markdown, called from a renderer thread.
+         *
+         * @param service the service of the pipeline.
+         * @param markdown the text returned by {@link #read()}.
+         * @return the html to write.
+         */
+        protected String render(MarkdownService service, CharSequence markdown) {
+            return service.render(markdown);
+        }
+
+        /**
+         * Writes the html, called from a writer thread.
+         *
+         * @param html the text returned by {@link #render(MarkdownService, CharSequence)}.
+         * @throws IOException if the html can't be written.
+         */
+        protected abstract void write(String html) throws IOException;
+    }
+
+    /**
+     * @param markdown the service rendering every document.
+     */
+    public RenderPipeline(MarkdownService markdown) {
+        this.markdown = markdown;
+    }
+
+    /**
+     * Returns a job rendering a markdown file to an html file.
+     *
+     * @param source the path of the markdown file, used as job id.
+     * @param destination the path of the html file; missing directories are created.
+     * @param encoding the encoding of both files, null for the platform default.
+     * @return the job.
+     */
+    public static Job fileJob(final String source, final String destination, final String encoding) {
+        return new Job(source) {
+            @Override
+            protected CharSequence read() throws IOException {
+                return FileUtils.readFile(new File(source), encoding);
+            }
+
+            @Override
+            protected void write(String html) throws IOException {
+                FileUtils.writeFile(destination, html, encoding);
+            }
+        };
+    }
+
+    /**
+     * Renders the given documents in the pipeline, keeping the html in memory.
+     *
+     * @param documents the markdown, keyed by id.
+     * @return the html, keyed by id.
+     * @throws IllegalStateException if a document could not be rendered.
+     */
+    public Map<String, String> render(Map<String, ? extends CharSequence> documents) {
+        final Map<String, String> results = new ConcurrentHashMap<String, String>();
+        List<Job> jobs = new ArrayList<Job>(documents.size());
+        for (final Map.Entry<String, ? extends CharSequence> document : documents.entrySet()) {
+            jobs.add(new Job(document.getKey()) {
+                @Override
+                protected CharSequence read() {
+                    return document.getValue();
+                }
+
+                @Override
+                protected void write(String html) {
+                    results.put(getId(), html);
+                }
+            });
+        }
+        SortedMap<String, Exception> failures = process(jobs);
+        if (!failures.isEmpty()) {
+            String id = failures.firstKey();
+            throw new IllegalStateException(failures.size() + " document(s) not rendered, first: " + id, failures.get(id));
+        }
+        return results;
+    }
+
+    /**
+     * Runs the jobs through the pipeline, returning when every job is completed.
+     * Jobs are taken from the iterable as readers are free, so it can produce them lazily.
+     * If the calling thread is interrupted, the pipeline is stopped and the interrupt status is set.
+     *
+     * @param jobs the jobs to run.
+     * @return the errors of the failed jobs, keyed and sorted by id.
+     */
+    public SortedMap<String, Exception> process(Iterable<? extends Job> jobs) {
+        final Batch batch = new Batch(jobs.iterator());
+        ExecutorService executor = Executors.newFixedThreadPool(readers + renderers + writers, new StageThreadFactory());
+        try {
+            for (int i = 0; i < readers; i++) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        batch.read();
+                    }
+                });
+            }
+            for (int i = 0; i < renderers; i++) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        batch.render();
+                    }
+                });
+            }
+            for (int i = 0; i < writers; i++) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        batch.write();
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        return batch.failures;
+    }
+
+    /**
+     * A document between two stages: the read markdown or the rendered html.
+     */
+    private static final class Item {
+
+        /**
+         * Marks the end of the items: every consumer of a queue takes one.
+         */
+        static final Item END = new Item(null, null);
+
+        final Job job;
+
+        final CharSequence text;
+
+        Item(Job job, CharSequence text) {
+            this.job = job;
+            this.text = text;
+        }
+    }
+
+    /**
+     * The state of a single run of the pipeline.
+     */
+    private final class Batch {
+
+        final Iterator<? extends Job> jobs;
+
+        final BlockingQueue<Item> toRender = new ArrayBlockingQueue<Item>(queueSize);
+
+        final BlockingQueue<Item> toWrite = new ArrayBlockingQueue<Item>(queueSize);
+
+        final AtomicInteger activeReaders = new AtomicInteger(readers);
+
+        final AtomicInteger activeRenderers = new AtomicInteger(renderers);
+
+        final SortedMap<String, Exception> failures = new ConcurrentSkipListMap<String, Exception>();
+
+        Batch(Iterator<? extends Job> jobs) {
+            this.jobs = jobs;
+        }
+
+        void read() {
+            try {
+                Job job;
+                while ((job = nextJob()) != null) {
+                    CharSequence text = null;
+                    try {
+                        text = job.read();
+                    } catch (Throwable e) {
+                        fail(job, e);
+                    }
+                    if (text != null) {
+                        toRender.put(new Item(job, text));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (activeReaders.decrementAndGet() == 0) {
+                    end(toRender, renderers);
+                }
+            }
+        }
+
+        void render() {
+            try {
+                Item item;
+                while ((item = toRender.take()) != Item.END) {
+                    Item rendered = null;
+                    try {
+                        rendered = new Item(item.job, item.job.render(markdown, item.text));
+                    } catch (Throwable e) {
+                        fail(item.job, e);
+                    }
+                    if (rendered != null) {
+                        toWrite.put(rendered);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (activeRenderers.decrementAndGet() == 0) {
+                    end(toWrite, writers);
+                }
+            }
+        }
+
+        void write() {
+            try {
+                Item item;
+                while ((item = toWrite.take()) != Item.END) {
+                    try {
+                        item.job.write(item.text.toString());
+                    } catch (Throwable e) {
+                        fail(item.job, e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Records the failure of a job. Errors are recorded too, as a StackOverflowError of MarkdownJ on
+         * some inputs, and the stage goes on: a thread leaving its stage early would block the others forever.
+         */
+        private void fail(Job job, Throwable e) {
+            failures.put(job.getId(), (e instanceof Exception) ? (Exception) e : new ExecutionException(e));
+        }
+
+        private Job nextJob() {
+            synchronized (jobs) {
+                return jobs.hasNext() ? jobs.next() : null;
+            }
+        }
+
+        /**
+         * Hands the end of the items to the consumers of the queue, unless the pipeline is being stopped.
+         */
+        private void end(BlockingQueue<Item> queue, int consumers) {
+            try {
+                for (int i = 0; i < consumers; i++) {
+                    queue.put(Item.END);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Names the pipeline threads, as daemons not keeping the jvm alive.
+     */
+    private static final class StageThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger POOLS = new AtomicInteger();
+
+        private final int pool = POOLS.incrementAndGet();
+
+        private final AtomicInteger threads = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "markdown-pipeline-" + pool + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    public int getReaders() {
+        return readers;
+    }
+
+    /**
+     * @param readers the number of threads reading markdown, at least 1.
+     */
+    public void setReaders(int readers) {
+        this.readers = checkPositive(readers, "readers");
+    }
+
+    public int getRenderers() {
+        return renderers;
+    }
+
+    /**
+     * @param renderers the number of threads rendering html, at least 1. Defaults to the number of available processors.
+     */
+    public void setRenderers(int renderers) {
+        this.renderers = checkPositive(renderers, "renderers");
+    }
+
+    public int getWriters() {
+        return writers;
+    }
+
+    /**
+     * @param writers the number of threads writing html, at least 1.
+     */
+    public void setWriters(int writers) {
+        this.writers = checkPositive(writers, "writers");
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * @param queueSize the capacity of each queue between stages, at least 1.
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = checkPositive(queueSize, "queueSize");
+    }
+
+    private static int checkPositive(int value, String name) {
+        if (value < 1) {
+            throw new IllegalArgumentException(name + " must be at least 1: " + value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,468 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A long running server rendering markdown in a warm jvm, listening on the loopback interface only.
+ *
+ * mvn exec:java -Dexec.mainClass="com.github.enr.markdownj.extras.RenderServer" -Dexec.args="--port 7788"
+ *
+ * Requests, with text bodies in UTF-8 unless another charset is in the content type:
+ * <ul>
+ * <li>POST /render: the body is markdown, rendered to html by the service shared by every request;</li>
+ * <li>POST /build: the body is a MarkdownApp command line, an URL encoded argument per line;
+ * the response is the exit status, followed by a line for each file not processed;</li>
+ * <li>GET /status: answers ok;</li>
+ * <li>POST /shutdown: stops the server.</li>
+ * </ul>
+ * {@link RenderClient} forwards its command line to a running server.
+ *
+ * Being on the loopback interface doesn't keep out the web pages open in a browser, which can post to it.
+ * At start the server writes a random token to a file readable only by its user (see {@link #tokenFile(int)}),
+ * and answers only requests with that token in the {@value #TOKEN_HEADER} header, without an Origin header
+ * and with a loopback Host header. The file is deleted when the server stops.
+ *
+ * Builds run on threads kept by the server between requests, so they reuse the MarkdownJ processors cached
+ * per thread; /build refuses the --watch option, which would never answer.
+ *
+ */
+public class RenderServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderServer.class);
+
+    /**
+     * Port used when not set by the markdownj.server.port system property.
+     */
+    public static final int DEFAULT_PORT = 7788;
+
+    public static final String PORT_PROPERTY = "markdownj.server.port";
+
+    /**
+     * The request header with the token of the server.
+     */
+    public static final String TOKEN_HEADER = "X-Markdownj-Token";
+
+    /**
+     * Host names of the loopback interface, as in a Host header without port.
+     */
+    private static final Set<String> LOOPBACK_HOSTS = new HashSet<String>(Arrays.asList("127.0.0.1", "localhost", "[::1]"));
+
+    private static final int TOKEN_BITS = 160;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final MarkdownService markdown;
+
+    private final int port;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    /**
+     * The threads of the builds, the processors per thread warm between requests.
+     */
+    private ExecutorService buildExecutor;
+
+    private String token;
+
+    private File tokenFile;
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * @param markdown the service rendering the markdown of /render requests.
+     * @param port the port to listen on, 0 for any free port.
+     */
+    public RenderServer(MarkdownService markdown, int port) {
+        this.markdown = markdown;
+        this.port = port;
+    }
+
+    public static void main(String[] args) {
+        Options options = new Options();
+        options.addOption("p", "port", true, "The port to listen on. Defaults to " + DEFAULT_PORT);
+        options.addOption("h", "header", true, "The path to the html header file of /render requests");
+        options.addOption("f", "footer", true, "The path to the html footer file of /render requests");
+        options.addOption("t", "code-template", true, "The template for code blocks of /render requests");
+        options.addOption("g", "highlight", false, "Highlight code blocks of /render requests");
+        MarkdownService markdown = new MarkdownServiceImpl();
+        int port = port();
+        try {
+            CommandLine line = new PosixParser().parse(options, args);
+            if (line.hasOption("port")) {
+                port = Integer.parseInt(line.getOptionValue("port"));
+            }
+            if (line.hasOption("header")) {
+                markdown.setHeaderPath(line.getOptionValue("header"));
+            }
+            if (line.hasOption("footer")) {
+                markdown.setFooterPath(line.getOptionValue("footer"));
+            }
+            if (line.hasOption("code-template")) {
+                markdown.setCodeBlockTemplate(line.getOptionValue("code-template"));
+            }
+            if (line.hasOption("highlight")) {
+                markdown.setCodeHighlighter(CodeHighlighter.standard());
+            }
+        } catch (ParseException e) {
+            logger.warn(e.getMessage(), e);
+            new HelpFormatter().printHelp(RenderServer.class.getName(), options);
+            return;
+        } catch (NumberFormatException e) {
+            logger.warn("invalid port '{}'. Exiting", e.getMessage());
+            return;
+        }
+        RenderServer server = new RenderServer(markdown, port);
+        try {
+            server.start();
+        } catch (IOException e) {
+            logger.warn("server not started: {}", e.getMessage(), e);
+            return;
+        }
+        try {
+            server.awaitStop();
+        } catch (InterruptedException e) {
+            server.stop();
+        }
+    }
+
+    /**
+     * @return the port set by the markdownj.server.port system property, or {@link #DEFAULT_PORT}.
+     */
+    public static int port() {
+        return Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT);
+    }
+
+    /**
+     * Returns the file where the server listening on the given port writes its token,
+     * in the .markdownj directory of the user home.
+     *
+     * @param port the port of the server.
+     * @return the token file, existing only while the server runs.
+     */
+    public static File tokenFile(int port) {
+        return new File(new File(System.getProperty("user.home"), ".markdownj"), "server-" + port + ".token");
+    }
+
+    public synchronized void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        token = new BigInteger(TOKEN_BITS, new SecureRandom()).toString(Character.MAX_RADIX);
+        tokenFile = tokenFile(server.getAddress().getPort());
+        try {
+            writePrivately(tokenFile, token);
+        } catch (IOException e) {
+            server.stop(0);
+            server = null;
+            throw e;
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        executor = Executors.newFixedThreadPool(processors);
+        server.setExecutor(executor);
+        // more threads than processors are created when a build asks for them, and dropped when idle
+        buildExecutor = new ThreadPoolExecutor(processors, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        server.createContext("/render", new Handler("POST") {
+            @Override
+            String answer(String body) {
+                return markdown.render(body);
+            }
+        });
+        server.createContext("/build", new Handler("POST") {
+            @Override
+            String answer(String body) {
+                return build(decodeArguments(body));
+            }
+        });
+        server.createContext("/status", new Handler("GET") {
+            @Override
+            String answer(String body) {
+                return "ok\n";
+            }
+        });
+        server.createContext("/shutdown", new Handler("POST") {
+            @Override
+            String answer(String body) {
+                // stopping waits for the running exchanges, this one included
+                Thread stopping = new Thread(new Runnable() {
+                    public void run() {
+                        stop();
+                    }
+                }, "markdown-server-stop");
+                stopping.start();
+                return "stopping\n";
+            }
+        });
+        server.start();
+        logger.info("render server listening on {}", server.getAddress());
+    }
+
+    /**
+     * Stops the server, waiting at most a second for the running requests.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(1);
+            executor.shutdown();
+            buildExecutor.shutdown();
+            server = null;
+            if (!tokenFile.delete()) {
+                logger.warn("token file {} not deleted", tokenFile);
+            }
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * Blocks until the server is stopped.
+     */
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * @return the port the server is listening on, or the configured port if not started.
+     */
+    public synchronized int getPort() {
+        return (server == null) ? port : server.getAddress().getPort();
+    }
+
+    /**
+     * @return the token expected in the requests, null if the server is not started.
+     */
+    synchronized String getToken() {
+        return (server == null) ? null : token;
+    }
+
+    private String build(String[] args) {
+        try {
+            if (new PosixParser().parse(MarkdownApp.options(), args).hasOption("watch")) {
+                throw new Refused(400, "the --watch option is not supported by the render server");
+            }
+        } catch (ParseException e) {
+            // the app prints the usage and fails
+        }
+        MarkdownApp app = new MarkdownApp();
+        app.setExecutor(buildExecutor);
+        int status = app.run(args);
+        StringBuilder response = new StringBuilder();
+        response.append(status).append(MarkdownService.EOL);
+        for (Map.Entry<String, Exception> failure : app.getFailures().entrySet()) {
+            response.append(failure.getKey()).append(": ").append(failure.getValue().getMessage()).append(MarkdownService.EOL);
+        }
+        return response.toString();
+    }
+
+    static String[] decodeArguments(String body) {
+        if (body.isEmpty()) {
+            return new String[0];
+        }
+        List<String> args = new ArrayList<String>();
+        try {
+            for (String line : body.split("\n", -1)) {
+                args.add(URLDecoder.decode(line, "UTF-8"));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * Writes the given text to a new file only its owner can read and write.
+     */
+    private static void writePrivately(File file, String text) throws IOException {
+        Path path = file.toPath();
+        boolean posix = path.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if (posix) {
+            Files.createDirectories(path.getParent(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } else {
+            Files.createDirectories(path.getParent());
+        }
+        // a file left by a server killed before stopping
+        Files.deleteIfExists(path);
+        if (posix) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(path);
+            file.setReadable(false, false);
+            file.setWritable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(true, true);
+        }
+        Files.write(path, text.getBytes(UTF_8));
+    }
+
+    /**
+     * Returns why the given request is refused, null if it comes from a client with the token.
+     */
+    private String refusal(HttpExchange exchange) {
+        if (exchange.getRequestHeaders().containsKey("Origin")) {
+            return "requests from web pages are not allowed";
+        }
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        if ((host == null) || !LOOPBACK_HOSTS.contains(withoutPort(host).toLowerCase())) {
+            return "host not allowed: " + host;
+        }
+        String sent = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+        if ((sent == null) || !MessageDigest.isEqual(sent.getBytes(UTF_8), token.getBytes(UTF_8))) {
+            return "missing or wrong " + TOKEN_HEADER + " header";
+        }
+        return null;
+    }
+
+    private static String withoutPort(String host) {
+        int colon = host.lastIndexOf(':');
+        return ((colon < 0) || (host.indexOf(']') > colon)) ? host : host.substring(0, colon);
+    }
+
+    /**
+     * A request not answered, with the given status.
+     */
+    private static final class Refused extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        Refused(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Answers requests with the given method, in text.
+     */
+    private abstract class Handler implements HttpHandler {
+
+        private final String method;
+
+        Handler(String method) {
+            this.method = method;
+        }
+
+        /**
+         * @return the response to the given request body.
+         */
+        abstract String answer(String body);
+
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                int status = 200;
+                String response;
+                String refusal = refusal(exchange);
+                if (refusal != null) {
+                    logger.warn("refused {} {}: {}", new Object[] { exchange.getRequestMethod(), exchange.getRequestURI(), refusal });
+                    status = 403;
+                    response = refusal + MarkdownService.EOL;
+                } else if (!method.equals(exchange.getRequestMethod())) {
+                    status = 405;
+                    response = "method not allowed\n";
+                } else {
+                    try {
+                        response = answer(readBody(exchange));
+                    } catch (Refused e) {
+                        status = e.status;
+                        response = e.getMessage() + MarkdownService.EOL;
+                    } catch (RuntimeException e) {
+                        logger.warn("error handling {}", exchange.getRequestURI(), e);
+                        status = 500;
+                        response = String.valueOf(e.getMessage()) + MarkdownService.EOL;
+                    }
+                }
+                byte[] bytes = response.getBytes(UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+                exchange.sendResponseHeaders(status, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(bytes);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private String readBody(HttpExchange exchange) throws IOException {
+            InputStream in = exchange.getRequestBody();
+            try {
+                return new String(ByteStreams.toByteArray(in), charset(exchange.getRequestHeaders().getFirst("Content-Type")));
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the charset in the given content type, UTF-8 if missing or unknown.
+     */
+    static Charset charset(String contentType) {
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                String trimmed = parameter.trim();
+                if (trimmed.regionMatches(true, 0, "charset=", 0, 8)) {
+                    try {
+                        return Charset.forName(trimmed.substring(8).replace("\"", ""));
+                    } catch (IllegalArgumentException e) {
+                        logger.debug("unknown charset in '{}'", contentType);
+                    }
+                }
+            }
+        }
+        return UTF_8;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Size and time budgets of a document rendering, keeping one pathological document from stalling a build.
+ *
+ * Documents longer than the maximum size are not rendered. With a timeout, documents are rendered on
+ * worker threads and abandoned when late: the linear engine stops at the next block, MarkdownJ can't
+ * be stopped in the middle of an expression and keeps its worker busy until done. Workers are bounded,
+ * so abandoned renderings can't pile up: there is a worker for each rendering thread and as many for
+ * abandoned renderings. A document waits for a free worker within its time budget, and is over budget
+ * only if none is freed meanwhile.
+ * A document over budget makes a {@link BudgetExceededException} or, with {@link Action#ESCAPE}, is
+ * written as escaped plain text.
+ *
+ */
+public final class RenderWatchdog {
+
+    /**
+     * What to do with a document over budget.
+     */
+    public enum Action {
+
+        /**
+         * Throw a {@link BudgetExceededException}, the document is a failure of the build.
+         */
+        FAIL,
+
+        /**
+         * Write the markdown as escaped plain text, in a pre block.
+         */
+        ESCAPE;
+
+        /**
+         * @param name fail or escape, in any case.
+         */
+        public static Action forName(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    /**
+     * Thrown when a document is over budget.
+     */
+    public static final class BudgetExceededException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        BudgetExceededException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * No budget: documents are rendered on the calling thread, whatever their size.
+     */
+    public static final RenderWatchdog UNLIMITED = new RenderWatchdog(0, 0, Action.FAIL);
+
+    private final int maximumSize;
+
+    private final long timeoutMillis;
+
+    private final Action action;
+
+    /**
+     * Whether the last document rendered by each thread was escaped.
+     */
+    private final ThreadLocal<Boolean> escaped = new ThreadLocal<Boolean>();
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final int workers;
+
+    /**
+     * Renders documents with a timeout, null without timeout. Daemon threads, so an abandoned rendering
+     * doesn't keep the JVM alive; idle ones end after a while.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * A permit for each worker, taken until the rendering is done, abandoned or not.
+     */
+    private final Semaphore free;
+
+    /**
+     * @param maximumSize the maximum number of chars of a document, 0 for no limit.
+     * @param timeoutMillis the maximum rendering time of a document, 0 for no limit.
+     * @param action what to do with a document over budget.
+     */
+    public RenderWatchdog(int maximumSize, long timeoutMillis, Action action) {
+        this(maximumSize, timeoutMillis, action, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param maximumSize the maximum number of chars of a document, 0 for no limit.
+     * @param timeoutMillis the maximum rendering time of a document, 0 for no limit.
+     * @param action what to do with a document over budget.
+     * @param threads the number of threads rendering with this watchdog: twice as many documents are rendered
+     *        at once with a timeout, abandoned ones included.
+     */
+    public RenderWatchdog(int maximumSize, long timeoutMillis, Action action, int threads) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize must not be negative: " + maximumSize);
+        }
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeoutMillis must not be negative: " + timeoutMillis);
+        }
+        if (action == null) {
+            throw new IllegalArgumentException("action must not be null");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.maximumSize = maximumSize;
+        this.timeoutMillis = timeoutMillis;
+        this.action = action;
+        // an abandoned rendering keeps its worker: one more for each thread, so runaways don't fail other documents
+        this.workers = 2 * threads;
+        if (timeoutMillis == 0) {
+            this.executor = null;
+            this.free = null;
+        } else {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "render-watchdog-" + THREADS.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+            this.free = new Semaphore(workers);
+        }
+    }
+
+    /**
+     * Renders a document within the budget.
+     *
+     * @param markdown the document, not null.
+     * @param rendering the rendering of the document.
+     * @return the html, or the escaped document if over budget and escaping.
+     * @throws BudgetExceededException if the document is over budget and not escaping.
+     */
+    public String render(String markdown, Callable<String> rendering) {
+        escaped.remove();
+        if ((maximumSize > 0) && (markdown.length() > maximumSize)) {
+            return overBudget(markdown, "document of " + markdown.length() + " chars over the maximum size of " + maximumSize);
+        }
+        if (timeoutMillis == 0) {
+            return call(rendering);
+        }
+        try {
+            if (!free.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return overBudget(markdown, "no render worker free in " + timeoutMillis + " ms, documents over budget still rendering");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for a render worker", e);
+        }
+        Future<String> future;
+        try {
+            future = executor.submit(released(rendering));
+        } catch (RuntimeException e) {
+            free.release();
+            throw e;
+        }
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            return overBudget(markdown, "document not rendered in " + timeoutMillis + " ms");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while rendering", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Returns the rendering releasing its worker permit when done.
+     */
+    private Callable<String> released(final Callable<String> rendering) {
+        return new Callable<String>() {
+            public String call() throws Exception {
+                try {
+                    return rendering.call();
+                } finally {
+                    free.release();
+                }
+            }
+        };
+    }
+
+    private static String call(Callable<String> rendering) {
+        try {
+            return rendering.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String overBudget(String markdown, String reason) {
+        if (action == Action.FAIL) {
+            throw new BudgetExceededException(reason);
+        }
+        escaped.set(Boolean.TRUE);
+        return escape(markdown);
+    }
+
+    /**
+     * Tells a page written as plain text, which should not be kept as the page of its source: a later
+     * rendering, on a less busy machine, could be within budget.
+     *
+     * @return true if the last document rendered by the calling thread was over budget and escaped.
+     */
+    public boolean isLastEscaped() {
+        return escaped.get() != null;
+    }
+
+    /**
+     * Returns the markdown as plain text in a pre block.
+     */
+    static String escape(String markdown) {
+        StringBuilder html = new StringBuilder(markdown.length() + 64);
+        html.append("<pre>");
+        for (int i = 0; i < markdown.length(); i++) {
+            char c = markdown.charAt(i);
+            switch (c) {
+            case '&':
+                html.append("&amp;");
+                break;
+            case '<':
+                html.append("&lt;");
+                break;
+            case '>':
+                html.append("&gt;");
+                break;
+            case '\r':
+                if ((i + 1 == markdown.length()) || (markdown.charAt(i + 1) != '\n')) {
+                    html.append('\n');
+                }
+                break;
+            default:
+                html.append(c);
+            }
+        }
+        return html.append("</pre>\n").toString();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    /**
+     * @return the most documents rendered at once with a timeout, abandoned ones included.
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    @Override
+    public String toString() {
+        return maximumSize + "," + timeoutMillis + "," + action;
+    }
+}
@@ -0,0 +1,413 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Charsets;
+
+/**
+ * An inverted index of the terms of the pages of a site, written as JSON files a browser loads on demand.
+ *
+ * Pages are added by the threads rendering them, each one filling its own partial index; partial indexes
+ * are merged when the index is written. Documents are numbered in order of path, so the same sources make
+ * the same files.
+ *
+ * The files, in the index directory:
+ * <ul>
+ * <li><code>index.json</code>: <code>{"version": 1, "documents": 2, "documentShards": 1, "documentsPerShard": 1000,
+ * "termShards": 1, "maxPositions": 4}</code>;</li>
+ * <li><code>documents-<i>k</i>.json</code>: the documents from <code>k * documentsPerShard</code>, each one as
+ * <code>["path.html", "title", [position, "anchor", ...]]</code>, with the first position of the text of each
+ * heading;</li>
+ * <li><code>terms-<i>k</i>.json</code>: the terms with <code>(hash &amp; 0x7fffffff) % termShards == k</code>,
+ * hash being the Java hash of the term (in JavaScript, <code>h = (31 * h + term.charCodeAt(i)) | 0</code>).
+ * Each term has a flat array of postings, <code>[document, count, position, ...]</code>: document is the
+ * difference with the previous document of the term, count the occurrences of the term in the document, followed
+ * by the first of them, up to maxPositions, as differences with the previous position.</li>
+ * </ul>
+ * Shards keep each file to about {@link #POSTINGS_PER_SHARD} postings, so a query loads a file for each of its
+ * terms, whatever the size of the site.
+ *
+ */
+public final class SearchIndex {
+
+    /**
+     * Name of the index directory, in the destination directory.
+     */
+    public static final String DIRECTORY = "search-index";
+
+    static final int VERSION = 1;
+
+    /**
+     * Positions kept for each document of a term, enough to show where the first matches are.
+     */
+    static final int MAXIMUM_POSITIONS = 4;
+
+    static final int POSTINGS_PER_SHARD = 50000;
+
+    static final int DOCUMENTS_PER_SHARD = 1000;
+
+    private static final Charset UTF_8 = Charsets.UTF_8;
+
+    /**
+     * A written file of the index.
+     */
+    interface Sink {
+        void add(String name, String json) throws IOException;
+    }
+
+    /**
+     * A document of the index.
+     */
+    private static final class Document {
+
+        private final String path;
+
+        private final String title;
+
+        /**
+         * Position and id of each heading.
+         */
+        private final Object[] anchors;
+
+        Document(String path, String title, Object[] anchors) {
+            this.path = path;
+            this.title = title;
+            this.anchors = anchors;
+        }
+    }
+
+    /**
+     * A growable array of ints.
+     */
+    private static final class Postings {
+
+        private int[] values = new int[8];
+
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * The documents added by a thread, with their postings: local document number, count and positions.
+     */
+    private static final class Partial {
+
+        private final List<Document> documents = new ArrayList<Document>();
+
+        private final Map<String, Postings> terms = new HashMap<String, Postings>();
+    }
+
+    private final Queue<Partial> partials = new ConcurrentLinkedQueue<Partial>();
+
+    /**
+     * The documents added, counted apart from the partials which are filled without locks.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final ThreadLocal<Partial> partial = new ThreadLocal<Partial>() {
+        @Override
+        protected Partial initialValue() {
+            Partial created = new Partial();
+            partials.add(created);
+            return created;
+        }
+    };
+
+    /**
+     * Adds a page to the partial index of the calling thread.
+     *
+     * @param path the path of the source, relative to the source directory.
+     * @param outline the outline of the html of the page, with terms.
+     */
+    public void add(String path, PageOutline outline) {
+        List<PageOutline.Heading> headings = outline.getHeadings();
+        Object[] anchors = new Object[headings.size() * 2];
+        for (int i = 0; i < headings.size(); i++) {
+            anchors[2 * i] = Integer.valueOf(headings.get(i).getPosition());
+            anchors[2 * i + 1] = headings.get(i).getId();
+        }
+        String title = outline.getTitle();
+        if (title == null) {
+            title = PageTemplate.title("", path);
+        }
+        Partial local = partial.get();
+        int document = local.documents.size();
+        local.documents.add(new Document(FileUtils.changeExtension(path, ".html"), title, anchors));
+        size.incrementAndGet();
+        for (Map.Entry<String, int[]> term : outline.getTerms().entrySet()) {
+            Postings postings = local.terms.get(term.getKey());
+            if (postings == null) {
+                postings = new Postings();
+                local.terms.put(term.getKey(), postings);
+            }
+            int[] positions = term.getValue();
+            postings.add(document);
+            postings.add(positions.length);
+            for (int i = 0; (i < positions.length) && (i < MAXIMUM_POSITIONS); i++) {
+                postings.add(positions[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the number of documents added, also while they are being added.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Writes the index files in a directory, removing the files of a previous index. The index must not be
+     * added to while written.
+     */
+    public void write(final File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Error creating " + directory);
+        }
+        File[] previous = directory.listFiles();
+        if (previous != null) {
+            for (File file : previous) {
+                if (file.getName().endsWith(".json") && !file.delete()) {
+                    throw new IOException("Error deleting " + file);
+                }
+            }
+        }
+        write(new Sink() {
+            public void add(String name, String json) throws IOException {
+                FileUtils.writeFile(new File(directory, name).getPath(), json, UTF_8.name());
+            }
+        });
+    }
+
+    /**
+     * Writes the index files as entries of an archive, in the index directory.
+     */
+    public void write(final SiteArchive archive) throws IOException {
+        write(new Sink() {
+            public void add(String name, String json) throws IOException {
+                archive.add(DIRECTORY + "/" + name, json, UTF_8);
+            }
+        });
+    }
+
+    /**
+     * Merges the partial indexes, writing a file at a time.
+     */
+    void write(Sink sink) throws IOException {
+        List<Partial> all = new ArrayList<Partial>(partials);
+        int[][] ids = new int[all.size()][];
+        final List<Document> documents = new ArrayList<Document>();
+        List<int[]> owners = new ArrayList<int[]>();
+        for (int p = 0; p < all.size(); p++) {
+            ids[p] = new int[all.get(p).documents.size()];
+            for (int d = 0; d < ids[p].length; d++) {
+                documents.add(all.get(p).documents.get(d));
+                owners.add(new int[] { p, d });
+            }
+        }
+        Integer[] order = new Integer[documents.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                return documents.get(i1.intValue()).path.compareTo(documents.get(i2.intValue()).path);
+            }
+        });
+        List<Document> sorted = new ArrayList<Document>(order.length);
+        for (int id = 0; id < order.length; id++) {
+            int[] owner = owners.get(order[id].intValue());
+            ids[owner[0]][owner[1]] = id;
+            sorted.add(documents.get(order[id].intValue()));
+        }
+        Map<String, Postings> terms = merge(all, ids);
+        int postingsCount = 0;
+        for (Postings postings : terms.values()) {
+            postingsCount += count(postings);
+        }
+        int termShards = Math.max(1, (postingsCount + POSTINGS_PER_SHARD - 1) / POSTINGS_PER_SHARD);
+        int documentShards = Math.max(1, (sorted.size() + DOCUMENTS_PER_SHARD - 1) / DOCUMENTS_PER_SHARD);
+        StringBuilder json = new StringBuilder();
+        json.append("{\"version\": ").append(VERSION).append(", \"documents\": ").append(sorted.size());
+        json.append(", \"documentShards\": ").append(documentShards).append(", \"documentsPerShard\": ").append(DOCUMENTS_PER_SHARD);
+        json.append(", \"termShards\": ").append(termShards).append(", \"maxPositions\": ").append(MAXIMUM_POSITIONS).append("}\n");
+        sink.add("index.json", json.toString());
+        for (int shard = 0; shard < documentShards; shard++) {
+            int end = Math.min(sorted.size(), (shard + 1) * DOCUMENTS_PER_SHARD);
+            sink.add("documents-" + shard + ".json", documentsJson(sorted.subList(shard * DOCUMENTS_PER_SHARD, end)));
+        }
+        List<List<String>> shards = new ArrayList<List<String>>(termShards);
+        for (int shard = 0; shard < termShards; shard++) {
+            shards.add(new ArrayList<String>());
+        }
+        for (String term : terms.keySet()) {
+            shards.get(shard(term, termShards)).add(term);
+        }
+        for (int shard = 0; shard < termShards; shard++) {
+            List<String> shardTerms = shards.get(shard);
+            Collections.sort(shardTerms);
+            sink.add("terms-" + shard + ".json", termsJson(shardTerms, terms));
+        }
+    }
+
+    /**
+     * Returns the shard of a term.
+     */
+    static int shard(String term, int shards) {
+        return (term.hashCode() & 0x7fffffff) % shards;
+    }
+
+    /**
+     * Returns the postings of every term, with document ids, ordered by document.
+     */
+    private static Map<String, Postings> merge(List<Partial> all, int[][] ids) {
+        Map<String, Postings> terms = new HashMap<String, Postings>();
+        for (int p = 0; p < all.size(); p++) {
+            for (Map.Entry<String, Postings> entry : all.get(p).terms.entrySet()) {
+                Postings local = entry.getValue();
+                Postings postings = terms.get(entry.getKey());
+                if (postings == null) {
+                    postings = new Postings();
+                    terms.put(entry.getKey(), postings);
+                }
+                int i = 0;
+                while (i < local.size) {
+                    int count = local.values[i + 1];
+                    int end = i + 2 + Math.min(count, MAXIMUM_POSITIONS);
+                    postings.add(ids[p][local.values[i]]);
+                    for (int j = i + 1; j < end; j++) {
+                        postings.add(local.values[j]);
+                    }
+                    i = end;
+                }
+            }
+        }
+        // postings are in order of addition, on each thread
+        for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+            if (!isOrdered(entry.getValue())) {
+                entry.setValue(sort(entry.getValue()));
+            }
+        }
+        return terms;
+    }
+
+    private static boolean isOrdered(Postings postings) {
+        int previous = -1;
+        for (int i = 0; i < postings.size; i += 2 + Math.min(postings.values[i + 1], MAXIMUM_POSITIONS)) {
+            if (postings.values[i] < previous) {
+                return false;
+            }
+            previous = postings.values[i];
+        }
+        return true;
+    }
+
+    /**
+     * Returns the postings ordered by document, sorting document and offset of each posting packed in a long.
+     */
+    private static Postings sort(Postings postings) {
+        long[] keys = new long[count(postings)];
+        int k = 0;
+        for (int i = 0; i < postings.size; i += 2 + Math.min(postings.values[i + 1], MAXIMUM_POSITIONS)) {
+            keys[k++] = ((long) postings.values[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        Postings sorted = new Postings();
+        sorted.values = new int[postings.size];
+        for (long key : keys) {
+            int i = (int) key;
+            int end = i + 2 + Math.min(postings.values[i + 1], MAXIMUM_POSITIONS);
+            for (int j = i; j < end; j++) {
+                sorted.add(postings.values[j]);
+            }
+        }
+        return sorted;
+    }
+
+    private static int count(Postings postings) {
+        int count = 0;
+        for (int i = 0; i < postings.size; i += 2 + Math.min(postings.values[i + 1], MAXIMUM_POSITIONS)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static String documentsJson(List<Document> documents) {
+        StringBuilder json = new StringBuilder(documents.size() * 96);
+        json.append('[');
+        for (int d = 0; d < documents.size(); d++) {
+            Document document = documents.get(d);
+            json.append((d == 0) ? "\n[" : ",\n[");
+            BuildMetrics.appendString(json, document.path);
+            json.append(',');
+            BuildMetrics.appendString(json, document.title);
+            json.append(",[");
+            for (int a = 0; a < document.anchors.length; a += 2) {
+                json.append((a == 0) ? "" : ",").append(document.anchors[a]).append(',');
+                BuildMetrics.appendString(json, (String) document.anchors[a + 1]);
+            }
+            json.append("]]");
+        }
+        return json.append("\n]\n").toString();
+    }
+
+    private static String termsJson(List<String> shardTerms, Map<String, Postings> terms) {
+        StringBuilder json = new StringBuilder(shardTerms.size() * 32);
+        json.append('{');
+        for (int t = 0; t < shardTerms.size(); t++) {
+            String term = shardTerms.get(t);
+            json.append((t == 0) ? "\n" : ",\n");
+            BuildMetrics.appendString(json, term);
+            json.append(":[");
+            Postings postings = terms.get(term);
+            int previousDocument = 0;
+            int i = 0;
+            while (i < postings.size) {
+                int count = postings.values[i + 1];
+                json.append((i == 0) ? "" : ",").append(postings.values[i] - previousDocument).append(',').append(count);
+                previousDocument = postings.values[i];
+                int previousPosition = 0;
+                int end = i + 2 + Math.min(count, MAXIMUM_POSITIONS);
+                for (int j = i + 2; j < end; j++) {
+                    json.append(',').append(postings.values[j] - previousPosition);
+                    previousPosition = postings.values[j];
+                }
+                i = end;
+            }
+            json.append(']');
+        }
+        return json.append("\n}\n").toString();
+    }
+}
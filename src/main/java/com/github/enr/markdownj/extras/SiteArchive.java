@@ -0,0 +1,190 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A zip or jar archive of rendered pages, written as a stream.
+ *
+ * Entries have a fixed modification time, and a directory entry is added before the first page in each directory,
+ * so adding the same pages in the same order makes the same archive bytes, in any time zone.
+ * A jar (a file name ending with .jar) starts with a manifest.
+ *
+ * The archive is written to a temporary file in the same directory, which replaces the archive on close:
+ * readers never see a partial archive. Pages must be added by one thread at a time.
+ *
+ */
+public class SiteArchive implements Closeable {
+
+    /**
+     * Default compression level, as of {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public static final int DEFAULT_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+    private static final String MANIFEST = "Manifest-Version: 1.0\r\nCreated-By: markdownj-extras\r\n\r\n";
+
+    private final File file;
+
+    private final File temporary;
+
+    private final ZipOutputStream zip;
+
+    private final Set<String> directories = new HashSet<String>();
+
+    /**
+     * 1980-02-01 in the current time zone: zip times are local dates, and earlier ones are not representable.
+     */
+    private final long entryTime = new GregorianCalendar(1980, Calendar.FEBRUARY, 1).getTimeInMillis();
+
+    private boolean closed;
+
+    /**
+     * @param file the archive.
+     * @param level the compression level, from 0 (stored in deflate blocks) to 9, or {@link #DEFAULT_LEVEL}.
+     * @throws IOException if the temporary file can't be created.
+     */
+    public SiteArchive(File file, int level) throws IOException {
+        if ((level < Deflater.DEFAULT_COMPRESSION) || (level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("compression level must be between 0 and 9: " + level);
+        }
+        this.file = file.getAbsoluteFile();
+        File parent = this.file.getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+        this.temporary = File.createTempFile(this.file.getName(), ".tmp", parent);
+        this.zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), NioFiles.BUFFER_SIZE));
+        zip.setLevel(level);
+        if (this.file.getName().endsWith(".jar")) {
+            add("META-INF/MANIFEST.MF", MANIFEST, Charset.forName("UTF-8"));
+        }
+    }
+
+    /**
+     * Adds a page, and the entries of its directories not added yet.
+     *
+     * @param name the path of the page in the archive, with / separators.
+     * @param text the page.
+     * @param charset the charset of the page.
+     * @return the size of the encoded page, in bytes.
+     * @throws IOException if the archive can't be written.
+     */
+    public long add(String name, String text, Charset charset) throws IOException {
+        for (int slash = name.indexOf('/'); slash > 0; slash = name.indexOf('/', slash + 1)) {
+            String directory = name.substring(0, slash + 1);
+            if (directories.add(directory)) {
+                zip.putNextEntry(entry(directory));
+                zip.closeEntry();
+            }
+        }
+        zip.putNextEntry(entry(name));
+        CountingStream counting = new CountingStream(zip);
+        Writer writer = new OutputStreamWriter(counting, charset);
+        writer.write(text);
+        writer.flush();
+        zip.closeEntry();
+        return counting.count;
+    }
+
+    private ZipEntry entry(String name) {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(entryTime);
+        return entry;
+    }
+
+    /**
+     * Completes the archive, replacing the archive file.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            zip.close();
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Discards the archive, leaving the previous one if any.
+     */
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            zip.close();
+        } catch (IOException e) {
+            // the temporary file is deleted anyway
+        }
+        temporary.delete();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Counts the bytes of an entry, without closing the archive when closed.
+     */
+    private static final class CountingStream extends FilterOutputStream {
+
+        long count;
+
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() {
+            // the archive is closed by SiteArchive.close
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the source tree of a MarkdownApp, header, footer and page template, and processes them again when they change.
+ *
+ * Events are coalesced: after the first event the watcher keeps collecting until no event
+ * arrives for {@link #QUIET_MILLIS}, then every changed path is handled once, looking at its
+ * current state. Changed sources go through MarkdownApp.processFile, removed ones have their
+ * html deleted; a change to header, footer or page template, or lost events, cause a full build.
+ *
+ */
+class SiteWatcher implements Closeable {
+
+    /**
+     * Time without events after which collected changes are processed.
+     */
+    static final long QUIET_MILLIS = 20;
+
+    private static final Logger logger = LoggerFactory.getLogger(SiteWatcher.class);
+
+    private final MarkdownApp app;
+
+    private final WatchService service;
+
+    private final Path sourceRoot;
+
+    private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+
+    /**
+     * Header, footer and page template: a change on them invalidates every generated file.
+     */
+    private final Set<Path> configurationFiles = new HashSet<Path>();
+
+    SiteWatcher(MarkdownApp app) throws IOException {
+        this.app = app;
+        this.service = FileSystems.getDefault().newWatchService();
+        this.sourceRoot = Paths.get(app.getSource()).toAbsolutePath().normalize();
+        registerTree(sourceRoot);
+        for (String path : new String[] { app.getHeader(), app.getFooter(), app.getTemplate() }) {
+            if (path != null) {
+                Path file = Paths.get(path).toAbsolutePath().normalize();
+                configurationFiles.add(file);
+                register(file.getParent());
+            }
+        }
+    }
+
+    /**
+     * Processes changes until the watcher is closed or the thread interrupted.
+     */
+    void run() {
+        logger.info("watching '{}' for changes", sourceRoot);
+        try {
+            while (true) {
+                Set<Path> changes = new LinkedHashSet<Path>();
+                boolean overflow = collect(service.take(), changes);
+                WatchKey key;
+                while ((key = service.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= collect(key, changes);
+                }
+                dispatch(changes, overflow);
+            }
+        } catch (ClosedWatchServiceException e) {
+            logger.debug("watcher closed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void close() {
+        try {
+            service.close();
+        } catch (IOException e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    private boolean collect(WatchKey key, Set<Path> changes) {
+        boolean overflow = false;
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+            } else if (directory != null) {
+                changes.add(directory.resolve((Path) event.context()));
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+        return overflow;
+    }
+
+    private void dispatch(Set<Path> changes, boolean overflow) {
+        boolean rebuild = overflow;
+        List<File> sources = new ArrayList<File>();
+        for (Path path : changes) {
+            if (configurationFiles.contains(path)) {
+                rebuild = true;
+            } else if (path.startsWith(sourceRoot)) {
+                if (Files.isDirectory(path)) {
+                    registerTree(path);
+                }
+                sources.add(path.toFile());
+            }
+        }
+        long start = System.currentTimeMillis();
+        if (rebuild) {
+            logger.info("header, footer, page template or lost events: processing every file");
+            registerTree(sourceRoot);
+            app.process();
+        } else if (!sources.isEmpty()) {
+            app.processChanges(sources);
+        } else {
+            return;
+        }
+        logger.info("{} change(s) processed in {} ms", changes.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Registers the directories of a tree, but the excluded ones.
+     */
+    private void registerTree(Path root) {
+        final SourceWalker walker = app.sourceWalker();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (!walker.accepts(dir, true)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    register(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("error watching '{}': {}", root, e.getMessage());
+        }
+    }
+
+    private void register(Path directory) throws IOException {
+        WatchKey key = directory.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        directories.put(key, directory);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Markdown sources in a zip or jar archive, read in place through the NIO zip file system.
+ *
+ * The location of the sources is the path of a zip or jar file, meaning every entry of the archive,
+ * or a jar: URL as returned by class loaders (jar:file:/docs.jar!/site), meaning the entries in the
+ * given directory, or the given entry.
+ *
+ * Archives of the same file share its file system, which stays open until the last of them is closed:
+ * entries read while a build has the archive open don't read the archive again, nor close it under the
+ * build. A file system already opened elsewhere is used and left open.
+ *
+ */
+public final class SourceArchive implements Closeable {
+
+    private static final String JAR_SCHEME = "jar:";
+
+    private static final String ENTRY_SEPARATOR = "!/";
+
+    /**
+     * The file systems of the open archives, keyed by archive URI.
+     */
+    private static final Map<URI, Shared> OPEN = new HashMap<URI, Shared>();
+
+    /**
+     * A file system with the number of open archives using it.
+     */
+    private static final class Shared {
+
+        private final FileSystem fileSystem;
+
+        /**
+         * Whether the file system was opened here, to be closed with the last archive.
+         */
+        private final boolean owned;
+
+        private int users;
+
+        Shared(FileSystem fileSystem, boolean owned) {
+            this.fileSystem = fileSystem;
+            this.owned = owned;
+        }
+    }
+
+    private final Shared shared;
+
+    private final Path root;
+
+    private boolean closed;
+
+    private SourceArchive(Shared shared, Path root) {
+        this.shared = shared;
+        this.root = root;
+    }
+
+    /**
+     * @param location a path or a URL.
+     * @return true if the location is a jar: URL or an existing zip or jar file.
+     */
+    public static boolean isArchive(String location) {
+        if (location.startsWith(JAR_SCHEME)) {
+            return true;
+        }
+        String name = location.toLowerCase(Locale.ENGLISH);
+        return (name.endsWith(".zip") || name.endsWith(".jar")) && new File(location).isFile();
+    }
+
+    /**
+     * Opens the file system of the given archive.
+     *
+     * @param location the path of a zip or jar file, or a jar: URL.
+     * @return the archive, to be closed by the caller.
+     * @throws IOException if the archive can't be opened or the entry is not in the archive.
+     */
+    public static SourceArchive open(String location) throws IOException {
+        URI archive;
+        String entry = "/";
+        if (location.startsWith(JAR_SCHEME)) {
+            int separator = location.indexOf(ENTRY_SEPARATOR);
+            archive = URI.create((separator < 0) ? location : location.substring(0, separator));
+            if (separator >= 0) {
+                entry = decode(location.substring(separator + 1));
+            }
+        } else {
+            archive = URI.create(JAR_SCHEME + new File(location).getAbsoluteFile().toURI());
+        }
+        Shared shared = share(archive);
+        SourceArchive opened = null;
+        try {
+            opened = new SourceArchive(shared, shared.fileSystem.getPath(entry));
+        } finally {
+            if (opened == null) {
+                release(shared);
+            }
+        }
+        if (!Files.exists(opened.root)) {
+            opened.close();
+            throw new NoSuchFileException(location);
+        }
+        return opened;
+    }
+
+    /**
+     * Returns the file system of an archive, opening it if not in use, counting one more user.
+     */
+    private static Shared share(URI archive) throws IOException {
+        synchronized (OPEN) {
+            Shared shared = OPEN.get(archive);
+            if (shared == null) {
+                try {
+                    shared = new Shared(FileSystems.newFileSystem(archive, Collections.<String, Object> emptyMap()), true);
+                } catch (FileSystemAlreadyExistsException e) {
+                    shared = new Shared(FileSystems.getFileSystem(archive), false);
+                    // the same file, by another URI
+                    for (Shared other : OPEN.values()) {
+                        if (other.fileSystem == shared.fileSystem) {
+                            shared = other;
+                        }
+                    }
+                }
+                OPEN.put(archive, shared);
+            }
+            shared.users++;
+            return shared;
+        }
+    }
+
+    /**
+     * Reads an entry of an archive.
+     *
+     * @param location the jar: URL of the entry.
+     * @param encoding the encoding to use, null means the one of the byte order mark of the entry, or platform default.
+     * @return the content of the entry.
+     * @throws IOException if the entry can't be read.
+     */
+    public static String read(String location, String encoding) throws IOException {
+        SourceArchive archive = open(location);
+        try {
+            return NioFiles.read(archive.getRoot(), FileUtils.charsetForNameOrNull(encoding));
+        } finally {
+            archive.close();
+        }
+    }
+
+    /**
+     * Entry names in URLs are percent-encoded, user-typed ones could be not.
+     */
+    private static String decode(String entry) {
+        try {
+            return URI.create(entry).getPath();
+        } catch (IllegalArgumentException e) {
+            return entry;
+        }
+    }
+
+    /**
+     * @return the directory or entry in the archive.
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    public void close() throws IOException {
+        synchronized (OPEN) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            release(shared);
+        }
+    }
+
+    private static void release(Shared shared) throws IOException {
+        synchronized (OPEN) {
+            if (--shared.users > 0) {
+                return;
+            }
+            OPEN.values().removeAll(Collections.singleton(shared));
+            if (shared.owned) {
+                shared.fileSystem.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Walks the source tree with {@link Files#walkFileTree}, filtering by glob patterns while walking.
+ *
+ * Patterns are globs as for {@link java.nio.file.FileSystem#getPathMatcher}: without a <code>/</code> they match
+ * the name of a file or directory at any depth (<code>node_modules</code>, <code>*.draft.md</code>), otherwise the
+ * path relative to the source directory (<code>docs/**&#47;*.md</code>, <code>/build</code>). A trailing
+ * <code>/</code> matches directories only.
+ * Excluded directories are skipped without being listed. A <code>.mdignore</code> file in a directory adds
+ * exclude patterns, one per line, relative to its directory; lines starting with <code>#</code> are comments.
+ * Include patterns select the files to process; directories are always walked, unless excluded.
+ * Version control directories (<code>.git</code>, <code>.hg</code>, <code>.svn</code>) are always excluded.
+ *
+ * The walk is iterative, so deep trees don't overflow the stack, and ignore files are read once per walked
+ * directory. Symbolic links are followed, links making a loop are skipped.
+ * Directories are listed lazily, one open stream for each level: with {@link #queue} the walk runs in a thread
+ * of its own, waiting while its bounded queue is full, so the memory of a build doesn't grow with the number
+ * of files.
+ *
+ */
+public final class SourceWalker {
+
+    /**
+     * Name of the files with exclude patterns, in the source directories.
+     */
+    public static final String IGNORE_FILE = ".mdignore";
+
+    static final List<String> DEFAULT_EXCLUDES = Collections.unmodifiableList(Arrays.asList(".git/", ".hg/", ".svn/"));
+
+    private static final Logger logger = LoggerFactory.getLogger(SourceWalker.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Marks the end of a walk in a queue.
+     */
+    private static final Path END = Paths.get("");
+
+    /**
+     * Receives the walked files.
+     */
+    interface Visitor {
+
+        void visitFile(Path file);
+
+        /**
+         * Called for files and directories which can't be read.
+         */
+        void visitFailed(Path file, IOException e);
+    }
+
+    /**
+     * The files of a walk running in a thread of its own, taken by any number of consumers.
+     */
+    public final class WalkQueue implements Closeable {
+
+        private final BlockingQueue<Path> files;
+
+        private final Thread thread;
+
+        private volatile boolean closed;
+
+        WalkQueue(final Path start, final Visitor failures, int size) {
+            files = new ArrayBlockingQueue<Path>(size);
+            thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        walk(start, new Visitor() {
+                            public void visitFile(Path file) {
+                                put(file);
+                            }
+
+                            public void visitFailed(Path file, IOException e) {
+                                if (failures == null) {
+                                    logger.warn("error reading '{}': {}", file, e.getMessage());
+                                } else {
+                                    failures.visitFailed(file, e);
+                                }
+                            }
+                        });
+                    } finally {
+                        put(END);
+                    }
+                }
+            }, "markdownj-walk");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Returns the next file, waiting for the walk; null when the walk is done or the queue closed.
+         */
+        public Path take() throws InterruptedException {
+            if (closed) {
+                return null;
+            }
+            Path file = files.take();
+            if (file == END) {
+                // left for the other consumers
+                files.put(END);
+                return null;
+            }
+            return file;
+        }
+
+        /**
+         * Stops the walk, if still running.
+         */
+        public void close() {
+            closed = true;
+            thread.interrupt();
+            files.clear();
+            // wakes the waiting consumers
+            files.offer(END);
+        }
+
+        private void put(Path file) {
+            try {
+                if (!closed) {
+                    files.put(file);
+                }
+            } catch (InterruptedException e) {
+                // closed: the walk ends at the next file
+                closed = true;
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Glob patterns, matched against paths relative to a directory.
+     */
+    private static final class Patterns {
+
+        private final List<PathMatcher> names = new ArrayList<PathMatcher>();
+
+        private final List<PathMatcher> paths = new ArrayList<PathMatcher>();
+
+        private final List<PathMatcher> directoryNames = new ArrayList<PathMatcher>();
+
+        private final List<PathMatcher> directoryPaths = new ArrayList<PathMatcher>();
+
+        Patterns(Path base, List<String> globs) {
+            for (String glob : globs) {
+                String pattern = glob.trim();
+                boolean directory = pattern.endsWith("/");
+                if (directory) {
+                    pattern = pattern.substring(0, pattern.length() - 1);
+                }
+                boolean anchored = pattern.startsWith("/");
+                if (anchored) {
+                    pattern = pattern.substring(1);
+                }
+                if (pattern.isEmpty() || pattern.startsWith("#")) {
+                    continue;
+                }
+                PathMatcher matcher = base.getFileSystem().getPathMatcher("glob:" + pattern);
+                boolean path = anchored || (pattern.indexOf('/') >= 0);
+                if (directory) {
+                    (path ? directoryPaths : directoryNames).add(matcher);
+                } else {
+                    (path ? paths : names).add(matcher);
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return names.isEmpty() && paths.isEmpty();
+        }
+
+        /**
+         * @param base the directory the patterns are relative to, a parent of the path.
+         * @param path the path.
+         * @param name the file name of the path.
+         */
+        boolean matches(Path base, Path path, Path name, boolean directory) {
+            if (matches(names, name) || (directory && matches(directoryNames, name))) {
+                return true;
+            }
+            if (paths.isEmpty() && (!directory || directoryPaths.isEmpty())) {
+                return false;
+            }
+            Path relative = relative(base, path);
+            return (relative != null) && (matches(paths, relative) || (directory && matches(directoryPaths, relative)));
+        }
+
+        private static Path relative(Path base, Path path) {
+            if (path.startsWith(base)) {
+                return base.relativize(path);
+            }
+            Path absolute = path.toAbsolutePath().normalize();
+            Path absoluteBase = base.toAbsolutePath().normalize();
+            return absolute.startsWith(absoluteBase) ? absoluteBase.relativize(absolute) : null;
+        }
+
+        private static boolean matches(List<PathMatcher> matchers, Path path) {
+            for (PathMatcher matcher : matchers) {
+                if (matcher.matches(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The patterns of an ignore file, relative to its directory.
+     */
+    private static final class Ignore {
+
+        private final Path directory;
+
+        private final Patterns patterns;
+
+        Ignore(Path directory, Patterns patterns) {
+            this.directory = directory;
+            this.patterns = patterns;
+        }
+    }
+
+    private final Path root;
+
+    private final Path absoluteRoot;
+
+    private final Patterns includes;
+
+    private final Patterns excludes;
+
+    /**
+     * @param root the source directory.
+     * @param includes glob patterns of the files to process, empty for every file.
+     * @param excludes glob patterns of the files and directories to skip.
+     */
+    public SourceWalker(Path root, List<String> includes, List<String> excludes) {
+        this.root = root;
+        this.absoluteRoot = root.toAbsolutePath().normalize();
+        this.includes = new Patterns(root, includes);
+        List<String> all = new ArrayList<String>(DEFAULT_EXCLUDES);
+        all.addAll(excludes);
+        this.excludes = new Patterns(root, all);
+    }
+
+    /**
+     * Walks the sources under a file of the source tree, calling the visitor for every accepted file.
+     * The walk stops if the thread is interrupted.
+     */
+    public void walk(final Path start, final Visitor visitor) {
+        final Deque<Ignore> ignores;
+        if (isRoot(start)) {
+            ignores = new ArrayDeque<Ignore>();
+        } else {
+            ignores = parents(start);
+            if ((ignores == null) || !isAccepted(start, Files.isDirectory(start), ignores)) {
+                return;
+            }
+        }
+        try {
+            Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (!dir.equals(start) && !isAccepted(dir, true, ignores)) {
+                        logger.debug("skipping '{}'", dir);
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    push(ignores, dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    if (!ignores.isEmpty() && ignores.peek().directory.equals(dir)) {
+                        ignores.pop();
+                    }
+                    if (e != null) {
+                        visitor.visitFailed(dir, e);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (isAccepted(file, false, ignores)) {
+                        visitor.visitFile(file);
+                    }
+                    return Thread.currentThread().isInterrupted() ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    if (e instanceof FileSystemLoopException) {
+                        logger.warn("skipping '{}', a link to one of its parent directories", file);
+                    } else {
+                        visitor.visitFailed(file, e);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            visitor.visitFailed(start, e);
+        }
+    }
+
+    /**
+     * Starts walking the sources under a file of the source tree in a new thread, queueing the accepted files.
+     *
+     * @param failures called, in the walking thread, for the files and directories which can't be read; if null
+     *        they are logged.
+     * @param size the most files queued before the walk waits for the consumers.
+     */
+    public WalkQueue queue(Path start, Visitor failures, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("queue size must be positive: " + size);
+        }
+        return new WalkQueue(start, failures, size);
+    }
+
+    /**
+     * Tells if a file of the source tree is a source to process, looking at its path and at the ignore files
+     * of its directories.
+     */
+    public boolean accepts(Path path, boolean directory) {
+        if (isRoot(path)) {
+            return true;
+        }
+        Deque<Ignore> ignores = parents(path);
+        return (ignores != null) && isAccepted(path, directory, ignores);
+    }
+
+    private boolean isRoot(Path path) {
+        Path relative = relative(path);
+        return (relative != null) && relative.toString().isEmpty();
+    }
+
+    /**
+     * Returns the ignore files of the directories from the root to the parent of a path, null if one of the
+     * directories is excluded or the path is outside the source directory.
+     */
+    private Deque<Ignore> parents(Path path) {
+        Path relative = relative(path);
+        if (relative == null) {
+            return null;
+        }
+        Deque<Ignore> ignores = new ArrayDeque<Ignore>();
+        Path directory = root;
+        push(ignores, directory);
+        for (int i = 0; i < relative.getNameCount() - 1; i++) {
+            directory = directory.resolve(relative.getName(i).toString());
+            if (!isAccepted(directory, true, ignores)) {
+                return null;
+            }
+            push(ignores, directory);
+        }
+        return ignores;
+    }
+
+    /**
+     * Tells if a file is accepted, its parent directory being accepted.
+     *
+     * @param ignores the ignore files of the parent directories.
+     */
+    private boolean isAccepted(Path path, boolean directory, Deque<Ignore> ignores) {
+        Path name = path.getFileName();
+        if (name == null) {
+            return true;
+        }
+        if (excludes.matches(root, path, name, directory)) {
+            return false;
+        }
+        if (!directory && name.toString().equals(IGNORE_FILE)) {
+            return false;
+        }
+        for (Ignore ignore : ignores) {
+            if (ignore.patterns.matches(ignore.directory, path, name, directory)) {
+                return false;
+            }
+        }
+        return directory || includes.isEmpty() || includes.matches(root, path, name, false);
+    }
+
+    /**
+     * Returns the path relative to the source directory, null if outside.
+     */
+    private Path relative(Path path) {
+        if (path.startsWith(root)) {
+            return root.relativize(path);
+        }
+        Path absolute = path.toAbsolutePath().normalize();
+        return absolute.startsWith(absoluteRoot) ? absoluteRoot.relativize(absolute) : null;
+    }
+
+    private static void push(Deque<Ignore> ignores, Path directory) {
+        Path file = directory.resolve(IGNORE_FILE);
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        List<String> lines = new ArrayList<String>();
+        try {
+            BufferedReader reader = Files.newBufferedReader(file, UTF_8);
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            logger.warn("error reading '{}': {}", file, e.getMessage());
+        }
+        ignores.push(new Ignore(directory, new Patterns(directory, lines)));
+    }
+}
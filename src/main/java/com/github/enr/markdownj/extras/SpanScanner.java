@@ -0,0 +1,887 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The span elements of the {@link LinearMarkdownEngine}: tags, code spans, escapes, images, links, autolinks,
+ * entities, emphasis and line breaks, found in the order and with the rules of MarkdownJ span gamut.
+ *
+ * Each kind of element is one scan of the text. Where MarkdownJ backtracks from every opening delimiter
+ * to the end of the line or of the paragraph, a scan looks the closing delimiter up once and remembers
+ * where the next candidate is, so the time is linear in the size of the text.
+ *
+ * Characters escaped with a backslash or inside code and tags are replaced by markers, noncharacters
+ * removed from the source, so that later scans don't see them; {@link #unprotect(String)} restores them.
+ *
+ */
+final class SpanScanner {
+
+    /**
+     * A reference link definition.
+     */
+    static final class Link {
+
+        final String url;
+
+        final String title;
+
+        /**
+         * @param url the url, entities encoded.
+         * @param title the title, quotes encoded, or the empty string.
+         */
+        Link(String url, String title) {
+            this.url = url;
+            this.title = title;
+        }
+    }
+
+    /**
+     * The characters replaced by markers, the marker of a character being its index after FIRST_MARKER.
+     */
+    private static final String PROTECTED = "\\`*_{}[]()#+-.>!";
+
+    static final char FIRST_MARKER = '\uFDD0';
+
+    static final char LAST_MARKER = '\uFDEF';
+
+    private static final String CODE_PROTECTED = "*_{}[]\\";
+
+    private static final String TAG_PROTECTED = "\\`*_";
+
+    private static final int MAX_TAG_DEPTH = 6;
+
+    private final Map<String, Link> links;
+
+    /**
+     * @param links the link definitions of the document, by lower case id.
+     */
+    SpanScanner(Map<String, Link> links) {
+        this.links = links;
+    }
+
+    /**
+     * @return the html of the given text, with markers.
+     */
+    String render(String text) {
+        String s = protectTags(text);
+        if (s.indexOf('`') >= 0) {
+            s = codeSpans(s);
+        }
+        if (s.indexOf('\\') >= 0) {
+            s = backslashEscapes(s);
+        }
+        if (s.indexOf("![") >= 0) {
+            s = images(s, true);
+            s = images(s, false);
+        }
+        if (s.indexOf('[') >= 0) {
+            s = referenceLinks(s);
+            s = inlineLinks(s);
+            s = shortcutLinks(s);
+        }
+        if (s.indexOf('<') >= 0) {
+            s = urlLinks(s);
+            s = emailLinks(s);
+            s = protectTags(s);
+        }
+        s = ampsAndAngles(s);
+        if ((s.indexOf('*') >= 0) || (s.indexOf('_') >= 0)) {
+            s = strong(s);
+            s = emphasis(s);
+        }
+        if (s.indexOf("  \n") >= 0) {
+            s = lineBreaks(s);
+        }
+        return s;
+    }
+
+    static char marker(char c) {
+        return (char) (FIRST_MARKER + PROTECTED.indexOf(c));
+    }
+
+    static boolean isMarker(char c) {
+        return (c >= FIRST_MARKER) && (c < FIRST_MARKER + PROTECTED.length());
+    }
+
+    /**
+     * @return the given html with the protected characters restored.
+     */
+    static String unprotect(String html) {
+        StringBuilder sb = null;
+        for (int i = 0; i < html.length(); i++) {
+            char c = html.charAt(i);
+            if (isMarker(c)) {
+                if (sb == null) {
+                    sb = new StringBuilder(html.length()).append(html, 0, i);
+                }
+                sb.append(PROTECTED.charAt(c - FIRST_MARKER));
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return (sb == null) ? html : sb.toString();
+    }
+
+    /**
+     * Encodes code: html special characters as entities, markdown special characters as markers.
+     */
+    static String encodeCode(CharSequence code) {
+        StringBuilder sb = new StringBuilder(code.length() + 16);
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c == '&') {
+                sb.append("&amp;");
+            } else if (c == '<') {
+                sb.append("&lt;");
+            } else if (c == '>') {
+                sb.append("&gt;");
+            } else if (CODE_PROTECTED.indexOf(c) >= 0) {
+                sb.append(marker(c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Encodes ampersands and angle brackets not starting an entity or a tag, as MarkdownJ encodes urls and text.
+     */
+    static String ampsAndAngles(String s) {
+        StringBuilder sb = null;
+        int copied = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String entity = null;
+            if ((c == '&') && !isEntity(s, i + 1)) {
+                entity = "&amp;";
+            } else if ((c == '<') && ((i + 1 == s.length()) || (("/?$!".indexOf(s.charAt(i + 1)) < 0) && !isLowerCase(s.charAt(i + 1))))) {
+                entity = "&lt;";
+            }
+            if (entity != null) {
+                if (sb == null) {
+                    sb = new StringBuilder(s.length() + 16);
+                }
+                sb.append(s, copied, i).append(entity);
+                copied = i + 1;
+            }
+        }
+        return finish(sb, s, copied);
+    }
+
+    private static boolean isEntity(String s, int from) {
+        int i = from;
+        if ((i < s.length()) && (s.charAt(i) == '#')) {
+            i++;
+        }
+        int start = i;
+        while ((i < s.length()) && isWordChar(s.charAt(i))) {
+            i++;
+        }
+        return (i > start) && (i < s.length()) && (s.charAt(i) == ';');
+    }
+
+    /**
+     * Protects the characters MarkdownJ protects in tags, comments and processing instructions.
+     */
+    static String protectTags(String s) {
+        int open = s.indexOf('<');
+        if (open < 0) {
+            return s;
+        }
+        StringBuilder sb = null;
+        int copied = 0;
+        Search commentEnds = new Search();
+        Search instructionEnds = new Search();
+        while (open >= 0) {
+            int end = tagEnd(s, open, commentEnds, instructionEnds);
+            if (end < 0) {
+                open = s.indexOf('<', open + 1);
+                continue;
+            }
+            for (int i = open; i < end; i++) {
+                char c = s.charAt(i);
+                if (TAG_PROTECTED.indexOf(c) >= 0) {
+                    if (sb == null) {
+                        sb = new StringBuilder(s.length());
+                    }
+                    sb.append(s, copied, i).append(marker(c));
+                    copied = i + 1;
+                }
+            }
+            open = s.indexOf('<', end);
+        }
+        return finish(sb, s, copied);
+    }
+
+    /**
+     * The last found occurrence of a closing delimiter, reused by later searches starting before it.
+     */
+    private static final class Search {
+
+        int from = -1;
+
+        int start = -1;
+
+        int end = -1;
+
+        boolean reusable(int position) {
+            return (from >= 0) && (position >= from) && ((start < 0) || (start >= position));
+        }
+
+        int found(int position, int foundStart, int foundEnd) {
+            from = position;
+            start = foundStart;
+            end = foundEnd;
+            return end;
+        }
+    }
+
+    private static int tagEnd(String s, int open, Search commentEnds, Search instructionEnds) {
+        if (s.startsWith("<!--", open)) {
+            int end = commentEnd(s, open + 4, commentEnds);
+            if (end > 0) {
+                return end;
+            }
+        } else if (s.startsWith("<?", open)) {
+            if (!instructionEnds.reusable(open + 2)) {
+                int close = s.indexOf("?>", open + 2);
+                instructionEnds.found(open + 2, close, (close < 0) ? -1 : close + 2);
+            }
+            return instructionEnds.end;
+        }
+        return nestedTagEnd(s, open);
+    }
+
+    /**
+     * @return the end of the first "--" at or after the given position followed by a '>' after white space, or -1.
+     */
+    private static int commentEnd(String s, int from, Search commentEnds) {
+        if (commentEnds.reusable(from)) {
+            return commentEnds.end;
+        }
+        for (int dashes = s.indexOf("--", from); dashes >= 0; dashes = s.indexOf("--", dashes + 1)) {
+            int i = dashes + 2;
+            while ((i < s.length()) && isWhitespace(s.charAt(i))) {
+                i++;
+            }
+            if ((i < s.length()) && (s.charAt(i) == '>')) {
+                return commentEnds.found(from, dashes, i + 1);
+            }
+        }
+        return commentEnds.found(from, -1, -1);
+    }
+
+    private static int nestedTagEnd(String s, int open) {
+        if ((open + 1 >= s.length()) || !isTagStart(s.charAt(open + 1))) {
+            return -1;
+        }
+        int depth = 1;
+        for (int i = open + 2; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '>') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            } else if (c == '<') {
+                if ((depth == MAX_TAG_DEPTH) || (i + 1 >= s.length()) || !isTagStart(s.charAt(i + 1))) {
+                    return -1;
+                }
+                depth++;
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isTagStart(char c) {
+        return isLowerCase(c) || ((c >= 'A') && (c <= 'Z')) || (c == '/') || (c == '!') || (c == '$');
+    }
+
+    /**
+     * Code spans: a run of backticks closed by the first later run of the same length on the line,
+     * trying shorter lengths when the opening run has no match.
+     */
+    private static String codeSpans(String s) {
+        StringBuilder sb = null;
+        int copied = 0;
+        int lineStart = 0;
+        int[] starts = new int[8];
+        int[] lengths = new int[8];
+        while (lineStart < s.length()) {
+            int lineEnd = lineEnd(s, lineStart);
+            int runs = 0;
+            int longest = 0;
+            for (int i = s.indexOf('`', lineStart); (i >= 0) && (i < lineEnd); i = s.indexOf('`', i)) {
+                int start = i;
+                while ((i < lineEnd) && (s.charAt(i) == '`')) {
+                    i++;
+                }
+                if (runs == starts.length) {
+                    starts = Arrays.copyOf(starts, runs * 2);
+                    lengths = Arrays.copyOf(lengths, runs * 2);
+                }
+                starts[runs] = start;
+                lengths[runs] = i - start;
+                longest = Math.max(longest, i - start);
+                runs++;
+            }
+            if (runs > 1) {
+                // the closing run of each opening run, found from the last run back
+                int[] closings = new int[runs];
+                int[] nextOfLength = new int[longest + 1];
+                Arrays.fill(nextOfLength, -1);
+                for (int r = runs - 1; r >= 0; r--) {
+                    closings[r] = -1;
+                    for (int length = openingLength(s, starts[r], lengths[r]); length > 0; length--) {
+                        if (nextOfLength[length] >= 0) {
+                            closings[r] = nextOfLength[length];
+                            break;
+                        }
+                    }
+                    nextOfLength[lengths[r]] = r;
+                }
+                for (int r = 0; r < runs; r++) {
+                    int closing = closings[r];
+                    if (closing < 0) {
+                        continue;
+                    }
+                    int open = (openingLength(s, starts[r], lengths[r]) < lengths[r]) ? starts[r] + 1 : starts[r];
+                    int length = lengths[closing];
+                    int from = open + length;
+                    int to = starts[closing];
+                    while ((from < to) && isSpaceOrTab(s.charAt(from))) {
+                        from++;
+                    }
+                    while ((to > from) && isSpaceOrTab(s.charAt(to - 1))) {
+                        to--;
+                    }
+                    if (sb == null) {
+                        sb = new StringBuilder(s.length() + 32);
+                    }
+                    sb.append(s, copied, open).append("<code>").append(encodeCode(s.subSequence(from, to))).append("</code>");
+                    copied = starts[closing] + length;
+                    r = closing;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return finish(sb, s, copied);
+    }
+
+    /**
+     * A run after a backslash opens a code span from its second backtick.
+     */
+    private static int openingLength(String s, int start, int length) {
+        return ((start > 0) && (s.charAt(start - 1) == '\\')) ? length - 1 : length;
+    }
+
+    /**
+     * Backslash escapes, pairs of backslashes first.
+     */
+    private static String backslashEscapes(String s) {
+        StringBuilder sb = null;
+        int copied = 0;
+        for (int i = s.indexOf('\\'); (i >= 0) && (i + 1 < s.length()); i = s.indexOf('\\', i)) {
+            char c = s.charAt(i + 1);
+            if (PROTECTED.indexOf(c) >= 0) {
+                if (sb == null) {
+                    sb = new StringBuilder(s.length());
+                }
+                sb.append(s, copied, i).append(marker(c));
+                copied = i + 2;
+                i += 2;
+            } else {
+                i++;
+            }
+        }
+        return finish(sb, s, copied);
+    }
+
+    /**
+     * Images of the form ![alt](src "title"), or ![alt](src) if not titled. As MarkdownJ patterns are greedy,
+     * only the first image of a line is found, ending at the last parenthesis.
+     */
+    private static String images(String s, boolean titled) {
+        StringBuilder sb = null;
+        int copied = 0;
+        int lineStart = 0;
+        while (lineStart < s.length()) {
+            int lineEnd = lineEnd(s, lineStart);
+            int open = s.indexOf("![", lineStart);
+            if ((open >= 0) && (open < lineEnd)) {
+                int close;
+                int src;
+                int title = -1;
+                int end;
+                if (titled) {
+                    close = s.lastIndexOf("\")", lineEnd - 2);
+                    title = (close < 0) ? -1 : s.lastIndexOf(" \"", close - 2);
+                    src = (title < 0) ? -1 : s.lastIndexOf("](", title - 2);
+                    end = close + 2;
+                } else {
+                    close = s.lastIndexOf(')', lineEnd - 1);
+                    src = (close < 0) ? -1 : s.lastIndexOf("](", close - 2);
+                    end = close + 1;
+                }
+                if (src >= open + 2) {
+                    if (sb == null) {
+                        sb = new StringBuilder(s.length() + 32);
+                    }
+                    sb.append(s, copied, open).append("<img src=\"");
+                    if (titled) {
+                        sb.append(s, src + 2, title).append("\" alt=\"").append(s, open + 2, src).append("\" title=\"")
+                                .append(s, title + 2, close);
+                    } else {
+                        sb.append(s, src + 2, close).append("\" alt=\"").append(s, open + 2, src);
+                    }
+                    sb.append("\" />");
+                    copied = end;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return finish(sb, s, copied);
+    }
+
+    /**
+     * Reference links: [text][id] or [text] [id], the id on the same line or the next one.
+     */
+    private String referenceLinks(String s) {
+        StringBuilder sb = null;
+        int copied = 0;
+        int closeFrom = -1;
+        int close = -1;
+        int idStart = -1;
+        int end = -1;
+        int lineEnd = -1;
+        for (int open = s.indexOf('['); open >= 0; open = s.indexOf('[', open + 1)) {
+            if (open >= lineEnd) {
+                lineEnd = lineEnd(s, open);
+            }
+            if ((closeFrom < 0) || ((close >= 0) && (close <= open))) {
+                // the first ']' followed by the id, which doesn't depend on where the text starts
+                closeFrom = open + 1;
+                close = -1;
+                for (int c = s.indexOf(']', closeFrom); c >= 0; c = s.indexOf(']', c + 1)) {
+                    idStart = referenceIdStart(s, c);
+                    if (idStart > 0) {
+                        close = c;
+                        end = s.indexOf(']', idStart) + 1;
+                        break;
+                    }
+                }
+            }
+            if (close < 0) {
+                break;
+            }
+            if (close >= lineEnd) {
+                continue;
+            }
+            String text = s.substring(open + 1, close);
+            String id = s.substring(idStart, end - 1);
+            Link link = links.get(lowerCase(id.isEmpty() ? text : id));
+            if (link != null) {
+                if (sb == null) {
+                    sb = new StringBuilder(s.length() + 32);
+                }
+                sb.append(s, copied, open);
+                appendAnchor(sb, link.url, link.title.isEmpty() ? null : link.title, text);
+                copied = end;
+            }
+            open = end - 1;
+            lineEnd = -1;
+        }
+        return finish(sb, s, copied);
+    }
+
+    /**
+     * @return the start of the id following the ']' at the given position, if closed on its line, or -1.
+     */
+    private static int referenceIdStart(String s, int close) {
+        int i = close + 1;
+        if ((i < s.length()) && (s.charAt(i) == ' ')) {
+            i++;
+        }
+        if ((i < s.length()) && (s.charAt(i) == '\n')) {
+            i++;
+            while ((i < s.length()) && (s.charAt(i) == ' ')) {
+                i++;
+            }
+        }
+        if ((i >= s.length()) || (s.charAt(i) != '[')) {
+            return -1;
+        }
+        int idEnd = s.indexOf(']', i + 1);
+        return ((idEnd < 0) || (idEnd > lineEnd(s, i + 1))) ? -1 : i + 1;
+    }
+
+    /**
+     * Inline links: [text](url "title"), the text ending at the first "](" and the url at the first ')'
+     * not in a title.
+     */
+    private String inlineLinks(String s) {
+        StringBuilder sb = null;
+        int copied = 0;
+        Search doubleQuoted = new Search();
+        Search singleQuoted = new Search();
+        int open = s.indexOf('[');
+        while (open >= 0) {
+            int close = s.indexOf("](", open + 1);
+            if ((close < 0) || (s.indexOf(')', close + 2) < 0)) {
+                break;
+            }
+            int url = close + 2;
+            while ((url < s.length()) && isSpaceOrTab(s.charAt(url))) {
+                url++;
+            }
+            if (s.charAt(url) == '<') {
+                url++;
+            }
+            for (int urlEnd = url; urlEnd < s.length(); urlEnd++) {
+                int i = urlEnd;
+                if (s.charAt(i) == '>') {
+                    i++;
+                }
+                while ((i < s.length()) && isSpaceOrTab(s.charAt(i))) {
+                    i++;
+                }
+                if (i == s.length()) {
+                    break;
+                }
+                char c = s.charAt(i);
+                int end = -1;
+                String title = null;
+                if (c == ')') {
+                    end = i + 1;
+                } else if ((c == '"') || (c == '\'')) {
+                    Search quoted = (c == '"') ? doubleQuoted : singleQuoted;
+                    if (!quoted.reusable(i + 1)) {
+                        int quote = s.indexOf((c == '"') ? "\")" : "')", i + 1);
+                        quoted.found(i + 1, quote, quote + 2);
+                    }
+                    if (quoted.start >= 0) {
+                        end = quoted.end;
+                        title = s.substring(i + 1, quoted.start);
+                    }
+                }
+                if (end > 0) {
+                    if (sb == null) {
+                        sb = new StringBuilder(s.length() + 32);
+                    }
+                    sb.append(s, copied, open);
+                    appendAnchor(sb, protectEmphasis(s.substring(url, urlEnd)),
+                            (title == null) ? null : protectEmphasis(title).replace("\"", "&quot;"), s.substring(open + 1, close));
+                    copied = end;
+                    open = end - 1;
+                    break;
+                }
+            }
+            open = s.indexOf('[', open + 1);
+        }
+        return finish(sb, s, copied);
+    }
+
+    /**
+     * Shortcut links: [id], the id without brackets.
+     */
+    private String shortcutLinks(String s) {
+        StringBuilder sb = null;
+        int copied = 0;
+        int open = s.indexOf('[');
+        while (open >= 0) {
+            int i = open + 1;
+            while ((i < s.length()) && (s.charAt(i) != '[') && (s.charAt(i) != ']')) {
+                i++;
+            }
+            if (i == s.length()) {
+                break;
+            }
+            if (s.charAt(i) == '[') {
+                open = i;
+                continue;
+            }
+            if (i > open + 1) {
+                String text = s.substring(open + 1, i);
+                Link link = links.get(lowerCase(text.replace(" \n", " ").replace('\n', ' ')));
+                if (link != null) {
+                    if (sb == null) {
+                        sb = new StringBuilder(s.length() + 32);
+                    }
+                    sb.append(s, copied, open);
+                    appendAnchor(sb, link.url, link.title.isEmpty() ? null : link.title, text);
+                    copied = i + 1;
+                }
+            }
+            open = s.indexOf('[', i + 1);
+        }
+        return finish(sb, s, copied);
+    }
+
+    private static void appendAnchor(StringBuilder sb, String url, String title, String text) {
+        sb.append("<a href=\"").append(protectEmphasis(url)).append('"');
+        if (title != null) {
+            sb.append(" title=\"").append(protectEmphasis(title)).append('"');
+        }
+        sb.append('>').append(text).append("</a>");
+    }
+
+    private static String protectEmphasis(String s) {
+        return s.replace('*', marker('*')).replace('_', marker('_'));
+    }
+
+    /**
+     * Links of the form &lt;http://url&gt;, &lt;https://url&gt; or &lt;ftp://url&gt;.
+     */
+    private static String urlLinks(String s) {
+        StringBuilder sb = null;
+        int copied = 0;
+        for (int open = s.indexOf('<'); open >= 0; open = s.indexOf('<', open + 1)) {
+            int i = open + 1;
+            if (s.startsWith("http:", i) || s.startsWith("https:", i) || s.startsWith("ftp:", i)) {
+                i = s.indexOf(':', i) + 1;
+                int start = i;
+                while ((i < s.length()) && ("'\">".indexOf(s.charAt(i)) < 0) && !isWhitespace(s.charAt(i))) {
+                    i++;
+                }
+                if ((i > start) && (i < s.length()) && (s.charAt(i) == '>')) {
+                    String url = s.substring(open + 1, i);
+                    if (sb == null) {
+                        sb = new StringBuilder(s.length() + 32);
+                    }
+                    sb.append(s, copied, open).append("<a href=\"").append(url).append("\">").append(url).append("</a>");
+                    copied = i + 1;
+                    open = i;
+                }
+            }
+        }
+        return finish(sb, s, copied);
+    }
+
+    /**
+     * Links of the form &lt;address@domain.tld&gt;, encoded as decimal entities to hide them from spam robots.
+     */
+    private static String emailLinks(String s) {
+        StringBuilder sb = null;
+        int copied = 0;
+        for (int open = s.indexOf('<'); open >= 0; open = s.indexOf('<', open + 1)) {
+            int i = open + 1;
+            while ((i < s.length()) && (isWordChar(s.charAt(i)) || isMarker(s.charAt(i)) || (s.charAt(i) == '-') || (s.charAt(i) == '.'))) {
+                i++;
+            }
+            if ((i == open + 1) || (i == s.length()) || (s.charAt(i) != '@')) {
+                continue;
+            }
+            int domain = i + 1;
+            for (i = domain; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (!isLowerCase(c) && !isDigit(c) && (c != '-') && (c != '.')) {
+                    break;
+                }
+            }
+            if ((i < s.length()) && (s.charAt(i) == '>') && isDomain(s, domain, i)) {
+                String address = unprotect(s.substring(open + 1, i));
+                if (sb == null) {
+                    sb = new StringBuilder(s.length() + 128);
+                }
+                sb.append(s, copied, open).append("<a href=\"");
+                appendEntities(sb, "mailto:" + address);
+                sb.append("\">");
+                appendEntities(sb, address);
+                sb.append("</a>");
+                copied = i + 1;
+                open = i;
+            }
+        }
+        return finish(sb, s, copied);
+    }
+
+    /**
+     * @return true if the labels between the given positions are not empty, and the last is made of letters.
+     */
+    private static boolean isDomain(String s, int start, int end) {
+        int dot = s.lastIndexOf('.', end - 1);
+        if ((dot <= start) || (dot == end - 1)) {
+            return false;
+        }
+        for (int i = dot + 1; i < end; i++) {
+            if (!isLowerCase(s.charAt(i))) {
+                return false;
+            }
+        }
+        return (s.charAt(start) != '.') && !s.substring(start, dot + 1).contains("..");
+    }
+
+    private static void appendEntities(StringBuilder sb, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            sb.append("&#").append((int) text.charAt(i)).append(';');
+        }
+    }
+
+    /**
+     * Strong emphasis: ** or __ before a non space, closed on the line by the same delimiter after a non space.
+     * As MarkdownJ, the closing delimiter is the last one in the first run of '*' and '_' where there is one.
+     */
+    private static String strong(String s) {
+        StringBuilder sb = null;
+        int copied = 0;
+        int lineStart = 0;
+        while (lineStart < s.length()) {
+            int lineEnd = lineEnd(s, lineStart);
+            boolean[] unclosed = new boolean[2];
+            for (int i = lineStart; i + 2 < lineEnd; i++) {
+                char c = s.charAt(i);
+                int delimiter = (c == '*') ? 0 : ((c == '_') ? 1 : -1);
+                if ((delimiter < 0) || unclosed[delimiter] || (s.charAt(i + 1) != c) || isWhitespace(s.charAt(i + 2))) {
+                    continue;
+                }
+                int close = strongClose(s, i + 3, lineEnd, c);
+                if (close < 0) {
+                    unclosed[delimiter] = true;
+                    continue;
+                }
+                if (sb == null) {
+                    sb = new StringBuilder(s.length() + 32);
+                }
+                sb.append(s, copied, i).append("<strong>").append(s, i + 2, close).append("</strong>");
+                copied = close + 2;
+                i = close + 1;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return finish(sb, s, copied);
+    }
+
+    private static int strongClose(String s, int from, int lineEnd, char c) {
+        int i = from;
+        while (i < lineEnd) {
+            if (!isEmphasisChar(s.charAt(i))) {
+                i++;
+                continue;
+            }
+            int runEnd = i;
+            while ((runEnd < lineEnd) && isEmphasisChar(s.charAt(runEnd))) {
+                runEnd++;
+            }
+            for (int close = runEnd - 2; close >= i; close--) {
+                if ((s.charAt(close) == c) && (s.charAt(close + 1) == c) && !isWhitespace(s.charAt(close - 1))) {
+                    return close;
+                }
+            }
+            i = runEnd;
+        }
+        return -1;
+    }
+
+    /**
+     * Emphasis: * or _ before a non space, closed on the line by the first same delimiter after a non space.
+     */
+    private static String emphasis(String s) {
+        StringBuilder sb = null;
+        int copied = 0;
+        int lineStart = 0;
+        while (lineStart < s.length()) {
+            int lineEnd = lineEnd(s, lineStart);
+            int[] closes = { -1, -1 };
+            for (int i = lineStart; i + 1 < lineEnd; i++) {
+                char c = s.charAt(i);
+                int delimiter = (c == '*') ? 0 : ((c == '_') ? 1 : -1);
+                if ((delimiter < 0) || (closes[delimiter] == lineEnd) || isWhitespace(s.charAt(i + 1))) {
+                    continue;
+                }
+                if (closes[delimiter] < i + 2) {
+                    closes[delimiter] = lineEnd;
+                    for (int close = s.indexOf(c, i + 2); (close >= 0) && (close < lineEnd); close = s.indexOf(c, close + 1)) {
+                        if (!isWhitespace(s.charAt(close - 1))) {
+                            closes[delimiter] = close;
+                            break;
+                        }
+                    }
+                    if (closes[delimiter] == lineEnd) {
+                        continue;
+                    }
+                }
+                int close = closes[delimiter];
+                if (sb == null) {
+                    sb = new StringBuilder(s.length() + 32);
+                }
+                sb.append(s, copied, i).append("<em>").append(s, i + 1, close).append("</em>");
+                copied = close + 1;
+                i = close;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return finish(sb, s, copied);
+    }
+
+    /**
+     * Two spaces or more at the end of a line.
+     */
+    private static String lineBreaks(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 32);
+        int copied = 0;
+        for (int i = s.indexOf("  \n"); i >= 0; i = s.indexOf("  \n", i + 3)) {
+            int spaces = i;
+            while ((spaces > copied) && (s.charAt(spaces - 1) == ' ')) {
+                spaces--;
+            }
+            sb.append(s, copied, spaces).append(" <br />\n");
+            copied = i + 3;
+        }
+        return finish(sb, s, copied);
+    }
+
+    private static String finish(StringBuilder sb, String s, int copied) {
+        return (sb == null) ? s : sb.append(s, copied, s.length()).toString();
+    }
+
+    private static int lineEnd(String s, int from) {
+        int end = s.indexOf('\n', from);
+        return (end < 0) ? s.length() : end;
+    }
+
+    static String lowerCase(String s) {
+        return s.toLowerCase(Locale.ENGLISH);
+    }
+
+    static boolean isWhitespace(char c) {
+        return (c == ' ') || (c == '\t') || (c == '\n') || (c == '\u000B') || (c == '\f') || (c == '\r');
+    }
+
+    private static boolean isSpaceOrTab(char c) {
+        return (c == ' ') || (c == '\t');
+    }
+
+    private static boolean isEmphasisChar(char c) {
+        return (c == '*') || (c == '_');
+    }
+
+    private static boolean isLowerCase(char c) {
+        return (c >= 'a') && (c <= 'z');
+    }
+
+    private static boolean isDigit(char c) {
+        return (c >= '0') && (c <= '9');
+    }
+
+    static boolean isWordChar(char c) {
+        return isLowerCase(c) || ((c >= 'A') && (c <= 'Z')) || isDigit(c) || (c == '_');
+    }
+}
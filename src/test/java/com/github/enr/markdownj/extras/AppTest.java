@@ -15,20 +15,32 @@
 package com.github.enr.markdownj.extras;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Enumeration;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 
 /**
@@ -84,6 +96,37 @@ public class AppTest {
                 extensions));
     }
 
+    @Test
+    public void testInvalidArgumentsFail() {
+        String destination = buildDestinationDir("testInvalidArgumentsFail");
+        // the last run leaves the pages of the valid build
+        new File(destination, "index.html").delete();
+        MarkdownApp app = new MarkdownApp();
+        assertEquals(app.run(new String[] { "--destination", destination }), MarkdownApp.EXIT_FAILURE);
+        assertEquals(app.getFailures().keySet().toString(), "[--source]");
+        assertEquals(app.run(new String[] { "--source", sourcePath + "/missing", "--destination", destination }), MarkdownApp.EXIT_FAILURE);
+        assertEquals(app.run(new String[] { "--source", sourcePath, "--destination", destination, "--threads", "abc" }), MarkdownApp.EXIT_FAILURE);
+        assertEquals(app.getFailures().get("--threads").getMessage(), "invalid threads number 'abc'");
+        assertEquals(app.run(new String[] { "--source", sourcePath, "--destination", destination, "--pipeline", "1,0,1" }), MarkdownApp.EXIT_FAILURE);
+        assertEquals(app.run(new String[] { "--source", sourcePath, "--destination", destination, "--unknown" }), MarkdownApp.EXIT_FAILURE);
+        assertFalse(new File(destination, "index.html").exists());
+        assertEquals(app.run(new String[] { "--source", sourcePath, "--destination", destination }), 0);
+    }
+
+    @Test
+    public void testPreprocess() throws IOException {
+        File source = new File(baseTestDestination, "testPreprocess-source");
+        source.mkdirs();
+        Files.write("\uFEFF# Title\r\n\r\n\tcode\r\n", new File(source, "page.md"), Charset.forName("UTF-8"));
+        String destination = buildDestinationDir("testPreprocess");
+        MarkdownApp app = new MarkdownApp();
+        assertEquals(app.run(new String[] { "--source", source.getPath(), "--destination", destination, "--preprocess", "bom,eol,tabs:8" }), 0);
+        assertEquals(readCreatedFile(new File(destination, "page.html")), "<h1>Title</h1>\n\n<pre><code>    code\n</code></pre>\n");
+        assertEquals(app.run(new String[] { "--source", source.getPath(), "--destination", destination, "--preprocess", "bom,spaces" }),
+                MarkdownApp.EXIT_FAILURE);
+        assertEquals(app.getFailures().keySet().toString(), "[--preprocess]");
+    }
+
     @Test
     public void testProgrammaticCall() {
         String destination = buildDestinationDir("testProgrammaticCall");
@@ -156,6 +199,27 @@ public class AppTest {
         assertEquals(readCreatedFile(destinationFile), "<p>code:<pre lang=\"java\">import org.markdownj.*;</pre></p>\n");
     }
 
+    @Test
+    public void testPageTemplate() {
+        String destination = buildDestinationDir("testPageTemplate");
+        String[] args = { "--source", sourcePath, "--destination", destination, "--template", resourceToPath("/site/templates/page.html") };
+        MarkdownApp.main(args);
+        assertEquals(readCreatedFile(new File(destination + "/sub/file.html")), "<html>\n<head><title>This is an H1</title>"
+                + "<link rel=\"stylesheet\" href=\"../style.css\"></head>\n<h1>This is an H1</h1>\n\n<p>file.markdown</p>\n"
+                + "<p class=\"source\">sub/file.markdown</p>\n</html>\n");
+        assertTrue(readCreatedFile(new File(destination + "/syntax.html")).startsWith("<html>\n<head><title>syntax</title>"
+                + "<link rel=\"stylesheet\" href=\"./style.css\">"));
+    }
+
+    @Test
+    public void testHighlight() {
+        String destination = buildDestinationDir("testHighlight");
+        String[] args = { "--source", sourcePath, "--destination", destination, "--highlight" };
+        MarkdownApp.main(args);
+        assertEquals(readCreatedFile(new File(destination + "/code/java.html")), "<p>code:</p>\n\n<pre class=\"java\">\n"
+                + "<span class=\"k\">import</span> org.markdownj.*;\n</pre>\n");
+    }
+
     @Test
     public void testSpecialChars() {
         String destination = buildDestinationDir("testSpecialChars");
@@ -191,6 +255,616 @@ public class AppTest {
         assertEquals(results, "<html>\n<p>Xite is a tool for static site generation from source files which can be in various formats.</p>\n\n<p><a href=\"http://daringfireball.net/projects/markdown\" title=\"Markdown\">Markdown</a> syntax.</p>\n\n<p>Another <a href=\"http://example.tld\">http://example.tld</a> link</p>\n\n</html>\n");
     }
     
+    @Test
+    public void testParallelBuildIsEqualToSequentialBuild() {
+        String sequential = buildDestinationDir("testParallelBuildIsEqualToSequentialBuild/sequential");
+        String parallel = buildDestinationDir("testParallelBuildIsEqualToSequentialBuild/parallel");
+        String[] sequentialArgs = { "--source", sourcePath, "--destination", sequential, "--header", headerPath, "--footer", footerPath, "--threads", "1" };
+        String[] parallelArgs = { "--source", sourcePath, "--destination", parallel, "--header", headerPath, "--footer", footerPath, "--threads", "4" };
+        MarkdownApp.main(sequentialArgs);
+        MarkdownApp.main(parallelArgs);
+        List<String> files = relativeFiles(new File(sequential));
+        assertEquals(files.size(), 6);
+        assertEquals(relativeFiles(new File(parallel)), files);
+        for (String file : files) {
+            assertEquals(readCreatedFile(new File(parallel, file)), readCreatedFile(new File(sequential, file)), file);
+        }
+    }
+
+    @Test
+    public void testPipelinedBuildIsEqualToSequentialBuild() {
+        String sequential = buildDestinationDir("testPipelinedBuildIsEqualToSequentialBuild/sequential");
+        String pipelined = buildDestinationDir("testPipelinedBuildIsEqualToSequentialBuild/pipelined");
+        String[] sequentialArgs = { "--source", sourcePath, "--destination", sequential, "--header", headerPath, "--footer", footerPath, "--threads", "1" };
+        String[] pipelinedArgs = { "--source", sourcePath, "--destination", pipelined, "--header", headerPath, "--footer", footerPath, "--pipeline", "2,3,2",
+                "--metrics", pipelined + "/metrics.json" };
+        MarkdownApp.main(sequentialArgs);
+        MarkdownApp.main(pipelinedArgs);
+        List<String> files = relativeFiles(new File(sequential));
+        assertEquals(files.size(), 6);
+        for (String file : files) {
+            assertEquals(readCreatedFile(new File(pipelined, file)), readCreatedFile(new File(sequential, file)), file);
+        }
+        assertTrue(readCreatedFile(new File(pipelined, "metrics.json")).contains("\"files\": 6,"));
+    }
+
+    @Test
+    public void testLinearEngineBuildIsEqualToMarkdownJBuild() {
+        String markdownj = buildDestinationDir("testLinearEngineBuildIsEqualToMarkdownJBuild/markdownj");
+        String linear = buildDestinationDir("testLinearEngineBuildIsEqualToMarkdownJBuild/linear");
+        String[] markdownjArgs = { "--source", sourcePath, "--destination", markdownj, "--header", headerPath, "--footer", footerPath };
+        String[] linearArgs = { "--source", sourcePath, "--destination", linear, "--header", headerPath, "--footer", footerPath, "--engine", "linear" };
+        MarkdownApp.main(markdownjArgs);
+        MarkdownApp.main(linearArgs);
+        List<String> files = relativeFiles(new File(markdownj));
+        assertEquals(files.size(), 6);
+        for (String file : files) {
+            assertEquals(readCreatedFile(new File(linear, file)), readCreatedFile(new File(markdownj, file)), file);
+        }
+    }
+
+    @Test
+    public void testDocumentsOverBudget() {
+        String slowPath = resourceToPath("/slow");
+        String destination = buildDestinationDir("testDocumentsOverBudget/fail");
+        MarkdownApp app = new MarkdownApp();
+        app.setSource(slowPath);
+        app.setDestination(destination);
+        app.setMaximumSize(2900);
+        app.process();
+        // longer than 2900 chars
+        assertEquals(app.getFailures().keySet().size(), 2, app.getFailures().toString());
+        assertTrue(app.getFailures().firstKey().endsWith("/nested-emphasis.md"), app.getFailures().firstKey());
+        assertTrue(app.getFailures().get(app.getFailures().firstKey()) instanceof RenderWatchdog.BudgetExceededException);
+        assertTrue(new File(destination + "/unclosed-html-blocks.html").isFile());
+
+        String escaped = buildDestinationDir("testDocumentsOverBudget/escape");
+        String[] args = { "--source", slowPath, "--destination", escaped, "--engine", "linear", "--max-size", "2900", "--render-timeout", "10000",
+                "--over-budget", "escape" };
+        MarkdownApp.main(args);
+        assertTrue(readCreatedFile(new File(escaped, "unclosed-comments.html")).startsWith("<pre>&lt;!-- x\n"));
+        assertTrue(readCreatedFile(new File(escaped, "unclosed-emphasis.html")).startsWith("<p>*a *a"));
+    }
+
+    @Test
+    public void testFailedRenderKeepsPreviousPage() throws IOException {
+        String destination = buildDestinationDir("testFailedRenderKeepsPreviousPage");
+        File page = new File(destination, "nested-emphasis.html");
+        page.getParentFile().mkdirs();
+        Files.write("<p>previous</p>", page, Charset.forName("UTF-8"));
+        Files.write("previous", new File(destination, "nested-emphasis.html.gz"), Charset.forName("UTF-8"));
+        MarkdownApp app = new MarkdownApp();
+        app.setSource(resourceToPath("/slow"));
+        app.setDestination(destination);
+        app.setThreads(4);
+        app.setMaximumSize(2900);
+        app.setPrecompress(EnumSet.of(Precompressor.Format.GZIP));
+        app.setPrecompressMinimumBytes(0);
+        app.process();
+        assertTrue(app.getFailures().firstKey().endsWith("/nested-emphasis.md"), app.getFailures().toString());
+        assertEquals(readCreatedFile(page), "<p>previous</p>");
+        assertEquals(readCreatedFile(new File(destination, "nested-emphasis.html.gz")), "previous");
+        assertFalse(new File(destination, "nested-emphasis.html.part").exists());
+        assertFalse(new File(destination, "nested-emphasis.html.part.gz").exists());
+        assertTrue(new File(destination, "unclosed-html-blocks.html.gz").isFile());
+    }
+
+    @Test
+    public void testErrorsInParallelBuildAreFailures() {
+        String destination = buildDestinationDir("testErrorsInParallelBuildAreFailures");
+        MarkdownApp app = new MarkdownApp();
+        app.setSource(sourcePath);
+        app.setDestination(destination);
+        app.setThreads(4);
+        app.setEngine(new MarkdownEngine() {
+            public String getName() {
+                return "overflowing";
+            }
+
+            public String markdown(String text, String codeBlockTemplate) {
+                if (text.contains("index.md")) {
+                    throw new StackOverflowError();
+                }
+                return MarkdownEngines.LINEAR.markdown(text, codeBlockTemplate);
+            }
+        });
+        app.process();
+        assertEquals(app.getFailures().size(), 1, app.getFailures().toString());
+        assertTrue(app.getFailures().firstKey().endsWith("/index.md"), app.getFailures().firstKey());
+        assertTrue(app.getFailures().get(app.getFailures().firstKey()).getCause() instanceof StackOverflowError);
+        assertTrue(new File(destination, "sub/md-ext.html").isFile());
+    }
+
+    @Test
+    public void testSearchIndex() throws IOException {
+        String destination = buildDestinationDir("testSearchIndex/parallel");
+        String[] args = { "--source", sourcePath, "--destination", destination, "--header", headerPath, "--threads", "4", "--search-index" };
+        MarkdownApp.main(args);
+        assertEquals(readCreatedFile(new File(destination, "sub/file.html")), "<html>\n<h1 id=\"this-is-an-h1\">This is an H1</h1>\n\n<p>file.markdown</p>\n");
+        File index = new File(destination, SearchIndex.DIRECTORY);
+        assertEquals(readCreatedFile(new File(index, "index.json")), "{\"version\": 1, \"documents\": 6, \"documentShards\": 1, "
+                + "\"documentsPerShard\": 1000, \"termShards\": 1, \"maxPositions\": 4}\n");
+        String documents = readCreatedFile(new File(index, "documents-0.json"));
+        assertTrue(documents.contains("\n[\"sub/file.html\",\"This is an H1\",[0,\"this-is-an-h1\"]]"), documents);
+        String terms = readCreatedFile(new File(index, "terms-0.json"));
+        assertTrue(terms.contains("\n\"markdown\":["), terms);
+        // documents are numbered by path, whatever the thread indexing them
+        String pipelined = buildDestinationDir("testSearchIndex/pipelined");
+        args[3] = pipelined;
+        MarkdownApp.main(concat(args, "--pipeline", "1,2,1"));
+        assertEquals(readCreatedFile(new File(pipelined, SearchIndex.DIRECTORY + "/terms-0.json")), terms);
+        assertEquals(readCreatedFile(new File(pipelined, SearchIndex.DIRECTORY + "/documents-0.json")), documents);
+    }
+
+    @Test
+    public void testCheckLinks() throws IOException {
+        String destination = buildDestinationDir("testCheckLinks");
+        File template = new File(baseTestDestination, "testCheckLinks.html");
+        Files.write("${toc}\n${content}", template, Charset.forName("UTF-8"));
+        MarkdownApp app = new MarkdownApp();
+        app.setSource(resourceToPath("/links"));
+        app.setDestination(destination);
+        app.setTemplate(template.getPath());
+        app.setThreads(4);
+        app.setCheckLinks(true);
+        app.process();
+        assertEquals(app.getFailures().keySet().toString(), "[guide/setup.md:5, index.md:5, index.md:5 guide/setup.md#nothing]");
+        assertEquals(app.getFailures().get("index.md:5").getMessage(), "broken link 'guide/missing.md': no source guide/missing.md");
+        // headings get the anchors links point to from the table of contents
+        assertTrue(readCreatedFile(new File(destination, "guide/setup.html")).contains("<h1 id=\"setup\">Setup</h1>\n\n<h2 id=\"options\">"));
+        String[] args = { "--source", resourceToPath("/links"), "--destination", destination, "--check-links" };
+        assertEquals(new MarkdownApp().run(args), MarkdownApp.EXIT_FAILURE);
+    }
+
+    @Test
+    public void testCheckLinksChecksPagesAsWritten() {
+        String checked = buildDestinationDir("testCheckLinksChecksPagesAsWritten/checked");
+        String unchecked = buildDestinationDir("testCheckLinksChecksPagesAsWritten/unchecked");
+        MarkdownApp app = new MarkdownApp();
+        app.run(new String[] { "--source", resourceToPath("/links"), "--destination", checked, "--check-links" });
+        // without a table of contents nor a search index headings have no id, with or without link checking
+        assertEquals(app.getFailures().keySet().toString(), "[guide/setup.md:5, guide/setup.md:5 ../index.html#docs, guide/setup.md:9, index.md:3, "
+                + "index.md:5, index.md:5 guide/setup.md#nothing]");
+        assertEquals(app.getFailures().get("index.md:3").getMessage(), "broken link 'guide/setup.md#options': no anchor 'options' in guide/setup.html");
+        assertEquals(new MarkdownApp().run(new String[] { "--source", resourceToPath("/links"), "--destination", unchecked }), 0);
+        assertEquals(readCreatedFile(new File(checked, "guide/setup.html")), readCreatedFile(new File(unchecked, "guide/setup.html")));
+        assertTrue(readCreatedFile(new File(checked, "guide/setup.html")).startsWith("<h1>Setup</h1>"));
+    }
+
+    @Test
+    public void testIncludeAndExclude() {
+        String destination = buildDestinationDir("testIncludeAndExclude");
+        String[] args = { "--source", sourcePath, "--destination", destination, "--threads", "4", "--include", "*.md", "--exclude", "code/,entities.*" };
+        assertEquals(new MarkdownApp().run(args), 0);
+        assertTrue(new File(destination, "index.html").exists());
+        assertTrue(new File(destination, "sub/md-ext.html").exists());
+        assertFalse(new File(destination, "sub/file.html").exists());
+        assertFalse(new File(destination, "entities.html").exists());
+        assertFalse(new File(destination, "code").exists());
+    }
+
+    /**
+     * Builds a generated tree in a jvm with a heap far smaller than the pending work of the whole tree.
+     * The number of files can be raised with -Dmarkdownj.treeFiles=1000000.
+     */
+    @Test
+    public void testLargeTreeInBoundedMemory() throws Exception {
+        int files = Integer.getInteger("markdownj.treeFiles", 200000);
+        File source = new File("target/large-tree-" + files);
+        File generated = new File(source, ".generated");
+        if (!generated.exists()) {
+            for (int i = 0; i < files; i++) {
+                File file = new File(source, "d" + (i / 1000) + "/p" + (i % 1000) + ".md");
+                if (i % 1000 == 0) {
+                    file.getParentFile().mkdirs();
+                }
+                Files.write("# Page " + i + "\n\nsome *text*\n", file, Charset.forName("UTF-8"));
+            }
+            Files.touch(generated);
+        }
+        String destination = buildDestinationDir("testLargeTreeInBoundedMemory");
+        File log = new File(baseTestDestination, "testLargeTreeInBoundedMemory.log");
+        ProcessBuilder builder = new ProcessBuilder(System.getProperty("java.home") + "/bin/java", "-Xmx16m", "-cp",
+                System.getProperty("java.class.path"), MarkdownApp.class.getName(), "--source", source.getPath(), "--destination",
+                destination, "--engine", "linear", "--threads", "4");
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(log);
+        assertEquals(builder.start().waitFor(), 0, readCreatedFile(log));
+        assertTrue(new File(destination, "d" + ((files - 1) / 1000) + "/p" + ((files - 1) % 1000) + ".html").exists());
+    }
+
+    @Test
+    public void testMetricsReport() {
+        String destination = buildDestinationDir("testMetricsReport");
+        String report = destination + "/metrics.json";
+        String[] args = { "--source", sourcePath, "--destination", destination, "--threads", "4", "--metrics", report };
+        MarkdownApp.main(args);
+        String json = readCreatedFile(new File(report));
+        assertTrue(json.contains("\"files\": 6,"), json);
+        assertTrue(json.contains("\"failures\": 0,"), json);
+        assertTrue(json.contains("{ \"path\": \"sub/file.markdown\", \"inputBytes\": 32, \"outputBytes\": 45,"), json);
+        assertTrue(json.contains("\"renderLatencyMicros\": { \"p50\": "), json);
+        assertTrue(json.contains("\"throughput\": { \"filesPerSecond\": "), json);
+    }
+
+    @Test
+    public void testFailuresAreCollected() {
+        String destination = buildDestinationDir("testFailuresAreCollected");
+        // a directory where the output file should be written makes the write fail
+        File blocked = new File(destination + "/sub/file.html");
+        blocked.mkdirs();
+        MarkdownApp app = new MarkdownApp();
+        app.setSource(sourcePath);
+        app.setDestination(destination);
+        app.setThreads(4);
+        app.process();
+        assertEquals(app.getFailures().keySet().size(), 1);
+        assertTrue(app.getFailures().firstKey().endsWith("/sub/file.markdown"), app.getFailures().firstKey());
+        assertTrue(new File(destination + "/sub/md-ext.html").isFile());
+        assertTrue(new File(destination + "/index.html").isFile());
+    }
+
+    @Test
+    public void testIncrementalBuild() throws IOException {
+        String base = buildDestinationDir("testIncrementalBuild");
+        File source = new File(base + "/source");
+        File destination = new File(base + "/destination");
+        deleteTree(new File(base));
+        copyTree(new File(sourcePath), source, System.currentTimeMillis() - 60000);
+        File header = new File(base + "/header.html");
+        Files.copy(new File(headerPath), header);
+        MarkdownApp app = new MarkdownApp();
+        app.setSource(FileUtils.normalizedPath(source.getAbsolutePath()));
+        app.setDestination(FileUtils.normalizedPath(destination.getAbsolutePath()));
+        app.setHeader(FileUtils.normalizedPath(header.getAbsolutePath()));
+        app.setFooter(footerPath);
+        app.setIncremental(true);
+        app.process();
+        assertTrue(new File(destination, BuildManifest.FILE_NAME).isFile());
+        assertEquals(relativeFiles(destination).size(), 7);
+
+        // unchanged sources are not processed again: the marker is kept
+        File unchanged = new File(destination, "index.html");
+        Files.write("marker", unchanged, Charset.forName("UTF-8"));
+        File changed = new File(source, "sub/file.markdown");
+        Files.write("# Changed", changed, Charset.forName("UTF-8"));
+        File removed = new File(source, "syntax.md");
+        assertTrue(removed.delete());
+        app.process();
+        assertTrue(app.getFailures().isEmpty());
+        assertEquals(readCreatedFile(unchanged), "marker");
+        assertEquals(readCreatedFile(new File(destination, "sub/file.html")), "<html>\n<h1>Changed</h1>\n\n</html>\n");
+        assertTrue(!new File(destination, "syntax.html").exists(), "output of removed source not deleted");
+
+        // a different header invalidates every output
+        Files.append("<!-- changed -->\n", header, Charset.forName("UTF-8"));
+        app.process();
+        assertTrue(readCreatedFile(unchanged).contains("<!-- changed -->"));
+    }
+
+    @Test
+    public void testBuildCacheIsSharedByCheckouts() throws IOException {
+        String base = buildDestinationDir("testBuildCacheIsSharedByCheckouts");
+        deleteTree(new File(base));
+        String cache = base + "/cache";
+        String[] checkouts = { base + "/checkout1", base + "/checkout2" };
+        for (String checkout : checkouts) {
+            copyTree(new File(sourcePath), new File(checkout + "/source"), System.currentTimeMillis());
+        }
+        Files.write("# Branch", new File(checkouts[1] + "/source/sub/file.markdown"), Charset.forName("UTF-8"));
+        for (String checkout : checkouts) {
+            String[] args = { "--source", checkout + "/source", "--destination", checkout + "/destination", "--header", headerPath,
+                    "--cache-dir", cache, "--metrics", checkout + "/metrics.json" };
+            MarkdownApp.main(args);
+        }
+        String first = readCreatedFile(new File(checkouts[0] + "/metrics.json"));
+        assertTrue(first.contains("\"files\": 6,") && first.contains("\"cached\": 0,"), first);
+        // only the file changed in the second checkout is rendered
+        String second = readCreatedFile(new File(checkouts[1] + "/metrics.json"));
+        assertTrue(second.contains("\"files\": 1,") && second.contains("\"cached\": 5,"), second);
+        assertEquals(readCreatedFile(new File(checkouts[1] + "/destination/index.html")),
+                readCreatedFile(new File(checkouts[0] + "/destination/index.html")));
+        assertTrue(readCreatedFile(new File(checkouts[1] + "/destination/sub/file.html")).contains("<h1>Branch</h1>"));
+
+        // a page linked from the cache is replaced, not changed, when rendered again
+        Files.write("# Changed", new File(checkouts[1] + "/source/index.md"), Charset.forName("UTF-8"));
+        String[] args = { "--source", checkouts[1] + "/source", "--destination", checkouts[1] + "/destination", "--header", headerPath,
+                "--cache-dir", cache };
+        MarkdownApp.main(args);
+        assertTrue(readCreatedFile(new File(checkouts[1] + "/destination/index.html")).contains("<h1>Changed</h1>"));
+        assertTrue(!readCreatedFile(new File(checkouts[0] + "/destination/index.html")).contains("<h1>Changed</h1>"));
+    }
+
+    @Test
+    public void testDestinationArchive() throws IOException {
+        String destination = buildDestinationDir("testDestinationArchive");
+        String archive = destination + "/site.zip";
+        String[] args = { "--source", sourcePath, "--destination-archive", archive, "--header", headerPath, "--compression-level", "9",
+                "--threads", "4" };
+        MarkdownApp.main(args);
+        byte[] first = Files.toByteArray(new File(archive));
+        MarkdownApp.main(args);
+        assertTrue(java.util.Arrays.equals(Files.toByteArray(new File(archive)), first), "archive not reproducible");
+        ZipFile zip = new ZipFile(archive);
+        try {
+            List<String> names = new ArrayList<String>();
+            for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+                names.add(entries.nextElement().getName());
+            }
+            assertEquals(names.toString(), "[code/, code/java.html, entities.html, index.html, sub/, sub/file.html, sub/md-ext.html, syntax.html]");
+            assertEquals(new String(ByteStreams.toByteArray(zip.getInputStream(zip.getEntry("sub/file.html"))), "UTF-8"),
+                    "<html>\n<h1>This is an H1</h1>\n\n<p>file.markdown</p>\n");
+        } finally {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void testSourcePathWithRegularExpressionChars() throws IOException {
+        String base = buildDestinationDir("testSourcePathWithRegularExpressionChars");
+        deleteTree(new File(base));
+        File source = new File(base + "/site (1)+$1");
+        copyTree(new File(sourcePath), source, System.currentTimeMillis());
+        String destination = base + "/out $1";
+        MarkdownApp.main(new String[] { "--source", source.getPath(), "--destination", destination });
+        assertEquals(relativeFiles(new File(destination)).size(), 6);
+    }
+
+    @Test
+    public void testPrecompress() throws IOException {
+        String destination = buildDestinationDir("testPrecompress");
+        deleteTree(new File(destination));
+        String[] args = { "--source", sourcePath, "--destination", destination, "--header", headerPath, "--precompress", "gzip,deflate",
+                "--precompress-min-size", "100", "--compression-level", "9" };
+        MarkdownApp.main(args);
+        List<String> files = relativeFiles(new File(destination));
+        assertTrue(files.contains("syntax.html.gz") && files.contains("syntax.html.zz"), files.toString());
+        assertFalse(files.contains("sub/file.html.gz"), files.toString());
+        for (String file : files) {
+            if (file.endsWith(".gz")) {
+                File page = new File(destination, file.substring(0, file.length() - 3));
+                InputStream in = new GZIPInputStream(new FileInputStream(new File(destination, file)));
+                try {
+                    assertTrue(java.util.Arrays.equals(ByteStreams.toByteArray(in), Files.toByteArray(page)), file);
+                } finally {
+                    in.close();
+                }
+            }
+        }
+        // a sequential build compresses the streamed pages, the pipeline the written ones
+        String pipelined = buildDestinationDir("testPrecompress/pipelined");
+        args[3] = pipelined;
+        MarkdownApp.main(concat(args, "--pipeline", "1,2,1"));
+        assertEquals(Files.toByteArray(new File(pipelined, "syntax.html.gz")), Files.toByteArray(new File(destination, "syntax.html.gz")));
+    }
+
+    @Test
+    public void testSourceArchive() throws IOException {
+        String base = buildDestinationDir("testSourceArchive");
+        deleteTree(new File(base));
+        File jar = new File(base + "/docs.jar");
+        zipTree(new File(sourcePath), jar, "site/");
+        String fromDirectory = base + "/directory";
+        String fromArchive = base + "/archive";
+        String fromUrl = base + "/url";
+        MarkdownApp.main(new String[] { "--source", sourcePath, "--destination", fromDirectory, "--header", headerPath });
+        MarkdownApp.main(new String[] { "--source", jar.getPath(), "--destination", fromArchive, "--header", headerPath });
+        MarkdownApp app = new MarkdownApp();
+        app.setSource("jar:" + jar.toURI() + "!/site");
+        app.setDestination(fromUrl);
+        app.setHeader(headerPath);
+        app.setIncremental(true);
+        app.setThreads(4);
+        app.process();
+        assertTrue(app.getFailures().isEmpty(), app.getFailures().toString());
+        List<String> files = relativeFiles(new File(fromDirectory));
+        assertEquals(files.size(), 6);
+        assertEquals(relativeFiles(new File(fromArchive, "site")), files);
+        List<String> withManifest = new ArrayList<String>(files);
+        withManifest.add(BuildManifest.FILE_NAME);
+        Collections.sort(withManifest);
+        assertEquals(relativeFiles(new File(fromUrl)), withManifest);
+        for (String file : files) {
+            assertEquals(readCreatedFile(new File(fromUrl, file)), readCreatedFile(new File(fromDirectory, file)), file);
+            assertEquals(readCreatedFile(new File(fromArchive, "site/" + file)), readCreatedFile(new File(fromDirectory, file)), file);
+        }
+        app.setSource("jar:" + jar.toURI() + "!/missing");
+        app.process();
+        assertEquals(app.getFailures().keySet().toString(), "[jar:" + jar.toURI() + "!/missing]");
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        String base = buildDestinationDir("testWatch");
+        File source = new File(base + "/source");
+        final File destination = new File(base + "/destination");
+        deleteTree(new File(base));
+        copyTree(new File(sourcePath), source, System.currentTimeMillis() - 60000);
+        File header = new File(base + "/header.html");
+        Files.copy(new File(headerPath), header);
+        final MarkdownApp app = new MarkdownApp();
+        app.setSource(FileUtils.normalizedPath(source.getAbsolutePath()));
+        app.setDestination(FileUtils.normalizedPath(destination.getAbsolutePath()));
+        app.setHeader(FileUtils.normalizedPath(header.getAbsolutePath()));
+        app.process();
+        Thread watching = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    app.watch();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        watching.start();
+        try {
+            assertTrue(waitFor(new Condition() {
+                public boolean isMet() {
+                    return app.isWatching();
+                }
+            }), "watcher not started");
+
+            Files.write("# Changed", new File(source, "sub/file.markdown"), Charset.forName("UTF-8"));
+            assertTrue(waitFor(new Condition() {
+                public boolean isMet() {
+                    return readCreatedFile(new File(destination, "sub/file.html")).contains("<h1>Changed</h1>");
+                }
+            }), "changed file not processed");
+
+            assertTrue(new File(source, "syntax.md").delete());
+            assertTrue(waitFor(new Condition() {
+                public boolean isMet() {
+                    return !new File(destination, "syntax.html").exists();
+                }
+            }), "output of removed file not deleted");
+
+            new File(source, "added").mkdirs();
+            Files.write("# Added", new File(source, "added/new.md"), Charset.forName("UTF-8"));
+            assertTrue(waitFor(new Condition() {
+                public boolean isMet() {
+                    File added = new File(destination, "added/new.html");
+                    return added.isFile() && readCreatedFile(added).contains("<h1>Added</h1>");
+                }
+            }), "file in new directory not processed");
+
+            Files.append("<!-- changed -->\n", header, Charset.forName("UTF-8"));
+            assertTrue(waitFor(new Condition() {
+                public boolean isMet() {
+                    return readCreatedFile(new File(destination, "index.html")).contains("<!-- changed -->");
+                }
+            }), "header change not applied to every file");
+        } finally {
+            app.stopWatching();
+            watching.join(10000);
+        }
+        assertTrue(!app.isWatching());
+    }
+
+    @Test
+    public void testWatchKeepsHeadingIdsOfSearchIndex() throws Exception {
+        String base = buildDestinationDir("testWatchKeepsHeadingIdsOfSearchIndex");
+        File source = new File(base + "/source");
+        final File destination = new File(base + "/destination");
+        deleteTree(new File(base));
+        copyTree(new File(sourcePath), source, System.currentTimeMillis() - 60000);
+        final MarkdownApp app = new MarkdownApp();
+        app.setSource(FileUtils.normalizedPath(source.getAbsolutePath()));
+        app.setDestination(FileUtils.normalizedPath(destination.getAbsolutePath()));
+        app.setSearchIndex(true);
+        app.process();
+        Thread watching = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    app.watch();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        watching.start();
+        try {
+            assertTrue(waitFor(new Condition() {
+                public boolean isMet() {
+                    return app.isWatching();
+                }
+            }), "watcher not started");
+            Files.write("# This is an H1\n\nChanged\n", new File(source, "sub/file.markdown"), Charset.forName("UTF-8"));
+            // the anchor of the index is still in the page
+            assertTrue(waitFor(new Condition() {
+                public boolean isMet() {
+                    return readCreatedFile(new File(destination, "sub/file.html")).equals("<h1 id=\"this-is-an-h1\">This is an H1</h1>\n\n<p>Changed</p>\n");
+                }
+            }), "changed file not processed with heading ids");
+        } finally {
+            app.stopWatching();
+            watching.join(10000);
+        }
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    private boolean waitFor(Condition condition) throws InterruptedException {
+        long limit = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < limit) {
+            try {
+                if (condition.isMet()) {
+                    return true;
+                }
+            } catch (RuntimeException e) {
+                // the file is being written by the watcher
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    private void copyTree(File from, File to, long lastModified) throws IOException {
+        to.mkdirs();
+        for (File child : from.listFiles()) {
+            File target = new File(to, child.getName());
+            if (child.isDirectory()) {
+                copyTree(child, target, lastModified);
+            } else {
+                Files.copy(child, target);
+                target.setLastModified(lastModified);
+            }
+        }
+    }
+
+    private String[] concat(String[] args, String... more) {
+        String[] all = java.util.Arrays.copyOf(args, args.length + more.length);
+        System.arraycopy(more, 0, all, args.length, more.length);
+        return all;
+    }
+
+    private void zipTree(File from, File zip, String prefix) throws IOException {
+        zip.getParentFile().mkdirs();
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+        try {
+            for (String file : relativeFiles(from)) {
+                out.putNextEntry(new ZipEntry(prefix + file));
+                Files.copy(new File(from, file), out);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void deleteTree(File file) {
+        if (file.isDirectory()) {
+            for (File child : file.listFiles()) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Utility method to list the files in a directory tree, as sorted relative paths.
+     * 
+     * @param dir
+     * @return
+     */
+    private List<String> relativeFiles(File dir) {
+        List<String> files = new ArrayList<String>();
+        collectFiles(dir, "", files);
+        Collections.sort(files);
+        return files;
+    }
+
+    private void collectFiles(File dir, String prefix, List<String> files) {
+        for (File child : dir.listFiles()) {
+            if (child.isDirectory()) {
+                collectFiles(child, prefix + child.getName() + "/", files);
+            } else {
+                files.add(prefix + child.getName());
+            }
+        }
+    }
+
     /**
      * Utility method to resolve path to resources.
      * 
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.io.Files;
+
+/**
+ *
+ */
+public class BuildCacheTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private File base;
+
+    @BeforeMethod
+    public void createDirectory() {
+        base = Files.createTempDir();
+    }
+
+    @Test
+    public void testKeys() {
+        BuildCache cache = new BuildCache(new File(base, "cache"), BuildCache.DEFAULT_MAXIMUM_BYTES);
+        String key = cache.key("# Title", "index.md", "configuration");
+        assertEquals(key.length(), 64);
+        assertEquals(cache.key("# Title", "index.md", "configuration"), key);
+        assertFalse(cache.key("# Title!", "index.md", "configuration").equals(key));
+        assertFalse(cache.key("# Title", "other.md", "configuration").equals(key));
+        assertFalse(cache.key("# Title", "index.md", "other").equals(key));
+    }
+
+    @Test
+    public void testStoreAndRestore() throws IOException {
+        BuildCache cache = new BuildCache(new File(base, "cache"), BuildCache.DEFAULT_MAXIMUM_BYTES);
+        File page = new File(base, "first/index.html");
+        File restored = new File(base, "second/sub/index.html");
+        String key = cache.key("# Title", "index.md", "configuration");
+        assertFalse(cache.restore(key, restored));
+        page.getParentFile().mkdirs();
+        Files.write("<h1>Title</h1>", page, UTF_8);
+        cache.store(key, page);
+        Files.write("old", restored, UTF_8);
+        assertTrue(cache.restore(key, restored));
+        assertEquals(Files.toString(restored, UTF_8), "<h1>Title</h1>");
+        assertEquals(cache.getHits(), 1);
+        assertEquals(cache.getMisses(), 1);
+        // a changed source page doesn't change the cached one
+        page.delete();
+        Files.write("changed", page, UTF_8);
+        cache.store(key, page);
+        assertTrue(cache.restore(key, new File(base, "third/index.html")));
+        assertEquals(Files.toString(new File(base, "third/index.html"), UTF_8), "<h1>Title</h1>");
+    }
+
+    @Test
+    public void testEvictionRemovesLeastRecentlyUsedPages() throws IOException {
+        BuildCache cache = new BuildCache(new File(base, "cache"), 25);
+        File page = new File(base, "page.html");
+        String[] keys = new String[3];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < keys.length; i++) {
+            Files.write("0123456789", page, UTF_8);
+            keys[i] = cache.key("page " + i, "page.md", "configuration");
+            cache.store(keys[i], page);
+        }
+        // the first page is the most recently used, the second the least
+        File pages = new File(base, "cache/pages");
+        new File(new File(pages, keys[0].substring(0, 2)), keys[0]).setLastModified(now);
+        new File(new File(pages, keys[1].substring(0, 2)), keys[1]).setLastModified(now - 20000);
+        new File(new File(pages, keys[2].substring(0, 2)), keys[2]).setLastModified(now - 10000);
+        assertEquals(cache.evict(), 1);
+        assertTrue(cache.restore(keys[0], new File(base, "restored0.html")));
+        assertFalse(cache.restore(keys[1], new File(base, "restored1.html")));
+        assertTrue(cache.restore(keys[2], new File(base, "restored2.html")));
+        assertEquals(cache.evict(), 0);
+    }
+}
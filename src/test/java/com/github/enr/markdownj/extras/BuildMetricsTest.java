@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class BuildMetricsTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        long previous = -1;
+        for (int index = 0; index < 960; index++) {
+            long highest = BuildMetrics.Histogram.highestValue(index);
+            assertEquals(BuildMetrics.Histogram.index(previous + 1), index);
+            assertEquals(BuildMetrics.Histogram.index(highest), index);
+            previous = highest;
+        }
+        assertEquals(previous, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testPercentiles() {
+        BuildMetrics.Histogram histogram = new BuildMetrics.Histogram();
+        assertEquals(histogram.percentile(50), 0);
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertWithin(histogram.percentile(50), 500000);
+        assertWithin(histogram.percentile(95), 950000);
+        assertWithin(histogram.percentile(99), 990000);
+        assertEquals(histogram.percentile(100), 1000000);
+    }
+
+    @Test
+    public void testReport() {
+        BuildMetrics metrics = new BuildMetrics();
+        for (int i = 0; i < BuildMetrics.SLOWEST + 5; i++) {
+            metrics.add(new BuildMetrics.Document("doc" + (char) ('a' + i) + ".md", 100, 200, 1000, i * 1000000L, 1000));
+        }
+        metrics.add(new BuildMetrics.Document("quote\"d.md", 1, 2, 3000, 4000, 5000));
+        metrics.addUnchanged();
+        metrics.stop();
+        List<BuildMetrics.Document> slowest = metrics.getSlowest();
+        assertEquals(slowest.size(), BuildMetrics.SLOWEST);
+        assertEquals(slowest.get(0).getPath(), "doco.md");
+        String json = metrics.toJson();
+        assertTrue(json.contains("\"files\": 16,"), json);
+        assertTrue(json.contains("\"unchanged\": 1,"), json);
+        assertTrue(json.contains("\"inputBytes\": 1501,"), json);
+        assertTrue(json.contains("{ \"path\": \"quote\\\"d.md\", \"inputBytes\": 1, \"outputBytes\": 2, \"readMicros\": 3, "
+                + "\"renderMicros\": 4, \"writeMicros\": 5, \"totalMicros\": 12 }"), json);
+    }
+
+    private void assertWithin(long actual, long expected) {
+        assertTrue(Math.abs(actual - expected) <= expected / 16, actual + " not within 1/16 of " + expected);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class CachingMarkdownServiceTest {
+
+    CachingMarkdownService service;
+
+    MarkdownService plain;
+
+    @BeforeMethod
+    public void initData() {
+        service = new CachingMarkdownService(new MarkdownServiceImpl(), 1024 * 1024);
+        service.setHeader("<html>\r\n");
+        service.setFooter("</html>\n");
+        plain = new MarkdownServiceImpl();
+        plain.setHeader("<html>\r\n");
+        plain.setFooter("</html>\n");
+    }
+
+    @Test
+    public void testSameOutputAsDelegate() throws IOException {
+        String markdown = "# Title\n\nI'am an ò & <>\n\n\tlang:java\n\tpackage my;\n";
+        assertEquals(service.render(markdown), plain.render(markdown));
+        service.setContent(markdown);
+        plain.setContent(markdown);
+        assertEquals(service.process(), plain.process());
+        service.setEncoding("UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.render(markdown, out);
+        assertEquals(new String(out.toByteArray(), "UTF-8"), plain.render(markdown));
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        service.render("# One");
+        service.render("# One");
+        service.render(new StringBuilder("# One"));
+        service.render("# Two");
+        assertEquals(service.getStats().missCount(), 2);
+        assertEquals(service.getStats().hitCount(), 2);
+        assertEquals(service.size(), 2);
+    }
+
+    @Test
+    public void testCodeBlockTemplateIsPartOfTheKey() {
+        String markdown = "\tlang:java\n\tpackage my;\n";
+        String defaultTemplate = service.render(markdown);
+        service.setCodeBlockTemplate("<pre lang=\"%s\">%s</pre>");
+        assertEquals(service.render(markdown), "<html>\n<pre lang=\"java\">package my;</pre>\n</html>\n");
+        service.setCodeBlockTemplate(null);
+        assertEquals(service.render(markdown), defaultTemplate);
+        assertEquals(service.getStats().missCount(), 2);
+    }
+
+    @Test
+    public void testHeaderChangeEmptiesTheCache() {
+        service.render("# One");
+        service.setHeader("<body>\n");
+        assertEquals(service.size(), 0);
+        assertEquals(service.render("# One"), "<body>\n<h1>One</h1>\n</html>\n");
+    }
+
+    @Test
+    public void testEscapedPagesAreNotCached() {
+        service.setWatchdog(new RenderWatchdog(16, 0, RenderWatchdog.Action.ESCAPE));
+        assertTrue(service.render("*seventeen chars*").contains("<pre>*seventeen chars*</pre>\n"));
+        assertTrue(service.render("*seventeen chars*").contains("<pre>*seventeen chars*</pre>\n"));
+        assertEquals(service.size(), 0);
+        service.render("*a*");
+        assertEquals(service.size(), 1);
+    }
+
+    @Test
+    public void testEvictionBySize() {
+        CachingMarkdownService small = new CachingMarkdownService(new MarkdownServiceImpl(), 16 * 1024);
+        StringBuilder paragraph = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            paragraph.append("word ");
+        }
+        for (int i = 0; i < 200; i++) {
+            small.render(String.format("# Page %d\n\n%s\n", i, paragraph));
+        }
+        assertTrue(small.getStats().evictionCount() > 0);
+        assertTrue(small.size() < 200);
+        assertTrue(small.size() * (2 * paragraph.length()) <= 16 * 1024, String.format("%d pages cached", small.size()));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Chunked rendering must produce the same html as a single processor.
+ */
+public class ChunkedRendererTest {
+
+    /**
+     * Blocks used to build random documents, covering MarkdownJ quirks joining blocks.
+     */
+    private static final String[] BLOCKS = { "A paragraph with *em*, **strong** and `code`.", "Two lines\nof a paragraph  \nwith a break.",
+            "# Header", "## Header ##", "##", "Setext\n======", "Setext 2\n--------", "---", "* * *", "* one\n* two\n    * nested",
+            "1. first\n\n2. second\n\n    continued", "- item\nlazy line", "> quoted\n> > twice\nlazy", "    plain code\n    <b>&amp;</b>",
+            "    lang:java\n    class A {}", "\tlang:xml\n\t<a/>", "<div class=\"note\">\n\n*not* markdown\n\n</div>", "<p>raw paragraph</p>",
+            "<h2>raw header</h2>", "<div>\n<div>\nnested\n</div>\n</div>", "<!-- a comment\n\nspanning blank lines -->", "<hr />",
+            "<ins>\ninserted\n</ins>", "</div>", "</h1>", "A [reference][ref], [other] [] and [Other].", "[ref]: http://example.tld/ref \"Ref\"",
+            "[other]: <http://example.tld/other>\n  (Other)", "An inline [link](http://example.tld \"title\") and ![image](i.png).",
+            "Escapes: \\* \\_ \\` \\\\ & < > AT&T &copy;", "___", "=== not a header", "+ plus item", "3 is a number", "  indented paragraph",
+            "Ünicode ò € ☃" };
+
+    private List<String> documents;
+
+    @BeforeClass
+    public void initData() {
+        documents = new ArrayList<String>();
+        StringBuilder all = new StringBuilder();
+        for (String path : new String[] { "/site/markdown/index.md", "/site/markdown/entities.md", "/site/markdown/syntax.md",
+                "/site/markdown/code/java.md", "/site/markdown/sub/file.markdown", "/site/markdown/sub/md-ext.md" }) {
+            String document = FileUtils.readFileFromUrl(this.getClass().getResource(path), "UTF-8");
+            documents.add(document);
+            all.append(document).append("\r\n\r\n");
+        }
+        documents.add(all.toString());
+        documents.add("    plain\n\npara *x*\n\n    lang:java\n    code\n");
+        documents.add("##\n\nText\n\nMore\n");
+        documents.add("# T\n\npara\n\n</h1>\n\nafter\n");
+        documents.add("<h2 class=\"unclosed\">\n\nText\n\n## Header\n");
+        documents.add("para\n\n---\n\nnext\n\n====\n");
+    }
+
+    @Test
+    public void testCorpusIsRenderedAsBySingleProcessor() {
+        for (String document : documents) {
+            assertChunkedEqualsSingle(document);
+        }
+    }
+
+    @Test
+    public void testRandomDocumentsAreRenderedAsBySingleProcessor() {
+        Random random = new Random(42);
+        for (int i = 0; i < 300; i++) {
+            StringBuilder document = new StringBuilder();
+            int blocks = 2 + random.nextInt(20);
+            for (int b = 0; b < blocks; b++) {
+                document.append(BLOCKS[random.nextInt(BLOCKS.length)]).append(random.nextInt(4) == 0 ? "\n" : "\n\n");
+            }
+            assertChunkedEqualsSingle(document.toString());
+        }
+    }
+
+    @Test
+    public void testDocumentIsSplit() {
+        StringBuilder document = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            document.append(documents.get(0)).append("\r\n\r\n").append(documents.get(1)).append("\r\n\r\n");
+        }
+        String corpus = ChunkedRenderer.normalize(document.toString());
+        assertTrue(ChunkedRenderer.split(corpus, 1).size() > 10);
+        assertEquals(ChunkedRenderer.split(corpus, corpus.length()).size(), 1);
+        int chunkSize = 512;
+        List<String> chunks = ChunkedRenderer.split(corpus, chunkSize).texts(corpus);
+        assertTrue(chunks.size() > 1);
+        for (String chunk : chunks.subList(0, chunks.size() - 1)) {
+            assertTrue(chunk.length() >= chunkSize);
+        }
+    }
+
+    @Test
+    public void testServiceWithChunks() {
+        MarkdownServiceImpl chunked = new MarkdownServiceImpl();
+        chunked.setChunkSize(64);
+        chunked.setHeader("<html>\n");
+        MarkdownServiceImpl single = new MarkdownServiceImpl();
+        single.setHeader("<html>\n");
+        for (String document : documents) {
+            assertEquals(chunked.render(document), single.render(document));
+        }
+        chunked.setCodeBlockTemplate("<pre lang=\"%s\">%s</pre>");
+        single.setCodeBlockTemplate("<pre lang=\"%s\">%s</pre>");
+        assertEquals(chunked.render(documents.get(6)), single.render(documents.get(6)));
+    }
+
+    private void assertChunkedEqualsSingle(String document) {
+        assertEquals(ChunkedRenderer.markdown(document, 1, null), MarkdownProcessors.markdown(document, null), document);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class CodeHighlighterTest {
+
+    private final CodeHighlighter highlighter = CodeHighlighter.standard();
+
+    @Test
+    public void testLexers() {
+        assertEquals(highlighter.highlight("java", "@Override public int x2 = 0x1F; // a < b\nString s = \"a\\\"b\";"),
+                "<span class=\"nd\">@Override</span> <span class=\"k\">public</span> <span class=\"kt\">int</span> x2 = "
+                        + "<span class=\"m\">0x1F</span>; <span class=\"c\">// a &lt; b</span>\n"
+                        + "String s = <span class=\"s\">\"a\\\"b\"</span>;");
+        assertEquals(highlighter.highlight("XML", "<!-- c --><a href=\"x\">&amp; t</a>"),
+                "<span class=\"c\">&lt;!-- c --&gt;</span><span class=\"nt\">&lt;a</span> <span class=\"na\">href</span>="
+                        + "<span class=\"s\">\"x\"</span><span class=\"nt\">&gt;</span><span class=\"ni\">&amp;amp;</span> t"
+                        + "<span class=\"nt\">&lt;/a</span><span class=\"nt\">&gt;</span>");
+        assertEquals(highlighter.highlight("sh", "if [ -n \"$A\" ]; then echo $HOME # done\nfi"),
+                "<span class=\"k\">if</span> [ -n <span class=\"s\">\"$A\"</span> ]; <span class=\"k\">then</span> "
+                        + "<span class=\"nb\">echo</span> <span class=\"nv\">$HOME</span> <span class=\"c\"># done</span>\n"
+                        + "<span class=\"k\">fi</span>");
+        assertEquals(highlighter.highlight("json", "{\"a\": [1.5, -2, true, \"s\"]}"),
+                "{<span class=\"nt\">\"a\"</span>: [<span class=\"m\">1.5</span>, <span class=\"m\">-2</span>, "
+                        + "<span class=\"kc\">true</span>, <span class=\"s\">\"s\"</span>]}");
+        assertNull(highlighter.highlight("cobol", "DISPLAY 'X'."));
+    }
+
+    @Test
+    public void testServiceHighlightsLanguageBlocks() {
+        MarkdownServiceImpl service = new MarkdownServiceImpl();
+        String markdown = "Text\n\n    lang:java\n    int a = 1; // <b>\n\nMore\n\n    lang:cobol\n    A & B\n";
+        String plain = service.render(markdown);
+        service.setCodeHighlighter(highlighter);
+        assertEquals(service.render(markdown), plain.replace("int a = 1; // &lt;b&gt;",
+                "<span class=\"kt\">int</span> a = <span class=\"m\">1</span>; <span class=\"c\">// &lt;b&gt;</span>"));
+        service.setCodeBlockTemplate("<div class=\"%1$s\">100%%<pre>%2$s</pre></div>");
+        assertEquals(service.render("    lang:json\n    {\"a\": null}\n"),
+                "<div class=\"json\">100%<pre>{<span class=\"nt\">\"a\"</span>: <span class=\"kc\">null</span>}</pre></div>\n");
+        service.setCodeHighlighter(null);
+        assertEquals(service.render("    lang:json\n    {\"a\": null}\n"), "<div class=\"json\">100%<pre>{\"a\": null}</pre></div>\n");
+    }
+
+    @Test
+    public void testChunkedRenderingHighlightsTheSameBlocks() {
+        StringBuilder markdown = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            markdown.append("Paragraph ").append(i).append("\n\n    lang:xml\n    <a n=\"").append(i).append("\"/>\n\n");
+        }
+        MarkdownServiceImpl service = new MarkdownServiceImpl();
+        service.setCodeHighlighter(highlighter);
+        String expected = service.render(markdown);
+        service.setChunkSize(512);
+        assertEquals(service.render(markdown), expected);
+    }
+
+    @Test
+    public void testHighlightedCodeIsCached() {
+        CodeHighlighter cached = new CodeHighlighter(CodeHighlighter.standardLexers(), CodeHighlighter.DEFAULT_CACHE_BYTES);
+        String html = cached.highlight("Java", "return null;");
+        assertEquals(cached.highlight("java", "return null;"), html);
+        assertEquals(cached.stats().hitCount(), 1);
+        cached.highlight("json", "null");
+        assertEquals(cached.stats().missCount(), 2);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.io.Files;
+
+/**
+ *
+ */
+public class FileUtilsTest {
+
+    File directory;
+
+    String text = "# Title\r\n\r\nI'am an ò & <> €\n";
+
+    @BeforeMethod
+    public void initData() {
+        directory = Files.createTempDir();
+    }
+
+    @AfterMethod
+    public void deleteData() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (String encoding : new String[] { "UTF-8", "ISO-8859-15", "UTF-16", "UTF-16LE", "windows-1252" }) {
+            String path = new File(directory, encoding + ".md").getPath();
+            FileUtils.writeFile(path, text, encoding);
+            assertEquals(Files.toString(new File(path), Charset.forName(encoding)), text, encoding);
+            assertEquals(FileUtils.readFileFromPath(path, encoding), text, encoding);
+        }
+    }
+
+    @Test
+    public void testLargeFile() throws IOException {
+        StringBuilder big = new StringBuilder();
+        while (big.length() <= NioFiles.LARGE_FILE_THRESHOLD) {
+            big.append(text);
+        }
+        String path = new File(directory, "big.md").getPath();
+        FileUtils.writeFile(path, big.toString(), "UTF-8");
+        assertEquals(new File(path).length(), big.toString().getBytes("UTF-8").length);
+        assertEquals(FileUtils.readFileFromPath(path, "UTF-8"), big.toString());
+        FileUtils.writeFile(path, big.toString(), "UTF-16LE");
+        assertEquals(FileUtils.readFileFromPath(path, "UTF-16LE"), big.toString());
+        // the thread buffer is used again for a small file after a big one
+        FileUtils.writeFile(path, text, "UTF-8");
+        assertEquals(FileUtils.readFileFromPath(path, "UTF-8"), text);
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        String path = new File(directory, "empty.md").getPath();
+        FileUtils.writeFile(path, "", "UTF-8");
+        assertEquals(FileUtils.readFileFromPath(path, "UTF-8"), "");
+    }
+
+    @Test
+    public void testByteOrderMarkIsStripped() throws IOException {
+        assertByteOrderMark(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF }, "UTF-8");
+        assertByteOrderMark(new byte[] { (byte) 0xFE, (byte) 0xFF }, "UTF-16BE");
+        assertByteOrderMark(new byte[] { (byte) 0xFF, (byte) 0xFE }, "UTF-16LE");
+    }
+
+    @Test
+    public void testDeclaredEncodingWinsOverByteOrderMark() throws IOException {
+        File file = new File(directory, "declared.md");
+        // a latin-1 file starting with the chars of a UTF-16LE byte order mark
+        String latin = "\u00FF\u00FEab";
+        Files.write(latin.getBytes("ISO-8859-1"), file);
+        assertEquals(FileUtils.readFileFromPath(file.getPath(), "ISO-8859-1"), latin);
+        assertEquals(FileUtils.readFileFromPath(file.getPath(), null), new String(new byte[] { 'a', 'b' }, "UTF-16LE"));
+    }
+
+    @Test
+    public void testMalformedInputIsReplaced() throws IOException {
+        File file = new File(directory, "malformed.md");
+        byte[] bytes = new byte[] { 'a', (byte) 0xC3, 'b' };
+        Files.write(bytes, file);
+        assertEquals(FileUtils.readFileFromPath(file.getPath(), "UTF-8"), new String(bytes, "UTF-8"));
+    }
+
+    @Test
+    public void testReadFromJarUrl() throws IOException {
+        File jar = new File(directory, "docs.jar");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            out.putNextEntry(new ZipEntry("docs/a file.md"));
+            out.write(text.getBytes("UTF-16"));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        URL url = new URL("jar:" + jar.toURI() + "!/docs/a%20file.md");
+        assertEquals(FileUtils.readFileFromUrl(url, "UTF-16"), text);
+        assertEquals(FileUtils.readFileFromPath(url.toString(), "UTF-16"), text);
+    }
+
+    private void assertByteOrderMark(byte[] mark, String encoding) throws IOException {
+        File file = new File(directory, encoding + "-bom.md");
+        byte[] content = text.getBytes(encoding);
+        byte[] bytes = new byte[mark.length + content.length];
+        System.arraycopy(mark, 0, bytes, 0, mark.length);
+        System.arraycopy(content, 0, bytes, mark.length, content.length);
+        Files.write(bytes, file);
+        assertEquals(FileUtils.readFileFromPath(file.getPath(), encoding), text, encoding);
+        assertEquals(FileUtils.readFileFromUrl(file.toURI().toURL(), null), text, encoding);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+/**
+ * Links between pages checked against the anchors collected while rendering.
+ */
+public class LinkCheckerTest {
+
+    @Test
+    public void testBrokenLinks() {
+        LinkChecker checker = new LinkChecker();
+        add(checker, "index.md", "# Docs\n\n[setup](guide/setup.md#options)\n\n[missing](guide/missing.md) [nothing](guide/setup.md#nothing)\n");
+        add(checker, "guide/setup.md", "# Setup\n\n## Options\n\n[index](../index.html#docs) [up](../../index.md) [self](#setup)\n\n"
+                + "[again][a] [http](http://example.com/#x)\n\n[a]: ../index.md#nowhere\n");
+        assertEquals(checker.size(), 7);
+        List<LinkChecker.BrokenLinkException> broken = checker.check(1);
+        assertEquals(broken.size(), 4, broken.toString());
+        assertEquals(broken.get(0).getLocation(), "guide/setup.md:5");
+        assertEquals(broken.get(0).getMessage(), "broken link '../../index.md': outside the site");
+        assertEquals(broken.get(1).getLocation(), "guide/setup.md:9");
+        assertEquals(broken.get(1).getMessage(), "broken link '../index.md#nowhere': no anchor 'nowhere' in index.html");
+        assertEquals(broken.get(2).getLocation(), "index.md:5");
+        assertEquals(broken.get(2).getMessage(), "broken link 'guide/missing.md': no source guide/missing.md");
+        assertEquals(broken.get(3).getHref(), "guide/setup.md#nothing");
+    }
+
+    @Test
+    public void testParallelCheck() {
+        LinkChecker checker = new LinkChecker();
+        StringBuilder markdown = new StringBuilder("# Many\n\n");
+        for (int i = 0; i < 5000; i++) {
+            markdown.append("[link ").append(i).append("](#").append((i % 1000 == 0) ? "missing" : "many").append(")\n");
+        }
+        add(checker, "many.md", markdown.toString());
+        List<LinkChecker.BrokenLinkException> broken = checker.check(4);
+        assertEquals(broken.size(), 5);
+        // repeated links are found on their own line
+        assertEquals(broken.get(1).getLine(), 1003);
+        assertEquals(broken.get(4).getLine(), 4003);
+    }
+
+    @Test
+    public void testLinkLines() {
+        LinkChecker checker = new LinkChecker();
+        add(checker, "page.md", "# Page\n\nThe `other.md#x` page, or [here](<other.md#x>).\n\nMentions `#nowhere`, then [a link][nowhere].\n\n"
+                + "<a href=\"#nowhere\">raw</a>\n\n[nowhere]: #nowhere\n");
+        List<LinkChecker.BrokenLinkException> broken = checker.check(1);
+        assertEquals(broken.size(), 3, broken.toString());
+        // the link by reference is on the line of its definition
+        assertEquals(broken.get(0).getLocation() + " " + broken.get(0).getHref(), "page.md:3 other.md#x");
+        assertEquals(broken.get(1).getLocation() + " " + broken.get(1).getHref(), "page.md:7 #nowhere");
+        assertEquals(broken.get(2).getLocation() + " " + broken.get(2).getHref(), "page.md:9 #nowhere");
+        assertEquals(LinkChecker.target("see x.md, [x](x.md)", "x.md", 0), 14);
+        assertEquals(LinkChecker.target("[x]:  <x.md>", "x.md", 0), 7);
+        assertEquals(LinkChecker.target("see x.md", "x.md", 0), -1);
+    }
+
+    @Test
+    public void testResolve() {
+        assertEquals(LinkChecker.resolve("a/b/page.html", "../c/./x.md"), "a/c/x.md");
+        assertEquals(LinkChecker.resolve("page.html", "sub//x.html"), "sub/x.html");
+        assertNull(LinkChecker.resolve("a/page.html", "../../x.md"));
+    }
+
+    @Test
+    public void testCheckedLinks() {
+        assertTrue(LinkChecker.isChecked("other.md"));
+        assertTrue(LinkChecker.isChecked("#anchor"));
+        assertTrue(LinkChecker.isChecked("sub/a.html?x=y:z"));
+        assertFalse(LinkChecker.isChecked("mailto:me@example.com"));
+        assertFalse(LinkChecker.isChecked("/absolute.html"));
+        assertFalse(LinkChecker.isChecked("//example.com/a.html"));
+    }
+
+    private static void add(LinkChecker checker, String path, String markdown) {
+        checker.add(path, markdown, PageOutline.scan(MarkdownEngines.LINEAR.markdown(markdown, null), false));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * The linear engine must produce the same html as MarkdownJ.
+ */
+public class MarkdownEnginesTest {
+
+    /**
+     * Blocks used to build random documents, covering MarkdownJ quirks and inputs making its expressions backtrack.
+     */
+    private static final String[] BLOCKS = { "A paragraph with *em*, **strong**, __strong__ and `code`.", "Two lines\nof a paragraph  \nwith a break.",
+            "# Header", "## Header ##", "##", "### Header\n###", "Setext\n======", "Setext 2\n--------", "---", "* * *", "* one\n* two\n    * nested",
+            "1. first\n\n2. second\n\n    continued", "- item\nlazy line", "> quoted\n> > twice\nlazy", "> * item in quote", "    plain code\n    <b>&amp;</b>",
+            "    lang:java\n    class A {}", "\tlang:xml\n\t<a/>", "<div class=\"note\">\n\n*not* markdown\n\n</div>", "<p>raw paragraph</p>",
+            "<h2>raw header</h2>", "<div>\n<div>\nnested\n</div>\n</div>", "<!-- a comment\n\nspanning blank lines -->", "<!-- unclosed", "<hr />",
+            "<ins>\ninserted\n</ins>", "</div>", "</h1>", "A [reference][ref], [other] [] and [Other].", "[ref]: http://example.tld/ref \"Ref\"",
+            "[other]: <http://example.tld/other>\n  (Other)", "An inline [link](http://example.tld \"title\") and ![image](i.png \"t\").",
+            "Auto <http://example.tld/a?b=c&d>.", "Escapes: \\* \\_ \\` \\\\ & < > AT&T &copy; &#169;",
+            "Tags <span title=\"*x*\">s</span> and <a href=\"u_v_w\">a</a>", "``double `tick` code``", "`unclosed", "**unclosed *strong", "___",
+            "=== not a header", "+ plus item", "3 is a number", "  indented paragraph", "Ünicode ò € ☃" };
+
+    /**
+     * MarkdownJ leaks its hash keys in the html when a block spans html it already hashed.
+     */
+    private static final Pattern HASH_KEY = Pattern.compile("(?<![0-9A-Za-z])[0-9A-Za-z]{20}(?![0-9A-Za-z])");
+
+    private List<String> documents;
+
+    @BeforeClass
+    public void initData() {
+        documents = new ArrayList<String>();
+        StringBuilder all = new StringBuilder();
+        for (String path : new String[] { "/site/markdown/index.md", "/site/markdown/entities.md", "/site/markdown/syntax.md",
+                "/site/markdown/code/java.md", "/site/markdown/sub/file.markdown", "/site/markdown/sub/md-ext.md" }) {
+            String document = FileUtils.readFileFromUrl(this.getClass().getResource(path), "UTF-8");
+            documents.add(document);
+            all.append(document).append("\r\n\r\n");
+        }
+        documents.add(all.toString());
+        documents.add("    __a__b__\n## Two ##\n\n    lang:java\n");
+        documents.add("# Atx *em*\n\n## \n\tTabbed code\n");
+        documents.add("> <ins>ins</ins>\n[Other]: <http://o.tld>\n<div>inline</div>\n");
+        documents.add("Sub\n----\n# A\n\n\n#\n\n<!-- x -->\n\n---\n");
+    }
+
+    @Test
+    public void testCorpusIsRenderedAsByMarkdownJ() {
+        for (String document : documents) {
+            assertLinearEqualsMarkdownJ(document, null);
+            assertLinearEqualsMarkdownJ(document, "<pre lang=\"%s\">%s</pre>");
+        }
+    }
+
+    @Test
+    public void testRandomDocumentsAreRenderedAsByMarkdownJ() {
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            StringBuilder document = new StringBuilder();
+            int blocks = 2 + random.nextInt(20);
+            for (int b = 0; b < blocks; b++) {
+                document.append(BLOCKS[random.nextInt(BLOCKS.length)]).append(random.nextInt(4) == 0 ? "\n" : "\n\n");
+            }
+            String expected = MarkdownProcessors.markdown(document.toString(), null);
+            if (!HASH_KEY.matcher(expected).find()) {
+                assertEquals(MarkdownEngines.LINEAR.markdown(document.toString(), null), expected, document.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testPathologicalInputsAreRenderedInLinearTime() {
+        String[] units = { "<!-- x\n\n", "*a ", "`", "[a](", "<div>\n\n", "<a ", "_" };
+        for (String unit : units) {
+            StringBuilder document = new StringBuilder();
+            while (document.length() < 200000) {
+                document.append(unit);
+            }
+            long start = System.nanoTime();
+            MarkdownEngines.LINEAR.markdown(document.toString(), null);
+            long millis = (System.nanoTime() - start) / 1000000;
+            // MarkdownJ takes minutes on a tenth of these inputs
+            assertTrue(millis < 20000, unit + " took " + millis + " ms");
+        }
+    }
+
+    @Test
+    public void testForName() {
+        assertSame(MarkdownEngines.forName("markdownj"), MarkdownEngines.MARKDOWNJ);
+        assertSame(MarkdownEngines.forName(" Linear "), MarkdownEngines.LINEAR);
+        assertEquals(MarkdownEngines.LINEAR.getName(), "linear");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownEngine() {
+        MarkdownEngines.forName("commonmark");
+    }
+
+    @Test
+    public void testServiceWithLinearEngine() {
+        MarkdownServiceImpl linear = new MarkdownServiceImpl();
+        linear.setEngine(MarkdownEngines.LINEAR);
+        linear.setHeader("<html>\n");
+        MarkdownServiceImpl markdownj = new MarkdownServiceImpl();
+        markdownj.setHeader("<html>\n");
+        for (String document : documents) {
+            assertEquals(linear.render(document), markdownj.render(document));
+        }
+    }
+
+    private void assertLinearEqualsMarkdownJ(String document, String codeBlockTemplate) {
+        assertEquals(MarkdownEngines.LINEAR.markdown(document, codeBlockTemplate), MarkdownProcessors.markdown(document, codeBlockTemplate), document);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.petebevin.markdown.MarkdownProcessor;
+
+/**
+ * Stress tests for the stateless render methods of MarkdownServiceImpl:
+ * a single service shared by many threads must produce the same output as a new processor per document.
+ */
+public class MarkdownServiceConcurrencyTest {
+
+    private static final int THREADS = 8;
+
+    private static final int ROUNDS = 50;
+
+    private static final String CODE_BLOCK_TEMPLATE = "<pre lang=\"%s\">%s</pre>";
+
+    private String header;
+
+    private String footer;
+
+    private List<String> documents;
+
+    @BeforeClass
+    public void initData() {
+        header = FileUtils.readFileFromUrl(resource("/site/templates/header-win.html"), "UTF-8");
+        footer = FileUtils.readFileFromUrl(resource("/site/templates/footer.html"), "UTF-8");
+        documents = new ArrayList<String>();
+        for (String path : new String[] { "/site/markdown/index.md", "/site/markdown/entities.md", "/site/markdown/syntax.md",
+                "/site/markdown/code/java.md", "/site/markdown/sub/file.markdown", "/site/markdown/sub/md-ext.md" }) {
+            documents.add(FileUtils.readFileFromUrl(resource(path), "UTF-8"));
+        }
+        documents.add("A [reference][ref] and [another one] [other].\n\n[ref]: http://example.tld/ref \"Ref\"\n[other]: http://example.tld/other\n");
+        documents.add("* one\n* two\n    * nested *em* and **strong**\n\n1. first\n2. second\n");
+        documents.add("<div class=\"note\">\n<p>raw html block</p>\n</div>\n\nEscapes: \\* \\_ \\` \\\\ & < > `code <b>`\n");
+        documents.add("> quoted\n> > twice\n\n---\n\n\tlang:xml\n\t<a href=\"x\">&amp;</a>\n\nAn autolink: <http://example.tld>\n");
+    }
+
+    @Test
+    public void testRenderIsEqualToProcess() {
+        MarkdownService service = configuredService();
+        for (String document : documents) {
+            service.setContent(document);
+            assertEquals(service.render(document), service.process());
+            assertEquals(service.render(document), legacyProcess(document));
+        }
+    }
+
+    @Test
+    public void testLinkDefinitionsDoNotLeakBetweenDocuments() {
+        MarkdownService service = new MarkdownServiceImpl();
+        String first = service.render("[defined]: http://example.tld/defined\n");
+        String second = service.render("A [link][defined].\n");
+        assertFalse(first.contains("example.tld"), first);
+        assertFalse(second.contains("example.tld"), String.format("link definition reused from previous document: %s", second));
+        assertEquals(second, new MarkdownProcessor().markdown("A [link][defined].\n"));
+    }
+
+    @Test
+    public void testConcurrentRenderMatchesSequentialOutput() throws Exception {
+        final MarkdownService service = configuredService();
+        final List<String> expected = new ArrayList<String>();
+        for (String document : documents) {
+            expected.add(legacyProcess(document));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < THREADS; t++) {
+                final long seed = t;
+                results.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        return renderShuffled(service, expected, new Random(seed));
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(result.get().intValue(), ROUNDS * documents.size() * 2);
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        }
+    }
+
+    private int renderShuffled(MarkdownService service, List<String> expected, Random random) throws Exception {
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < documents.size(); i++) {
+            order.add(i);
+        }
+        int checked = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            Collections.shuffle(order, random);
+            for (int i : order) {
+                assertEquals(service.render(documents.get(i)), expected.get(i));
+                StringWriter writer = new StringWriter();
+                service.render(documents.get(i), writer);
+                assertEquals(writer.toString(), expected.get(i));
+                checked += 2;
+            }
+        }
+        return checked;
+    }
+
+    private MarkdownService configuredService() {
+        MarkdownService service = new MarkdownServiceImpl();
+        service.setHeader(header);
+        service.setFooter(footer);
+        service.setCodeBlockTemplate(CODE_BLOCK_TEMPLATE);
+        return service;
+    }
+
+    /**
+     * The transformation as done by process() before the render methods: a new processor for every document.
+     */
+    private String legacyProcess(String content) {
+        MarkdownProcessor processor = new MarkdownProcessor();
+        processor.setCodeBlockTemplate(CODE_BLOCK_TEMPLATE);
+        String hs = header.replaceAll("\\r\\n", "\n").replaceAll("\\r", "\n");
+        String fs = footer.replaceAll("\\r\\n", "\n").replaceAll("\\r", "\n");
+        return String.format("%s%s%s", hs, processor.markdown(content), fs);
+    }
+
+    private URL resource(String path) {
+        return this.getClass().getResource(path);
+    }
+}
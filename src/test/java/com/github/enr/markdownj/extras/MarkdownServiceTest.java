@@ -16,6 +16,9 @@ package com.github.enr.markdownj.extras;
 
 import static org.testng.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
 import java.net.URL;
 
 import org.testng.annotations.BeforeMethod;
@@ -98,6 +101,28 @@ public class MarkdownServiceTest {
         assertEquals(service.process(), "<pre lang=\"java\">package my;</pre>\n");
     }
 
+    @Test
+    public void testProcessToWriter() throws IOException {
+        service.setContent(markdownContent);
+        service.setHeaderUrl(winEncodingHeaderUrl);
+        service.setFooterUrl(footerUrl);
+        StringWriter writer = new StringWriter();
+        service.process(writer);
+        assertEquals(writer.toString(), expected);
+    }
+
+    @Test
+    public void testProcessToOutputStream() throws IOException {
+        service.setContent("I'am an ò");
+        service.setHeader("<p>à</p>\r\n");
+        service.setFooter("£\r");
+        service.setEncoding("UTF-16BE");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.process(out);
+        assertEquals(new String(out.toByteArray(), "UTF-16BE"), "<p>à</p>\n<p>I'am an ò</p>\n£\n");
+        assertEquals(new String(out.toByteArray(), "UTF-16BE"), service.process());
+    }
+
     @Test
     public void testHtmlEntities() {
         service.setContent("I'am an ò & <>");
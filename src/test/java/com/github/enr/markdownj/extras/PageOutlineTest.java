@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+import com.google.common.base.Strings;
+
+/**
+ * Headings, table of contents and terms found in a single scan of the html.
+ */
+public class PageOutlineTest {
+
+    private static final String GUIDE = "<h1>Guide</h1>\n<h2>Install</h2>\n<h3>Linux</h3>\n<h3>Mac &amp; Windows</h3>\n"
+            + "<h2 id=\"use\">Use <code>it</code></h2>\n<h1>Guide</h1>\n";
+
+    @Test
+    public void testHeadingIds() {
+        PageOutline outline = PageOutline.scan(GUIDE, false);
+        assertEquals(outline.getHtml(), "<h1 id=\"guide\">Guide</h1>\n<h2 id=\"install\">Install</h2>\n<h3 id=\"linux\">Linux</h3>\n"
+                + "<h3 id=\"mac-windows\">Mac &amp; Windows</h3>\n<h2 id=\"use\">Use <code>it</code></h2>\n<h1 id=\"guide-1\">Guide</h1>\n");
+        assertEquals(outline.getHeadings().size(), 6);
+        PageOutline.Heading heading = outline.getHeadings().get(3);
+        assertEquals(heading.getLevel(), 3);
+        assertEquals(heading.getHtml(), "Mac &amp; Windows");
+        assertEquals(heading.getText(), "Mac & Windows");
+        assertEquals(outline.getTitle(), "Guide");
+        assertTrue(outline.getTerms().isEmpty());
+    }
+
+    @Test
+    public void testToc() {
+        assertEquals(PageOutline.scan(GUIDE, false).toc(), "<ul class=\"toc\">\n<li><a href=\"#guide\">Guide</a>\n<ul>\n"
+                + "<li><a href=\"#install\">Install</a>\n<ul>\n<li><a href=\"#linux\">Linux</a></li>\n"
+                + "<li><a href=\"#mac-windows\">Mac &amp; Windows</a></li>\n</ul>\n</li>\n<li><a href=\"#use\">Use it</a></li>\n</ul>\n</li>\n"
+                + "<li><a href=\"#guide-1\">Guide</a></li>\n</ul>\n");
+        // a document starting with a lower heading
+        assertEquals(PageOutline.scan("<h3>deep</h3><h1>top</h1><h2>x</h2>", false).toc(), "<ul class=\"toc\">\n<li><a href=\"#deep\">deep</a></li>\n"
+                + "<li><a href=\"#top\">top</a>\n<ul>\n<li><a href=\"#x\">x</a></li>\n</ul>\n</li>\n</ul>\n");
+        assertEquals(PageOutline.scan("<p>no headings</p>", false).toc(), "");
+    }
+
+    @Test
+    public void testTerms() {
+        String html = "<h2>The quick</h2>\n<p><b>Fox</b> and the a fox&#39;s <a href=\"#hidden\">l&eacute;ap</a></p>\n"
+                + "<script type=\"text/javascript\">var hidden;</script><!-- comment --><STYLE>p { x: 0 }</style>ÉtÉ\n";
+        PageOutline outline = PageOutline.scan(html, true);
+        // the(0) quick(1) fox(2) and(3) the(4) a(5) fox(6) s(7) l(8) ap(9) été(10)
+        assertEquals(outline.getTerms().keySet().toString(), "[the, quick, fox, and, ap, été]");
+        assertEquals(Arrays.toString(outline.getTerms().get("the")), "[0, 4]");
+        assertEquals(Arrays.toString(outline.getTerms().get("fox")), "[2, 6]");
+        assertEquals(outline.getPositions(), 11);
+        assertEquals(outline.getHeadings().get(0).getPosition(), 0);
+        assertNull(outline.getTitle());
+        assertEquals(outline.getHtml(), html.replace("<h2>", "<h2 id=\"the-quick\">"));
+    }
+
+    @Test
+    public void testLongTermsAreCut() {
+        PageOutline outline = PageOutline.scan("<p>" + Strings.repeat("ab", 40) + "</p>", true);
+        assertEquals(outline.getTerms().keySet().iterator().next(), Strings.repeat("ab", 16));
+    }
+
+    @Test
+    public void testSlug() {
+        assertEquals(PageOutline.slug("Getting  started - now!"), "getting-started-now");
+        assertEquals(PageOutline.slug("snake_case and CamelCase"), "snake-case-and-camelcase");
+        assertEquals(PageOutline.slug("?!"), "section");
+    }
+}
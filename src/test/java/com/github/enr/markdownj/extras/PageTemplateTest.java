@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class PageTemplateTest {
+
+    private static final Charset ISO_8859_15 = Charset.forName("ISO-8859-15");
+
+    private final String text = "<title>${title}</title><a href=\"${root}/index.html\">€</a>${content}<p>${path} ${unknown} ${content</p>";
+
+    @Test
+    public void testPlaceholders() throws IOException {
+        PageTemplate template = PageTemplate.compile(text, ISO_8859_15);
+        String html = "<h1 id=\"t\">A <em>title</em></h1>\n<p>€</p>\n";
+        String expected = "<title>A title</title><a href=\"../../index.html\">€</a>" + html + "<p>sub/dir/page.md ${unknown} ${content</p>";
+        assertEquals(template.render(html, "sub/dir/page.md"), expected);
+        StringWriter writer = new StringWriter();
+        template.write(writer, html, "sub/dir/page.md");
+        assertEquals(writer.toString(), expected);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        template.write(out, html, "sub/dir/page.md");
+        assertEquals(new String(out.toByteArray(), ISO_8859_15), expected);
+        out.reset();
+        template.withCharset(Charset.forName("UTF-16")).write(out, html, "sub/dir/page.md");
+        assertEquals(new String(out.toByteArray(), "UTF-16"), expected);
+    }
+
+    @Test
+    public void testTitleAndRoot() {
+        assertEquals(PageTemplate.title("<p>no header</p>", "sub/file.markdown"), "file");
+        assertEquals(PageTemplate.title("<p>no header</p>", null), "");
+        assertEquals(PageTemplate.title("<h2>second</h2><h1>first</h1>", "index.md"), "first");
+        assertEquals(PageTemplate.title("<p>no header</p>", "sub/<b>&\"it's\".md"), "&lt;b&gt;&amp;&quot;it&#39;s&quot;");
+        assertEquals(PageTemplate.root(null), ".");
+        assertEquals(PageTemplate.root("index.md"), ".");
+        assertEquals(PageTemplate.root("a/b/index.md"), "../..");
+    }
+
+    @Test
+    public void testWrapKeepsPlaceholdersAsText() {
+        PageTemplate template = PageTemplate.wrap("<h>${title}", "${path}</h>", ISO_8859_15);
+        assertEquals(template.render("<p>x</p>", "a.md"), "<h>${title}<p>x</p>${path}</h>");
+    }
+
+    @Test
+    public void testServiceTemplate() {
+        MarkdownServiceImpl service = new MarkdownServiceImpl();
+        service.setHeader("<html>\n");
+        assertEquals(service.render("# Title\n", "sub/page.md"), "<html>\n<h1>Title</h1>\n");
+        service.setTemplate("<title>${title}</title>\r\n${content}<a href=\"${root}/\">${path}</a>\n");
+        assertEquals(service.render("# Title\n", "sub/page.md"), "<title>Title</title>\n<h1>Title</h1>\n<a href=\"../\">sub/page.md</a>\n");
+        assertEquals(service.render("text\n"), "<title></title>\n<p>text</p>\n<a href=\"./\"></a>\n");
+        assertEquals(service.render("text\n", "a&b/<i>.md"), "<title>&lt;i&gt;</title>\n<p>text</p>\n<a href=\"../\">a&amp;b/&lt;i&gt;.md</a>\n");
+        service.setTemplate(null);
+        assertEquals(service.render("# Title\n", "sub/page.md"), "<html>\n<h1>Title</h1>\n");
+    }
+
+    @Test
+    public void testToc() {
+        PageTemplate template = PageTemplate.compile("<nav>${toc}</nav>\n${content}", ISO_8859_15);
+        assertEquals(template.render("<h1>A</h1>\n<h2>B</h2>\n", "a.md"), "<nav><ul class=\"toc\">\n<li><a href=\"#a\">A</a>\n<ul>\n"
+                + "<li><a href=\"#b\">B</a></li>\n</ul>\n</li>\n</ul>\n</nav>\n<h1 id=\"a\">A</h1>\n<h2 id=\"b\">B</h2>\n");
+        assertEquals(template.render("<p>x</p>\n", "a.md"), "<nav></nav>\n<p>x</p>\n");
+    }
+
+    @Test
+    public void testServiceSearchIndex() {
+        MarkdownServiceImpl service = new MarkdownServiceImpl();
+        SearchIndex index = new SearchIndex();
+        service.setSearchIndex(index);
+        // indexed pages get ids, to link the headings from search results
+        assertEquals(service.render("# Title\n", "page.md"), "<h1 id=\"title\">Title</h1>\n");
+        assertEquals(service.render("# Title\n"), "<h1>Title</h1>\n");
+        assertEquals(index.size(), 1);
+        CachingMarkdownService caching = new CachingMarkdownService(new MarkdownServiceImpl(), 1 << 20);
+        caching.setSearchIndex(index);
+        caching.render("# Title\n", "other.md");
+        caching.render("# Title\n", "other.md");
+        assertEquals(index.size(), 3);
+    }
+}
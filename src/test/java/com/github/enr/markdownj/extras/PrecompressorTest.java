@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.EnumSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+/**
+ *
+ */
+public class PrecompressorTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    File directory;
+
+    Precompressor precompressor = new Precompressor(EnumSet.allOf(Precompressor.Format.class), 9, 64);
+
+    @BeforeMethod
+    public void initData() {
+        directory = Files.createTempDir();
+    }
+
+    @AfterMethod
+    public void deleteData() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testSiblingsOfStreamedAndWrittenPages() throws IOException {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            html.append("<p>paragraph ").append(i).append(" &euro; €</p>\n");
+        }
+        File streamed = new File(directory, "streamed.html");
+        OutputStream out = precompressor.open(streamed, FileUtils.newOutputStream(streamed.getPath()));
+        try {
+            byte[] bytes = html.toString().getBytes(UTF_8);
+            // small writes, as from a writer, cross the minimum size in the middle of a write
+            for (int offset = 0; offset < bytes.length; offset += 50) {
+                out.write(bytes, offset, Math.min(50, bytes.length - offset));
+            }
+        } finally {
+            out.close();
+        }
+        File written = new File(directory, "written.html");
+        FileUtils.writeFile(written.getPath(), html.toString(), "UTF-8");
+        precompressor.compress(written, html.toString(), UTF_8);
+        for (File page : new File[] { streamed, written }) {
+            assertEquals(Files.toString(page, UTF_8), html.toString());
+            assertEquals(inflate(new GZIPInputStream(new FileInputStream(new File(page.getPath() + ".gz")))), html.toString());
+            assertEquals(inflate(new InflaterInputStream(new FileInputStream(new File(page.getPath() + ".zz")))), html.toString());
+            assertTrue(new File(page.getPath() + ".gz").length() < page.length() / 4);
+        }
+        assertTrue(java.util.Arrays.equals(Files.toByteArray(new File(directory, "streamed.html.gz")),
+                Files.toByteArray(new File(directory, "written.html.gz"))), "gzip not reproducible");
+    }
+
+    @Test
+    public void testSmallPagesAreNotCompressed() throws IOException {
+        File page = new File(directory, "small.html");
+        FileUtils.writeFile(page.getPath(), "<p>small</p>", "UTF-8");
+        Files.write("stale".getBytes(UTF_8), new File(page.getPath() + ".gz"));
+        precompressor.compress(page);
+        assertFalse(new File(page.getPath() + ".gz").exists());
+        assertFalse(new File(page.getPath() + ".zz").exists());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidLevel() {
+        new Precompressor(EnumSet.of(Precompressor.Format.GZIP), 10, 0);
+    }
+
+    private String inflate(InputStream in) throws IOException {
+        try {
+            return new String(ByteStreams.toByteArray(in), UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
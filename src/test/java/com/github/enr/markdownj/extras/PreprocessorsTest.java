@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.testng.annotations.Test;
+
+import com.petebevin.markdown.TextEditor;
+
+/**
+ *
+ */
+public class PreprocessorsTest {
+
+    private static final Pattern BLANK_LINE = Pattern.compile("^[ \\t]+$", Pattern.MULTILINE);
+
+    @Test
+    public void testScannersMatchRegularExpressions() {
+        Random random = new Random(42);
+        String alphabet = "ab \t\r\n\\/ ";
+        for (int n = 0; n < 2000; n++) {
+            StringBuilder text = new StringBuilder();
+            for (int i = random.nextInt(40); i > 0; i--) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String s = text.toString();
+            assertEquals(Preprocessors.apply(Preprocessors.NORMALIZE_EOL, s), s.replaceAll("\\r\\n", "\n").replaceAll("\\r", "\n"), s);
+            assertEquals(Preprocessors.apply(Preprocessors.CLEAR_BLANK_LINES, s), BLANK_LINE.matcher(s).replaceAll(""), s);
+            assertEquals(Preprocessors.apply(Preprocessors.expandTabs(4), s), new TextEditor(s).detabify().toString(), s);
+            assertEquals(Preprocessors.apply(Preprocessors.replace('\\', '/'), s), s.replaceAll("\\\\", "/"), s);
+        }
+    }
+
+    @Test
+    public void testUnchangedTextIsNotCopied() {
+        String text = "# Title\n\n    code\n";
+        Preprocessor all = Preprocessors.chain(Preprocessors.STRIP_BOM, Preprocessors.NORMALIZE_EOL, Preprocessors.CLEAR_BLANK_LINES,
+                Preprocessors.expandTabs(4), Preprocessors.replace('\\', '/'), Preprocessors.replacePrefix("/src/", "/dst/"));
+        assertSame(all.apply(text), text);
+        assertEquals(Preprocessors.apply(all, "\uFEFF/src/a\tb\r\n  \r\n"), "/dst/a  b\n\n");
+    }
+
+    @Test
+    public void testPrefixIsLiteral() {
+        Preprocessor mapping = Preprocessors.replacePrefix("/site (1)+$/", "/out/");
+        assertEquals(Preprocessors.apply(mapping, "/site (1)+$/a.md"), "/out/a.md");
+        assertEquals(Preprocessors.apply(mapping, "/x/site (1)+$/a.md"), "/x/site (1)+$/a.md");
+    }
+
+    @Test
+    public void testServicePreprocessor() {
+        MarkdownServiceImpl service = new MarkdownServiceImpl();
+        service.setPreprocessor(Preprocessors.replacePrefix("%TITLE%", "# Title"));
+        assertEquals(service.render("%TITLE%\n\ntext"), "<h1>Title</h1>\n\n<p>text</p>\n");
+    }
+
+    @Test
+    public void testStagesByName() {
+        assertSame(Preprocessors.forName(" BOM "), Preprocessors.STRIP_BOM);
+        assertSame(Preprocessors.forName("eol"), Preprocessors.NORMALIZE_EOL);
+        assertSame(Preprocessors.forName("blank-lines"), Preprocessors.CLEAR_BLANK_LINES);
+        assertEquals(Preprocessors.apply(Preprocessors.forName("tabs:8"), "\tcode"), "        code");
+        for (String name : new String[] { "tabs", "tabs:0", "tabs:x", "none" }) {
+            try {
+                Preprocessors.forName(name);
+                fail("stage found for '" + name + "'");
+            } catch (IllegalArgumentException e) {
+                // expected, NumberFormatException included
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.google.common.io.Files;
+
+/**
+ *
+ */
+public class RenderPipelineTest {
+
+    private final MarkdownServiceImpl service = new MarkdownServiceImpl();
+
+    @Test
+    public void testRenderIsEqualToService() {
+        Map<String, String> documents = new LinkedHashMap<String, String>();
+        for (int i = 0; i < 200; i++) {
+            documents.put("doc" + i, "# Title " + i + "\n\nA *paragraph* with [a link](http://example.tld/" + i + ").\n");
+        }
+        RenderPipeline pipeline = new RenderPipeline(service);
+        pipeline.setReaders(2);
+        pipeline.setRenderers(3);
+        pipeline.setWriters(2);
+        pipeline.setQueueSize(1);
+        Map<String, String> results = pipeline.render(documents);
+        assertEquals(results.size(), documents.size());
+        for (Map.Entry<String, String> document : documents.entrySet()) {
+            assertEquals(results.get(document.getKey()), service.render(document.getValue()), document.getKey());
+        }
+    }
+
+    @Test
+    public void testDocumentsInMemoryAreBounded() {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger written = new AtomicInteger();
+        List<RenderPipeline.Job> jobs = new ArrayList<RenderPipeline.Job>();
+        for (int i = 0; i < 100; i++) {
+            jobs.add(new RenderPipeline.Job("doc" + i) {
+                @Override
+                protected CharSequence read() {
+                    int current = inFlight.incrementAndGet();
+                    synchronized (maxInFlight) {
+                        maxInFlight.set(Math.max(maxInFlight.get(), current));
+                    }
+                    return "text";
+                }
+
+                @Override
+                protected void write(String html) throws IOException {
+                    try {
+                        // a slow disk
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    written.incrementAndGet();
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+        RenderPipeline pipeline = new RenderPipeline(service);
+        pipeline.setReaders(2);
+        pipeline.setRenderers(2);
+        pipeline.setWriters(1);
+        pipeline.setQueueSize(3);
+        assertTrue(pipeline.process(jobs).isEmpty());
+        assertEquals(written.get(), 100);
+        // both queues full, plus a document held by each thread
+        assertTrue(maxInFlight.get() <= (2 * 3) + 2 + 2 + 1, "documents in memory: " + maxInFlight.get());
+    }
+
+    @Test
+    public void testFailuresAreCollected() {
+        List<RenderPipeline.Job> jobs = new ArrayList<RenderPipeline.Job>();
+        final List<String> written = new ArrayList<String>();
+        for (final String stage : new String[] { "read", "render", "write", "none" }) {
+            jobs.add(new RenderPipeline.Job(stage) {
+                @Override
+                protected CharSequence read() throws IOException {
+                    if (stage.equals("read")) {
+                        throw new IOException(stage);
+                    }
+                    return stage;
+                }
+
+                @Override
+                protected String render(MarkdownService markdown, CharSequence text) {
+                    if (stage.equals("render")) {
+                        throw new IllegalStateException(stage);
+                    }
+                    return super.render(markdown, text);
+                }
+
+                @Override
+                protected void write(String html) throws IOException {
+                    if (stage.equals("write")) {
+                        throw new IOException(stage);
+                    }
+                    synchronized (written) {
+                        written.add(html);
+                    }
+                }
+            });
+        }
+        SortedMap<String, Exception> failures = new RenderPipeline(service).process(jobs);
+        assertEquals(failures.keySet().toString(), "[read, render, write]");
+        assertEquals(failures.get("render").getMessage(), "render");
+        assertEquals(written.toString(), "[<p>none</p>\n]");
+    }
+
+    @Test(timeOut = 10000)
+    public void testErrorsAreFailures() {
+        List<RenderPipeline.Job> jobs = new ArrayList<RenderPipeline.Job>();
+        final List<String> written = new ArrayList<String>();
+        for (final String stage : new String[] { "read", "render", "write", "none" }) {
+            jobs.add(new RenderPipeline.Job(stage) {
+                @Override
+                protected CharSequence read() {
+                    if (stage.equals("read")) {
+                        throw new AssertionError(stage);
+                    }
+                    return stage;
+                }
+
+                @Override
+                protected String render(MarkdownService markdown, CharSequence text) {
+                    if (stage.equals("render")) {
+                        // as MarkdownJ on some long documents
+                        throw new StackOverflowError(stage);
+                    }
+                    return super.render(markdown, text);
+                }
+
+                @Override
+                protected void write(String html) {
+                    if (stage.equals("write")) {
+                        throw new AssertionError(stage);
+                    }
+                    synchronized (written) {
+                        written.add(html);
+                    }
+                }
+            });
+        }
+        RenderPipeline pipeline = new RenderPipeline(service);
+        pipeline.setRenderers(1);
+        SortedMap<String, Exception> failures = pipeline.process(jobs);
+        assertEquals(failures.keySet().toString(), "[read, render, write]");
+        assertTrue(failures.get("render").getCause() instanceof StackOverflowError, String.valueOf(failures.get("render")));
+        assertEquals(written.toString(), "[<p>none</p>\n]");
+    }
+
+    @Test
+    public void testFileJobs() throws IOException {
+        File directory = Files.createTempDir();
+        try {
+            File source = new File(directory, "source.md");
+            FileUtils.writeFile(source.getPath(), "# Ünicode\n", "UTF-8");
+            File destination = new File(directory, "html/source.html");
+            List<RenderPipeline.Job> jobs = new ArrayList<RenderPipeline.Job>();
+            jobs.add(RenderPipeline.fileJob(source.getPath(), destination.getPath(), "UTF-8"));
+            jobs.add(RenderPipeline.fileJob(new File(directory, "missing.md").getPath(), destination.getPath() + ".missing", "UTF-8"));
+            SortedMap<String, Exception> failures = new RenderPipeline(service).process(jobs);
+            assertEquals(failures.size(), 1);
+            assertTrue(failures.firstKey().endsWith("missing.md"));
+            assertEquals(FileUtils.readFileFromPath(destination.getPath(), "UTF-8"), "<h1>Ünicode</h1>\n");
+        } finally {
+            new File(directory, "html/source.html").delete();
+            new File(directory, "html").delete();
+            new File(directory, "source.md").delete();
+            directory.delete();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ *
+ */
+public class RenderServerTest {
+
+    private RenderServer server;
+
+    private String sourcePath;
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        MarkdownServiceImpl markdown = new MarkdownServiceImpl();
+        markdown.setHeader("<html>\n");
+        server = new RenderServer(markdown, 0);
+        server.start();
+        sourcePath = new File(this.getClass().getResource("/site/markdown").getFile()).getPath();
+    }
+
+    @AfterClass
+    public void stopServer() {
+        File tokenFile = RenderServer.tokenFile(server.getPort());
+        server.stop();
+        assertFalse(tokenFile.exists());
+    }
+
+    @Test
+    public void testRender() throws IOException {
+        assertEquals(request("POST", "/render", "# Ünicode €\n", "text/markdown; charset=ISO-8859-15"), "<html>\n<h1>Ünicode €</h1>\n");
+        assertEquals(request("GET", "/status", null, null), "ok\n");
+        assertEquals(request("GET", "/render", null, null), "method not allowed\n");
+    }
+
+    @Test
+    public void testClientBuildsInServer() {
+        String destination = "target/markdownj/RenderServerTest/testClientBuildsInServer";
+        String[] args = { "--source", sourcePath, "--destination", destination, "--code-template", "<pre lang=\"%s\">\n%s\n</pre>" };
+        assertEquals(RenderClient.run(args, server.getPort()), 0);
+        assertEquals(FileUtils.readFileFromPath(destination + "/sub/file.html"), "<h1>This is an H1</h1>\n\n<p>file.markdown</p>\n");
+        assertEquals(FileUtils.readFileFromPath(destination + "/code/java.html"), "<p>code:<pre lang=\"java\">\nimport org.markdownj.*;\n</pre></p>\n");
+    }
+
+    @Test
+    public void testClientBuildsInServerThreads() {
+        String destination = "target/markdownj/RenderServerTest/testClientBuildsInServerThreads";
+        for (int i = 0; i < 2; i++) {
+            String[] args = { "--source", sourcePath, "--destination", destination, "--threads", "3" };
+            assertEquals(RenderClient.run(args, server.getPort()), 0);
+        }
+        assertTrue(new File(destination + "/sub/file.html").isFile());
+    }
+
+    @Test
+    public void testTokenFileIsPrivate() throws IOException {
+        File tokenFile = RenderServer.tokenFile(server.getPort());
+        assertEquals(FileUtils.readFileFromPath(tokenFile.getPath()), server.getToken());
+        if (tokenFile.toPath().getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            assertEquals(PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile.toPath())), "rw-------");
+        }
+    }
+
+    @Test
+    public void testRequestsWithoutTokenAreRefused() throws IOException {
+        assertEquals(request("POST", "/shutdown", "", "text/plain", null), "missing or wrong X-Markdownj-Token header\n");
+        assertEquals(request("POST", "/build", "--source\n/\n", "text/plain", "wrong"), "missing or wrong X-Markdownj-Token header\n");
+        assertEquals(request("GET", "/status", null, null), "ok\n");
+    }
+
+    @Test
+    public void testRequestsFromWebPagesAreRefused() throws IOException {
+        String host = "127.0.0.1:" + server.getPort();
+        // the browser doesn't let a page set the Origin header, nor the Host header
+        String response = rawRequest("POST /shutdown", host, "Origin: http://example.tld");
+        assertTrue(response.startsWith("HTTP/1.1 403"), response);
+        assertTrue(response.endsWith("requests from web pages are not allowed\n"), response);
+        // as a page of a rebound domain resolving to the loopback address
+        response = rawRequest("GET /status", "example.tld:" + server.getPort(), null);
+        assertTrue(response.startsWith("HTTP/1.1 403"), response);
+        assertTrue(response.endsWith("host not allowed: example.tld:" + server.getPort() + "\n"), response);
+        response = rawRequest("GET /status", "localhost:" + server.getPort(), null);
+        assertTrue(response.startsWith("HTTP/1.1 200"), response);
+        assertEquals(request("GET", "/status", null, null), "ok\n");
+    }
+
+    @Test
+    public void testWatchIsRefused() throws IOException {
+        String body = "--source\n" + sourcePath + "\n--watch";
+        assertEquals(request("POST", "/build", body, "text/plain"), "the --watch option is not supported by the render server\n");
+    }
+
+    @Test
+    public void testClientReportsFailures() {
+        String destination = "target/markdownj/RenderServerTest/testClientReportsFailures";
+        new File(destination + "/sub/file.html").mkdirs();
+        String[] args = { "--source", sourcePath, "--destination", destination };
+        assertEquals(RenderClient.run(args, server.getPort()), MarkdownApp.EXIT_FAILURE);
+        assertTrue(new File(destination + "/index.html").isFile());
+    }
+
+    @Test
+    public void testClientWithoutServerBuildsLocally() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        String destination = "target/markdownj/RenderServerTest/testClientWithoutServerBuildsLocally";
+        String[] args = { "--source", sourcePath, "--destination", destination };
+        assertEquals(RenderClient.run(args, port), 0);
+        assertTrue(new File(destination + "/sub/file.html").isFile());
+    }
+
+    @Test
+    public void testDecodeArguments() {
+        assertEquals(RenderServer.decodeArguments("").length, 0);
+        assertEquals(RenderServer.decodeArguments("--a\n%0A+b\n"), new String[] { "--a", "\n b", "" });
+    }
+
+    private String rawRequest(String requestLine, String host, String header) throws IOException {
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        try {
+            String request = requestLine + " HTTP/1.1\r\nHost: " + host + "\r\n" + RenderServer.TOKEN_HEADER + ": " + server.getToken() + "\r\n"
+                    + ((header == null) ? "" : header + "\r\n") + "Content-Length: 0\r\nConnection: close\r\n\r\n";
+            socket.getOutputStream().write(request.getBytes(Charset.forName("UTF-8")));
+            return new String(ByteStreams.toByteArray(socket.getInputStream()), Charset.forName("UTF-8"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    private String request(String method, String path, String body, String contentType) throws IOException {
+        return request(method, path, body, contentType, server.getToken());
+    }
+
+    private String request(String method, String path, String body, String contentType, String token) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http", "127.0.0.1", server.getPort(), path).openConnection();
+        try {
+            connection.setRequestMethod(method);
+            if (token != null) {
+                connection.setRequestProperty(RenderServer.TOKEN_HEADER, token);
+            }
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", contentType);
+                OutputStream out = connection.getOutputStream();
+                out.write(body.getBytes(RenderServer.charset(contentType)));
+                out.close();
+            }
+            InputStream in = (connection.getResponseCode() < 400) ? connection.getInputStream() : connection.getErrorStream();
+            try {
+                return new String(ByteStreams.toByteArray(in), Charset.forName("UTF-8"));
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Documents over the size or time budget must not stall the rendering.
+ */
+public class RenderWatchdogTest {
+
+    /**
+     * Documents taking MarkdownJ from a third of a second to seconds, while the linear engine takes milliseconds.
+     */
+    private static final String[] SLOW_CORPUS = { "/slow/unclosed-comments.md", "/slow/unclosed-emphasis.md", "/slow/nested-emphasis.md",
+            "/slow/unclosed-html-blocks.md" };
+
+    private static final long TIMEOUT_MILLIS = 50;
+
+    private Map<String, String> documents;
+
+    @BeforeClass
+    public void initData() {
+        documents = new LinkedHashMap<String, String>();
+        for (String path : SLOW_CORPUS) {
+            documents.put(path, FileUtils.readFileFromUrl(this.getClass().getResource(path), "UTF-8"));
+        }
+    }
+
+    @Test
+    public void testSlowDocumentsAreAbandoned() {
+        MarkdownServiceImpl service = new MarkdownServiceImpl();
+        service.setWatchdog(new RenderWatchdog(0, TIMEOUT_MILLIS, RenderWatchdog.Action.FAIL));
+        for (Map.Entry<String, String> document : documents.entrySet()) {
+            long started = System.nanoTime();
+            try {
+                service.render(document.getValue());
+                fail(document.getKey() + " rendered within " + TIMEOUT_MILLIS + " ms");
+            } catch (RenderWatchdog.BudgetExceededException e) {
+                long millis = (System.nanoTime() - started) / 1000000;
+                // abandoned at the timeout, not when MarkdownJ is done
+                assertTrue(millis < 300, document.getKey() + " abandoned after " + millis + " ms");
+            }
+        }
+    }
+
+    @Test
+    public void testAbandonedRenderingsAreBounded() throws InterruptedException {
+        RenderWatchdog watchdog = new RenderWatchdog(0, TIMEOUT_MILLIS, RenderWatchdog.Action.FAIL, 1);
+        assertEquals(watchdog.getWorkers(), 2);
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < 2; i++) {
+            try {
+                watchdog.render("runaway", runaway(done));
+                fail("runaway rendering completed");
+            } catch (RenderWatchdog.BudgetExceededException e) {
+                assertTrue(e.getMessage().contains("not rendered in"), e.getMessage());
+            }
+        }
+        // both workers still run the abandoned renderings: a document waits for one within its budget
+        long started = System.nanoTime();
+        try {
+            watchdog.render("text", rendering("text", 0));
+            fail("document rendered without a free worker");
+        } catch (RenderWatchdog.BudgetExceededException e) {
+            assertTrue(e.getMessage().contains("no render worker free"), e.getMessage());
+            assertTrue((System.nanoTime() - started) / 1000000 >= TIMEOUT_MILLIS - 10, "not waited for a worker");
+        }
+        // the workers are free again once the abandoned renderings are done
+        done.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try {
+                assertEquals(watchdog.render("text", rendering("text", 0)), "text");
+                break;
+            } catch (RenderWatchdog.BudgetExceededException e) {
+                assertTrue(System.currentTimeMillis() < deadline, e.getMessage());
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @Test
+    public void testAbandonedRenderingDoesNotFailOtherThreads() throws Exception {
+        final RenderWatchdog watchdog = new RenderWatchdog(0, TIMEOUT_MILLIS * 4, RenderWatchdog.Action.FAIL, 3);
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            watchdog.render("runaway", runaway(done));
+            fail("runaway rendering completed");
+        } catch (RenderWatchdog.BudgetExceededException e) {
+            assertTrue(e.getMessage().contains("not rendered in"), e.getMessage());
+        }
+        // the threads of the build go on rendering while the runaway keeps its worker
+        ExecutorService build = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<String>> pages = new ArrayList<Future<String>>();
+            for (int i = 0; i < 60; i++) {
+                final String page = "page " + i;
+                pages.add(build.submit(new Callable<String>() {
+                    public String call() {
+                        return watchdog.render(page, rendering(page, 2));
+                    }
+                }));
+            }
+            for (int i = 0; i < pages.size(); i++) {
+                assertEquals(pages.get(i).get(), "page " + i);
+            }
+        } finally {
+            build.shutdown();
+            done.countDown();
+        }
+    }
+
+    /**
+     * Returns a rendering taking the given time.
+     */
+    private static Callable<String> rendering(final String html, final long millis) {
+        return new Callable<String>() {
+            public String call() throws InterruptedException {
+                Thread.sleep(millis);
+                return html;
+            }
+        };
+    }
+
+    /**
+     * Returns a rendering which, as MarkdownJ in an expression, doesn't stop when cancelled, until the latch is released.
+     */
+    private static Callable<String> runaway(final CountDownLatch done) {
+        return new Callable<String>() {
+            public String call() {
+                while (true) {
+                    try {
+                        done.await();
+                        return "";
+                    } catch (InterruptedException e) {
+                        // not heard
+                    }
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testSlowDocumentsAreEscaped() {
+        MarkdownServiceImpl service = new MarkdownServiceImpl();
+        service.setHeader("<html>\n");
+        service.setWatchdog(new RenderWatchdog(0, TIMEOUT_MILLIS, RenderWatchdog.Action.ESCAPE));
+        String html = service.render(documents.get("/slow/unclosed-comments.md"));
+        assertTrue(html.startsWith("<html>\n<pre>&lt;!-- x\n\n&lt;!-- x\n"), html.substring(0, 40));
+        assertTrue(html.endsWith("</pre>\n"));
+    }
+
+    @Test
+    public void testLinearEngineRendersSlowDocumentsWithinBudget() {
+        MarkdownServiceImpl service = new MarkdownServiceImpl();
+        service.setEngine(MarkdownEngines.LINEAR);
+        // generous, for a cold JVM on a busy machine
+        RenderWatchdog watchdog = new RenderWatchdog(0, 10000, RenderWatchdog.Action.FAIL);
+        service.setWatchdog(watchdog);
+        for (String document : documents.values()) {
+            assertFalse(service.render(document).startsWith("<pre>"));
+            assertFalse(watchdog.isLastEscaped());
+        }
+    }
+
+    @Test
+    public void testMaximumSize() {
+        MarkdownServiceImpl service = new MarkdownServiceImpl();
+        service.setWatchdog(new RenderWatchdog(16, 0, RenderWatchdog.Action.FAIL));
+        assertEquals(service.render("*sixteen chars*\n"), "<p><em>sixteen chars</em></p>\n");
+        try {
+            service.render("*seventeen chars*");
+            fail("document over the maximum size rendered");
+        } catch (RenderWatchdog.BudgetExceededException e) {
+            assertTrue(e.getMessage().contains("17 chars"), e.getMessage());
+        }
+        RenderWatchdog watchdog = new RenderWatchdog(16, 0, RenderWatchdog.Action.ESCAPE);
+        service.setWatchdog(watchdog);
+        assertEquals(service.render("<b>seventeen</b> &\r\n"), "<pre>&lt;b&gt;seventeen&lt;/b&gt; &amp;\n</pre>\n");
+        assertTrue(watchdog.isLastEscaped());
+        service.render("*a*");
+        assertFalse(watchdog.isLastEscaped());
+    }
+
+    @Test
+    public void testInterruptedLinearRenderingStops() {
+        Thread.currentThread().interrupt();
+        try {
+            MarkdownEngines.LINEAR.markdown("# Title\n\ntext\n", null);
+            fail("interrupted rendering completed");
+        } catch (CancellationException e) {
+            // expected
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNegativeTimeout() {
+        new RenderWatchdog(0, -1, RenderWatchdog.Action.FAIL);
+    }
+
+    @Test
+    public void testActionForName() {
+        assertEquals(RenderWatchdog.Action.forName(" Escape"), RenderWatchdog.Action.ESCAPE);
+        assertEquals(RenderWatchdog.Action.forName("fail"), RenderWatchdog.Action.FAIL);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.testng.annotations.Test;
+
+/**
+ * Partial indexes filled by concurrent threads, merged in the same files whatever the threads.
+ */
+public class SearchIndexTest {
+
+    @Test
+    public void testMergedFiles() throws Exception {
+        final SearchIndex index = new SearchIndex();
+        index.add("sub/b.md", PageOutline.scan("<h1>Beta</h1>\n<p>fox fox dog</p>\n<h2>Dog</h2>\n<p>fox fox fox fox dog</p>\n", true));
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                index.add("a.md", PageOutline.scan("<p>fox</p>\n", true));
+            }
+        };
+        other.start();
+        other.join();
+        assertEquals(index.size(), 2);
+        Map<String, String> files = write(index);
+        assertEquals(files.keySet().toString(), "[documents-0.json, index.json, terms-0.json]");
+        assertEquals(files.get("index.json"), "{\"version\": 1, \"documents\": 2, \"documentShards\": 1, \"documentsPerShard\": 1000, "
+                + "\"termShards\": 1, \"maxPositions\": 4}\n");
+        assertEquals(files.get("documents-0.json"), "[\n[\"a.html\",\"a\",[]],\n[\"sub/b.html\",\"Beta\",[0,\"beta\",4,\"dog\"]]\n]\n");
+        // fox: in the first document at 0, in the second 6 times, the first 4 kept
+        assertEquals(files.get("terms-0.json"), "{\n\"beta\":[1,1,0],\n\"dog\":[1,3,3,1,5],\n\"fox\":[0,1,0,1,6,1,1,3,1]\n}\n");
+    }
+
+    @Test
+    public void testShards() throws IOException {
+        StringBuilder html = new StringBuilder("<p>");
+        for (int i = 0; i < SearchIndex.POSTINGS_PER_SHARD + 10; i++) {
+            html.append(" t").append(i);
+        }
+        SearchIndex index = new SearchIndex();
+        index.add("index.md", PageOutline.scan(html.append("</p>").toString(), true));
+        Map<String, String> files = write(index);
+        assertTrue(files.get("index.json").contains("\"termShards\": 2,"), files.get("index.json"));
+        assertTrue(files.get("terms-" + SearchIndex.shard("t0", 2) + ".json").contains("\n\"t0\":[0,1,0]"));
+        // the Java hash of a string, as computed in a browser
+        assertEquals("t0".hashCode(), 't' * 31 + '0');
+    }
+
+    private static Map<String, String> write(SearchIndex index) throws IOException {
+        final Map<String, String> files = new TreeMap<String, String>();
+        index.write(new SearchIndex.Sink() {
+            public void add(String name, String json) {
+                files.put(name, json);
+            }
+        });
+        return files;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.testng.annotations.Test;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+/**
+ *
+ */
+public class SiteArchiveTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testEntries() throws IOException {
+        File jar = new File(Files.createTempDir(), "site.jar");
+        write(jar);
+        ZipFile zip = new ZipFile(jar);
+        try {
+            List<String> names = new ArrayList<String>();
+            for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+                names.add(entries.nextElement().getName());
+            }
+            assertEquals(names.toString(), "[META-INF/, META-INF/MANIFEST.MF, index.html, sub/, sub/dir/, sub/dir/page.html, sub/file.html]");
+            assertEquals(new String(ByteStreams.toByteArray(zip.getInputStream(zip.getEntry("sub/file.html"))), UTF_8), "<p>€</p>");
+        } finally {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void testSamePagesMakeSameBytes() throws IOException {
+        File first = new File(Files.createTempDir(), "site.zip");
+        File second = new File(Files.createTempDir(), "site.zip");
+        write(first);
+        TimeZone zone = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone(zone.getRawOffset() == 0 ? "America/New_York" : "UTC"));
+            write(second);
+        } finally {
+            TimeZone.setDefault(zone);
+        }
+        assertTrue(java.util.Arrays.equals(Files.toByteArray(first), Files.toByteArray(second)));
+        assertEquals(first.getParentFile().list().length, 1, "temporary file left");
+    }
+
+    @Test
+    public void testAbortKeepsPreviousArchive() throws IOException {
+        File zip = new File(Files.createTempDir(), "site.zip");
+        write(zip);
+        long length = zip.length();
+        SiteArchive archive = new SiteArchive(zip, 9);
+        archive.add("other.html", "<p>other</p>", UTF_8);
+        archive.abort();
+        assertEquals(zip.length(), length);
+        assertEquals(zip.getParentFile().list().length, 1, "temporary file left");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidLevel() throws IOException {
+        new SiteArchive(new File(Files.createTempDir(), "site.zip"), 10);
+    }
+
+    private void write(File file) throws IOException {
+        SiteArchive archive = new SiteArchive(file, SiteArchive.DEFAULT_LEVEL);
+        try {
+            archive.add("index.html", "<p>index</p>", UTF_8);
+            archive.add("sub/dir/page.html", "<p>page</p>", UTF_8);
+            assertEquals(archive.add("sub/file.html", "<p>€</p>", UTF_8), 10);
+        } finally {
+            archive.close();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Archives sharing their file system between a build and single entry reads.
+ */
+public class SourceArchiveTest {
+
+    private File zip;
+
+    private String entry;
+
+    @BeforeMethod
+    public void initData() throws IOException {
+        zip = new File(com.google.common.io.Files.createTempDir(), "docs.zip");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+        try {
+            out.putNextEntry(new ZipEntry("site/index.md"));
+            out.write("# Index\n".getBytes("UTF-8"));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        entry = "jar:" + zip.toURI() + "!/site/index.md";
+    }
+
+    @Test
+    public void testReadWhileOpen() throws IOException {
+        SourceArchive archive = SourceArchive.open(zip.getPath());
+        try {
+            assertEquals(SourceArchive.read(entry, "UTF-8"), "# Index\n");
+            // not closed by the read
+            assertTrue(Files.isRegularFile(archive.getRoot().resolve("site/index.md")));
+        } finally {
+            archive.close();
+        }
+        assertEquals(SourceArchive.read(entry, "UTF-8"), "# Index\n");
+    }
+
+    @Test
+    public void testConcurrentReads() throws InterruptedException {
+        final Queue<Exception> failures = new ConcurrentLinkedQueue<Exception>();
+        Thread[] readers = new Thread[8];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < 200; j++) {
+                        try {
+                            SourceArchive.read(entry, "UTF-8");
+                        } catch (Exception e) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+            readers[i].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertTrue(failures.isEmpty(), failures.toString());
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.enr.markdownj.extras;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.io.Files;
+
+/**
+ * Sources walked with include, exclude and ignore file patterns.
+ */
+public class SourceWalkerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final List<String> NONE = Collections.emptyList();
+
+    File directory;
+
+    @BeforeMethod
+    public void initData() {
+        directory = Files.createTempDir();
+        for (String path : new String[] { "index.md", "notes.txt", "drafts/wip.md", "docs/guide.md", "docs/old/legacy.md",
+                "docs/api/ref.md", "node_modules/lib/README.md", ".git/HEAD.md", "build/out.md" }) {
+            write(path, "# " + path);
+        }
+        write(".mdignore", "# generated\n/build\n");
+        write("docs/.mdignore", "old/\n*.draft.md\n");
+        write("docs/api/next.draft.md", "# draft");
+    }
+
+    @AfterMethod
+    public void deleteData() throws IOException {
+        java.nio.file.Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                java.nio.file.Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                java.nio.file.Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void testIgnoreFiles() {
+        SourceWalker walker = new SourceWalker(directory.toPath(), NONE, NONE);
+        assertEquals(walk(walker, directory), Arrays.asList("docs/api/ref.md", "docs/guide.md", "drafts/wip.md", "index.md",
+                "node_modules/lib/README.md", "notes.txt"));
+    }
+
+    @Test
+    public void testIncludesAndExcludes() {
+        SourceWalker walker = new SourceWalker(directory.toPath(), Arrays.asList("*.md"), Arrays.asList("node_modules", "drafts/"));
+        assertEquals(walk(walker, directory), Arrays.asList("docs/api/ref.md", "docs/guide.md", "index.md"));
+        walker = new SourceWalker(directory.toPath(), Arrays.asList("docs/**"), NONE);
+        assertEquals(walk(walker, directory), Arrays.asList("docs/api/ref.md", "docs/guide.md"));
+        // walking a subtree keeps the patterns of the directories above it
+        assertEquals(walk(walker, new File(directory, "docs/old")), NONE);
+        assertEquals(walk(walker, new File(directory, "docs/api")), Arrays.asList("docs/api/ref.md"));
+    }
+
+    @Test
+    public void testAccepts() {
+        SourceWalker walker = new SourceWalker(directory.toPath(), NONE, Arrays.asList("node_modules"));
+        assertTrue(walker.accepts(new File(directory, "docs/guide.md").toPath(), false));
+        assertTrue(walker.accepts(new File(directory, "docs/new.md").toPath(), false));
+        assertFalse(walker.accepts(new File(directory, "docs/old/legacy.md").toPath(), false));
+        assertFalse(walker.accepts(new File(directory, "docs/old").toPath(), true));
+        assertFalse(walker.accepts(new File(directory, "node_modules/lib/README.md").toPath(), false));
+        assertFalse(walker.accepts(new File(directory, "build").toPath(), true));
+        assertTrue(walker.accepts(new File(directory, "sub/build").toPath(), true));
+        assertFalse(walker.accepts(new File(directory, "docs/.mdignore").toPath(), false));
+        assertFalse(walker.accepts(new File(directory.getParentFile(), "other.md").toPath(), false));
+    }
+
+    @Test
+    public void testDeepTree() {
+        StringBuilder path = new StringBuilder();
+        // as deep as the longest path allows
+        for (int i = 0; i < 1500; i++) {
+            path.append("d/");
+        }
+        write(path + "deep.md", "# deep");
+        SourceWalker walker = new SourceWalker(directory.toPath(), Arrays.asList("deep.md"), NONE);
+        assertEquals(walk(walker, directory), Arrays.asList(path + "deep.md"));
+    }
+
+    @Test
+    public void testQueue() throws InterruptedException {
+        SourceWalker walker = new SourceWalker(directory.toPath(), Arrays.asList("*.md"), NONE);
+        final SourceWalker.WalkQueue queue = walker.queue(directory.toPath(), null, 1);
+        final List<String> taken = Collections.synchronizedList(new ArrayList<String>());
+        Thread[] consumers = new Thread[3];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Path file;
+                        while ((file = queue.take()) != null) {
+                            taken.add(directory.toPath().relativize(file).toString().replace(File.separatorChar, '/'));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            consumers[i].start();
+        }
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        Collections.sort(taken);
+        assertEquals(taken, Arrays.asList("docs/api/ref.md", "docs/guide.md", "drafts/wip.md", "index.md", "node_modules/lib/README.md"));
+        queue.close();
+        assertEquals(queue.take(), null);
+    }
+
+    @Test
+    public void testClosedQueue() throws InterruptedException {
+        SourceWalker walker = new SourceWalker(directory.toPath(), NONE, NONE);
+        SourceWalker.WalkQueue queue = walker.queue(directory.toPath(), null, 1);
+        assertTrue(queue.take() != null);
+        queue.close();
+        assertEquals(queue.take(), null);
+    }
+
+    private List<String> walk(SourceWalker walker, File start) {
+        final Path root = directory.toPath();
+        final List<String> visited = new ArrayList<String>();
+        walker.walk(start.toPath(), new SourceWalker.Visitor() {
+            public void visitFile(Path file) {
+                visited.add(root.relativize(file).toString().replace(File.separatorChar, '/'));
+            }
+
+            public void visitFailed(Path file, IOException e) {
+                throw new AssertionError(file + ": " + e);
+            }
+        });
+        Collections.sort(visited);
+        return visited;
+    }
+
+    private void write(String path, String content) {
+        File file = new File(directory, path);
+        file.getParentFile().mkdirs();
+        try {
+            Files.write(content, file, UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}